@@ -0,0 +1,295 @@
+package gce.textanalyzer;
+
+import gce.textanalyzer.controller.BatchAnalyzer;
+import gce.textanalyzer.controller.MappedFileCounter;
+import gce.textanalyzer.controller.WordTokenizer;
+import gce.textanalyzer.model.WordCounter;
+import gce.textanalyzer.store.ResultSnapshot;
+import gce.textanalyzer.store.WordStore;
+import gce.textanalyzer.store.WordStoreException;
+import gce.textanalyzer.store.WordStores;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Headless entry point of the TextAnalyzer application, for running
+ * analyses without a display, for example in scripts and batch jobs.
+ * <p>
+ * Usage: {@code java gce.textanalyzer.TextAnalyzerCli [options] [input...]}
+ * <p>
+ * Each input is a URL, a file, a directory or {@code -} for the standard
+ * input, which is also read when no input is given. URLs are fetched
+ * concurrently. Files are mapped into memory and read as UTF-8 by a
+ * {@link MappedFileCounter}, and directories are walked for the files with
+ * one of the {@code textanalyzer.files.extensions}. Files with an
+ * {@code .htm} or {@code .html} extension are stripped of their HTML tags,
+ * and the words of files with the {@link ResultSnapshot#extension} are
+ * read from the snapshot of an earlier analysis.
+ * The words of all the inputs are counted together, and the
+ * ranked list is written to the standard output. Errors are written to the
+ * standard error.
+ * <p>
+ * Options:
+ * <ul>
+ *     <li>{@code --format tsv|json}: the output format, {@code tsv} by default</li>
+ *     <li>{@code --top N}: only output the N most frequent words</li>
+ *     <li>{@code --store}: also store the word frequencies in the configured word store, as a new document</li>
+ *     <li>{@code --snapshot FILE}: also save the ranked words as a {@link ResultSnapshot}</li>
+ * </ul>
+ * This class does not use JavaFX, so it starts quickly and runs on
+ * machines without it.
+ */
+public class TextAnalyzerCli {
+    /**
+     * All inputs were analyzed and the results written
+     */
+    public static final int EXIT_OK = 0;
+
+    /**
+     * At least one input could not be read; the results of the others were written
+     */
+    public static final int EXIT_INPUT_ERROR = 1;
+
+    /**
+     * The command line is invalid
+     */
+    public static final int EXIT_USAGE_ERROR = 2;
+
+    /**
+     * The results could not be stored in the word store or saved as a snapshot
+     */
+    public static final int EXIT_STORAGE_ERROR = 3;
+
+    private static final String usage = "Usage: TextAnalyzerCli [--format tsv|json] [--top N] [--store] " +
+            "[--snapshot FILE] [input...]\n" +
+            "Each input is a URL, a file, a directory, or - for the standard input (the default).";
+
+    private String format = "tsv";
+    private int top = Integer.MAX_VALUE;
+    private boolean store;
+    private String snapshotFile;
+    private final List<String> urls = new ArrayList<>();
+    private final List<String> files = new ArrayList<>();
+
+    /**
+     * Entry point of the headless {@code TextAnalyzer}.
+     *
+     * @param args The options and inputs
+     */
+    public static void main(String[] args) {
+        System.exit(new TextAnalyzerCli().run(args, System.in, System.out, System.err));
+    }
+
+    /**
+     * Runs an analysis.
+     *
+     * @param args The options and inputs
+     * @param in   The standard input
+     * @param out  Receives the ranked words
+     * @param err  Receives the error messages
+     * @return The exit code
+     */
+    public int run(String[] args, InputStream in, PrintStream out, PrintStream err) {
+        String usageError = parseArguments(args);
+        if (usageError != null) {
+            err.println(usageError);
+            err.println(usage);
+            return EXIT_USAGE_ERROR;
+        }
+
+        int exitCode = EXIT_OK;
+        WordCounter wordCounter = new WordCounter();
+
+        if (!urls.isEmpty()) {
+            try {
+                BatchAnalyzer.BatchResult batchResult = new BatchAnalyzer().analyze(urls, urlResult -> {
+                    if (urlResult.getError() != null) {
+                        err.println(urlResult.getUrl() + ": " + urlResult.getError());
+                    }
+                });
+
+                wordCounter.addAll(batchResult.getWordCounter());
+                if (batchResult.getFailureCount() > 0) {
+                    exitCode = EXIT_INPUT_ERROR;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                err.println("Interrupted.");
+                return EXIT_INPUT_ERROR;
+            }
+        }
+
+        MappedFileCounter mappedFileCounter = new MappedFileCounter(WordTokenizer.MAX_WORD_LENGTH);
+        AtomicBoolean inputError = new AtomicBoolean();
+
+        for (String file : files) {
+            if (file.equals("-")) {
+                try {
+                    countText(in, wordCounter);
+                } catch (IOException e) {
+                    err.println(file + ": " + e);
+                    inputError.set(true);
+                }
+            } else if (file.endsWith(ResultSnapshot.extension)) {
+                try {
+                    wordCounter.addAll(ResultSnapshot.open(Paths.get(file)).toWordCounter());
+                } catch (IOException | RuntimeException e) {
+                    // A damaged snapshot whose checksum still matches may fail while its words are decoded
+                    err.println(file + ": " + e);
+                    inputError.set(true);
+                }
+            } else {
+                wordCounter.addAll(mappedFileCounter.count(Paths.get(file), (path, e) -> {
+                    err.println(path + ": " + e);
+                    inputError.set(true);
+                }));
+            }
+        }
+
+        if (inputError.get()) {
+            exitCode = EXIT_INPUT_ERROR;
+        }
+
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            if (format.equals("json")) {
+                writeJson(wordCounter, writer);
+            } else {
+                writeTsv(wordCounter, writer);
+            }
+            writer.flush();
+        } catch (IOException e) {
+            err.println("Unable to write the results: " + e);
+            return EXIT_INPUT_ERROR;
+        }
+
+        List<String> inputs = new ArrayList<>(urls);
+        inputs.addAll(files);
+
+        if (snapshotFile != null) {
+            try {
+                ResultSnapshot.write(Paths.get(snapshotFile), String.join(" ", inputs), wordCounter);
+            } catch (IOException e) {
+                err.println("Unable to save the snapshot: " + e);
+                return EXIT_STORAGE_ERROR;
+            }
+        }
+
+        if (store) {
+            try (WordStore wordStore = WordStores.open()) {
+                wordStore.addDocument(String.join(" ", inputs), wordCounter);
+            } catch (WordStoreException | IllegalArgumentException e) {
+                err.println("Unable to store the results: " + e);
+                if (e.getCause() != null) {
+                    err.println(e.getCause().getMessage());
+                }
+                return EXIT_STORAGE_ERROR;
+            }
+        }
+
+        return exitCode;
+    }
+
+    private String parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            switch (arg) {
+                case "--format":
+                    if (++i == args.length || !(args[i].equals("tsv") || args[i].equals("json"))) {
+                        return "--format must be followed by tsv or json.";
+                    }
+                    format = args[i];
+                    break;
+                case "--top":
+                    try {
+                        top = Integer.parseInt(args[++i]);
+                    } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                        top = 0;
+                    }
+                    if (top < 1) {
+                        return "--top must be followed by a number of at least 1.";
+                    }
+                    break;
+                case "--store":
+                    store = true;
+                    break;
+                case "--snapshot":
+                    if (++i == args.length) {
+                        return "--snapshot must be followed by a file.";
+                    }
+                    snapshotFile = args[i];
+                    break;
+                default:
+                    if (arg.startsWith("--")) {
+                        return "Unknown option " + arg + ".";
+                    } else if (arg.startsWith("http://") || arg.startsWith("https://")) {
+                        urls.add(arg);
+                    } else {
+                        files.add(arg);
+                    }
+            }
+        }
+
+        if (urls.isEmpty() && files.isEmpty()) {
+            files.add("-");
+        }
+
+        return null;
+    }
+
+    private static void countText(InputStream textContent, WordCounter wordCounter) throws IOException {
+        Reader reader = new InputStreamReader(textContent, StandardCharsets.UTF_8);
+        WordTokenizer wordTokenizer = new WordTokenizer(wordCounter::add, WordTokenizer.MAX_WORD_LENGTH);
+
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            wordTokenizer.feed(buffer, 0, read);
+        }
+
+        wordTokenizer.finish();
+    }
+
+    private void writeTsv(WordCounter wordCounter, Writer writer) throws IOException {
+        int rank = 0;
+        for (int word : wordCounter.top(top)) {
+            writer.write(++rank + "\t" + wordCounter.word(word) + "\t" + wordCounter.count(word) + "\n");
+        }
+    }
+
+    private void writeJson(WordCounter wordCounter, Writer writer) throws IOException {
+        writer.write("{\"uniqueWords\":" + wordCounter.size() + ",\"totalWords\":" + wordCounter.total() +
+                ",\"words\":[");
+
+        int rank = 0;
+        for (int word : wordCounter.top(top)) {
+            writer.write((rank > 0 ? ",\n" : "\n") + "{\"rank\":" + ++rank + ",\"word\":");
+            writeJsonString(wordCounter.word(word), writer);
+            writer.write(",\"frequency\":" + wordCounter.count(word) + "}");
+        }
+
+        writer.write("\n]}\n");
+    }
+
+    private static void writeJsonString(String value, Writer writer) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+}
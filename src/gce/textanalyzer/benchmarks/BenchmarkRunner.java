@@ -0,0 +1,40 @@
+package gce.textanalyzer.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this package, reporting allocation with the GC
+ * profiler and writing the results as JSON to {@code jmh-result.json}.
+ * <p>
+ * The usual JMH options can be given on the command line, for example
+ * {@code -p corpusSize=10KB,1MB} to skip the larger corpora, or a regular
+ * expression to only run some of the benchmarks. The benchmarks that need a
+ * database server are only run when they are named.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-result.json");
+
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            options.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+            options.exclude(DatabaseStorageBenchmark.class.getSimpleName());
+            options.exclude(WordStoreSchemaBenchmark.class.getSimpleName());
+        }
+
+        new Runner(options.build()).run();
+    }
+}
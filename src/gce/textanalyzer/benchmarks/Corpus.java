@@ -0,0 +1,173 @@
+package gce.textanalyzer.benchmarks;
+
+import java.util.Random;
+
+/**
+ * An offline corpus for the benchmarks, generated so that they do not
+ * depend on the network and give the same results on every run.
+ * <p>
+ * The corpus is made of blocks of about one million characters, each
+ * generated from its own seed, so no block repeats another. Words are drawn
+ * with a Zipf-like distribution from a vocabulary of made-up words that
+ * grows with the square root of the corpus size, as Heaps' law describes
+ * for natural text: 50,000 words for a corpus of one block, about 1.6
+ * million for 1 GB. They are mixed with capitals, punctuation and
+ * apostrophes, so that every cleanup rule of the tokenizer is used. The
+ * HTML form of a block wraps its paragraphs in tags and adds entities,
+ * comments and scripts.
+ * <p>
+ * Blocks are generated as they are handed out, so that only one is in
+ * memory at a time, unless a form of the corpus is kept with
+ * {@link #keepText()} or {@link #keepHtml()}, for benchmarks that must not
+ * time its generation.
+ */
+class Corpus {
+    private static final int blockSize = 1 << 20;
+    private static final int baseVocabularySize = 50_000;
+    private static final String[] punctuation = {"", "", "", "", ",", ".", ";", ":", "!", "?", "'", "--"};
+
+    private final long size;
+    private final int blocks;
+    private final int vocabularySize;
+    private char[][] textBlocks;
+    private char[][] htmlBlocks;
+
+    /**
+     * Receives the blocks of the corpus.
+     */
+    interface BlockConsumer {
+        void accept(char[] block, int length);
+    }
+
+    /**
+     * @param size The size of the corpus, such as {@code 10KB}, {@code 1MB} or {@code 1GB}
+     */
+    Corpus(String size) {
+        this.size = parseSize(size);
+
+        blocks = (int) Math.max(1, (this.size + blockSize - 1) / blockSize);
+        vocabularySize = (int) Math.round(baseVocabularySize * Math.sqrt(blocks));
+    }
+
+    /**
+     * Generates the plain text of the corpus once and keeps it in memory,
+     * two bytes per character.
+     */
+    void keepText() {
+        textBlocks = generateAll(false);
+    }
+
+    /**
+     * Generates the HTML of the corpus once and keeps it in memory, two
+     * bytes per character.
+     */
+    void keepHtml() {
+        htmlBlocks = generateAll(true);
+    }
+
+    /**
+     * @return The size of the corpus, in characters
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Hands the plain text of the corpus to {@code consumer}, a block at a time.
+     */
+    void forEachTextBlock(BlockConsumer consumer) {
+        forEachBlock(textBlocks, false, consumer);
+    }
+
+    /**
+     * Hands the HTML of the corpus to {@code consumer}, a block at a time.
+     */
+    void forEachHtmlBlock(BlockConsumer consumer) {
+        forEachBlock(htmlBlocks, true, consumer);
+    }
+
+    private void forEachBlock(char[][] kept, boolean html, BlockConsumer consumer) {
+        long remaining = size;
+        for (int block = 0; remaining > 0; block++) {
+            char[] chars = kept != null ? kept[block] : generate(block, html);
+            int length = (int) Math.min(remaining, chars.length);
+            consumer.accept(chars, length);
+            remaining -= length;
+        }
+    }
+
+    private char[][] generateAll(boolean html) {
+        char[][] all = new char[blocks][];
+        for (int block = 0; block < blocks; block++) {
+            all[block] = generate(block, html);
+        }
+        return all;
+    }
+
+    private char[] generate(int seed, boolean html) {
+        Random random = new Random(seed);
+        StringBuilder block = new StringBuilder(blockSize + 1024);
+
+        if (html) {
+            block.append("<html><head><title>Corpus</title><script>var words = 'not counted';</script></head>\n<body>\n");
+        }
+
+        while (block.length() < blockSize) {
+            if (html) {
+                block.append(random.nextInt(10) == 0 ? "<h2 class=\"act\">" : "<p>");
+            }
+
+            for (int sentence = 1 + random.nextInt(4); sentence > 0; sentence--) {
+                for (int word = 4 + random.nextInt(12); word > 0; word--) {
+                    block.append(word(random));
+                    block.append(punctuation[random.nextInt(punctuation.length)]);
+
+                    if (html && random.nextInt(40) == 0) {
+                        block.append(random.nextBoolean() ? " &amp;" : "<!-- a note -->");
+                    }
+                    block.append(' ');
+                }
+                block.append(random.nextBoolean() ? ". " : "! ");
+            }
+
+            block.append(html ? "</p>\n" : "\n");
+        }
+
+        if (html) {
+            block.append("</body></html>\n");
+        }
+
+        char[] chars = new char[block.length()];
+        block.getChars(0, chars.length, chars, 0);
+        return chars;
+    }
+
+    private String word(Random random) {
+        int rank = (int) Math.pow(vocabularySize, random.nextDouble());
+        String word = Long.toString(rank * 7919L, 36).replace('0', 'e').replace('1', 'a').replace('2', 'o');
+
+        if (random.nextInt(8) == 0) {
+            word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+        }
+        if (random.nextInt(30) == 0) {
+            word = "'" + word;
+        }
+
+        return word;
+    }
+
+    private static long parseSize(String size) {
+        String upper = size.trim().toUpperCase();
+        long unit = 1;
+
+        if (upper.endsWith("KB")) {
+            unit = 1L << 10;
+        } else if (upper.endsWith("MB")) {
+            unit = 1L << 20;
+        } else if (upper.endsWith("GB")) {
+            unit = 1L << 30;
+        }
+
+        return Long.parseLong(unit == 1 ? upper : upper.substring(0, upper.length() - 2)) * unit;
+    }
+}
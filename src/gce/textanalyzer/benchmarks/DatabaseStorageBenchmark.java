@@ -0,0 +1,77 @@
+package gce.textanalyzer.benchmarks;
+
+import gce.textanalyzer.controller.DatabaseController;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks storing the words of a corpus into the {@code word} table,
+ * either counted in memory and written with batched upserts or bulk loaded
+ * with {@code LOAD DATA LOCAL INFILE}, or with the original per-token path,
+ * which queries and updates the table once for every token.
+ * <p>
+ * This benchmark needs a MySQL server, so it is not run by default. Name
+ * it on the command line of {@link BenchmarkRunner} to run it. The
+ * per-token path issues two statements for every token, so the corpora are
+ * kept small; compare the other two on larger corpora with
+ * {@code -p storage=batched,bulkLoad}. Bulk loading also needs
+ * {@code local_infile} to be enabled on the server, and the benchmark fails
+ * when it is not rather than timing batched statements instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DatabaseStorageBenchmark {
+
+    @Param({"10KB", "100KB"})
+    public String corpusSize;
+
+    @Param({"batched", "bulkLoad", "perToken"})
+    public String storage;
+
+    private String text;
+
+    @Setup
+    public void prepare() throws SQLException {
+        StringBuilder builder = new StringBuilder();
+        new Corpus(corpusSize).forEachTextBlock((block, length) -> builder.append(block, 0, length));
+        text = builder.toString();
+
+        // Set before the first connection is opened, since only then is local data allowed on them
+        boolean bulkLoad = storage.equals("bulkLoad");
+        System.setProperty("textanalyzer.db.bulkLoad", String.valueOf(bulkLoad));
+        System.setProperty("textanalyzer.db.bulkLoad.minWords", "1");
+
+        DatabaseController.createSchema();
+    }
+
+    @Setup(Level.Invocation)
+    public void clearWords() throws SQLException {
+        DatabaseController.clearWords();
+    }
+
+    /**
+     * Storing the words of the corpus into an empty table.
+     */
+    @Benchmark
+    public void store() throws SQLException, IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(text));
+        if (storage.equals("perToken")) {
+            DatabaseController.storeWordsPerToken(reader);
+            return;
+        }
+
+        DatabaseController.storeWordsIntoDatabase(reader);
+        if (storage.equals("bulkLoad") && !DatabaseController.isBulkLoadAvailable()) {
+            throw new IllegalStateException("Local data is disabled by the server");
+        }
+    }
+}
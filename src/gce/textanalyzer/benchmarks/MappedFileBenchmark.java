@@ -0,0 +1,101 @@
+package gce.textanalyzer.benchmarks;
+
+import gce.textanalyzer.controller.MappedFileCounter;
+import gce.textanalyzer.controller.WordTokenizer;
+import gce.textanalyzer.model.WordCounter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks counting the words of a local text file read through a
+ * {@link Reader}, as the headless mode used to, against mapping it with
+ * the {@link MappedFileCounter}, on one thread and on all of them. The
+ * corpus is written to a temporary file, which stays in the page cache
+ * between iterations, so the benchmark measures decoding and counting
+ * rather than the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MappedFileBenchmark {
+
+    @Param({"1MB", "100MB"})
+    public String corpusSize;
+
+    private Path file;
+    private MappedFileCounter sequentialCounter;
+    private MappedFileCounter parallelCounter;
+
+    @Setup
+    public void prepare() throws IOException {
+        file = Files.createTempFile("corpus", ".txt");
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            new Corpus(corpusSize).forEachTextBlock((block, length) -> {
+                try {
+                    writer.write(block, 0, length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        sequentialCounter = new MappedFileCounter(ForkJoinPool.commonPool(), false, WordTokenizer.MAX_WORD_LENGTH,
+                1 << 18, 1 << 26, "txt");
+        parallelCounter = new MappedFileCounter(ForkJoinPool.commonPool(), true, WordTokenizer.MAX_WORD_LENGTH,
+                1 << 18, 1 << 26, "txt");
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        Files.delete(file);
+    }
+
+    /**
+     * Decoding the file with an {@link InputStreamReader} and counting its words.
+     */
+    @Benchmark
+    public WordCounter streamed() throws IOException {
+        WordCounter wordCounter = new WordCounter();
+        WordTokenizer wordTokenizer = new WordTokenizer(wordCounter::add, WordTokenizer.MAX_WORD_LENGTH);
+
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                wordTokenizer.feed(buffer, 0, read);
+            }
+        }
+
+        wordTokenizer.finish();
+        return wordCounter;
+    }
+
+    /**
+     * Mapping the file and decoding its bytes straight into the tokenizer, on one thread.
+     */
+    @Benchmark
+    public WordCounter mapped() {
+        return sequentialCounter.count(file, (path, e) -> {
+            throw new UncheckedIOException(e);
+        });
+    }
+
+    /**
+     * Mapping the file and counting pieces of it on all the cores.
+     */
+    @Benchmark
+    public WordCounter mappedParallel() {
+        return parallelCounter.count(file, (path, e) -> {
+            throw new UncheckedIOException(e);
+        });
+    }
+}
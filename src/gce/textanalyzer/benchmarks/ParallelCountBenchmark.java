@@ -0,0 +1,65 @@
+package gce.textanalyzer.benchmarks;
+
+import gce.textanalyzer.controller.ParallelWordCounter;
+import gce.textanalyzer.controller.WordTokenizer;
+import gce.textanalyzer.model.WordCounter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks counting the words of a single large text on a growing number
+ * of threads, to show how the throughput of the {@link ParallelWordCounter}
+ * scales with the number of cores. A parallelism of 1 is the sequential
+ * baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParallelCountBenchmark {
+
+    @Param({"1MB", "100MB"})
+    public String corpusSize;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int parallelism;
+
+    private String text;
+    private ForkJoinPool pool;
+    private ParallelWordCounter parallelWordCounter;
+
+    @Setup
+    public void prepare() {
+        StringBuilder builder = new StringBuilder();
+        new Corpus(corpusSize).forEachTextBlock((block, length) -> builder.append(block, 0, length));
+        text = builder.toString();
+
+        pool = new ForkJoinPool(parallelism);
+        parallelWordCounter = new ParallelWordCounter(pool, WordTokenizer.MAX_WORD_LENGTH, 1 << 18);
+    }
+
+    @TearDown
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Splitting the text into words and counting them.
+     */
+    @Benchmark
+    public WordCounter count() {
+        return parallelism == 1 ? countSequentially() : parallelWordCounter.count(text);
+    }
+
+    private WordCounter countSequentially() {
+        WordCounter wordCounter = new WordCounter();
+        WordTokenizer wordTokenizer = new WordTokenizer(wordCounter::add, WordTokenizer.MAX_WORD_LENGTH);
+        wordTokenizer.feed(text, 0, text.length());
+        wordTokenizer.finish();
+        return wordCounter;
+    }
+}
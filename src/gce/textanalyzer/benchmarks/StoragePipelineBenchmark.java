@@ -0,0 +1,96 @@
+package gce.textanalyzer.benchmarks;
+
+import gce.textanalyzer.controller.WordTokenizer;
+import gce.textanalyzer.model.Word;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+import gce.textanalyzer.store.WordStore;
+import gce.textanalyzer.store.WordStoreException;
+import gce.textanalyzer.store.WordStores;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the stages that follow counting: storing the word frequencies
+ * of a corpus, and reading them back ranked, a page at a time, into the
+ * rows shown by the results table.
+ * <p>
+ * The {@code memory} and {@code file} stores need no database server. The
+ * {@code mysql} store can be added with {@code -p store=mysql} when one is
+ * available.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StoragePipelineBenchmark {
+    private static final int pageSize = 100;
+
+    @Param({"10KB", "1MB", "100MB", "1GB"})
+    public String corpusSize;
+
+    @Param({"memory", "file"})
+    public String store;
+
+    private WordCounter wordCounter;
+    private WordStore wordStore;
+    private Path storeFile;
+
+    @Setup
+    public void openStore() throws IOException, WordStoreException {
+        Corpus corpus = new Corpus(corpusSize);
+        wordCounter = new WordCounter();
+        WordTokenizer wordTokenizer = new WordTokenizer(wordCounter::add, WordTokenizer.MAX_WORD_LENGTH);
+        corpus.forEachTextBlock((block, length) -> wordTokenizer.feed(block, 0, length));
+        wordTokenizer.finish();
+
+        storeFile = Files.createTempDirectory("textanalyzer").resolve("words.db");
+        System.setProperty("textanalyzer.store.file", storeFile.toString());
+        wordStore = WordStores.open(store);
+
+        wordStore.clear();
+        wordStore.merge(wordCounter);
+    }
+
+    @TearDown
+    public void closeStore() throws IOException, WordStoreException {
+        wordStore.close();
+        Files.deleteIfExists(storeFile);
+        Files.deleteIfExists(storeFile.resolveSibling(storeFile.getFileName() + ".log"));
+        Files.delete(storeFile.getParent());
+    }
+
+    /**
+     * Replacing the contents of the store with the counted words.
+     */
+    @Benchmark
+    public void store() throws WordStoreException {
+        wordStore.clear();
+        wordStore.merge(wordCounter);
+    }
+
+    /**
+     * Reading all the ranked words, a page at a time, into table rows.
+     */
+    @Benchmark
+    public void materialize(Blackhole blackhole) throws WordStoreException {
+        WordCount lastWord = null;
+        int rank = 0;
+        List<WordCount> page;
+
+        while (!(page = wordStore.getWordPage(lastWord, rank, pageSize)).isEmpty()) {
+            for (WordCount wordCount : page) {
+                blackhole.consume(new Word(++rank, wordCount.getWordContent(), wordCount.getWordFrequency()));
+            }
+            lastWord = page.get(page.size() - 1);
+        }
+    }
+}
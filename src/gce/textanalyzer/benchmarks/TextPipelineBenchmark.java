@@ -0,0 +1,116 @@
+package gce.textanalyzer.benchmarks;
+
+import gce.textanalyzer.controller.HtmlTextExtractor;
+import gce.textanalyzer.controller.TextAnalyzerController;
+import gce.textanalyzer.controller.WordTokenizer;
+import gce.textanalyzer.model.WordCounter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the stages that turn a document into word frequencies, from
+ * the HTML to the counted words, over corpora of 10 KB to 1 GB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TextPipelineBenchmark {
+
+    @Param({"10KB", "1MB", "100MB", "1GB"})
+    public String corpusSize;
+
+    private Corpus corpus;
+
+    /**
+     * Keeps the form of the corpus the benchmark reads in memory, so that
+     * generating it is not timed.
+     */
+    @Setup
+    public void generateCorpus(BenchmarkParams params) {
+        corpus = new Corpus(corpusSize);
+        if (params.getBenchmark().endsWith("htmlToText") || params.getBenchmark().endsWith("extractText")) {
+            corpus.keepHtml();
+        } else {
+            corpus.keepText();
+        }
+    }
+
+    /**
+     * The original cleanup, applied to each line of the HTML.
+     */
+    @Benchmark
+    public void htmlToText(Blackhole blackhole) {
+        corpus.forEachHtmlBlock((block, length) -> {
+            for (int start = 0, end; start < length; start = end + 1) {
+                end = start;
+                while (end < length && block[end] != '\n') {
+                    end++;
+                }
+                blackhole.consume(TextAnalyzerController.htmlToText(new String(block, start, end - start)));
+            }
+        });
+    }
+
+    /**
+     * The streaming extraction of the text of the HTML, split into words.
+     */
+    @Benchmark
+    public void extractText(Blackhole blackhole) {
+        HtmlTextExtractor htmlTextExtractor = new HtmlTextExtractor(
+                new WordTokenizer((buffer, offset, length) -> blackhole.consume(length), WordTokenizer.MAX_WORD_LENGTH));
+
+        corpus.forEachHtmlBlock((block, length) -> htmlTextExtractor.feed(block, 0, length));
+        htmlTextExtractor.finish();
+    }
+
+    /**
+     * Splitting plain text into words.
+     */
+    @Benchmark
+    public void tokenize(Blackhole blackhole) {
+        WordTokenizer wordTokenizer =
+                new WordTokenizer((buffer, offset, length) -> blackhole.consume(length), WordTokenizer.MAX_WORD_LENGTH);
+
+        corpus.forEachTextBlock((block, length) -> wordTokenizer.feed(block, 0, length));
+        wordTokenizer.finish();
+    }
+
+    /**
+     * Splitting plain text into words and counting them.
+     */
+    @Benchmark
+    public WordCounter count() {
+        WordCounter wordCounter = new WordCounter();
+        WordTokenizer wordTokenizer = new WordTokenizer(wordCounter::add, WordTokenizer.MAX_WORD_LENGTH);
+
+        corpus.forEachTextBlock((block, length) -> wordTokenizer.feed(block, 0, length));
+        wordTokenizer.finish();
+
+        return wordCounter;
+    }
+
+    /**
+     * Splitting plain text into words and counting them in a
+     * {@code HashMap<String, Integer>}, the baseline of {@link #count()}.
+     * Its allocation rate is reported by the GC profiler.
+     */
+    @Benchmark
+    public Map<String, Integer> countWithHashMap() {
+        Map<String, Integer> words = new HashMap<>();
+        WordTokenizer wordTokenizer = new WordTokenizer((buffer, offset, length) ->
+                words.merge(new String(buffer, offset, length), 1, Integer::sum), WordTokenizer.MAX_WORD_LENGTH);
+
+        corpus.forEachTextBlock((block, length) -> wordTokenizer.feed(block, 0, length));
+        wordTokenizer.finish();
+
+        return words;
+    }
+}
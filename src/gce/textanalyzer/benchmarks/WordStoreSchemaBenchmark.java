@@ -0,0 +1,140 @@
+package gce.textanalyzer.benchmarks;
+
+import gce.textanalyzer.controller.DatabaseController;
+import gce.textanalyzer.controller.WordTokenizer;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+import gce.textanalyzer.store.WordStore;
+import gce.textanalyzer.store.WordStoreException;
+import gce.textanalyzer.store.WordStores;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two MySQL schemas: the {@code mysql} store, whose tables are
+ * keyed by the words, and the {@code dictionary} store, whose frequencies
+ * are keyed by the numbers of the words in a dictionary. Each is timed
+ * storing the words of a corpus as a document, and reading the first page
+ * of the ranking, a page halfway through it by offset, and the same page
+ * after the last word of the previous one.
+ * <p>
+ * Once the words are stored, the size of the data and of the indexes of
+ * each table of the schema is printed, as reported by MySQL after the
+ * tables are analyzed.
+ * <p>
+ * This benchmark needs a MySQL server, so it is not run by default. Name
+ * it on the command line of {@link BenchmarkRunner} to run it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WordStoreSchemaBenchmark {
+    private static final int pageSize = 100;
+
+    @Param({"1MB", "16MB"})
+    public String corpusSize;
+
+    @Param({"mysql", "dictionary"})
+    public String store;
+
+    private WordCounter wordCounter;
+    private WordStore wordStore;
+    private int middleRank;
+    private WordCount previousWord;
+
+    @Setup
+    public void openStore() throws WordStoreException, SQLException {
+        Corpus corpus = new Corpus(corpusSize);
+        wordCounter = new WordCounter();
+        WordTokenizer wordTokenizer = new WordTokenizer(wordCounter::add, WordTokenizer.MAX_WORD_LENGTH);
+        corpus.forEachTextBlock((block, length) -> wordTokenizer.feed(block, 0, length));
+        wordTokenizer.finish();
+
+        wordStore = WordStores.open(store);
+        wordStore.clear();
+        wordStore.addDocument("corpus", wordCounter);
+
+        middleRank = wordCounter.size() / 2;
+        previousWord = wordStore.getWordPage(null, middleRank - 1, 1).get(0);
+
+        printTableSizes();
+    }
+
+    @TearDown
+    public void closeStore() throws WordStoreException {
+        wordStore.clear();
+        wordStore.close();
+    }
+
+    /**
+     * Replacing the contents of the store with the corpus, as a document.
+     */
+    @Benchmark
+    public long store() throws WordStoreException {
+        wordStore.clear();
+        return wordStore.addDocument("corpus", wordCounter);
+    }
+
+    /**
+     * Reading the totals and the first page of the ranking.
+     */
+    @Benchmark
+    public ResultSummary firstPage() throws WordStoreException {
+        return wordStore.getResultSummary(pageSize);
+    }
+
+    /**
+     * Reading a page halfway through the ranking by its offset.
+     */
+    @Benchmark
+    public List<WordCount> middlePageByOffset() throws WordStoreException {
+        return wordStore.getWordPage(null, middleRank, pageSize);
+    }
+
+    /**
+     * Reading the same page after the last word of the previous one.
+     */
+    @Benchmark
+    public List<WordCount> middlePageByKeyset() throws WordStoreException {
+        return wordStore.getWordPage(previousWord, middleRank, pageSize);
+    }
+
+    private void printTableSizes() throws SQLException {
+        String tables = store.equals("dictionary")
+                ? "`dictionary`, `dictionary_count`, `dictionary_document`, `dictionary_document_count`"
+                : "`word`, `document`, `document_word`";
+
+        try (Connection dbConnection = DatabaseController.getConnection();
+             Statement statement = dbConnection.createStatement()) {
+            // The sizes reported are only brought up to date by analyzing the tables
+            statement.execute("ANALYZE TABLE " + tables);
+
+            try (ResultSet resultSet = statement.executeQuery("SELECT `table_name`, `data_length`," +
+                    " `index_length` FROM information_schema.tables WHERE `table_schema` = DATABASE()" +
+                    " AND `table_name` IN (" + tables.replace('`', '\'') + ") ORDER BY `table_name`")) {
+                long dataLength = 0;
+                long indexLength = 0;
+
+                System.out.println();
+                while (resultSet.next()) {
+                    System.out.printf("%s: data %,d KB, indexes %,d KB%n", resultSet.getString(1),
+                            resultSet.getLong(2) / 1024, resultSet.getLong(3) / 1024);
+                    dataLength += resultSet.getLong(2);
+                    indexLength += resultSet.getLong(3);
+                }
+                System.out.printf("%s schema, %,d words: data %,d KB, indexes %,d KB%n", store,
+                        wordCounter.size(), dataLength / 1024, indexLength / 1024);
+            }
+        }
+    }
+}
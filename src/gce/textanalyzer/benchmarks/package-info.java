@@ -0,0 +1,5 @@
+/**
+ * This is the benchmarks package of the TextAnalyzer application. The
+ * benchmarks use JMH, and are run with {@link gce.textanalyzer.benchmarks.BenchmarkRunner}.
+ */
+package gce.textanalyzer.benchmarks;
@@ -0,0 +1,646 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.metrics.PipelineMetrics;
+import gce.textanalyzer.model.Document;
+import gce.textanalyzer.model.NGramCounter;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.TopKCounter;
+import gce.textanalyzer.model.Word;
+import gce.textanalyzer.model.WordCounter;
+import gce.textanalyzer.model.WordSketch;
+import gce.textanalyzer.store.DocumentWriter;
+import gce.textanalyzer.store.WordStore;
+import gce.textanalyzer.store.WordStoreException;
+import gce.textanalyzer.store.WordStores;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import org.jsoup.Jsoup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Analyzes one or more URLs in the background: fetches them, counts their
+ * words and stores them in the database.
+ * <p>
+ * While it runs, the task reports the bytes fetched, the words processed and
+ * the unique words stored through its message, and periodically hands the
+ * most frequent words found so far to a consumer on the JavaFX application
+ * thread. These intermediate results are coalesced: if the application
+ * thread has not yet consumed the previous results, they are replaced
+ * rather than queued. The task checks for cancellation between chunks of
+ * work, and a cancelled store is rolled back. The words are stored as a new
+ * document, so the results of previous analyses are kept. A URL that
+ * has not changed since it was last analyzed is not counted again, but
+ * taken from the {@link UrlResultCache}, and not stored again either if
+ * its document is still in the store. URLs are fetched by the shared
+ * {@link HttpFetcher}, which reuses connections between analyses.
+ * <p>
+ * With the {@code pipeline} option, a single URL is counted and stored by
+ * an {@link IngestionPipeline}, which writes the words to the store while
+ * the rest of the page is still being fetched and counted. The depth of
+ * its queues is then shown along with the progress.
+ * <p>
+ * With the {@code ngram} option set above 1, phrases of that many
+ * consecutive words are counted by an {@link NGramCounter} instead of
+ * single words, and shown in their place. They are stored apart from the
+ * single words, in the store returned by {@link WordStores#getPhraseStore(int)},
+ * so the aggregate of the word store is left as it was. Phrases are counted
+ * on a single thread and are not cached, and the {@code pipeline} option
+ * is ignored; the {@code topK} option still counts single words.
+ */
+public class AnalysisTask extends Task<WordCounter> {
+    private static final int progressInterval = 4096;
+    private static final long partialResultsIntervalNanos = 250_000_000L;
+    private static final int chunkSize = 8192;
+    private static final int countersPerTopWord = 4;
+
+    private final List<String> targetUrls;
+    private final int firstPageSize;
+    private final int partialResultsSize;
+    private final Consumer<List<Word>> partialResultsConsumer;
+    private final AtomicReference<List<Word>> pendingResults = new AtomicReference<>();
+    private final NumberFormat countFormat = NumberFormat.getInstance();
+
+    private long bytesFetched;
+    private long tokensProcessed;
+    private long lastPartialResults;
+    private StreamingFetcher streamingFetcher;
+    private IngestionPipeline ingestionPipeline;
+    private BatchAnalyzer.BatchResult batchResult;
+    private ResultSummary resultSummary;
+    private TopKCounter topKCounter;
+    private List<Word> topWords;
+    private WordSketch wordSketch;
+    private boolean sketchMerged;
+    private boolean cacheHit;
+    private WordStore wordStore;
+    private long documentId;
+    private int ngramLength = 1;
+
+    /**
+     * @param targetUrls             The URLs to analyze; several URLs are analyzed
+     *                               concurrently by a {@link BatchAnalyzer}
+     * @param firstPageSize          How many of the most frequent words to read back once stored
+     * @param partialResultsSize     How many of the most frequent words to report while running
+     * @param partialResultsConsumer Receives the most frequent words found so far, on the
+     *                               JavaFX application thread
+     */
+    public AnalysisTask(List<String> targetUrls, int firstPageSize, int partialResultsSize,
+                        Consumer<List<Word>> partialResultsConsumer) {
+        this.targetUrls = targetUrls;
+        this.firstPageSize = firstPageSize;
+        this.partialResultsSize = partialResultsSize;
+        this.partialResultsConsumer = partialResultsConsumer;
+    }
+
+    /**
+     * Counts the words of the URLs and stores them. If the {@code topK}
+     * option is set, only the most frequent words are kept, by a
+     * {@link TopKCounter}: nothing is stored and {@code null} is returned.
+     */
+    @Override
+    protected WordCounter call() throws Exception {
+        PipelineMetrics.analysisStarted();
+        PipelineMetrics.Snapshot metricsBefore = PipelineMetrics.enabled ? PipelineMetrics.get().snapshot() : null;
+
+        try {
+            return analyze();
+        } finally {
+            if (metricsBefore != null && Settings.getBoolean("metrics.log", false)) {
+                System.out.println("Analysis of " + targetUrls + ": "
+                        + PipelineMetrics.get().getSummarySince(metricsBefore));
+            }
+        }
+    }
+
+    private WordCounter analyze() throws Exception {
+        if (Settings.getBoolean("sketch", false)) {
+            wordSketch = new WordSketch(Settings.getInt("sketch.width", 1 << 15),
+                    Settings.getInt("sketch.depth", 4), Settings.getInt("sketch.precision", 14));
+        }
+
+        int topK = Settings.getInt("topK", 0);
+        if (topK > 0) {
+            countTopWords(topK);
+            PipelineMetrics.tokensCounted(topKCounter.total());
+            saveSketch();
+            return null;
+        }
+
+        ngramLength = Math.max(1, Math.min(NGramCounter.MAX_N, Settings.getInt("ngram", 1)));
+        wordStore = ngramLength > 1 ? WordStores.getPhraseStore(ngramLength) : WordStores.getStore();
+        WordCounter wordCounter;
+
+        if (targetUrls.size() > 1) {
+            wordCounter = countBatch();
+        } else if (Settings.getBoolean("pipeline", false) && ngramLength == 1) {
+            wordCounter = pipelineUrl(targetUrls.get(0));
+        } else {
+            wordCounter = countUrl(targetUrls.get(0));
+        }
+
+        PipelineMetrics.tokensCounted(wordCounter.total());
+        reportTokenProgress(wordCounter);
+        publishPartialResults(topWords(wordCounter));
+        saveSketch();
+
+        // Unchanged URLs are already in the store, unless their document was removed since
+        if (documentId == 0 && cacheHit) {
+            documentId = findStoredDocument(wordStore, String.join(" ", targetUrls), wordCounter);
+        }
+
+        // The pipeline stores the words as it counts them
+        if (documentId == 0) {
+            long storeStarted = PipelineMetrics.stageStarted();
+            documentId = wordStore.addDocument(String.join(" ", targetUrls), wordCounter, storedWords -> {
+                checkCancelled();
+                updateMessage("Stored " + countFormat.format(storedWords) + " of "
+                        + countFormat.format(wordCounter.size()) + " unique words.");
+            });
+            PipelineMetrics.stageEnded(PipelineMetrics.Stage.STORE, storeStarted);
+        }
+
+        updateMessage("Reading the results...");
+        long queryStarted = PipelineMetrics.stageStarted();
+        resultSummary = wordStore.getDocumentResultSummary(documentId, firstPageSize);
+        PipelineMetrics.stageEnded(PipelineMetrics.Stage.QUERY, queryStarted);
+        PipelineMetrics.rowsMaterialized(resultSummary.getFirstPage().size());
+
+        return wordCounter;
+    }
+
+    private WordCounter countUrl(String targetUrl) throws IOException {
+        updateMessage("Connecting to " + targetUrl + "...");
+
+        WordCounter wordCounter = new WordCounter();
+        NGramCounter ngramCounter = ngramLength > 1 ? new NGramCounter(ngramLength) : null;
+        WordTokenizer.TokenSink sink = (buffer, offset, length) -> {
+            if (ngramCounter != null) {
+                ngramCounter.add(buffer, offset, length);
+            } else {
+                wordCounter.add(buffer, offset, length);
+            }
+            if (wordSketch != null) {
+                wordSketch.add(buffer, offset, length);
+            }
+
+            if (++tokensProcessed % progressInterval == 0) {
+                if (ngramCounter != null) {
+                    reportTokenProgress(countFormat.format(ngramCounter.size()) + " distinct phrases.");
+                } else {
+                    reportTokenProgress(wordCounter);
+                }
+            }
+        };
+
+        // The cache holds single words
+        boolean stream = Settings.getBoolean("stream", false);
+        String mode = stream ? UrlResultCache.STREAM : UrlResultCache.JSOUP;
+        UrlResultCache cache = ngramCounter == null ? UrlResultCache.getShared() : null;
+        UrlResultCache.Entry cached = cache != null ? cache.get(targetUrl, mode) : null;
+        String eTag = cached != null ? cached.getETag() : null;
+        String lastModified = cached != null ? cached.getLastModified() : null;
+        boolean modified;
+
+        if (stream) {
+            streamingFetcher = new StreamingFetcher();
+            modified = streamingFetcher.fetchWordsIfModified(targetUrl, eTag, lastModified, sink);
+            eTag = streamingFetcher.getETag();
+            lastModified = streamingFetcher.getLastModified();
+        } else {
+            byte[] body = null;
+            String charsetName = null;
+
+            try (HttpFetcher.Response response = HttpFetcher.getShared().fetchIfModified(targetUrl, eTag,
+                    lastModified)) {
+                modified = cached == null || !response.isNotModified();
+                if (modified) {
+                    eTag = response.getHeader("ETag");
+                    lastModified = response.getHeader("Last-Modified");
+                    charsetName = response.getCharsetName();
+
+                    long readStarted = PipelineMetrics.stageStarted();
+                    body = response.readBody();
+                    PipelineMetrics.stageEnded(PipelineMetrics.Stage.FETCH, readStarted);
+                }
+            }
+
+            if (modified) {
+                countResponse(targetUrl, body, charsetName, wordCounter, sink);
+            }
+        }
+
+        if (ngramCounter != null) {
+            ngramCounter.endOfText();
+            updateMessage("Writing out " + countFormat.format(ngramCounter.size()) + " distinct phrases...");
+            return ngramCounter.toWordCounter(WordTokenizer.MAX_WORD_LENGTH);
+        }
+
+        if (cache != null) {
+            cache.recordLookup(!modified);
+            if (!modified) {
+                // The cached counter is shared, so it is only read from here on
+                cacheHit = true;
+                tokensProcessed = cached.getWordCounter().total();
+                if (wordSketch != null) {
+                    wordSketch.addAll(cached.getWordCounter());
+                }
+                return cached.getWordCounter();
+            }
+            cache.put(targetUrl, mode, eTag, lastModified, wordCounter);
+        }
+
+        return wordCounter;
+    }
+
+    /**
+     * Fetches, counts and stores the words of a URL with an
+     * {@link IngestionPipeline}, as a new document. A URL that has not
+     * changed is taken from the cache, and left for the caller to store.
+     */
+    private WordCounter pipelineUrl(String targetUrl) throws IOException, WordStoreException {
+        updateMessage("Connecting to " + targetUrl + "...");
+
+        UrlResultCache cache = UrlResultCache.getShared();
+        UrlResultCache.Entry cached = cache != null ? cache.get(targetUrl, UrlResultCache.STREAM) : null;
+        StreamingFetcher fetcher = new StreamingFetcher();
+
+        long fetchStarted = PipelineMetrics.stageStarted();
+        HttpFetcher.Response response = fetcher.openIfModified(targetUrl, cached != null ? cached.getETag() : null,
+                cached != null ? cached.getLastModified() : null);
+        PipelineMetrics.stageEnded(PipelineMetrics.Stage.FETCH, fetchStarted);
+
+        if (cache != null) {
+            cache.recordLookup(response == null);
+        }
+        if (response == null) {
+            // The cached counter is shared, so it is only read from here on
+            cacheHit = true;
+            tokensProcessed = cached.getWordCounter().total();
+            if (wordSketch != null) {
+                wordSketch.addAll(cached.getWordCounter());
+            }
+            return cached.getWordCounter();
+        }
+
+        IngestionPipeline pipeline = new IngestionPipeline();
+        ingestionPipeline = pipeline;
+        WordCounter wordCounter;
+
+        try (HttpFetcher.Response content = response;
+             DocumentWriter documentWriter = wordStore.openDocument(targetUrl)) {
+            // Called on the thread of the aggregate stage, the only one that changes the counts
+            wordCounter = pipeline.run(content.getBody(), content.getCharset(),
+                    documentWriter, (segment, counted) -> {
+                        if (wordSketch != null) {
+                            wordSketch.addAll(segment);
+                        }
+                        tokensProcessed += segment.total();
+                        bytesFetched = pipeline.getBytesFetched();
+                        reportTokenProgress(counted);
+                    }, this::isCancelled);
+
+            updateMessage("Storing " + countFormat.format(wordCounter.size()) + " unique words...");
+            long storeStarted = PipelineMetrics.stageStarted();
+            documentId = documentWriter.commit();
+            PipelineMetrics.stageEnded(PipelineMetrics.Stage.STORE, storeStarted);
+        }
+
+        if (Settings.getBoolean("metrics.log", false)) {
+            System.out.print("Pipeline stages of " + targetUrl + ":\n" + pipeline.getReport());
+        }
+
+        if (cache != null) {
+            cache.put(targetUrl, UrlResultCache.STREAM, fetcher.getETag(), fetcher.getLastModified(), wordCounter);
+        }
+
+        return wordCounter;
+    }
+
+    /**
+     * Counts the words of the text of a response body, parsed by Jsoup with
+     * the character encoding of the response, or the one the page declares
+     * if the response gives none. Large texts are counted on
+     * several threads by a {@link ParallelWordCounter}, which reports
+     * progress and checks for cancellation between pieces, unless the
+     * {@code parallel} option is turned off or phrases are counted, which
+     * needs the words in order; smaller ones are fed to
+     * {@code sink} in chunks, reporting progress as they go.
+     */
+    private void countResponse(String targetUrl, byte[] body, String charsetName, WordCounter wordCounter,
+                               WordTokenizer.TokenSink sink) throws IOException {
+        bytesFetched = body.length;
+        PipelineMetrics.bytesFetched(bytesFetched);
+
+        long flattenStarted = PipelineMetrics.stageStarted();
+        String targetHtmlContent = Jsoup.parse(new ByteArrayInputStream(body), charsetName, targetUrl).text();
+        PipelineMetrics.stageEnded(PipelineMetrics.Stage.FLATTEN, flattenStarted);
+
+        long tokenizeStarted = PipelineMetrics.stageStarted();
+        ParallelWordCounter parallelWordCounter = new ParallelWordCounter(WordTokenizer.MAX_WORD_LENGTH);
+
+        if (ngramLength == 1 && Settings.getBoolean("parallel", true)
+                && parallelWordCounter.splits(targetHtmlContent.length())) {
+            // Reported from the worker threads, so without the shared number format
+            int length = targetHtmlContent.length();
+            WordCounter counted = parallelWordCounter.count(targetHtmlContent, countedChars ->
+                    updateMessage("Fetched " + bytesFetched / 1024 + " KB, counting its words on several threads: "
+                            + countedChars * 100 / length + "% done."), this::isCancelled);
+            wordCounter.addAll(counted);
+            if (wordSketch != null) {
+                wordSketch.addAll(counted);
+            }
+            tokensProcessed += counted.total();
+        } else {
+            WordTokenizer wordTokenizer = new WordTokenizer(sink, WordTokenizer.MAX_WORD_LENGTH);
+            for (int start = 0; start < targetHtmlContent.length(); start += chunkSize) {
+                wordTokenizer.feed(targetHtmlContent, start, Math.min(targetHtmlContent.length(), start + chunkSize));
+            }
+            wordTokenizer.finish();
+        }
+        PipelineMetrics.stageEnded(PipelineMetrics.Stage.TOKENIZE, tokenizeStarted);
+    }
+
+    /**
+     * Finds the newest document of the store that holds the given counts,
+     * so that words taken from the cache are not added to the aggregate
+     * again.
+     *
+     * @return The number of the document, or zero if there is none
+     */
+    private static long findStoredDocument(WordStore wordStore, String documentSource, WordCounter wordCounter)
+            throws WordStoreException {
+        List<Document> documents = wordStore.getDocuments();
+        for (int index = documents.size() - 1; index >= 0; index--) {
+            Document document = documents.get(index);
+            if (document.getDocumentSource().equals(documentSource)
+                    && document.getUniqueWords() == wordCounter.size()
+                    && document.getTotalWords() == wordCounter.total()) {
+                return document.getDocumentId();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Merges the sketch with the one saved by previous analyses, if the
+     * {@code sketch.file} option is set, and saves the result. The analysis
+     * goes on if the file cannot be read or written.
+     */
+    private void saveSketch() {
+        String sketchFile = Settings.getString("sketch.file", "");
+        if (wordSketch == null || sketchFile.isEmpty()) {
+            return;
+        }
+
+        Path file = Paths.get(sketchFile);
+        try {
+            if (Files.exists(file)) {
+                wordSketch.merge(WordSketch.load(file));
+                sketchMerged = true;
+            }
+            wordSketch.save(file);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Unable to update the word sketch " + file + ": " + e);
+        }
+    }
+
+    private void countTopWords(int topK) throws IOException {
+        topKCounter = new TopKCounter(topK * countersPerTopWord);
+        streamingFetcher = new StreamingFetcher();
+
+        WordTokenizer.TokenSink sink = (buffer, offset, length) -> {
+            topKCounter.add(buffer, offset, length);
+            if (wordSketch != null) {
+                wordSketch.add(buffer, offset, length);
+            }
+
+            if (++tokensProcessed % progressInterval == 0) {
+                reportTokenProgress(topKCounter);
+            }
+        };
+
+        // Each URL is streamed in turn, so that memory stays constant however many there are
+        for (String targetUrl : targetUrls) {
+            updateMessage("Connecting to " + targetUrl + "...");
+            streamingFetcher.fetchWords(targetUrl, sink);
+        }
+
+        topWords = new ArrayList<>(topK);
+        int rank = 0;
+        for (int word : topKCounter.top(topK)) {
+            topWords.add(new Word(++rank, topKCounter.word(word), topKCounter.count(word)));
+        }
+
+        reportTokenProgress(topKCounter);
+        publishPartialResults(topWords);
+    }
+
+    private WordCounter countBatch() throws InterruptedException {
+        updateMessage("Analyzing " + countFormat.format(targetUrls.size()) + " URLs...");
+
+        AtomicInteger analyzedUrls = new AtomicInteger();
+        batchResult = new BatchAnalyzer().analyze(targetUrls, urlResult ->
+                updateMessage("Analyzed " + countFormat.format(analyzedUrls.incrementAndGet()) + " of "
+                        + countFormat.format(targetUrls.size()) + " URLs..."));
+
+        // The failures are shown by the controller; the timings are only logged on request
+        if (Settings.getBoolean("metrics.log", false)) {
+            for (BatchAnalyzer.UrlResult urlResult : batchResult.getUrlResults()) {
+                if (urlResult.getError() != null) {
+                    System.out.println(urlResult.getUrl() + " failed after " + urlResult.getMillis() + " ms: "
+                            + urlResult.getError());
+                } else {
+                    System.out.println(urlResult.getUrl() + ": " + urlResult.getWords() + " words, "
+                            + urlResult.getBytes() + " bytes in " + urlResult.getMillis() + " ms");
+                }
+            }
+        }
+
+        cacheHit = batchResult.isCacheHit();
+        tokensProcessed = batchResult.getWordCounter().total();
+        if (wordSketch != null) {
+            wordSketch.addAll(batchResult.getWordCounter());
+        }
+
+        return batchResult.getWordCounter();
+    }
+
+    /**
+     * @return The outcome of each URL when several URLs were analyzed, or
+     * {@code null} otherwise
+     */
+    public BatchAnalyzer.BatchResult getBatchResult() {
+        return batchResult;
+    }
+
+    /**
+     * @return The store holding the words, which is the phrase store of
+     * their length when phrases are counted, or {@code null} if the task
+     * did not store them
+     */
+    public WordStore getWordStore() {
+        return wordStore;
+    }
+
+    /**
+     * @return The number of the document holding the words in the word
+     * store, or zero if the task did not store them
+     */
+    public long getDocumentId() {
+        return documentId;
+    }
+
+    /**
+     * @return The totals of the document as stored, with the first page of
+     * its ranked words, or {@code null} if the task did not succeed
+     */
+    public ResultSummary getResultSummary() {
+        return resultSummary;
+    }
+
+    /**
+     * @return The counter of the most frequent words if the {@code topK}
+     * option is set, or {@code null} otherwise
+     */
+    public TopKCounter getTopKCounter() {
+        return topKCounter;
+    }
+
+    /**
+     * @return The most frequent words, with their estimated frequencies, if
+     * the {@code topK} option is set, or {@code null} otherwise
+     */
+    public List<Word> getTopWords() {
+        return topWords;
+    }
+
+    /**
+     * @return The approximate statistics of the words if the {@code sketch}
+     * option is set, or {@code null} otherwise
+     */
+    public WordSketch getWordSketch() {
+        return wordSketch;
+    }
+
+    /**
+     * @return Whether the sketch includes the words of previous analyses,
+     * read from the {@code sketch.file}
+     */
+    public boolean isSketchMerged() {
+        return sketchMerged;
+    }
+
+    /**
+     * @return Whether none of the URLs had changed since they were last
+     * analyzed, so their words were taken from the {@link UrlResultCache}
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    /**
+     * @return The pipeline that counted and stored the URL if the
+     * {@code pipeline} option is set, or {@code null} otherwise
+     */
+    public IngestionPipeline getIngestionPipeline() {
+        return ingestionPipeline;
+    }
+
+    /**
+     * @return The fetcher used to stream the URL, or {@code null} if it was
+     * parsed with Jsoup
+     */
+    public StreamingFetcher getStreamingFetcher() {
+        return streamingFetcher;
+    }
+
+    private void reportTokenProgress(WordCounter wordCounter) {
+        reportTokenProgress(countFormat.format(wordCounter.size()) + " of them unique.");
+
+        if (partialResultsDue()) {
+            publishPartialResults(topWords(wordCounter));
+        }
+    }
+
+    private void reportTokenProgress(TopKCounter topKCounter) {
+        reportTokenProgress("keeping the " + countFormat.format(topKCounter.size()) + " most frequent.");
+
+        if (partialResultsDue()) {
+            List<Word> words = new ArrayList<>(partialResultsSize);
+            int rank = 0;
+            for (int word : topKCounter.top(partialResultsSize)) {
+                words.add(new Word(++rank, topKCounter.word(word), topKCounter.count(word)));
+            }
+            publishPartialResults(words);
+        }
+    }
+
+    private void reportTokenProgress(String uniqueWords) {
+        checkCancelled();
+
+        long fetched = streamingFetcher != null ? streamingFetcher.getBytesRead() : bytesFetched;
+        String message = "Fetched " + countFormat.format(fetched / 1024) + " KB, processed "
+                + countFormat.format(tokensProcessed) + " words, " + uniqueWords;
+
+        if (ingestionPipeline != null) {
+            StringBuilder queues = new StringBuilder(" Queued:");
+            // The first stage reads from the network rather than from a queue
+            for (IngestionPipeline.StageStats stage : ingestionPipeline.getStages().subList(1, 4)) {
+                queues.append(' ').append(stage.getQueueDepth()).append(" for ").append(stage.getName()).append(',');
+            }
+            message += queues.substring(0, queues.length() - 1) + ".";
+        }
+
+        updateMessage(message);
+    }
+
+    private boolean partialResultsDue() {
+        long now = System.nanoTime();
+        if (now - lastPartialResults > partialResultsIntervalNanos) {
+            lastPartialResults = now;
+            return true;
+        }
+        return false;
+    }
+
+    private List<Word> topWords(WordCounter wordCounter) {
+        List<Word> words = new ArrayList<>(partialResultsSize);
+        int rank = 0;
+
+        for (int word : wordCounter.top(partialResultsSize)) {
+            words.add(new Word(++rank, wordCounter.word(word), wordCounter.count(word)));
+        }
+
+        return words;
+    }
+
+    private void publishPartialResults(List<Word> words) {
+        // Only schedule an update if the previous one has been consumed
+        if (pendingResults.getAndSet(words) == null) {
+            Platform.runLater(() -> {
+                List<Word> latest = pendingResults.getAndSet(null);
+                if (latest != null && !isCancelled()) {
+                    partialResultsConsumer.accept(latest);
+                }
+            });
+        }
+    }
+
+    private void checkCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+}
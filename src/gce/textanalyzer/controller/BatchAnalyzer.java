@@ -0,0 +1,343 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.model.NGramCounter;
+import gce.textanalyzer.model.WordCounter;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Counts the words of many URLs concurrently and merges them into a single
+ * set of word frequencies.
+ * <p>
+ * Each URL is streamed by its own {@link StreamingFetcher} into its own
+ * {@link WordCounter}, which is merged into the aggregate once the URL is
+ * done. URLs are fetched by a fixed pool of threads, but no more than a
+ * given number at a time from the same host: the URLs of each host are
+ * queued and served by at most that many workers, so a single host cannot
+ * take all the threads. A worker blocks while its URL is fetched, so when
+ * there are more slow hosts than threads, the other hosts wait for a
+ * thread, for as long as the fetch timeouts allow. URLs that have not
+ * changed since they were last analyzed are taken from the
+ * {@link UrlResultCache}. A URL that fails, or times out according to the
+ * {@code textanalyzer.fetch.*} options, is reported in its
+ * {@link UrlResult} and does not stop the batch. If a worker ends
+ * unexpectedly, the URLs still queued for its host are reported as not
+ * analyzed.
+ * <p>
+ * When phrases of several words are counted, each URL is counted by its
+ * own {@link NGramCounter}, so that no phrase spans two URLs, and the
+ * cache, which holds single words, is not used.
+ */
+public class BatchAnalyzer {
+    private final int threads;
+    private final int perHostLimit;
+    private final int ngramLength;
+
+    /**
+     * The outcome of the analysis of a single URL.
+     */
+    public static class UrlResult {
+        private final String url;
+        private final long millis;
+        private final long bytes;
+        private final long words;
+        private final int uniqueWords;
+        private final boolean cacheHit;
+        private final Exception error;
+
+        UrlResult(String url, long millis, long bytes, long words, int uniqueWords, boolean cacheHit,
+                  Exception error) {
+            this.url = url;
+            this.millis = millis;
+            this.bytes = bytes;
+            this.words = words;
+            this.uniqueWords = uniqueWords;
+            this.cacheHit = cacheHit;
+            this.error = error;
+        }
+
+        /**
+         * @return The URL
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return How long it took to fetch and count the URL, in milliseconds
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return The number of bytes fetched
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return The number of words found
+         */
+        public long getWords() {
+            return words;
+        }
+
+        /**
+         * @return The number of unique words found
+         */
+        public int getUniqueWords() {
+            return uniqueWords;
+        }
+
+        /**
+         * @return Whether the URL had not changed, so its words were taken from the {@link UrlResultCache}
+         */
+        public boolean isCacheHit() {
+            return cacheHit;
+        }
+
+        /**
+         * @return The reason the URL could not be analyzed, or {@code null} if it was
+         */
+        public Exception getError() {
+            return error;
+        }
+    }
+
+    /**
+     * The outcome of a batch.
+     */
+    public static class BatchResult {
+        private final WordCounter wordCounter;
+        private final List<UrlResult> urlResults;
+        private final long millis;
+
+        BatchResult(WordCounter wordCounter, List<UrlResult> urlResults, long millis) {
+            this.wordCounter = wordCounter;
+            this.urlResults = urlResults;
+            this.millis = millis;
+        }
+
+        /**
+         * @return The merged word frequencies of all the URLs analyzed
+         */
+        public WordCounter getWordCounter() {
+            return wordCounter;
+        }
+
+        /**
+         * @return The outcome for each URL, in the order they were given
+         */
+        public List<UrlResult> getUrlResults() {
+            return urlResults;
+        }
+
+        /**
+         * @return How long the whole batch took, in milliseconds
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return The number of URLs that could not be analyzed
+         */
+        public int getFailureCount() {
+            int failures = 0;
+            for (UrlResult urlResult : urlResults) {
+                if (urlResult.getError() != null) {
+                    failures++;
+                }
+            }
+            return failures;
+        }
+
+        /**
+         * @return Whether every URL had not changed, so all the words were
+         * taken from the {@link UrlResultCache}
+         */
+        public boolean isCacheHit() {
+            for (UrlResult urlResult : urlResults) {
+                if (!urlResult.isCacheHit()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Creates a batch analyzer configured with the
+     * {@code textanalyzer.batch.threads}, {@code textanalyzer.batch.perHost}
+     * and {@code textanalyzer.ngram} options.
+     */
+    public BatchAnalyzer() {
+        this(Settings.getInt("batch.threads", 16), Settings.getInt("batch.perHost", 4), Settings.getInt("ngram", 1));
+    }
+
+    /**
+     * @param threads      The maximum number of URLs fetched at once
+     * @param perHostLimit The maximum number of URLs fetched at once from the same host
+     */
+    public BatchAnalyzer(int threads, int perHostLimit) {
+        this(threads, perHostLimit, 1);
+    }
+
+    /**
+     * @param threads      The maximum number of URLs fetched at once
+     * @param perHostLimit The maximum number of URLs fetched at once from the same host
+     * @param ngramLength  The number of consecutive words counted as one phrase, from 1 to
+     *                     {@link NGramCounter#MAX_N}
+     */
+    public BatchAnalyzer(int threads, int perHostLimit, int ngramLength) {
+        this.threads = Math.max(1, threads);
+        this.perHostLimit = Math.max(1, perHostLimit);
+        this.ngramLength = Math.max(1, Math.min(NGramCounter.MAX_N, ngramLength));
+    }
+
+    /**
+     * Analyzes the given URLs.
+     *
+     * @param urls     The URLs to analyze
+     * @param progress Receives the outcome of each URL as soon as it is done, on a worker thread
+     * @return The merged word frequencies and the outcome of each URL
+     * @throws InterruptedException If interrupted while waiting; the remaining URLs are abandoned
+     */
+    public BatchResult analyze(List<String> urls, Consumer<UrlResult> progress) throws InterruptedException {
+        long start = System.nanoTime();
+
+        WordCounter aggregate = new WordCounter();
+        UrlResult[] urlResults = new UrlResult[urls.size()];
+
+        // Queue the URLs of each host separately
+        Map<String, Queue<Integer>> urlsByHost = new LinkedHashMap<>();
+        for (int index = 0; index < urls.size(); index++) {
+            urlsByHost.computeIfAbsent(hostOf(urls.get(index)), host -> new ConcurrentLinkedQueue<>()).add(index);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "batch-analyzer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CountDownLatch done = new CountDownLatch(urls.size());
+
+        for (Queue<Integer> hostQueue : urlsByHost.values()) {
+            for (int worker = 0; worker < Math.min(perHostLimit, hostQueue.size()); worker++) {
+                executor.execute(() -> {
+                    try {
+                        Integer index;
+                        while (!Thread.currentThread().isInterrupted() && (index = hostQueue.poll()) != null) {
+                            analyzeInto(urls, index, aggregate, urlResults, progress, done);
+                        }
+                    } finally {
+                        // Whatever ended this worker, the URLs left in its queue are given up so that the batch ends
+                        Integer index;
+                        while ((index = hostQueue.poll()) != null) {
+                            urlResults[index] = new UrlResult(urls.get(index), 0, 0, 0, 0, false,
+                                    new CancellationException("The URL was not analyzed."));
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+        }
+
+        try {
+            done.await();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new BatchResult(aggregate, Collections.unmodifiableList(Arrays.asList(urlResults)),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Analyzes one URL of the batch and records its outcome. The URL is
+     * always counted down, and an unexpected exception is recorded as the
+     * failure of the URL rather than ending the worker. An exception thrown
+     * by the progress consumer is ignored, so the worker goes on with its
+     * other URLs.
+     */
+    private void analyzeInto(List<String> urls, int index, WordCounter aggregate, UrlResult[] urlResults,
+                             Consumer<UrlResult> progress, CountDownLatch done) {
+        long start = System.nanoTime();
+        String url = urls.get(index);
+
+        try {
+            try {
+                urlResults[index] = analyzeUrl(url, aggregate, ngramLength);
+            } catch (RuntimeException e) {
+                urlResults[index] = new UrlResult(url, (System.nanoTime() - start) / 1_000_000, 0, 0, 0, false, e);
+            } catch (Error e) {
+                urlResults[index] = new UrlResult(url, (System.nanoTime() - start) / 1_000_000, 0, 0, 0, false,
+                        new ExecutionException(e));
+                throw e;
+            }
+
+            try {
+                progress.accept(urlResults[index]);
+            } catch (RuntimeException e) {
+                // The URL was analyzed; a failing consumer only misses this report
+            }
+        } finally {
+            done.countDown();
+        }
+    }
+
+    private static UrlResult analyzeUrl(String url, WordCounter aggregate, int ngramLength) {
+        long start = System.nanoTime();
+        StreamingFetcher streamingFetcher = new StreamingFetcher();
+        WordCounter wordCounter = new WordCounter();
+        NGramCounter ngramCounter = ngramLength > 1 ? new NGramCounter(ngramLength) : null;
+        UrlResultCache cache = ngramCounter == null ? UrlResultCache.getShared() : null;
+        UrlResultCache.Entry cached = cache != null ? cache.get(url, UrlResultCache.STREAM) : null;
+
+        try {
+            if (ngramCounter != null) {
+                streamingFetcher.fetchWords(url, ngramCounter::add);
+                ngramCounter.endOfText();
+                wordCounter = ngramCounter.toWordCounter(WordTokenizer.MAX_WORD_LENGTH);
+            } else if (cached == null) {
+                streamingFetcher.fetchWords(url, wordCounter::add);
+            } else if (!streamingFetcher.fetchWordsIfModified(url, cached.getETag(), cached.getLastModified(),
+                    wordCounter::add)) {
+                wordCounter = cached.getWordCounter();
+            }
+        } catch (Exception e) {
+            return new UrlResult(url, (System.nanoTime() - start) / 1_000_000, streamingFetcher.getBytesRead(),
+                    0, 0, false, e);
+        }
+
+        boolean hit = cached != null && wordCounter == cached.getWordCounter();
+        if (cache != null) {
+            cache.recordLookup(hit);
+            if (!hit) {
+                cache.put(url, UrlResultCache.STREAM, streamingFetcher.getETag(), streamingFetcher.getLastModified(),
+                        wordCounter);
+            }
+        }
+
+        synchronized (aggregate) {
+            aggregate.addAll(wordCounter);
+        }
+
+        return new UrlResult(url, (System.nanoTime() - start) / 1_000_000, streamingFetcher.getBytesRead(),
+                wordCounter.total(), wordCounter.size(), hit, null);
+    }
+
+    private static String hostOf(String url) {
+        try {
+            URL parsed = new URL(url);
+            return parsed.getHost().toLowerCase(Locale.ROOT) + ":" + parsed.getPort();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package gce.textanalyzer.controller;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * A small pool of database connections.
+ * <p>
+ * Connections are opened once and handed out by {@link #getConnection()}
+ * for the duration of a single operation. Closing a connection obtained from
+ * the pool returns it to the pool instead of closing it, so callers should
+ * use try-with-resources:
+ * <pre>
+ * try (Connection connection = pool.getConnection()) {
+ *     ...
+ * }
+ * </pre>
+ * At most {@code maxSize} connections are open at once; callers wait for a
+ * connection to be returned when all of them are in use. A connection that
+ * has been idle for a while is validated before it is handed out, and
+ * connections idle for longer than the idle timeout are closed in the
+ * background.
+ * <p>
+ * The statements, result sets and metadata obtained from a pooled
+ * connection lead back to the pooled connection, not to the physical one,
+ * so that the physical connection cannot be closed behind the pool's back.
+ */
+public class ConnectionPool implements DataSource, AutoCloseable {
+    private final String connectionUrl;
+    private final String user;
+    private final String password;
+    private final int minIdle;
+    private final long idleTimeoutMillis;
+    private final long validateAfterMillis;
+    private final int validationTimeoutSeconds;
+    private volatile long waitTimeoutMillis;
+
+    private final Semaphore permits;
+    private final BlockingDeque<IdleConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+
+    private volatile boolean closed;
+
+    private static final Set<Class<?>> wrappedTypes = new HashSet<>(Arrays.asList(
+            Statement.class, PreparedStatement.class, CallableStatement.class, ResultSet.class,
+            DatabaseMetaData.class));
+
+    /**
+     * A physical connection waiting in the pool, and when it was returned.
+     */
+    private static class IdleConnection {
+        final Connection connection;
+        final long idleSince;
+
+        IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Creates the pool and opens its first {@code minIdle} connections.
+     *
+     * @param connectionUrl            The JDBC URL of the database
+     * @param user                     The database user
+     * @param password                 The password of the database user
+     * @param maxSize                  The maximum number of open connections
+     * @param minIdle                  The number of connections to open upfront and keep open
+     * @param idleTimeoutMillis        How long a connection may stay idle before it is closed
+     * @param validateAfterMillis      How long a connection may stay idle before it is validated on use
+     * @param validationTimeoutSeconds How long to wait for a connection to be validated
+     * @param waitTimeoutMillis        How long to wait for a connection when all of them are in use
+     * @throws SQLException If the first connections cannot be opened
+     */
+    public ConnectionPool(String connectionUrl, String user, String password, int maxSize, int minIdle,
+                          long idleTimeoutMillis, long validateAfterMillis, int validationTimeoutSeconds,
+                          long waitTimeoutMillis) throws SQLException {
+        this.connectionUrl = connectionUrl;
+        this.user = user;
+        this.password = password;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+
+        try {
+            for (int i = 0; i < this.minIdle; i++) {
+                idleConnections.add(new IdleConnection(openConnection()));
+            }
+        } catch (SQLException | RuntimeException e) {
+            // Do not leak the connections already opened
+            IdleConnection idleConnection;
+            while ((idleConnection = idleConnections.pollFirst()) != null) {
+                closeQuietly(idleConnection.connection);
+            }
+            throw e;
+        }
+
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionPeriod = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdleConnections, evictionPeriod, evictionPeriod,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes a connection from the pool, opening a new one if none is idle.
+     *
+     * @return A connection that returns to the pool when closed
+     * @throws SQLException If no connection becomes available within the wait timeout,
+     *                      or a new connection cannot be opened
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool is closed.");
+        }
+
+        try {
+            if (!permits.tryAcquire(waitTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting " + waitTimeoutMillis + " ms for a database connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", e);
+        }
+
+        try {
+            return lease(takeConnection());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Not supported; the pool always connects as the user it was created with.
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("The connection pool does not support per-call credentials.");
+    }
+
+    /**
+     * Closes all idle connections. Connections in use are closed when they
+     * are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+
+        IdleConnection idleConnection;
+        while ((idleConnection = idleConnections.pollFirst()) != null) {
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    /**
+     * @return The number of connections currently idle in the pool
+     */
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    private Connection takeConnection() throws SQLException {
+        IdleConnection idleConnection;
+
+        // Most recently returned first, so that rarely used connections age out
+        while ((idleConnection = idleConnections.pollFirst()) != null) {
+            long idleMillis = System.currentTimeMillis() - idleConnection.idleSince;
+
+            if (idleMillis < validateAfterMillis || idleConnection.connection.isValid(validationTimeoutSeconds)) {
+                return idleConnection.connection;
+            }
+
+            closeQuietly(idleConnection.connection);
+        }
+
+        return openConnection();
+    }
+
+    private Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(connectionUrl, user, password);
+    }
+
+    private void giveBack(Connection connection) {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+
+            if (closed) {
+                closeQuietly(connection);
+            } else {
+                idleConnections.addFirst(new IdleConnection(connection));
+            }
+        } catch (SQLException e) {
+            // The connection is broken; drop it
+            closeQuietly(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+
+        // The oldest idle connections are at the end of the deque
+        Iterator<IdleConnection> oldestFirst = idleConnections.descendingIterator();
+        while (oldestFirst.hasNext() && idleConnections.size() > minIdle) {
+            IdleConnection idleConnection = oldestFirst.next();
+
+            if (now - idleConnection.idleSince > idleTimeoutMillis && idleConnections.remove(idleConnection)) {
+                closeQuietly(idleConnection.connection);
+            }
+        }
+    }
+
+    private Connection lease(Connection physical) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new InvocationHandler() {
+                    private boolean returned;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                            case "close":
+                                if (!returned) {
+                                    returned = true;
+                                    giveBack(physical);
+                                }
+                                return null;
+                            case "isClosed":
+                                return returned || physical.isClosed();
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "toString":
+                                return "Pooled " + physical;
+                            default:
+                                if (returned) {
+                                    throw new SQLException("The connection has been returned to the pool.");
+                                }
+                                return wrap(invokeOn(physical, method, args), method.getReturnType(),
+                                        (Connection) proxy, proxy);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Wraps a statement, result set or metadata object obtained from a
+     * pooled connection, so that its {@code getConnection()} returns the
+     * pooled connection, and the {@code getStatement()} of a result set
+     * returns the wrapped statement it came from. Other objects are
+     * returned as they are.
+     */
+    private static Object wrap(Object target, Class<?> type, Connection pooledConnection, Object owner) {
+        if (target == null || !wrappedTypes.contains(type)) {
+            return target;
+        }
+
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getConnection":
+                    if (method.getParameterCount() == 0) {
+                        return pooledConnection;
+                    }
+                    break;
+                case "getStatement":
+                    if (method.getParameterCount() == 0 && owner instanceof Statement) {
+                        return owner;
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + target;
+            }
+
+            return wrap(invokeOn(target, method, args), method.getReturnType(), pooledConnection, proxy);
+        });
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Nothing else can be done with a connection that fails to close
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        DriverManager.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        waitTimeoutMillis = seconds * 1000L;
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return (int) (waitTimeoutMillis / 1000);
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
@@ -1,13 +1,43 @@
 package gce.textanalyzer.controller;
 
+import gce.textanalyzer.metrics.PipelineMetrics;
+import gce.textanalyzer.model.Document;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.*;
 import java.util.*;
+import java.util.function.IntConsumer;
 
 /**
  * Database class
  * <p>
+ * The words of each analysis are kept as a document: a row of the
+ * {@code document} table, and one row per unique word in the
+ * {@code document_word} table. The {@code word} table holds the aggregate
+ * of all the documents. It is updated when a document is added or removed,
+ * by adding or subtracting the frequencies of that document's words only.
+ * <p>
+ * The number of unique words and the total number of words in the
+ * aggregate are kept in the single row of the {@code word_summary} table,
+ * which every change to the {@code word} table updates in the same
+ * transaction, so the totals are read without counting the words.
+ * <p>
+ * With the {@code db.bulkLoad} option, large sets of words are bulk loaded:
+ * they are streamed from memory with {@code LOAD DATA LOCAL INFILE} into a
+ * temporary staging table, then merged into the tables with one statement
+ * each. The option is off by default, since it lets the server ask the
+ * driver for local files. When the server or the driver does not allow
+ * local data to be loaded, the words are written with batched statements
+ * instead.
+ * <p>
+ * The statements that do not depend on how a word is keyed are shared with
+ * the {@link DictionaryDatabaseController}.
+ * <p>
  * Requirements:
  * 1. The MySQL Java Connector is properly included in the project's libraries
  * 2. Will connect to host:localhost at default MySQL port 3306
@@ -16,192 +46,822 @@ import java.util.*;
 public class DatabaseController {
     private static final String databaseName = "word_occurrences";
     private static final String databaseTable = "word";
+    private static final String documentTable = "document";
+    private static final String documentWordTable = "document_word";
+    private static final String summaryTable = "word_summary";
+    private static final String stagingTable = "word_staging";
     private static final String databaseUser = "textanalyzer";
     private static final String databasePass = "textanalyzer";
-    private static Connection dbConnection;
-    private static String sql;
-    private static final String exitMessage = "\n\nProgram cannot continue. Exiting.";
+
+    private static final WordTables wordTables = new WordTables(databaseTable, "wordContent",
+            "VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin", summaryTable, documentTable, documentWordTable) {
+        @Override
+        WordKeys keys(WordCounter wordCounter) {
+            return (preparedStatement, parameter, word) -> preparedStatement.setString(parameter,
+                    wordCounter.word(word));
+        }
+
+        @Override
+        String unionQuery(String documentIdParameters) {
+            return "SELECT `wordContent`, SUM(`wordFrequency`) AS `wordFrequency` FROM " + documentWordTable +
+                    " WHERE `documentId` IN (" + documentIdParameters + ") GROUP BY `wordContent`";
+        }
+    };
+
+    private static boolean driverLoaded;
+    private static volatile boolean bulkLoadAvailable = true;
+    private static volatile ConnectionPool connectionPool;
 
     /**
-     * Creates a database connection.
+     * Opens a new database connection that is not managed by the
+     * connection pool. The caller is responsible for closing it.
      *
-     * @return The database connection
+     * @param databaseName The database to connect to, or an empty string for none
+     * @return The database connection, or null if it could not be opened
      */
     public static Connection dbConnect(String databaseName) {
         try {
-            String mysqlDriver = "com.mysql.cj.jdbc.Driver";
-            Class.forName(mysqlDriver);
-            try {
-                String databaseHost = "localhost";
-                String databasePort = "3306";
-
-                String connectionUrl = "jdbc:mysql://" + databaseHost + ":" + databasePort + "/" + databaseName +
-                        "?useUnicode=true" +
-                        "&useJDBCCompliantTimezoneShift=true" +
-                        "&useLegacyDatetimeCode=false" +
-                        "&serverTimezone=UTC";
-                dbConnection = DriverManager.getConnection(connectionUrl, databaseUser, databasePass);
-            } catch (SQLException e) {
-                System.out.println("Failed to create the database connection.\n");
-                System.out.println("Please ensure that:\n" +
-                        "1. Your MySQL server is running and is accessible through localhost on port 3306.\n" +
-                        "2. Your database has a user 'textanalyzer' with password 'textanalyzer' with all privileges.\n" +
-                        "3. Verify database credentials." +
-                        exitMessage);
-                System.exit(1);
+            return openConnection(databaseName);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    private static Connection openConnection(String databaseName) throws SQLException {
+        loadDriver();
+
+        try {
+            return DriverManager.getConnection(connectionUrl(databaseName), databaseUser, databasePass);
+        } catch (SQLException e) {
+            throw new SQLException("Failed to create the database connection.\n\n" +
+                    "Please ensure that:\n" +
+                    "1. Your MySQL server is running and is accessible through localhost on port 3306.\n" +
+                    "2. Your database has a user 'textanalyzer' with password 'textanalyzer' with all privileges.\n" +
+                    "3. Verify database credentials.", e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    /**
+     * Takes a connection to the {@code word_occurrences} database from the
+     * connection pool, creating the pool on first use. Closing the
+     * connection returns it to the pool.
+     * <p>
+     * The pool is configured with the {@code textanalyzer.db.pool.*} options.
+     *
+     * @return A pooled database connection
+     * @throws SQLException If no connection is available
+     */
+    public static Connection getConnection() throws SQLException {
+        ConnectionPool pool = connectionPool;
+
+        if (pool == null) {
+            synchronized (DatabaseController.class) {
+                pool = connectionPool;
+                if (pool == null) {
+                    loadDriver();
+                    pool = new ConnectionPool(connectionUrl(databaseName), databaseUser, databasePass,
+                            Settings.getInt("db.pool.size", 4),
+                            Settings.getInt("db.pool.minIdle", 1),
+                            Settings.getInt("db.pool.idleTimeout", 300_000),
+                            Settings.getInt("db.pool.validateAfter", 5_000),
+                            Settings.getInt("db.pool.validationTimeout", 2),
+                            Settings.getInt("db.pool.waitTimeout", 30_000));
+                    connectionPool = pool;
+                }
             }
-        } catch (ClassNotFoundException e) {
-            System.out.println("The MySQL Driver 'com.mysql.cj.jdbc.Driver' could not be found.\n\n" +
-                    "Please install the JDBC Driver for MySQL from: https://dev.mysql.com/downloads/connector/j/" +
-                    exitMessage);
-            e.printStackTrace();
-            System.exit(1);
         }
 
-        return dbConnection;
+        long waitStarted = PipelineMetrics.stageStarted();
+        Connection connection = pool.getConnection();
+        PipelineMetrics.connectionAcquired(waitStarted);
+
+        return connection;
     }
 
     /**
-     * Stores words found in the target URL and their frequencies in the database
+     * Stores words found in the target URL and their frequencies in the database.
+     * <p>
+     * The words are first counted in memory, so that each unique word is
+     * written to the database only once, regardless of how many times it
+     * appears in the target URL.
      *
      * @param bufferedHtmlContent The buffered content of the target URL
      */
     public static void storeWordsIntoDatabase(BufferedReader bufferedHtmlContent) throws SQLException, IOException {
-        // Open a connection to the database
-        dbConnection = dbConnect(databaseName);
+        storeWordCounts(countWords(bufferedHtmlContent));
+    }
 
-        PreparedStatement preparedStatement;
+    /**
+     * Counts the words in the buffered content of the target URL.
+     * <p>
+     * The words are numbered in the order in which they first appear, so that
+     * rows are inserted into the database in the same order as they would
+     * be if the content were stored one token at a time.
+     *
+     * <p>
+     * Unless the {@code parallel} option is turned off, content longer than
+     * {@code textanalyzer.parallel.chunkSize} characters is read whole and
+     * counted on several threads by a {@link ParallelWordCounter}, which
+     * finds the same words in the same order. Shorter content is only held
+     * until its end is reached, and counted on this thread.
+     * <p>
+     * Only single words are counted, whatever the {@code ngram} option, since
+     * they are added to the {@code word} table.
+     *
+     * @param bufferedHtmlContent The buffered content of the target URL
+     * @return The unique words and their frequencies
+     */
+    public static WordCounter countWords(BufferedReader bufferedHtmlContent) throws IOException {
+        char[] buffer = new char[8192];
+        int read;
+
+        WordCounter wordCounter = new WordCounter();
+        WordTokenizer wordTokenizer = new WordTokenizer(wordCounter::add, WordTokenizer.MAX_WORD_LENGTH);
+
+        ParallelWordCounter parallelWordCounter = new ParallelWordCounter(WordTokenizer.MAX_WORD_LENGTH);
+        if (Settings.getBoolean("parallel", true) && parallelWordCounter.isParallel()) {
+            // Read until the content is long enough to be worth splitting
+            StringBuilder content = new StringBuilder();
+            while (!parallelWordCounter.splits(content.length()) && (read = bufferedHtmlContent.read(buffer)) != -1) {
+                content.append(buffer, 0, read);
+            }
 
-        // Temporary string to store each line of the buffered urlContent
-        String inputLine;
+            if (parallelWordCounter.splits(content.length())) {
+                while ((read = bufferedHtmlContent.read(buffer)) != -1) {
+                    content.append(buffer, 0, read);
+                }
+                bufferedHtmlContent.close();
 
-        // Add words and their frequency to the database
-        while ((inputLine = bufferedHtmlContent.readLine()) != null) {
-            // convert the html formatted line to plain text
-            String filteredInputLine = TextAnalyzerController.htmlToText(inputLine);
+                return parallelWordCounter.count(content);
+            }
 
-            // extract words from filteredInputLine using StringTokenizer
-            StringTokenizer wordsInLine = new StringTokenizer(filteredInputLine);
+            wordTokenizer.feed(content, 0, content.length());
+        }
 
-            // add words and their frequencies to the database
-            while (wordsInLine.hasMoreTokens()) {
-                String word = wordsInLine.nextToken();
+        while ((read = bufferedHtmlContent.read(buffer)) != -1) {
+            wordTokenizer.feed(buffer, 0, read);
+        }
 
-                // Limit word length to 255 characters
-                if (word.length() > 254) {
-                    word = word.substring(0, 254);
-                }
+        wordTokenizer.finish();
 
-                sql = "SELECT `wordFrequency` FROM " + databaseTable + " WHERE `wordContent`= '" + word.replace("'", "\\'") + "'";
+        bufferedHtmlContent.close();
 
-                Statement statement = dbConnection.createStatement();
-                ResultSet resultSet = statement.executeQuery(sql);
+        return wordCounter;
+    }
 
-                if (resultSet.next()) {
-                    int currentWordFrequency = resultSet.getInt("wordFrequency");
-                    int newWordFrequency = currentWordFrequency + 1;
+    /**
+     * Adds the given word frequencies to the database in a single transaction.
+     * <p>
+     * Words are written using batched {@code INSERT ... ON DUPLICATE KEY UPDATE}
+     * statements. The number of words sent per batch is read from the
+     * {@code textanalyzer.db.batchSize} option.
+     *
+     * @param wordCounter The unique words and their frequencies
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static void storeWordCounts(WordCounter wordCounter) throws SQLException {
+        storeWordCounts(wordCounter, storedWords -> {
+        });
+    }
 
-                    sql = "UPDATE " + databaseTable + " SET `wordFrequency`=? WHERE `wordContent`=?";
+    /**
+     * Adds the given word frequencies to the database in a single transaction,
+     * reporting progress after each batch. The transaction is rolled back if
+     * {@code progress} throws an exception, which can be used to cancel it.
+     * <p>
+     * Each batch is written as one multi-row upsert, and the words it added
+     * to the table are counted from the rows it affected, to keep the
+     * summary up to date.
+     * <p>
+     * With {@code textanalyzer.db.bulkLoad.minWords} or more words, the words
+     * are bulk loaded instead, and progress is reported as they are streamed
+     * to the server.
+     *
+     * @param wordCounter The unique words and their frequencies
+     * @param progress    Receives the number of unique words stored so far
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static void storeWordCounts(WordCounter wordCounter, IntConsumer progress) throws SQLException {
+        if (useBulkLoad(wordCounter)) {
+            try {
+                bulkStoreWordCounts(wordCounter, progress);
+                return;
+            } catch (SQLException e) {
+                if (!isLocalInfileDisabled(e)) {
+                    throw e;
+                }
+            }
+        }
 
-                    preparedStatement = dbConnection.prepareStatement(sql);
-                    preparedStatement.setInt(1, newWordFrequency);
-                    preparedStatement.setString(2, word);
-                } else {
-                    sql = "INSERT INTO " + databaseTable + " (`wordContent`, `wordFrequency`) VALUES (?,?)";
+        wordTables.storeWordCounts(wordCounter, progress);
+    }
 
-                    preparedStatement = dbConnection.prepareStatement(sql);
-                    preparedStatement.setString(1, word);
-                    preparedStatement.setInt(2, 1);
+    /**
+     * Stores the words of a document, and adds them to the aggregate, in a
+     * single transaction, reporting progress after each batch. The
+     * transaction is rolled back if {@code progress} throws an exception,
+     * which can be used to cancel it. The words the document added to the
+     * aggregate are counted from the rows its upserts affected, to keep the
+     * summary up to date. Large documents are bulk loaded, as by
+     * {@link #storeWordCounts(WordCounter, IntConsumer)}.
+     *
+     * @param documentSource Where the words came from, such as the analyzed URLs
+     * @param wordCounter    The unique words of the document and their frequencies
+     * @param progress       Receives the number of unique words stored so far
+     * @return The number of the new document
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static long storeDocument(String documentSource, WordCounter wordCounter, IntConsumer progress)
+            throws SQLException {
+        if (useBulkLoad(wordCounter)) {
+            try {
+                return bulkStoreDocument(documentSource, wordCounter, progress);
+            } catch (SQLException e) {
+                if (!isLocalInfileDisabled(e)) {
+                    throw e;
                 }
+            }
+        }
+
+        return wordTables.storeDocument(documentSource, wordCounter, progress);
+    }
+
+    /**
+     * Starts storing a new document whose words are written a part at a
+     * time, see {@link DocumentTransaction}.
+     *
+     * @param documentSource Where the words came from, such as the analyzed URLs
+     * @return The open transaction, to be closed by the caller
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static DocumentTransaction beginDocument(String documentSource) throws SQLException {
+        return wordTables.beginDocument(documentSource);
+    }
+
+    /**
+     * @return False once the server or the driver refused to load local
+     * data, after which words are only written with batched statements
+     */
+    public static boolean isBulkLoadAvailable() {
+        return bulkLoadAvailable;
+    }
+
+    private static boolean useBulkLoad(WordCounter wordCounter) {
+        return bulkLoadAvailable && isBulkLoadEnabled()
+                && wordCounter.size() >= Settings.getInt("db.bulkLoad.minWords", 10_000);
+    }
+
+    /**
+     * @return Whether the {@code db.bulkLoad} option is on. Local data is
+     * only allowed on the connections when it is.
+     */
+    private static boolean isBulkLoadEnabled() {
+        return Settings.getBoolean("db.bulkLoad", false);
+    }
+
+    /**
+     * Adds the given word frequencies to the {@code word} table by loading
+     * them into the staging table and merging them in a single transaction.
+     */
+    private static void bulkStoreWordCounts(WordCounter wordCounter, IntConsumer progress) throws SQLException {
+        try (Connection dbConnection = getConnection();
+             Statement statement = dbConnection.createStatement()) {
+            dbConnection.setAutoCommit(false);
+
+            try {
+                loadStagingTable(statement, wordCounter, progress);
+                int newWords = mergeStagingTable(statement, wordCounter.size());
+
+                wordTables.addToSummary(dbConnection, newWords, wordCounter.total());
+                dbConnection.commit();
+            } catch (SQLException | RuntimeException e) {
+                dbConnection.rollback();
+                throw e;
+            } finally {
+                dropStagingTable(statement);
+            }
+        }
+    }
 
-                preparedStatement.executeUpdate();
+    /**
+     * Stores a document by loading its words into the staging table, and
+     * copying them into the {@code document_word} and {@code word} tables, in
+     * a single transaction.
+     */
+    private static long bulkStoreDocument(String documentSource, WordCounter wordCounter, IntConsumer progress)
+            throws SQLException {
+        String documentWordSql = "INSERT INTO " + documentWordTable +
+                " (`documentId`, `wordContent`, `wordFrequency`) SELECT ?, `wordContent`, `wordFrequency` FROM " +
+                stagingTable;
+
+        try (Connection dbConnection = getConnection();
+             Statement statement = dbConnection.createStatement()) {
+            dbConnection.setAutoCommit(false);
+
+            try (PreparedStatement documentWordStatement = dbConnection.prepareStatement(documentWordSql)) {
+                loadStagingTable(statement, wordCounter, progress);
+
+                long documentId = wordTables.insertDocument(dbConnection, documentSource, wordCounter.size(),
+                        wordCounter.total());
+
+                documentWordStatement.setLong(1, documentId);
+                documentWordStatement.executeUpdate();
+                PipelineMetrics.statementExecuted();
+
+                int newWords = mergeStagingTable(statement, wordCounter.size());
+
+                wordTables.addToSummary(dbConnection, newWords, wordCounter.total());
+                dbConnection.commit();
+                return documentId;
+            } catch (SQLException | RuntimeException e) {
+                dbConnection.rollback();
+                throw e;
+            } finally {
+                dropStagingTable(statement);
             }
         }
+    }
 
-        bufferedHtmlContent.close();
+    /**
+     * Creates the staging table for this connection, and streams the words
+     * into it, reporting progress every {@code textanalyzer.db.batchSize}
+     * words. The table is temporary, so it is only visible to this
+     * connection, and creating it does not commit the transaction. Its words
+     * are compared byte for byte, as in the {@code word} table.
+     * <p>
+     * The server skips or truncates rows it cannot load with a warning
+     * rather than an error, so the load fails unless every word was loaded
+     * without one.
+     */
+    private static void loadStagingTable(Statement statement, WordCounter wordCounter, IntConsumer progress)
+            throws SQLException {
+        dropStagingTable(statement);
+        statement.executeUpdate("CREATE TEMPORARY TABLE " + stagingTable + " (" +
+                "`wordContent` VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL, " +
+                "`wordFrequency` BIGINT NOT NULL" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+        PipelineMetrics.statementExecuted();
+
+        WordCountStream wordCountStream = new WordCountStream(wordCounter, WordTables.batchSize(), progress);
+        setLocalInfileStream(statement, wordCountStream);
+
+        // The file name is not read: the driver sends the stream instead
+        int loadedWords = statement.executeUpdate("LOAD DATA LOCAL INFILE 'words.tsv' INTO TABLE " + stagingTable +
+                " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\'" +
+                " LINES TERMINATED BY '\\n' (`wordContent`, `wordFrequency`)");
+        PipelineMetrics.batchExecuted(wordCounter.size());
+
+        wordCountStream.checkFailure();
+
+        try (ResultSet warnings = statement.executeQuery("SHOW WARNINGS LIMIT 1")) {
+            PipelineMetrics.statementExecuted();
+            if (warnings.next()) {
+                throw new SQLException("The words could not be loaded as they were sent: " +
+                        warnings.getString("Message"));
+            }
+        }
+        if (loadedWords != wordCounter.size()) {
+            throw new SQLException("Only " + loadedWords + " of the " + wordCounter.size() +
+                    " words could be loaded.");
+        }
 
-        closeConnection();
+        progress.accept(wordCounter.size());
     }
 
     /**
-     * Reads all word/frequency pairs from the database.
+     * Adds the frequencies of the staging table to the {@code word} table,
+     * and returns the number of words that were not in it, counted from the
+     * rows affected, as for the batched upserts.
      */
-    public static ResultSet getAllWords() throws SQLException {
-        Statement statement;
-        ResultSet resultSet = null;
+    private static int mergeStagingTable(Statement statement, int stagedWords) throws SQLException {
+        int affectedRows = statement.executeUpdate("INSERT INTO " + databaseTable +
+                " (`wordContent`, `wordFrequency`) SELECT s.`wordContent`, s.`wordFrequency`" +
+                " FROM " + stagingTable + " s" +
+                " ON DUPLICATE KEY UPDATE `wordFrequency` = " + databaseTable + ".`wordFrequency` + s.`wordFrequency`");
+        PipelineMetrics.statementExecuted();
+
+        return 2 * stagedWords - affectedRows;
+    }
 
-        dbConnection = dbConnect(databaseName);
+    private static void dropStagingTable(Statement statement) throws SQLException {
+        statement.executeUpdate("DROP TEMPORARY TABLE IF EXISTS " + stagingTable);
+        PipelineMetrics.statementExecuted();
+    }
 
-        sql = "SELECT `wordContent`, `wordFrequency` FROM `word` ORDER BY `wordFrequency` DESC";
+    /**
+     * Gives the MySQL driver the stream to send when the server asks for the
+     * file of a {@code LOAD DATA LOCAL INFILE} statement. The driver is only
+     * known at run time, so its statement class is looked up by name.
+     */
+    private static void setLocalInfileStream(Statement statement, InputStream stream) throws SQLException {
+        try {
+            Class<?> mysqlStatement = Class.forName("com.mysql.cj.jdbc.JdbcStatement");
+            mysqlStatement.getMethod("setLocalInfileInputStream", InputStream.class)
+                    .invoke(statement.unwrap(mysqlStatement), stream);
+        } catch (ReflectiveOperationException e) {
+            throw new SQLFeatureNotSupportedException("The MySQL driver cannot stream local data.", e);
+        }
+    }
 
-        statement = dbConnection.createStatement();
+    /**
+     * Checks whether an exception was caused by local data not being
+     * allowed, by the server's {@code local_infile} variable or by the driver.
+     * If so, bulk loading is turned off for the rest of the run.
+     */
+    private static boolean isLocalInfileDisabled(SQLException e) {
+        String message = String.valueOf(e.getMessage()).toLowerCase(Locale.ROOT);
+        boolean disabled = e instanceof SQLFeatureNotSupportedException
+                || e.getErrorCode() == 1148 || e.getErrorCode() == 3948 || e.getErrorCode() == 3950
+                || message.contains("local data") || message.contains("local infile");
+
+        if (disabled && bulkLoadAvailable) {
+            bulkLoadAvailable = false;
+            System.out.println("Unable to bulk load the words: " + e.getMessage() +
+                    "\nStoring them with batched statements instead.");
+        }
 
-        resultSet = statement.executeQuery(sql);
+        return disabled;
+    }
 
-        return resultSet;
+    /**
+     * Removes a document, and subtracts its words from the aggregate, in a
+     * single transaction. Words that no longer occur in any document are
+     * removed from the aggregate.
+     *
+     * @param documentId The number of the document
+     * @return False if there was no such document
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static boolean removeDocument(long documentId) throws SQLException {
+        return wordTables.removeDocument(documentId);
     }
 
     /**
-     * Get number of words in database
+     * Reads all the documents, oldest first.
      *
+     * @return The documents
      * @throws SQLException If an SQL exception occurs
      */
-    public static int getUniqueWordCount() throws SQLException {
-        dbConnection = dbConnect(databaseName);
+    public static List<Document> getDocuments() throws SQLException {
+        return wordTables.getDocuments();
+    }
 
-        sql = "SELECT count(*) as `unique_count` FROM " + databaseTable;
-        Statement statement = dbConnection.createStatement();
-        ResultSet resultSet = statement.executeQuery(sql);
+    /**
+     * Reads one page of the ranked words of one or more documents, paged as
+     * by {@link #getWordPage(WordCount, int, int)}.
+     * <p>
+     * The words of a single document are read from the
+     * {@code documentWord_rank} index. The words of several documents are
+     * added together from their rows only, which are found through the
+     * primary key, once for all the pages of those documents, see
+     * {@link WordTables#getUnionPage}.
+     *
+     * @param documentIds The numbers of the documents
+     * @param after       The last word of the previous page, or {@code null} to read by offset
+     * @param offset      The rank, starting at zero, of the first word of the page
+     * @param limit       The maximum number of words to read
+     * @return The word/frequency pairs of the page
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static List<WordCount> getDocumentWordPage(long[] documentIds, WordCount after, int offset, int limit)
+            throws SQLException {
+        if (documentIds.length == 0) {
+            return new ArrayList<>();
+        } else if (documentIds.length > 1) {
+            return wordTables.getUnionPage(documentIds, after, offset, limit);
+        }
 
-        int out = 0;
+        String sql = "SELECT `wordContent`, `wordFrequency` FROM " + documentWordTable + " WHERE `documentId` = ?" +
+                (after == null ? "" :
+                        " AND `wordFrequency` <= ? AND (`wordFrequency` < ? OR `wordContent` > ?)") +
+                " ORDER BY `wordFrequency` DESC, `wordContent` LIMIT ?" +
+                (after == null ? " OFFSET ?" : "");
+
+        try (Connection dbConnection = getConnection();
+             PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, documentIds[0]);
+
+            if (after == null) {
+                preparedStatement.setInt(2, limit);
+                preparedStatement.setInt(3, offset);
+            } else {
+                preparedStatement.setLong(2, after.getWordFrequency());
+                preparedStatement.setLong(3, after.getWordFrequency());
+                preparedStatement.setString(4, after.getWordContent());
+                preparedStatement.setInt(5, limit);
+            }
 
-        if (resultSet.next()) {
-            out = resultSet.getInt("unique_count");
+            return WordTables.readWords(preparedStatement, limit);
         }
+    }
+
+    /**
+     * Get number of unique words in one or more documents
+     *
+     * @param documentIds The numbers of the documents
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static int getDocumentUniqueWordCount(long[] documentIds) throws SQLException {
+        return wordTables.getDocumentUniqueWordCount(documentIds);
+    }
+
+    /**
+     * Removes all the words and documents from the database.
+     *
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static void clearWords() throws SQLException {
+        wordTables.clear();
+    }
 
-        resultSet.close();
+    /**
+     * Adds occurrences of a single word to the database.
+     *
+     * @param word  The word
+     * @param count The number of occurrences to add
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static void incrementWord(String word, int count) throws SQLException {
+        String sql = "INSERT INTO " + databaseTable + " (`wordContent`, `wordFrequency`) VALUES (?,?) " +
+                "ON DUPLICATE KEY UPDATE `wordFrequency` = `wordFrequency` + ?";
 
-        closeConnection();
+        try (Connection dbConnection = getConnection();
+             PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+            dbConnection.setAutoCommit(false);
 
-        return out;
+            try {
+                preparedStatement.setString(1, word);
+                preparedStatement.setInt(2, count);
+                preparedStatement.setInt(3, count);
+
+                // One row is affected by an insert, two by an update
+                boolean inserted = preparedStatement.executeUpdate() == 1;
+                PipelineMetrics.statementExecuted();
+
+                wordTables.addToSummary(dbConnection, inserted ? 1 : 0, count);
+                dbConnection.commit();
+            } catch (SQLException | RuntimeException e) {
+                dbConnection.rollback();
+                throw e;
+            }
+        }
     }
 
     /**
-     * Get number of words in database
+     * Stores words found in the target URL and their frequencies in the database
+     * by querying and updating the database once for every token found.
+     * <p>
+     * This is the original storage path. It is kept to compare its timing
+     * against {@link #storeWordsIntoDatabase(BufferedReader)}. It does not
+     * keep track of the words it adds, so the summary is counted again once
+     * it is done.
+     *
+     * @param bufferedHtmlContent The buffered content of the target URL
+     */
+    public static void storeWordsPerToken(BufferedReader bufferedHtmlContent) throws SQLException, IOException {
+        String selectSql = "SELECT `wordFrequency` FROM " + databaseTable + " WHERE `wordContent`=?";
+        String updateSql = "UPDATE " + databaseTable + " SET `wordFrequency`=? WHERE `wordContent`=?";
+        String insertSql = "INSERT INTO " + databaseTable + " (`wordContent`, `wordFrequency`) VALUES (?,?)";
+
+        try (Connection dbConnection = getConnection()) {
+            // Temporary string to store each line of the buffered urlContent
+            String inputLine;
+
+            // Add words and their frequency to the database
+            while ((inputLine = bufferedHtmlContent.readLine()) != null) {
+                // convert the html formatted line to plain text
+                String filteredInputLine = TextAnalyzerController.htmlToText(inputLine);
+
+                // extract words from filteredInputLine using StringTokenizer
+                StringTokenizer wordsInLine = new StringTokenizer(filteredInputLine);
+
+                // add words and their frequencies to the database
+                while (wordsInLine.hasMoreTokens()) {
+                    String word = wordsInLine.nextToken();
+
+                    // Limit word length to 255 characters
+                    if (word.length() > WordTokenizer.MAX_WORD_LENGTH) {
+                        word = word.substring(0, WordTokenizer.MAX_WORD_LENGTH);
+                    }
+
+                    try (PreparedStatement select = dbConnection.prepareStatement(selectSql)) {
+                        select.setString(1, word);
+
+                        try (ResultSet resultSet = select.executeQuery()) {
+                            PipelineMetrics.statementExecuted();
+                            if (resultSet.next()) {
+                                try (PreparedStatement update = dbConnection.prepareStatement(updateSql)) {
+                                    update.setLong(1, resultSet.getLong("wordFrequency") + 1);
+                                    update.setString(2, word);
+                                    update.executeUpdate();
+                                    PipelineMetrics.statementExecuted();
+                                }
+                            } else {
+                                try (PreparedStatement insert = dbConnection.prepareStatement(insertSql)) {
+                                    insert.setString(1, word);
+                                    insert.setInt(2, 1);
+                                    insert.executeUpdate();
+                                    PipelineMetrics.statementExecuted();
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            try (Statement statement = dbConnection.createStatement()) {
+                rebuildSummary(statement);
+            }
+        } finally {
+            bufferedHtmlContent.close();
+        }
+    }
+
+    /**
+     * Reads all word/frequency pairs from the database, sorted by frequency
+     * in descending order.
      *
+     * @return The word/frequency pairs
      * @throws SQLException If an SQL exception occurs
      */
-    public static int getAllWordCount() throws SQLException {
-        dbConnection = dbConnect(databaseName);
+    public static List<WordCount> getAllWords() throws SQLException {
+        List<WordCount> words = new ArrayList<>();
+
+        String sql = "SELECT `wordContent`, `wordFrequency` FROM " + databaseTable +
+                " ORDER BY `wordFrequency` DESC, `wordContent`";
+
+        try (Connection dbConnection = getConnection();
+             Statement statement = dbConnection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            PipelineMetrics.statementExecuted();
+            while (resultSet.next()) {
+                words.add(new WordCount(resultSet.getString("wordContent"), resultSet.getLong("wordFrequency")));
+            }
+        }
 
-        sql = "SELECT SUM(`wordFrequency`) as `total_count` FROM " + databaseTable;
-        Statement statement = dbConnection.createStatement();
-        ResultSet resultSet = statement.executeQuery(sql);
+        return words;
+    }
 
-        int out = 0;
+    /**
+     * Reads one page of word/frequency pairs from the database, sorted by
+     * frequency in descending order and then by word.
+     * <p>
+     * When the last word of the previous page is given, the page starts right
+     * after it (keyset pagination), which only reads the rows of the page
+     * from the {@code wordFrequency_rank} index. Otherwise the page is read
+     * by offset, which has to skip over all the rows before it.
+     *
+     * @param after  The last word of the previous page, or {@code null} to read by offset
+     * @param offset The rank, starting at zero, of the first word of the page
+     * @param limit  The maximum number of words to read
+     * @return The word/frequency pairs of the page
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static List<WordCount> getWordPage(WordCount after, int offset, int limit) throws SQLException {
+        List<WordCount> words = new ArrayList<>(limit);
+
+        String sql = "SELECT `wordContent`, `wordFrequency` FROM " + databaseTable +
+                (after == null ? "" : " WHERE `wordFrequency` <= ? AND (`wordFrequency` < ? OR `wordContent` > ?)") +
+                " ORDER BY `wordFrequency` DESC, `wordContent` LIMIT ?" +
+                (after == null ? " OFFSET ?" : "");
+
+        try (Connection dbConnection = getConnection();
+             PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+            if (after == null) {
+                preparedStatement.setInt(1, limit);
+                preparedStatement.setInt(2, offset);
+            } else {
+                preparedStatement.setLong(1, after.getWordFrequency());
+                preparedStatement.setLong(2, after.getWordFrequency());
+                preparedStatement.setString(3, after.getWordContent());
+                preparedStatement.setInt(4, limit);
+            }
 
-        if (resultSet.next()) {
-            out = resultSet.getInt("total_count");
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                PipelineMetrics.statementExecuted();
+                while (resultSet.next()) {
+                    words.add(new WordCount(resultSet.getString("wordContent"), resultSet.getLong("wordFrequency")));
+                }
+            }
         }
 
-        resultSet.close();
+        return words;
+    }
+
+    /**
+     * Get number of words in database
+     * <p>
+     * The count is read from the summary.
+     *
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static int getUniqueWordCount() throws SQLException {
+        return wordTables.getUniqueWordCount();
+    }
+
+    /**
+     * Get number of words in database
+     *
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static long getAllWordCount() throws SQLException {
+        return getTotalWordCount();
+    }
 
-        closeConnection();
+    /**
+     * Get number of words in database, counting repetitions
+     * <p>
+     * The count is read from the summary.
+     *
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static long getTotalWordCount() throws SQLException {
+        return wordTables.getTotalWordCount();
+    }
+
+    /**
+     * Reads the summary of the aggregate and its most frequent words with a
+     * single query, which reads the summary row and the first rows of the
+     * {@code wordFrequency_rank} index.
+     *
+     * @param limit The maximum number of words to read
+     * @return The totals and the most frequent words
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static ResultSummary getResultSummary(int limit) throws SQLException {
+        String sql = "SELECT s.`uniqueWords`, s.`totalWords`, w.`wordContent`, w.`wordFrequency` FROM " +
+                summaryTable + " s LEFT JOIN (SELECT `wordContent`, `wordFrequency` FROM " + databaseTable +
+                " ORDER BY `wordFrequency` DESC, `wordContent` LIMIT ?) w ON TRUE" +
+                " ORDER BY w.`wordFrequency` DESC, w.`wordContent`";
+
+        try (Connection dbConnection = getConnection();
+             PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, limit);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                PipelineMetrics.statementExecuted();
+                ResultSummary resultSummary = WordTables.readResultSummary(resultSet, limit);
+                return resultSummary != null ? resultSummary : new ResultSummary(0, 0, new ArrayList<>());
+            }
+        }
+    }
 
-        return out;
+    /**
+     * Reads the totals of a document and its most frequent words with a
+     * single query, which reads the document's row and the first of its
+     * rows in the {@code documentWord_rank} index.
+     *
+     * @param documentId The number of the document
+     * @param limit      The maximum number of words to read
+     * @return The totals and the most frequent words, or {@code null} if there is no such document
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static ResultSummary getDocumentResultSummary(long documentId, int limit) throws SQLException {
+        String sql = "SELECT d.`uniqueWords`, d.`totalWords`, w.`wordContent`, w.`wordFrequency` FROM " +
+                documentTable + " d LEFT JOIN (SELECT `wordContent`, `wordFrequency` FROM " + documentWordTable +
+                " WHERE `documentId` = ? ORDER BY `wordFrequency` DESC, `wordContent` LIMIT ?) w ON TRUE" +
+                " WHERE d.`documentId` = ? ORDER BY w.`wordFrequency` DESC, w.`wordContent`";
+
+        try (Connection dbConnection = getConnection();
+             PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, documentId);
+            preparedStatement.setInt(2, limit);
+            preparedStatement.setLong(3, documentId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                PipelineMetrics.statementExecuted();
+                return WordTables.readResultSummary(resultSet, limit);
+            }
+        }
     }
 
     /**
-     * Creates the database schema and table if they do not already exist.
+     * Counts the words of the {@code word} table into the summary, which
+     * reads the whole table.
      */
-    public static void createSchema() {
-        try {
-            dbConnection = dbConnect("");
-            // Schema and table creation do not rely on user input. No need to use prepared statements.
-            Statement statement = dbConnection.createStatement();
+    private static void rebuildSummary(Statement statement) throws SQLException {
+        statement.executeUpdate("UPDATE " + summaryTable + " s, (SELECT COUNT(*) AS `uniqueWords`," +
+                " COALESCE(SUM(`wordFrequency`), 0) AS `totalWords` FROM " + databaseTable + ") w" +
+                " SET s.`uniqueWords` = w.`uniqueWords`, s.`totalWords` = w.`totalWords`");
+        PipelineMetrics.statementExecuted();
+    }
 
+    /**
+     * Creates the database schema and tables if they do not already exist.
+     * The words already stored are kept.
+     * <p>
+     * This uses its own connection, since the pooled connections need the
+     * schema to exist.
+     *
+     * @throws SQLException If the server cannot be reached or the schema cannot be created
+     */
+    public static void createSchema() throws SQLException {
+        // Schema and table creation do not rely on user input. No need to use prepared statements.
+        try (Connection dbConnection = openConnection("");
+             Statement statement = dbConnection.createStatement()) {
             // Create the schema if it does not already exist
-            sql = "CREATE SCHEMA IF NOT EXISTS `" + databaseName + "` DEFAULT CHARACTER SET utf8";
+            String sql = "CREATE SCHEMA IF NOT EXISTS `" + databaseName + "` DEFAULT CHARACTER SET utf8";
             statement.executeUpdate(sql);
 
             // Select the database
@@ -209,38 +869,128 @@ public class DatabaseController {
             statement.executeUpdate(sql);
 
             // Create the table if it does not already exist
+            // Words are compared byte for byte, so that words differing only in case or accents stay apart
             sql = "CREATE TABLE IF NOT EXISTS " + databaseTable + " (" +
-                    "`wordContent` VARCHAR(255) NOT NULL, " +
-                    "`wordFrequency` INT(11) NOT NULL, " +
-                    "UNIQUE INDEX `wordContent_unique` (`wordContent`)" +
+                    "`wordContent` VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL, " +
+                    "`wordFrequency` BIGINT NOT NULL, " +
+                    "UNIQUE INDEX `wordContent_unique` (`wordContent`), " +
+                    "INDEX `wordFrequency_rank` (`wordFrequency` DESC, `wordContent`)" +
+                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+            statement.executeUpdate(sql);
+
+            // Add the ranking index to tables created before it existed
+            sql = "SELECT 1 FROM information_schema.statistics WHERE `table_schema` = '" + databaseName + "'" +
+                    " AND `table_name` = '" + databaseTable + "' AND `index_name` = 'wordFrequency_rank'";
+            boolean hasRankIndex;
+            try (ResultSet resultSet = statement.executeQuery(sql)) {
+                hasRankIndex = resultSet.next();
+            }
+            if (!hasRankIndex) {
+                sql = "ALTER TABLE " + databaseTable +
+                        " ADD INDEX `wordFrequency_rank` (`wordFrequency` DESC, `wordContent`)";
+                statement.executeUpdate(sql);
+            }
+
+            // Create the document tables if they do not already exist
+            sql = "CREATE TABLE IF NOT EXISTS " + documentTable + " (" +
+                    "`documentId` INT(11) NOT NULL AUTO_INCREMENT, " +
+                    "`documentSource` TEXT NOT NULL, " +
+                    "`analyzedAt` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                    "`uniqueWords` INT(11) NOT NULL, " +
+                    "`totalWords` BIGINT NOT NULL, " +
+                    "PRIMARY KEY (`documentId`)" +
                     ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
             statement.executeUpdate(sql);
 
-            // Clear the table
-            sql = "TRUNCATE " + databaseTable;
+            sql = "CREATE TABLE IF NOT EXISTS " + documentWordTable + " (" +
+                    "`documentId` INT(11) NOT NULL, " +
+                    "`wordContent` VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL, " +
+                    "`wordFrequency` BIGINT NOT NULL, " +
+                    "PRIMARY KEY (`documentId`, `wordContent`), " +
+                    "INDEX `documentWord_rank` (`documentId`, `wordFrequency` DESC, `wordContent`), " +
+                    "FOREIGN KEY (`documentId`) REFERENCES " + documentTable + " (`documentId`) ON DELETE CASCADE" +
+                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
             statement.executeUpdate(sql);
 
-            statement.close();
+            upgradeWordColumns(statement, databaseTable);
+            upgradeWordColumns(statement, documentWordTable);
+
+            // Create the summary table, and count the words already stored, if it does not already exist
+            sql = "CREATE TABLE IF NOT EXISTS " + summaryTable + " (" +
+                    "`summaryId` TINYINT NOT NULL, " +
+                    "`uniqueWords` INT(11) NOT NULL, " +
+                    "`totalWords` BIGINT NOT NULL, " +
+                    "PRIMARY KEY (`summaryId`)" +
+                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+            statement.executeUpdate(sql);
+
+            boolean hasSummary;
+            try (ResultSet resultSet = statement.executeQuery("SELECT 1 FROM " + summaryTable)) {
+                hasSummary = resultSet.next();
+            }
+            if (!hasSummary) {
+                statement.executeUpdate("INSERT INTO " + summaryTable +
+                        " (`summaryId`, `uniqueWords`, `totalWords`) VALUES (1, 0, 0)");
+                rebuildSummary(statement);
+            }
         } catch (SQLException e) {
-            System.out.println("Unable to create schema `" + databaseName + "`\n\n" +
+            throw new SQLException("Unable to create schema `" + databaseName + "`\n\n" +
                     "Make sure that the MySQL user `" + databaseUser + "` with password `" + databasePass +
-                    " exists with full privileges." +
-                    exitMessage);
-            System.exit(1);
-        } finally {
-            closeConnection();
+                    "` exists with full privileges.", e.getSQLState(), e.getErrorCode(), e);
         }
     }
 
     /**
-     * Closes the database connection
+     * Loads the MySQL driver, once.
      */
-    public static void closeConnection() {
+    private static synchronized void loadDriver() throws SQLException {
+        if (driverLoaded) {
+            return;
+        }
+
         try {
-            dbConnection.close();
-        } catch (SQLException e) {
-            System.out.println("Unable to close the database connection." +
-                    exitMessage);
+            String mysqlDriver = "com.mysql.cj.jdbc.Driver";
+            Class.forName(mysqlDriver);
+            driverLoaded = true;
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("The MySQL Driver 'com.mysql.cj.jdbc.Driver' could not be found.\n\n" +
+                    "Please install the JDBC Driver for MySQL from: https://dev.mysql.com/downloads/connector/j/", e);
         }
     }
+
+    /**
+     * Converts the word columns of a table created by an earlier version to
+     * a binary collation and 64-bit frequencies. The conversion cannot fail
+     * on existing rows, since words that were equal remain equal.
+     */
+    private static void upgradeWordColumns(Statement statement, String table) throws SQLException {
+        String sql = "SELECT 1 FROM information_schema.columns WHERE `table_schema` = '" + databaseName + "'" +
+                " AND `table_name` = '" + table + "' AND ((`column_name` = 'wordContent'" +
+                " AND `collation_name` <> 'utf8mb4_bin') OR (`column_name` = 'wordFrequency'" +
+                " AND `data_type` <> 'bigint'))";
+        boolean outdated;
+        try (ResultSet resultSet = statement.executeQuery(sql)) {
+            outdated = resultSet.next();
+        }
+
+        if (outdated) {
+            statement.executeUpdate("ALTER TABLE " + table +
+                    " MODIFY `wordContent` VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL," +
+                    " MODIFY `wordFrequency` BIGINT NOT NULL");
+        }
+    }
+
+    private static String connectionUrl(String databaseName) {
+        String databaseHost = "localhost";
+        String databasePort = "3306";
+
+        return "jdbc:mysql://" + databaseHost + ":" + databasePort + "/" + databaseName +
+                "?useUnicode=true" +
+                "&characterEncoding=UTF-8" +
+                "&useJDBCCompliantTimezoneShift=true" +
+                "&useLegacyDatetimeCode=false" +
+                "&serverTimezone=UTC" +
+                "&rewriteBatchedStatements=true" +
+                (isBulkLoadEnabled() ? "&allowLoadLocalInfile=true" : "");
+    }
 }
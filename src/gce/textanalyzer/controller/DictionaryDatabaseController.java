@@ -0,0 +1,520 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.metrics.PipelineMetrics;
+import gce.textanalyzer.model.Document;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+
+import java.sql.*;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Database class for the dictionary-encoded schema
+ * <p>
+ * Each word is stored once, in the {@code dictionary} table, which assigns
+ * it a number. The frequencies are kept in narrow tables keyed by those
+ * numbers: {@code dictionary_count} for the aggregate and
+ * {@code dictionary_document_count} for the words of each document, listed
+ * in {@code dictionary_document}. Their indexes hold integers instead of
+ * strings, so they are a fraction of the size of those of the
+ * {@code word} table, and writing a frequency compares integers only. The
+ * words are joined back from the dictionary only for the rows of the page
+ * being read.
+ * <p>
+ * The numbers of recently used words are kept by a {@link WordDictionary},
+ * so only words that are new to this process are looked up, a batch at a
+ * time. New words are added to the dictionary in their own transaction,
+ * which is committed even if the frequencies are not, so a cached number
+ * always refers to a stored word. The dictionary is kept when the words
+ * are cleared for the same reason.
+ * <p>
+ * Words with the same frequency are ranked by the words themselves, as in
+ * the other stores. The words are not in the narrow rank indexes, so a page
+ * is read in two steps: the frequency of its last word is found from the
+ * rank index, and only the rows with at least that frequency are joined to
+ * their words and sorted. Words are compared exactly, with a binary
+ * collation.
+ * <p>
+ * The schema lives in the same database as the one of the
+ * {@link DatabaseController}, and uses its connection pool. The statements
+ * that do not depend on the dictionary are shared with it.
+ */
+public class DictionaryDatabaseController {
+    private static final String dictionaryTable = "dictionary";
+    private static final String countTable = "dictionary_count";
+    private static final String summaryTable = "dictionary_summary";
+    private static final String documentTable = "dictionary_document";
+    private static final String documentCountTable = "dictionary_document_count";
+
+    private static final WordDictionary wordDictionary =
+            new WordDictionary(Settings.getInt("dictionary.cacheSize", 1 << 20));
+
+    private static final WordTables wordTables = new WordTables(countTable, "wordId", "INT", summaryTable,
+            documentTable, documentCountTable) {
+        @Override
+        WordKeys keys(WordCounter wordCounter) throws SQLException {
+            int[] wordIds = getWordIds(wordCounter);
+            return (preparedStatement, parameter, word) -> preparedStatement.setInt(parameter, wordIds[word]);
+        }
+
+        @Override
+        String unionQuery(String documentIdParameters) {
+            return "SELECT d.`wordContent`, w.`wordFrequency` FROM (SELECT `wordId`," +
+                    " SUM(`wordFrequency`) AS `wordFrequency` FROM " + documentCountTable +
+                    " WHERE `documentId` IN (" + documentIdParameters + ") GROUP BY `wordId`) w JOIN " +
+                    dictionaryTable + " d ON d.`wordId` = w.`wordId`";
+        }
+    };
+
+    /**
+     * @return The numbers of the recently used words
+     */
+    public static WordDictionary getWordDictionary() {
+        return wordDictionary;
+    }
+
+    /**
+     * Creates the tables if they do not already exist. The schema must
+     * already exist, see {@link DatabaseController#createSchema()}.
+     *
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static void createTables() throws SQLException {
+        // Table creation does not rely on user input. No need to use prepared statements.
+        try (Connection dbConnection = DatabaseController.getConnection();
+             Statement statement = dbConnection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + dictionaryTable + " (" +
+                    "`wordId` INT NOT NULL AUTO_INCREMENT, " +
+                    "`wordContent` VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL, " +
+                    "PRIMARY KEY (`wordId`), " +
+                    "UNIQUE INDEX `dictionary_word` (`wordContent`)" +
+                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + countTable + " (" +
+                    "`wordId` INT NOT NULL, " +
+                    "`wordFrequency` BIGINT NOT NULL, " +
+                    "PRIMARY KEY (`wordId`), " +
+                    "INDEX `dictionaryCount_rank` (`wordFrequency` DESC, `wordId`)" +
+                    ") ENGINE=InnoDB");
+
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + summaryTable + " (" +
+                    "`summaryId` TINYINT NOT NULL, " +
+                    "`uniqueWords` INT(11) NOT NULL, " +
+                    "`totalWords` BIGINT NOT NULL, " +
+                    "PRIMARY KEY (`summaryId`)" +
+                    ") ENGINE=InnoDB");
+            statement.executeUpdate("INSERT IGNORE INTO " + summaryTable +
+                    " (`summaryId`, `uniqueWords`, `totalWords`) VALUES (1, 0, 0)");
+
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + documentTable + " (" +
+                    "`documentId` INT(11) NOT NULL AUTO_INCREMENT, " +
+                    "`documentSource` TEXT NOT NULL, " +
+                    "`analyzedAt` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                    "`uniqueWords` INT(11) NOT NULL, " +
+                    "`totalWords` BIGINT NOT NULL, " +
+                    "PRIMARY KEY (`documentId`)" +
+                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + documentCountTable + " (" +
+                    "`documentId` INT(11) NOT NULL, " +
+                    "`wordId` INT NOT NULL, " +
+                    "`wordFrequency` BIGINT NOT NULL, " +
+                    "PRIMARY KEY (`documentId`, `wordId`), " +
+                    "INDEX `dictionaryDocumentCount_rank` (`documentId`, `wordFrequency` DESC, `wordId`), " +
+                    "FOREIGN KEY (`documentId`) REFERENCES " + documentTable + " (`documentId`) ON DELETE CASCADE" +
+                    ") ENGINE=InnoDB");
+        }
+    }
+
+    /**
+     * Finds the numbers of the words of a counter, adding the words that
+     * are not in the dictionary yet. Words cached by the
+     * {@link WordDictionary} are not looked up.
+     *
+     * @param wordCounter The words
+     * @return The number of each word of the counter, by its index in the counter
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static int[] getWordIds(WordCounter wordCounter) throws SQLException {
+        int[] wordIds = new int[wordCounter.size()];
+        List<String> unknownWords = new ArrayList<>();
+        List<Integer> unknownIndexes = new ArrayList<>();
+
+        for (int word = 0; word < wordCounter.size(); word++) {
+            Integer wordId = wordDictionary.get(wordCounter.word(word));
+            if (wordId != null) {
+                wordIds[word] = wordId;
+            } else {
+                unknownWords.add(wordCounter.word(word));
+                unknownIndexes.add(word);
+            }
+        }
+
+        if (unknownWords.isEmpty()) {
+            return wordIds;
+        }
+
+        int batchSize = WordTables.batchSize();
+        Map<String, Integer> foundIds = new HashMap<>();
+
+        // Auto-committed, so the numbers stay valid whatever happens to the caller's transaction
+        try (Connection dbConnection = DatabaseController.getConnection()) {
+            readWordIds(dbConnection, unknownWords, batchSize, foundIds);
+
+            List<String> newWords = new ArrayList<>();
+            for (String word : unknownWords) {
+                if (!foundIds.containsKey(word)) {
+                    newWords.add(word);
+                }
+            }
+
+            if (!newWords.isEmpty()) {
+                // Words added by another process in the meantime are ignored, and read back below
+                String sql = "INSERT IGNORE INTO " + dictionaryTable + " (`wordContent`) VALUES (?)";
+                try (PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+                    int batchedWords = 0;
+                    for (String word : newWords) {
+                        preparedStatement.setString(1, word);
+                        preparedStatement.addBatch();
+
+                        if (++batchedWords == batchSize) {
+                            preparedStatement.executeBatch();
+                            PipelineMetrics.batchExecuted(batchedWords);
+                            batchedWords = 0;
+                        }
+                    }
+
+                    if (batchedWords > 0) {
+                        preparedStatement.executeBatch();
+                        PipelineMetrics.batchExecuted(batchedWords);
+                    }
+                }
+
+                readWordIds(dbConnection, newWords, batchSize, foundIds);
+            }
+        }
+
+        for (int i = 0; i < unknownWords.size(); i++) {
+            String word = unknownWords.get(i);
+            Integer wordId = foundIds.get(word);
+            if (wordId == null) {
+                throw new SQLException("The word '" + word + "' could not be added to the dictionary.");
+            }
+
+            wordIds[unknownIndexes.get(i)] = wordId;
+            wordDictionary.put(word, wordId);
+        }
+
+        return wordIds;
+    }
+
+    private static void readWordIds(Connection dbConnection, List<String> words, int batchSize,
+                                    Map<String, Integer> foundIds) throws SQLException {
+        for (int from = 0; from < words.size(); from += batchSize) {
+            int to = Math.min(words.size(), from + batchSize);
+            String sql = "SELECT `wordId`, `wordContent` FROM " + dictionaryTable + " WHERE `wordContent` IN (" +
+                    String.join(",", Collections.nCopies(to - from, "?")) + ")";
+
+            try (PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+                for (int word = from; word < to; word++) {
+                    preparedStatement.setString(word - from + 1, words.get(word));
+                }
+
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    PipelineMetrics.statementExecuted();
+                    while (resultSet.next()) {
+                        foundIds.put(resultSet.getString("wordContent"), resultSet.getInt("wordId"));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the given word frequencies to the aggregate in a single
+     * transaction, reporting progress after each batch. The transaction is
+     * rolled back if {@code progress} throws an exception, which can be used
+     * to cancel it.
+     *
+     * @param wordCounter The unique words and their frequencies
+     * @param progress    Receives the number of unique words stored so far
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static void storeWordCounts(WordCounter wordCounter, IntConsumer progress) throws SQLException {
+        wordTables.storeWordCounts(wordCounter, progress);
+    }
+
+    /**
+     * Stores the words of a document, and adds them to the aggregate, in a
+     * single transaction, reporting progress after each batch. The
+     * transaction is rolled back if {@code progress} throws an exception,
+     * which can be used to cancel it.
+     *
+     * @param documentSource Where the words came from, such as the analyzed URLs
+     * @param wordCounter    The unique words of the document and their frequencies
+     * @param progress       Receives the number of unique words stored so far
+     * @return The number of the new document
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static long storeDocument(String documentSource, WordCounter wordCounter, IntConsumer progress)
+            throws SQLException {
+        return wordTables.storeDocument(documentSource, wordCounter, progress);
+    }
+
+    /**
+     * Starts storing a new document whose words are written a part at a
+     * time, see {@link DocumentTransaction}. The words of each part are
+     * looked up in the dictionary as it is appended.
+     *
+     * @param documentSource Where the words came from, such as the analyzed URLs
+     * @return The open transaction, to be closed by the caller
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static DocumentTransaction beginDocument(String documentSource) throws SQLException {
+        return wordTables.beginDocument(documentSource);
+    }
+
+    /**
+     * Removes a document, and subtracts its words from the aggregate, in a
+     * single transaction. Words that no longer occur in any document are
+     * removed from the aggregate, but stay in the dictionary.
+     *
+     * @param documentId The number of the document
+     * @return False if there was no such document
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static boolean removeDocument(long documentId) throws SQLException {
+        return wordTables.removeDocument(documentId);
+    }
+
+    /**
+     * Reads all the documents, oldest first.
+     *
+     * @return The documents
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static List<Document> getDocuments() throws SQLException {
+        return wordTables.getDocuments();
+    }
+
+    /**
+     * Reads one page of the ranked words of one or more documents, paged as
+     * by {@link #getWordPage(WordCount, int, int)}. The words of a single
+     * document are ranked from the {@code dictionaryDocumentCount_rank}
+     * index; those of several documents are added together from their rows
+     * only, once for all the pages of those documents.
+     *
+     * @param documentIds The numbers of the documents
+     * @param after       The last word of the previous page, or {@code null} to read by offset
+     * @param offset      The rank, starting at zero, of the first word of the page
+     * @param limit       The maximum number of words to read
+     * @return The word/frequency pairs of the page
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static List<WordCount> getDocumentWordPage(long[] documentIds, WordCount after, int offset, int limit)
+            throws SQLException {
+        if (documentIds.length == 0) {
+            return new ArrayList<>();
+        }
+
+        if (documentIds.length == 1) {
+            try (Connection dbConnection = DatabaseController.getConnection();
+                 PreparedStatement preparedStatement = dbConnection.prepareStatement(
+                         pageQuery(documentCountTable, true, after))) {
+                setPageParameters(preparedStatement, documentIds[0], after, offset, limit);
+                return WordTables.readWords(preparedStatement, limit);
+            }
+        }
+
+        return wordTables.getUnionPage(documentIds, after, offset, limit);
+    }
+
+    /**
+     * Get number of unique words in one or more documents
+     *
+     * @param documentIds The numbers of the documents
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static int getDocumentUniqueWordCount(long[] documentIds) throws SQLException {
+        return wordTables.getDocumentUniqueWordCount(documentIds);
+    }
+
+    /**
+     * Removes all the frequencies and documents. The dictionary is kept, so
+     * that the numbers cached by this and other processes stay valid.
+     *
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static void clearWords() throws SQLException {
+        wordTables.clear();
+    }
+
+    /**
+     * Adds occurrences of a single word to the aggregate.
+     *
+     * @param word  The word
+     * @param count The number of occurrences to add
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static void incrementWord(String word, int count) throws SQLException {
+        WordCounter wordCounter = new WordCounter();
+        wordCounter.add(word, count);
+        storeWordCounts(wordCounter, storedWords -> {
+        });
+    }
+
+    /**
+     * Reads one page of the ranked words of the aggregate, sorted by
+     * frequency in descending order and then by word.
+     * <p>
+     * When the last word of the previous page is given, the page starts
+     * right after it (keyset pagination). Otherwise the page is read by
+     * offset, which skips over the entries of the
+     * {@code dictionaryCount_rank} index before it. Either way, only the
+     * rows with at least the frequency of the last word of the page are
+     * joined to their words.
+     *
+     * @param after  The last word of the previous page, or {@code null} to read by offset
+     * @param offset The rank, starting at zero, of the first word of the page
+     * @param limit  The maximum number of words to read
+     * @return The word/frequency pairs of the page
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static List<WordCount> getWordPage(WordCount after, int offset, int limit) throws SQLException {
+        try (Connection dbConnection = DatabaseController.getConnection();
+             PreparedStatement preparedStatement = dbConnection.prepareStatement(
+                     pageQuery(countTable, false, after))) {
+            setPageParameters(preparedStatement, null, after, offset, limit);
+            return WordTables.readWords(preparedStatement, limit);
+        }
+    }
+
+    /**
+     * Get number of words in the aggregate, read from the summary
+     *
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static int getUniqueWordCount() throws SQLException {
+        return wordTables.getUniqueWordCount();
+    }
+
+    /**
+     * Get number of words in the aggregate, counting repetitions, read from the summary
+     *
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static long getTotalWordCount() throws SQLException {
+        return wordTables.getTotalWordCount();
+    }
+
+    /**
+     * Reads the summary of the aggregate and its most frequent words with a
+     * single query.
+     *
+     * @param limit The maximum number of words to read
+     * @return The totals and the most frequent words
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static ResultSummary getResultSummary(int limit) throws SQLException {
+        String sql = "SELECT s.`uniqueWords`, s.`totalWords`, w.`wordContent`, w.`wordFrequency` FROM " +
+                summaryTable + " s LEFT JOIN (" + pageQuery(countTable, false, null) + ") w ON TRUE" +
+                " ORDER BY w.`wordFrequency` DESC, w.`wordContent`";
+
+        try (Connection dbConnection = DatabaseController.getConnection();
+             PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+            setPageParameters(preparedStatement, null, null, 0, limit);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                PipelineMetrics.statementExecuted();
+                ResultSummary resultSummary = WordTables.readResultSummary(resultSet, limit);
+                return resultSummary != null ? resultSummary : new ResultSummary(0, 0, new ArrayList<>());
+            }
+        }
+    }
+
+    /**
+     * Reads the totals of a document and its most frequent words with a
+     * single query.
+     *
+     * @param documentId The number of the document
+     * @param limit      The maximum number of words to read
+     * @return The totals and the most frequent words, or {@code null} if there is no such document
+     * @throws SQLException If an SQL exception occurs
+     */
+    public static ResultSummary getDocumentResultSummary(long documentId, int limit) throws SQLException {
+        String sql = "SELECT s.`uniqueWords`, s.`totalWords`, w.`wordContent`, w.`wordFrequency` FROM " +
+                documentTable + " s LEFT JOIN (" + pageQuery(documentCountTable, true, null) + ") w ON TRUE" +
+                " WHERE s.`documentId` = ? ORDER BY w.`wordFrequency` DESC, w.`wordContent`";
+
+        try (Connection dbConnection = DatabaseController.getConnection();
+             PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+            int parameter = setPageParameters(preparedStatement, documentId, null, 0, limit);
+            preparedStatement.setLong(parameter, documentId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                PipelineMetrics.statementExecuted();
+                return WordTables.readResultSummary(resultSet, limit);
+            }
+        }
+    }
+
+    /**
+     * Builds the query of a page of ranked words from a count table, of
+     * the aggregate or of one document.
+     * <p>
+     * The words of the page have at least the frequency of its last word,
+     * which is read from the rank index of the table alone, by skipping as
+     * many entries as the page and those before it hold. The rows with that
+     * frequency or more come first in the ranking whatever the order of
+     * their words, so only they are joined to their words, sorted and
+     * paged. After a given word, the entries skipped are those with a lower
+     * frequency than it.
+     */
+    private static String pageQuery(String table, boolean byDocument, WordCount after) {
+        String document = byDocument ? "`documentId` = ? AND " : "";
+
+        return "SELECT d.`wordContent`, c.`wordFrequency` FROM " + table + " c" +
+                " JOIN " + dictionaryTable + " d ON d.`wordId` = c.`wordId`" +
+                " WHERE " + (byDocument ? "c.`documentId` = ? AND " : "") +
+                "c.`wordFrequency` >= COALESCE((SELECT `wordFrequency` FROM " + table +
+                " WHERE " + document + (after == null ? "TRUE" : "`wordFrequency` < ?") +
+                " ORDER BY `wordFrequency` DESC LIMIT 1 OFFSET ?), 0)" +
+                (after == null ? "" : " AND c.`wordFrequency` <= ?" +
+                        " AND (c.`wordFrequency` < ? OR (c.`wordFrequency` = ? AND d.`wordContent` > ?))") +
+                " ORDER BY c.`wordFrequency` DESC, d.`wordContent` LIMIT ?" +
+                (after == null ? " OFFSET ?" : "");
+    }
+
+    /**
+     * Sets the parameters of a {@link #pageQuery(String, boolean, WordCount)}.
+     *
+     * @param documentId The number of the document, or {@code null} for the aggregate
+     * @return The number of the next parameter
+     */
+    private static int setPageParameters(PreparedStatement preparedStatement, Long documentId, WordCount after,
+                                         int offset, int limit) throws SQLException {
+        int parameter = 1;
+        if (documentId != null) {
+            preparedStatement.setLong(parameter++, documentId);
+            preparedStatement.setLong(parameter++, documentId);
+        }
+
+        if (after == null) {
+            preparedStatement.setLong(parameter++, Math.max(0, offset + (long) limit - 1));
+            preparedStatement.setInt(parameter++, limit);
+            preparedStatement.setInt(parameter++, offset);
+        } else {
+            preparedStatement.setLong(parameter++, after.getWordFrequency());
+            preparedStatement.setLong(parameter++, Math.max(0, limit - 1));
+            preparedStatement.setLong(parameter++, after.getWordFrequency());
+            preparedStatement.setLong(parameter++, after.getWordFrequency());
+            preparedStatement.setLong(parameter++, after.getWordFrequency());
+            preparedStatement.setString(parameter++, after.getWordContent());
+            preparedStatement.setInt(parameter++, limit);
+        }
+
+        return parameter;
+    }
+}
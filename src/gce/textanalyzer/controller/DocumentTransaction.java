@@ -0,0 +1,85 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.model.WordCounter;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Stores a document a part at a time, on one pooled connection. Each part
+ * is added, with batched upserts, to a temporary table of the connection as
+ * soon as it is appended, so the words of a document can be written while
+ * the rest of it is still being fetched and counted, without locking any
+ * row of the shared tables. On commit, the words are copied into the
+ * document count table and added to the aggregate with one statement
+ * each, in a single short transaction; closing the transaction without
+ * committing discards them.
+ * <p>
+ * Transactions are started by {@link DatabaseController#beginDocument(String)}
+ * and {@link DictionaryDatabaseController#beginDocument(String)}.
+ */
+public class DocumentTransaction implements AutoCloseable {
+    private final WordTables wordTables;
+    private final Connection dbConnection;
+    private final String documentSource;
+    private long totalWords;
+
+    DocumentTransaction(WordTables wordTables, String documentSource) throws SQLException {
+        this.wordTables = wordTables;
+        this.documentSource = documentSource;
+
+        dbConnection = DatabaseController.getConnection();
+        try {
+            wordTables.createPartTable(dbConnection);
+        } catch (SQLException | RuntimeException e) {
+            dbConnection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds the words of a part of the document.
+     *
+     * @param wordCounter The words of the part and their frequencies
+     * @throws SQLException If an SQL exception occurs
+     */
+    public void append(WordCounter wordCounter) throws SQLException {
+        wordTables.appendDocumentCounts(dbConnection, wordCounter);
+        totalWords += wordCounter.total();
+    }
+
+    /**
+     * Adds the document and its words to the tables, and the totals to the
+     * summary, in a single transaction.
+     *
+     * @return The number of the new document
+     * @throws SQLException If an SQL exception occurs
+     */
+    public long commit() throws SQLException {
+        dbConnection.setAutoCommit(false);
+        try {
+            long documentId = wordTables.mergeDocument(dbConnection, documentSource, totalWords);
+            dbConnection.commit();
+
+            return documentId;
+        } catch (SQLException | RuntimeException e) {
+            dbConnection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Discards the words of the document, and returns the connection to the
+     * pool.
+     *
+     * @throws SQLException If an SQL exception occurs
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            wordTables.dropPartTable(dbConnection);
+        } finally {
+            dbConnection.close();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package gce.textanalyzer.controller;
+
+import org.jsoup.nodes.Entities;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Extracts the text of an HTML document while it is being read, and feeds it
+ * to a {@link WordTokenizer}.
+ * <p>
+ * The extractor is a state machine over the characters of the document. It
+ * skips tags, comments and the content of {@code script} and {@code style}
+ * elements, decodes character references and turns whitespace and the
+ * boundaries of block level elements into spaces, much like Jsoup's
+ * {@code Element.text()}. Named references are looked up in Jsoup's table
+ * of the HTML entities, and, as in Jsoup, only the base entities such as
+ * {@code &amp;amp} are decoded without a closing semicolon. Apart from a few small fixed size buffers it holds
+ * no state, so the document can be fed in chunks of any size.
+ */
+public class HtmlTextExtractor {
+    private static final int maxNameLength = 16;
+    // The longest named reference is "CounterClockwiseContourIntegral"
+    private static final int maxEntityLength = 32;
+
+    private static final Set<String> inlineTags = new HashSet<>(Arrays.asList(
+            "a", "abbr", "b", "bdi", "bdo", "big", "cite", "code", "data", "dfn", "em", "font", "i", "kbd",
+            "label", "mark", "q", "s", "samp", "small", "span", "strike", "strong", "sub", "sup", "time",
+            "tt", "u", "var", "wbr"));
+
+    private enum State {
+        TEXT, TAG_OPEN, TAG_NAME, TAG, MARKUP_DECLARATION, COMMENT, DECLARATION, RAW_TEXT, ENTITY
+    }
+
+    private final WordTokenizer wordTokenizer;
+
+    private State state = State.TEXT;
+
+    private final char[] name = new char[maxNameLength];
+    private int nameLength;
+    private boolean closingTag;
+    private boolean selfClosingTag;
+    private char attributeQuote;
+
+    private int commentDashes;
+
+    private String rawTextTag;
+    private int rawTextMatched;
+
+    private final char[] entity = new char[maxEntityLength];
+    private int entityLength;
+
+    /**
+     * @param wordTokenizer Receives the text of the document
+     */
+    public HtmlTextExtractor(WordTokenizer wordTokenizer) {
+        this.wordTokenizer = wordTokenizer;
+    }
+
+    /**
+     * Extracts the text from a chunk of the document.
+     *
+     * @param html   The buffer holding the document
+     * @param offset The position of the first character to read
+     * @param length The number of characters to read
+     */
+    public void feed(char[] html, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            accept(html[i]);
+        }
+    }
+
+    /**
+     * Ends the document, flushing any pending text to the tokenizer.
+     */
+    public void finish() {
+        if (state == State.ENTITY) {
+            emitUnterminatedEntity();
+        } else if (state == State.TAG_OPEN) {
+            emit('<');
+        }
+
+        wordTokenizer.finish();
+        state = State.TEXT;
+    }
+
+    private void accept(char c) {
+        switch (state) {
+            case TEXT:
+                if (c == '<') {
+                    state = State.TAG_OPEN;
+                } else if (c == '&') {
+                    entityLength = 0;
+                    state = State.ENTITY;
+                } else {
+                    emit(c);
+                }
+                break;
+
+            case TAG_OPEN:
+                nameLength = 0;
+                closingTag = false;
+                selfClosingTag = false;
+                attributeQuote = 0;
+
+                if (c == '/') {
+                    closingTag = true;
+                    state = State.TAG_NAME;
+                } else if (c == '!') {
+                    commentDashes = 0;
+                    state = State.MARKUP_DECLARATION;
+                } else if (c == '?') {
+                    state = State.DECLARATION;
+                } else if (Character.isLetter(c)) {
+                    appendToName(c);
+                    state = State.TAG_NAME;
+                } else {
+                    // Not a tag, as in "a < b"
+                    state = State.TEXT;
+                    emit('<');
+                    accept(c);
+                }
+                break;
+
+            case TAG_NAME:
+                if (c == '>') {
+                    endTag();
+                } else if (c == '/' || isWhitespace(c)) {
+                    selfClosingTag = c == '/';
+                    state = State.TAG;
+                } else {
+                    appendToName(c);
+                }
+                break;
+
+            case TAG:
+                if (attributeQuote != 0) {
+                    if (c == attributeQuote) {
+                        attributeQuote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    attributeQuote = c;
+                } else if (c == '>') {
+                    endTag();
+                } else {
+                    selfClosingTag = c == '/';
+                }
+                break;
+
+            case MARKUP_DECLARATION:
+                // "<!--" starts a comment; anything else, such as "<!DOCTYPE", is skipped up to ">"
+                if (c == '-' && ++commentDashes == 2) {
+                    commentDashes = 0;
+                    state = State.COMMENT;
+                } else if (c == '>') {
+                    state = State.TEXT;
+                } else if (c != '-') {
+                    state = State.DECLARATION;
+                }
+                break;
+
+            case COMMENT:
+                if (c == '>' && commentDashes >= 2) {
+                    state = State.TEXT;
+                } else if (c == '-') {
+                    commentDashes++;
+                } else {
+                    commentDashes = 0;
+                }
+                break;
+
+            case DECLARATION:
+                if (c == '>') {
+                    state = State.TEXT;
+                }
+                break;
+
+            case RAW_TEXT:
+                acceptRawText(c);
+                break;
+
+            case ENTITY:
+                if (c == ';') {
+                    emitEntity();
+                    state = State.TEXT;
+                } else if ((Character.isLetterOrDigit(c) || (c == '#' && entityLength == 0))
+                        && entityLength < maxEntityLength) {
+                    entity[entityLength++] = c;
+                } else {
+                    emitUnterminatedEntity();
+                    state = State.TEXT;
+                    accept(c);
+                }
+                break;
+        }
+    }
+
+    private void acceptRawText(char c) {
+        // Looks for "</" followed by the name of the element that opened the raw text, and then by
+        // the end of the name, so that "</scripts>" does not end a script
+        int nameEnd = rawTextTag.length() + 2;
+
+        if (rawTextMatched == nameEnd) {
+            if (c == '>' || c == '/' || isWhitespace(c)) {
+                rawTextMatched = 0;
+                closingTag = true;
+                selfClosingTag = false;
+                attributeQuote = 0;
+                if (c == '>') {
+                    endTag();
+                } else {
+                    state = State.TAG;
+                }
+                return;
+            }
+            rawTextMatched = 0;
+        }
+
+        char expected = rawTextMatched == 0 ? '<'
+                : rawTextMatched == 1 ? '/'
+                : rawTextTag.charAt(rawTextMatched - 2);
+
+        if (Character.toLowerCase(c) == expected) {
+            rawTextMatched++;
+        } else {
+            rawTextMatched = c == '<' ? 1 : 0;
+        }
+    }
+
+    private void appendToName(char c) {
+        if (nameLength < maxNameLength) {
+            name[nameLength++] = Character.toLowerCase(c);
+        }
+    }
+
+    private void endTag() {
+        state = State.TEXT;
+
+        String tagName = new String(name, 0, nameLength);
+
+        if (!closingTag && !selfClosingTag && (tagName.equals("script") || tagName.equals("style"))) {
+            rawTextTag = tagName;
+            rawTextMatched = 0;
+            state = State.RAW_TEXT;
+        }
+
+        if (!inlineTags.contains(tagName)) {
+            emit(' ');
+        }
+    }
+
+    private void emitEntity() {
+        String entityName = new String(entity, 0, entityLength);
+
+        if (entityLength > 1 && entity[0] == '#') {
+            try {
+                int codePoint = entity[1] == 'x' || entity[1] == 'X'
+                        ? Integer.parseInt(entityName.substring(2), 16)
+                        : Integer.parseInt(entityName.substring(1));
+
+                if (Character.isValidCodePoint(codePoint)) {
+                    if (codePoint == 0xa0) {
+                        emit(' ');
+                    } else if (Character.isBmpCodePoint(codePoint)) {
+                        emit((char) codePoint);
+                    } else {
+                        emit(Character.highSurrogate(codePoint));
+                        emit(Character.lowSurrogate(codePoint));
+                    }
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                // Not a valid numeric reference; emitted as is below
+            }
+        } else if (Entities.isNamedEntity(entityName)) {
+            emit(Entities.getByName(entityName));
+            return;
+        }
+
+        emitUndecodedEntity();
+        emit(';');
+    }
+
+    private void emitUnterminatedEntity() {
+        String entityName = new String(entity, 0, entityLength);
+
+        if (Entities.isBaseNamedEntity(entityName)) {
+            emit(Entities.getByName(entityName));
+        } else {
+            emitUndecodedEntity();
+        }
+    }
+
+    private void emitUndecodedEntity() {
+        emit('&');
+        for (int i = 0; i < entityLength; i++) {
+            emit(entity[i]);
+        }
+    }
+
+    private void emit(String decoded) {
+        for (int i = 0; i < decoded.length(); i++) {
+            emit(decoded.charAt(i));
+        }
+    }
+
+    private void emit(char c) {
+        wordTokenizer.accept(isWhitespace(c) || c == '\u00a0' ? ' ' : c);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
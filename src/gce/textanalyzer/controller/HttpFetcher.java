@@ -0,0 +1,520 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.metrics.PipelineMetrics;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Fetches URLs for every analysis, whether their content is streamed or
+ * parsed whole.
+ * <p>
+ * Connections are kept alive and reused from one request to the next to
+ * the same host, up to {@code textanalyzer.fetch.maxConnections} idle
+ * connections per host: a response is read to its end and closed before
+ * the connection is given back, and a response that is abandoned halfway,
+ * such as one that is too large, closes its connection instead. Responses
+ * are requested compressed with gzip or deflate, unless the
+ * {@code textanalyzer.fetch.compression} option is turned off, and are
+ * decompressed as they are read.
+ * <p>
+ * Besides the connect and read timeouts, which only limit how long each
+ * step may wait, the whole body must be read within
+ * {@code textanalyzer.fetch.bodyTimeout} milliseconds, and may not be larger
+ * than {@code textanalyzer.fetch.maxMegabytes} once decompressed, so a
+ * slow or endless page fails instead of holding the analysis up.
+ * <p>
+ * As Jsoup did, the fetcher sends a browser's {@code User-Agent}, unless
+ * the {@code textanalyzer.fetch.userAgent} option sets another, follows up
+ * to {@value #MAX_REDIRECTS} redirects, from HTTP to HTTPS too, and refuses
+ * content that is not text, HTML or XML rather than counting its bytes as
+ * words. {@link HttpURLConnection} only follows redirects that keep the
+ * protocol, so they are followed here instead.
+ * <p>
+ * This uses {@link HttpURLConnection}, the HTTP client available on Java 8,
+ * which speaks HTTP/1.1.
+ */
+public class HttpFetcher {
+    /**
+     * The {@code User-Agent} sent by default, the one Jsoup sends
+     */
+    public static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 "
+            + "(KHTML, like Gecko) Chrome/53.0.2785.143 Safari/537.36";
+
+    /**
+     * The most redirects followed for a single fetch, as many as Jsoup follows
+     */
+    public static final int MAX_REDIRECTS = 20;
+
+    private static final int drainLimit = 64 * 1024;
+    private static final Pattern xmlContentType = Pattern.compile("(application|text)/[\\w.-]*\\+?xml.*");
+    private static volatile HttpFetcher sharedFetcher;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long bodyTimeoutMillis;
+    private final long maxBodyBytes;
+    private final boolean compression;
+    private final String userAgent;
+
+    /**
+     * Creates a fetcher that sends the {@link #DEFAULT_USER_AGENT}.
+     *
+     * @param connectTimeout    Milliseconds to wait for a connection
+     * @param readTimeout       Milliseconds to wait for each read
+     * @param bodyTimeoutMillis Milliseconds to read the whole body, or 0 for no limit
+     * @param maxBodyBytes      The most bytes of body to read once decompressed, or 0 for no limit
+     * @param compression       Whether to ask for compressed responses
+     */
+    public HttpFetcher(int connectTimeout, int readTimeout, long bodyTimeoutMillis, long maxBodyBytes,
+                       boolean compression) {
+        this(connectTimeout, readTimeout, bodyTimeoutMillis, maxBodyBytes, compression, DEFAULT_USER_AGENT);
+    }
+
+    /**
+     * @param connectTimeout    Milliseconds to wait for a connection
+     * @param readTimeout       Milliseconds to wait for each read
+     * @param bodyTimeoutMillis Milliseconds to read the whole body, or 0 for no limit
+     * @param maxBodyBytes      The most bytes of body to read once decompressed, or 0 for no limit
+     * @param compression       Whether to ask for compressed responses
+     * @param userAgent         The {@code User-Agent} header sent with each request
+     */
+    public HttpFetcher(int connectTimeout, int readTimeout, long bodyTimeoutMillis, long maxBodyBytes,
+                       boolean compression, String userAgent) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.bodyTimeoutMillis = bodyTimeoutMillis;
+        this.maxBodyBytes = maxBodyBytes;
+        this.compression = compression;
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * Returns the fetcher configured with the {@code textanalyzer.fetch.*}
+     * options, creating it on first use.
+     *
+     * @return The shared fetcher
+     */
+    public static HttpFetcher getShared() {
+        if (sharedFetcher == null) {
+            synchronized (HttpFetcher.class) {
+                if (sharedFetcher == null) {
+                    // Read by the JDK when it first keeps a connection alive
+                    if (System.getProperty("http.maxConnections") == null) {
+                        System.setProperty("http.maxConnections",
+                                Integer.toString(Math.max(1, Settings.getInt("fetch.maxConnections", 8))));
+                    }
+
+                    sharedFetcher = new HttpFetcher(Settings.getInt("fetch.connectTimeout", 10_000),
+                            Settings.getInt("fetch.readTimeout", 30_000),
+                            Settings.getInt("fetch.bodyTimeout", 120_000),
+                            Settings.getInt("fetch.maxMegabytes", 256) * 1024L * 1024L,
+                            Settings.getBoolean("fetch.compression", true),
+                            Settings.getString("fetch.userAgent", DEFAULT_USER_AGENT));
+                }
+            }
+        }
+
+        return sharedFetcher;
+    }
+
+    /**
+     * Fetches a URL.
+     *
+     * @param targetUrl The URL to fetch
+     * @return The response, whose body is ready to be read
+     * @throws IOException If the URL cannot be fetched, the server answers with an error or too
+     *                     many redirects, or the content is not text
+     */
+    public Response fetch(String targetUrl) throws IOException {
+        return fetchIfModified(targetUrl, null, null);
+    }
+
+    /**
+     * Fetches a URL, unless the server reports that it has not changed since
+     * it was fetched with the given validators.
+     *
+     * @param targetUrl    The URL to fetch
+     * @param eTag         The {@code ETag} of the previous response, or {@code null}
+     * @param lastModified The {@code Last-Modified} date of the previous response, or {@code null}
+     * @return The response, whose body is ready to be read unless it is {@link Response#isNotModified()}
+     * @throws IOException If the URL is not an HTTP or HTTPS one or cannot be fetched, the server
+     *                     answers with an error or too many redirects, or the content is not text
+     */
+    public Response fetchIfModified(String targetUrl, String eTag, String lastModified) throws IOException {
+        URL url = new URL(targetUrl);
+        if (!isHttp(url)) {
+            throw new MalformedURLException("Only http & https protocols supported. URL=" + url);
+        }
+
+        for (int redirects = 0; ; redirects++) {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setRequestProperty("User-Agent", userAgent);
+
+            connection.setInstanceFollowRedirects(false);
+            if (compression) {
+                connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            }
+            if (eTag != null) {
+                connection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+
+            long connectStarted = PipelineMetrics.stageStarted();
+            connection.connect();
+            int status = connection.getResponseCode();
+            PipelineMetrics.stageEnded(PipelineMetrics.Stage.FETCH, connectStarted);
+
+            Response response = new Response(url.toString(), connection, status);
+
+            if (isRedirect(status)) {
+                // The body of a redirect is only skipped, so that the connection can be reused
+                String location = connection.getHeaderField("Location");
+                response.close();
+                if (location == null) {
+                    throw new IOException("HTTP redirect without a location. Status=" + status + ", URL=" + url);
+                }
+                if (redirects == MAX_REDIRECTS) {
+                    throw new IOException("Too many redirects fetching URL. URL=" + targetUrl);
+                }
+
+                url = new URL(url, location);
+                if (!isHttp(url)) {
+                    throw new IOException("Only redirects to HTTP or HTTPS are followed. URL=" + url);
+                }
+                continue;
+            }
+
+            if (status >= 400) {
+                response.close();
+                throw new IOException("HTTP error fetching URL. Status=" + status + ", URL=" + url);
+            }
+
+            String contentType = connection.getContentType();
+            if (!response.isNotModified() && !isText(contentType)) {
+                response.close();
+                throw new IOException("Unhandled content type. Must be text/*, application/xml, or "
+                        + "application/*+xml. Mimetype=" + contentType + ", URL=" + url);
+            }
+
+            return response;
+        }
+    }
+
+    /**
+     * Whether a URL can be fetched, as Jsoup decides: only HTTP and HTTPS are.
+     */
+    private static boolean isHttp(URL url) {
+        return url.getProtocol().equals("http") || url.getProtocol().equals("https");
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == HttpURLConnection.HTTP_MOVED_PERM || status == HttpURLConnection.HTTP_MOVED_TEMP
+                || status == HttpURLConnection.HTTP_SEE_OTHER || status == 307 || status == 308;
+    }
+
+    /**
+     * Whether content can be counted, as Jsoup decides: a response without
+     * a type is taken to be text.
+     */
+    private static boolean isText(String contentType) {
+        if (contentType == null) {
+            return true;
+        }
+
+        String type = contentType.trim().toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || xmlContentType.matcher(type).matches();
+    }
+
+    /**
+     * A response to a request. Its body is read as a stream, and the
+     * response must be closed once done, so that the connection can be
+     * reused.
+     */
+    public class Response implements Closeable {
+        private final String url;
+        private final URLConnection connection;
+        private final int statusCode;
+        private final CountingInputStream rawBody;
+        private final InputStream body;
+        private final long started = System.nanoTime();
+        private long bodyBytes;
+        private boolean abandoned;
+
+        Response(String url, URLConnection connection, int statusCode) throws IOException {
+            this.url = url;
+            this.connection = connection;
+            this.statusCode = statusCode;
+
+            InputStream raw;
+            if (statusCode >= 400) {
+                raw = ((HttpURLConnection) connection).getErrorStream();
+            } else if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED
+                    || statusCode == HttpURLConnection.HTTP_NO_CONTENT) {
+                raw = null;
+            } else {
+                raw = connection.getInputStream();
+            }
+            rawBody = raw == null ? null : new CountingInputStream(raw);
+
+            String encoding = connection.getContentEncoding();
+            encoding = encoding == null ? "" : encoding.trim().toLowerCase(Locale.ROOT);
+            if (rawBody == null) {
+                body = new ByteArrayInputStream(new byte[0]);
+            } else if (statusCode >= 400) {
+                // The body of an error is only skipped
+                body = rawBody;
+            } else if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+                body = new LimitedInputStream(new GZIPInputStream(rawBody, 8192));
+            } else if (encoding.equals("deflate")) {
+                body = new LimitedInputStream(inflating(rawBody));
+            } else {
+                body = new LimitedInputStream(rawBody);
+            }
+        }
+
+        /**
+         * @return The URL that was fetched, after any redirects
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return The HTTP status code, or 200 for URLs other than HTTP
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @return True if the server answered that the URL has not changed, in which case there is no body
+         */
+        public boolean isNotModified() {
+            return statusCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        /**
+         * @param name The name of a header
+         * @return The value of the header, or {@code null} if the response has none
+         */
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        /**
+         * @return The {@code Content-Type} header, or {@code null} if the response has none
+         */
+        public String getContentType() {
+            return connection.getContentType();
+        }
+
+        /**
+         * @return The character encoding named by the {@code Content-Type} header, or UTF-8
+         */
+        public Charset getCharset() {
+            return StreamingFetcher.charsetOf(getContentType());
+        }
+
+        /**
+         * @return The name of the character encoding given by the {@code Content-Type} header, or
+         * {@code null} if it gives none that is supported
+         */
+        public String getCharsetName() {
+            return StreamingFetcher.charsetNameOf(getContentType());
+        }
+
+        /**
+         * @return The body, decompressed, as it arrives
+         */
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * Reads the whole body.
+         *
+         * @return The body, decompressed
+         * @throws IOException If the body cannot be read, is too large or is too slow
+         */
+        public byte[] readBody() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * @return The number of bytes of body read so far, once decompressed
+         */
+        public long getBodyBytes() {
+            return bodyBytes;
+        }
+
+        /**
+         * @return The number of bytes of body received so far, as sent by the server
+         */
+        public long getTransferredBytes() {
+            return rawBody == null ? 0 : rawBody.count;
+        }
+
+        /**
+         * Closes the body. A body that was read to its end leaves the
+         * connection to be reused; otherwise what is left of it is skipped
+         * if it is short, and the connection closed if it is not.
+         */
+        @Override
+        public void close() throws IOException {
+            if (rawBody == null) {
+                return;
+            }
+
+            if (!abandoned) {
+                try {
+                    long skipped = 0;
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while (skipped < drainLimit && (read = rawBody.read(buffer)) != -1) {
+                        skipped += read;
+                    }
+                    abandoned = skipped >= drainLimit;
+                } catch (IOException e) {
+                    abandoned = true;
+                }
+            }
+
+            if (abandoned && connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            } else {
+                body.close();
+            }
+        }
+
+        /**
+         * Stops a body that is too large or too slow, giving up its connection.
+         */
+        private IOException abandon(IOException e) {
+            abandoned = true;
+            return e;
+        }
+
+        /**
+         * Counts the bytes of body and enforces the size and time limits.
+         */
+        private class LimitedInputStream extends FilterInputStream {
+            LimitedInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (bodyTimeoutMillis > 0 && System.nanoTime() - started > bodyTimeoutMillis * 1_000_000L) {
+                    throw abandon(new SocketTimeoutException("The body of " + url + " took longer than "
+                            + bodyTimeoutMillis + " ms to read."));
+                }
+
+                int read = in.read(buffer, offset, length);
+                if (read > 0) {
+                    bodyBytes += read;
+                    if (maxBodyBytes > 0 && bodyBytes > maxBodyBytes) {
+                        throw abandon(new IOException("The body of " + url + " is larger than "
+                                + maxBodyBytes / (1024 * 1024) + " MB."));
+                    }
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                byte[] buffer = new byte[(int) Math.min(8192, Math.max(1, n))];
+                long skipped = 0;
+                int read;
+                while (skipped < n && (read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) != -1) {
+                    skipped += read;
+                }
+                return skipped;
+            }
+        }
+    }
+
+    /**
+     * Decompresses a deflate body, which servers send either with the zlib
+     * wrapper the standard asks for or as raw deflate data.
+     */
+    private static InputStream inflating(InputStream compressed) throws IOException {
+        PushbackInputStream input = new PushbackInputStream(compressed, 2);
+        byte[] header = new byte[2];
+        int read = 0;
+        int count;
+        while (read < 2 && (count = input.read(header, read, 2 - read)) != -1) {
+            read += count;
+        }
+        input.unread(header, 0, read);
+
+        // A zlib header is a multiple of 31 with the deflate method in its low bits
+        boolean zlib = read == 2 && (header[0] & 0x0f) == 8 && ((header[0] & 0xff) << 8 | header[1] & 0xff) % 31 == 0;
+        return new InflaterInputStream(input, new Inflater(!zlib), 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // The inflater was not created by the stream, so closing it does not release it
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Counts the bytes read from the connection.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,552 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.metrics.PipelineMetrics;
+import gce.textanalyzer.model.WordCounter;
+import gce.textanalyzer.store.DocumentWriter;
+import gce.textanalyzer.store.WordStoreException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Counts and stores the words of a document in four stages that run at the
+ * same time, so that the network, the processor and the database are busy
+ * together rather than one after another:
+ * <ol>
+ *     <li>fetch: reads the content in chunks of bytes;</li>
+ *     <li>tokenize: decodes each chunk, extracts its text and counts its
+ *     words into a segment;</li>
+ *     <li>aggregate: adds the segments to the counts of the whole document,
+ *     and collects them into a part to store once it holds enough unique
+ *     words;</li>
+ *     <li>persist: appends each part to a {@link DocumentWriter}.</li>
+ * </ol>
+ * The stages are connected by bounded queues. A stage that gets ahead
+ * waits for room in its output queue, so a slow database holds back the
+ * aggregation and then the tokenization, instead of the chunks piling up
+ * in memory. At most {@code queueCapacity} items wait between two stages.
+ * <p>
+ * Each part is written as soon as it is aggregated, while the rest of the
+ * document is still being fetched and counted. The database stores keep
+ * the parts in a table of their own until the document is committed, see
+ * {@link DocumentTransaction}, so that no lock is held while the network
+ * is read.
+ * <p>
+ * Each stage reports how many items and units (bytes, words or unique
+ * words) it processed, how long it was busy and how long it waited for
+ * room downstream, and the depth of its input queue, through
+ * {@link #getStages()}, which can be read while the pipeline runs.
+ * <p>
+ * The fetch stage runs on the calling thread, and the others on threads
+ * of their own. If a stage fails or the run is cancelled, all the stages
+ * stop and the first exception is thrown by {@link #run}.
+ */
+public class IngestionPipeline {
+    private static final byte[] endOfChunks = new byte[0];
+    private static final WordCounter endOfCounts = new WordCounter();
+    private static final long pollMillis = 50;
+
+    private final int queueCapacity;
+    private final int chunkSize;
+    private final int flushWords;
+
+    private final StageStats fetchStats;
+    private final StageStats tokenizeStats;
+    private final StageStats aggregateStats;
+    private final StageStats persistStats;
+
+    private final BlockingQueue<byte[]> chunks;
+    private final BlockingQueue<WordCounter> segments;
+    private final BlockingQueue<WordCounter> parts;
+
+    private volatile Throwable failure;
+    private volatile BooleanSupplier cancelled = () -> false;
+
+    /**
+     * Creates a pipeline configured with the {@code textanalyzer.pipeline.*} options.
+     */
+    public IngestionPipeline() {
+        this(Settings.getInt("pipeline.queueCapacity", 16), Settings.getInt("pipeline.chunkSize", 64 * 1024),
+                Settings.getInt("pipeline.flushWords", 10_000));
+    }
+
+    /**
+     * @param queueCapacity The most items waiting between two stages
+     * @param chunkSize     The size in bytes of the chunks read by the fetch stage
+     * @param flushWords    The number of unique words from which a part is stored
+     */
+    public IngestionPipeline(int queueCapacity, int chunkSize, int flushWords) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.chunkSize = Math.max(64, chunkSize);
+        this.flushWords = Math.max(1, flushWords);
+
+        chunks = new ArrayBlockingQueue<>(this.queueCapacity);
+        segments = new ArrayBlockingQueue<>(this.queueCapacity);
+        parts = new ArrayBlockingQueue<>(this.queueCapacity);
+
+        fetchStats = new StageStats("fetch", "bytes", null, this.queueCapacity);
+        tokenizeStats = new StageStats("tokenize", "words", chunks, this.queueCapacity);
+        aggregateStats = new StageStats("aggregate", "words", segments, this.queueCapacity);
+        persistStats = new StageStats("persist", "unique words", parts, this.queueCapacity);
+    }
+
+    /**
+     * Counts the words of an HTML document and stores them. A pipeline is
+     * run once.
+     *
+     * @param content        The document, which is read but not closed
+     * @param charset        The character encoding of the document
+     * @param documentWriter Receives the parts to store, or {@code null} to only count the words
+     * @param segmentCounted Called by the aggregate stage after each segment is added, with the
+     *                       segment and the counts so far, which must not be kept or changed
+     * @param cancelled      Whether the run should stop, checked by every stage
+     * @return The unique words of the document and their frequencies
+     * @throws IOException                If the document cannot be read
+     * @throws WordStoreException         If the words cannot be stored
+     * @throws CancellationException      If the run was cancelled
+     */
+    public WordCounter run(InputStream content, Charset charset, DocumentWriter documentWriter,
+                           BiConsumer<WordCounter, WordCounter> segmentCounted, BooleanSupplier cancelled)
+            throws IOException, WordStoreException {
+        this.cancelled = cancelled;
+        WordCounter wordCounter = new WordCounter();
+
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(3, runnable -> {
+            Thread thread = new Thread(runnable, "Ingestion pipeline " + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<Future<?>> stages = new ArrayList<>();
+        try {
+            stages.add(executor.submit(() -> runStage(tokenizeStats, () -> tokenize(charset))));
+            stages.add(executor.submit(() -> runStage(aggregateStats,
+                    () -> aggregate(wordCounter, documentWriter != null, segmentCounted))));
+            stages.add(executor.submit(() -> runStage(persistStats, () -> persist(documentWriter))));
+
+            runStage(fetchStats, () -> fetch(content));
+
+            boolean interrupted = false;
+            for (Future<?> stage : stages) {
+                while (true) {
+                    try {
+                        stage.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        fail(new CancellationException());
+                    } catch (ExecutionException e) {
+                        fail(e.getCause());
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Throwable thrown = failure;
+        if (thrown instanceof IOException) {
+            throw (IOException) thrown;
+        } else if (thrown instanceof WordStoreException) {
+            throw (WordStoreException) thrown;
+        } else if (thrown instanceof RuntimeException) {
+            throw (RuntimeException) thrown;
+        } else if (thrown instanceof Error) {
+            throw (Error) thrown;
+        } else if (thrown != null) {
+            throw new IllegalStateException(thrown);
+        }
+
+        return wordCounter;
+    }
+
+    /**
+     * @return The fetch, tokenize, aggregate and persist stages, in that order
+     */
+    public List<StageStats> getStages() {
+        return Arrays.asList(fetchStats, tokenizeStats, aggregateStats, persistStats);
+    }
+
+    /**
+     * @return The number of bytes read so far
+     */
+    public long getBytesFetched() {
+        return fetchStats.getUnits();
+    }
+
+    /**
+     * @return One line per stage with its throughput and queue depth
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (StageStats stage : getStages()) {
+            report.append(stage).append('\n');
+        }
+        return report.toString();
+    }
+
+    private void fetch(InputStream content) throws Exception {
+        while (true) {
+            byte[] buffer = new byte[chunkSize];
+            int length = 0;
+
+            long readStarted = System.nanoTime();
+            int read;
+            while (length < buffer.length && (read = content.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            fetchStats.busy(System.nanoTime() - readStarted);
+            PipelineMetrics.stageEnded(PipelineMetrics.Stage.FETCH, readStarted);
+
+            if (length == 0) {
+                break;
+            }
+
+            PipelineMetrics.bytesFetched(length);
+            fetchStats.processed(length);
+            put(chunks, length == buffer.length ? buffer : Arrays.copyOf(buffer, length), fetchStats);
+
+            if (length < buffer.length) {
+                break;
+            }
+        }
+
+        put(chunks, endOfChunks, fetchStats);
+    }
+
+    private void tokenize(Charset charset) throws Exception {
+        WordCounter[] segment = {new WordCounter()};
+        HtmlTextExtractor htmlTextExtractor = new HtmlTextExtractor(new WordTokenizer(
+                (buffer, offset, length) -> segment[0].add(buffer, offset, length), WordTokenizer.MAX_WORD_LENGTH));
+
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(chunkSize + 16);
+        CharBuffer chars = CharBuffer.allocate(chunkSize);
+
+        while (true) {
+            byte[] chunk = take(chunks, tokenizeStats);
+            boolean endOfInput = chunk == endOfChunks;
+
+            long started = System.nanoTime();
+            // Bytes of a character split between two chunks are kept for the next one
+            if (bytes.remaining() < chunk.length) {
+                ByteBuffer larger = ByteBuffer.allocate(bytes.position() + chunk.length);
+                bytes.flip();
+                larger.put(bytes);
+                bytes = larger;
+            }
+            bytes.put(chunk);
+            bytes.flip();
+
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, endOfInput);
+                drain(chars, htmlTextExtractor);
+            } while (result.isOverflow());
+            bytes.compact();
+
+            if (endOfInput) {
+                while (decoder.flush(chars).isOverflow()) {
+                    drain(chars, htmlTextExtractor);
+                }
+                drain(chars, htmlTextExtractor);
+                htmlTextExtractor.finish();
+            }
+            long nanos = System.nanoTime() - started;
+            tokenizeStats.busy(nanos);
+            PipelineMetrics.stageEnded(PipelineMetrics.Stage.TOKENIZE, started);
+
+            if (segment[0].size() > 0) {
+                tokenizeStats.processed(segment[0].total());
+                put(segments, segment[0], tokenizeStats);
+                segment[0] = new WordCounter();
+            }
+
+            if (endOfInput) {
+                put(segments, endOfCounts, tokenizeStats);
+                return;
+            }
+        }
+    }
+
+    private void aggregate(WordCounter wordCounter, boolean storing,
+                           BiConsumer<WordCounter, WordCounter> segmentCounted) throws Exception {
+        WordCounter part = new WordCounter();
+
+        while (true) {
+            WordCounter segment = take(segments, aggregateStats);
+            if (segment == endOfCounts) {
+                break;
+            }
+
+            long started = System.nanoTime();
+            wordCounter.addAll(segment);
+            if (storing) {
+                part.addAll(segment);
+            }
+            segmentCounted.accept(segment, wordCounter);
+            // Adding up the counts is not one of the stages of the metrics, and is only reported by getStages()
+            aggregateStats.busy(System.nanoTime() - started);
+            aggregateStats.processed(segment.total());
+
+            if (part.size() >= flushWords) {
+                put(parts, part, aggregateStats);
+                part = new WordCounter();
+            }
+        }
+
+        if (part.size() > 0) {
+            put(parts, part, aggregateStats);
+        }
+        put(parts, endOfCounts, aggregateStats);
+    }
+
+    private void persist(DocumentWriter documentWriter) throws Exception {
+        while (true) {
+            WordCounter part = take(parts, persistStats);
+            if (part == endOfCounts) {
+                return;
+            }
+
+            long started = System.nanoTime();
+            documentWriter.append(part);
+            persistStats.busy(System.nanoTime() - started);
+            PipelineMetrics.stageEnded(PipelineMetrics.Stage.STORE, started);
+            persistStats.processed(part.size());
+            persistStats.produced();
+        }
+    }
+
+    private static void drain(CharBuffer chars, HtmlTextExtractor htmlTextExtractor) {
+        chars.flip();
+        htmlTextExtractor.feed(chars.array(), 0, chars.limit());
+        chars.clear();
+    }
+
+    /**
+     * Runs a stage, recording when it started and ended. An exception stops
+     * the whole pipeline.
+     */
+    private void runStage(StageStats stage, StageBody body) {
+        stage.started = System.nanoTime();
+        try {
+            body.run();
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            stage.ended = System.nanoTime();
+        }
+    }
+
+    private synchronized void fail(Throwable e) {
+        // The first failure is the cause; the stages it stopped only report cancellations
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private void checkStopped() {
+        if (failure != null || cancelled.getAsBoolean()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Hands an item to the next stage, waiting while its queue is full.
+     */
+    private <T> void put(BlockingQueue<T> queue, T item, StageStats stage) throws InterruptedException {
+        checkStopped();
+
+        if (!queue.offer(item)) {
+            long waitStarted = System.nanoTime();
+            while (!queue.offer(item, pollMillis, TimeUnit.MILLISECONDS)) {
+                checkStopped();
+            }
+            stage.blocked(System.nanoTime() - waitStarted);
+        }
+
+        stage.produced();
+    }
+
+    /**
+     * Takes the next item from the previous stage, waiting while its queue is empty.
+     */
+    private <T> T take(BlockingQueue<T> queue, StageStats stage) throws InterruptedException {
+        stage.sampleQueue();
+
+        T item;
+        while ((item = queue.poll(pollMillis, TimeUnit.MILLISECONDS)) == null) {
+            checkStopped();
+        }
+
+        return item;
+    }
+
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    /**
+     * The throughput of a stage and the depth of its input queue. Each
+     * stage is updated by its own thread only, and can be read from any
+     * thread while the pipeline runs.
+     */
+    public static class StageStats {
+        private final String name;
+        private final String unit;
+        private final BlockingQueue<?> inputQueue;
+        private final int queueCapacity;
+
+        private volatile long items;
+        private volatile long units;
+        private volatile long busyNanos;
+        private volatile long blockedNanos;
+        private volatile int maxQueueDepth;
+        private volatile long started;
+        private volatile long ended;
+
+        private StageStats(String name, String unit, BlockingQueue<?> inputQueue, int queueCapacity) {
+            this.name = name;
+            this.unit = unit;
+            this.inputQueue = inputQueue;
+            this.queueCapacity = queueCapacity;
+        }
+
+        private void busy(long nanos) {
+            busyNanos += nanos;
+        }
+
+        private void blocked(long nanos) {
+            blockedNanos += nanos;
+        }
+
+        private void processed(long count) {
+            units += count;
+        }
+
+        private void produced() {
+            items++;
+        }
+
+        private void sampleQueue() {
+            maxQueueDepth = Math.max(maxQueueDepth, inputQueue.size());
+        }
+
+        /**
+         * @return The name of the stage
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return What {@link #getUnits()} counts
+         */
+        public String getUnit() {
+            return unit;
+        }
+
+        /**
+         * @return The number of items handed to the next stage, or written by the persist stage
+         */
+        public long getItems() {
+            return items;
+        }
+
+        /**
+         * @return The number of bytes, words or unique words processed
+         */
+        public long getUnits() {
+            return units;
+        }
+
+        /**
+         * @return The time spent working, in nanoseconds
+         */
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        /**
+         * @return The time spent waiting for room in the output queue, in nanoseconds
+         */
+        public long getBlockedNanos() {
+            return blockedNanos;
+        }
+
+        /**
+         * @return The time since the stage started, or that it ran for once ended, in nanoseconds
+         */
+        public long getElapsedNanos() {
+            long start = started;
+            if (start == 0) {
+                return 0;
+            }
+            long end = ended;
+            return (end != 0 ? end : System.nanoTime()) - start;
+        }
+
+        /**
+         * @return The units processed per second since the stage started
+         */
+        public double getThroughput() {
+            long elapsed = getElapsedNanos();
+            return elapsed > 0 ? units * 1e9 / elapsed : 0;
+        }
+
+        /**
+         * @return The number of items waiting in the input queue, or zero for the first stage
+         */
+        public int getQueueDepth() {
+            return inputQueue != null ? inputQueue.size() : 0;
+        }
+
+        /**
+         * @return The most items seen waiting in the input queue
+         */
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        /**
+         * @return The most items that can wait in the input queue
+         */
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        @Override
+        public String toString() {
+            NumberFormat numberFormat = NumberFormat.getInstance();
+            String stats = name + ": " + numberFormat.format(units) + " " + unit + " in "
+                    + numberFormat.format(getElapsedNanos() / 1_000_000) + " ms ("
+                    + numberFormat.format((long) getThroughput()) + " " + unit + "/s), busy "
+                    + numberFormat.format(busyNanos / 1_000_000) + " ms, waited "
+                    + numberFormat.format(blockedNanos / 1_000_000) + " ms for the next stage";
+
+            return inputQueue == null ? stats : stats + ", queue " + getQueueDepth() + "/" + queueCapacity
+                    + " (at most " + maxQueueDepth + ")";
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.model.WordCounter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+
+/**
+ * Counts the words of local files and directory trees by mapping the files
+ * into memory.
+ * <p>
+ * Each file is mapped with {@link FileChannel#map}, a region at a time, and
+ * its UTF-8 bytes are decoded straight into a small character buffer that is
+ * fed to a {@link WordTokenizer}, so no {@code String} is made of the text
+ * and the file is not copied through a stream. Files of up to 64 KB are
+ * read into a heap buffer instead: mapping them would cost more than it
+ * saves, and a mapping is only released when the garbage collector finds
+ * it, so a tree of many small files could run out of mappings. Files with an {@code .htm} or
+ * {@code .html} extension go through an {@link HtmlTextExtractor} first, so
+ * a file is counted as the same document would be when fetched from a URL
+ * in the streaming mode. The default mode parses pages with Jsoup, whose
+ * text can differ on malformed markup.
+ * <p>
+ * Directories are walked by fork-join tasks, one per directory and file, so
+ * the files of a tree are read and counted on all the cores. Large text
+ * files are also split at whitespace bytes, which never occur inside a
+ * multi-byte UTF-8 sequence, and the pieces are counted in parallel, as the
+ * {@link ParallelWordCounter} does for texts held in memory. The counters
+ * are merged in the order of the files, sorted by name, and of the pieces,
+ * so the words are numbered the same way on any number of threads.
+ */
+public class MappedFileCounter {
+    private static final int piecesPerWorker = 4;
+    private static final int charBufferSize = 8192;
+    private static final int mapThreshold = 1 << 16;
+
+    private final ForkJoinPool pool;
+    private final boolean parallel;
+    private final int maxTokenLength;
+    private final long chunkSize;
+    private final int regionSize;
+    private final Set<String> extensions;
+
+    /**
+     * Receives decoded characters.
+     */
+    private interface CharSink {
+        void feed(char[] chars, int offset, int length);
+    }
+
+    /**
+     * Creates a counter that runs on the common fork-join pool, configured
+     * with the {@code textanalyzer.parallel}, {@code textanalyzer.parallel.chunkSize},
+     * {@code textanalyzer.files.regionSize} and {@code textanalyzer.files.extensions} options.
+     *
+     * @param maxTokenLength The maximum number of characters kept per word
+     */
+    public MappedFileCounter(int maxTokenLength) {
+        this(ForkJoinPool.commonPool(), Settings.getBoolean("parallel", true), maxTokenLength,
+                Settings.getInt("parallel.chunkSize", 1 << 18), Settings.getInt("files.regionSize", 1 << 26),
+                Settings.getString("files.extensions", "txt,text,md,htm,html"));
+    }
+
+    /**
+     * @param pool           The pool that runs the tasks
+     * @param parallel       Whether files and pieces of files are counted on several threads
+     * @param maxTokenLength The maximum number of characters kept per word
+     * @param chunkSize      The number of bytes above which a text file is split, and the smallest piece
+     * @param regionSize     The largest number of bytes mapped at once
+     * @param extensions     The comma separated extensions of the files counted when walking a directory
+     */
+    public MappedFileCounter(ForkJoinPool pool, boolean parallel, int maxTokenLength, int chunkSize, int regionSize,
+                             String extensions) {
+        this.pool = pool;
+        this.parallel = parallel && pool.getParallelism() > 1;
+        this.maxTokenLength = maxTokenLength;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.regionSize = Math.max(4, regionSize);
+
+        this.extensions = new HashSet<>();
+        for (String extension : extensions.split(",")) {
+            if (!extension.trim().isEmpty()) {
+                this.extensions.add(extension.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    /**
+     * Counts the words of a file, or of the files in a directory tree that
+     * have one of the configured extensions. A file or directory that cannot
+     * be read is reported and skipped, and does not stop the others.
+     *
+     * @param path   The file or directory
+     * @param errors Receives the files and directories that could not be read, possibly on a worker thread
+     * @return The words and their frequencies
+     */
+    public WordCounter count(Path path, BiConsumer<Path, IOException> errors) {
+        ForkJoinTask<WordCounter> task = Files.isDirectory(path)
+                ? new DirectoryTask(path, errors)
+                : new FileTask(path, errors);
+
+        return parallel ? pool.invoke(task) : task.invoke();
+    }
+
+    /**
+     * @param file A file
+     * @return Whether the file is an HTML document, according to its extension
+     */
+    public static boolean isHtml(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".html") || name.endsWith(".htm");
+    }
+
+    private boolean hasCountedExtension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && extensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private class DirectoryTask extends RecursiveTask<WordCounter> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final BiConsumer<Path, IOException> errors;
+
+        DirectoryTask(Path directory, BiConsumer<Path, IOException> errors) {
+            this.directory = directory;
+            this.errors = errors;
+        }
+
+        @Override
+        protected WordCounter compute() {
+            List<Path> entries = new ArrayList<>();
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+                for (Path entry : directoryStream) {
+                    entries.add(entry);
+                }
+            } catch (IOException e) {
+                errors.accept(directory, e);
+                return new WordCounter();
+            }
+            Collections.sort(entries);
+
+            // Links to directories are not followed, so the walk cannot loop
+            List<ForkJoinTask<WordCounter>> tasks = new ArrayList<>();
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    tasks.add(new DirectoryTask(entry, errors));
+                } else if (Files.isRegularFile(entry) && hasCountedExtension(entry)) {
+                    tasks.add(new FileTask(entry, errors));
+                }
+            }
+
+            if (parallel) {
+                invokeAll(tasks);
+            }
+
+            WordCounter wordCounter = new WordCounter();
+            for (ForkJoinTask<WordCounter> task : tasks) {
+                wordCounter.addAll(parallel ? task.join() : task.invoke());
+            }
+            return wordCounter;
+        }
+    }
+
+    private class FileTask extends RecursiveTask<WordCounter> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path file;
+        private final BiConsumer<Path, IOException> errors;
+
+        FileTask(Path file, BiConsumer<Path, IOException> errors) {
+            this.file = file;
+            this.errors = errors;
+        }
+
+        @Override
+        protected WordCounter compute() {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long start = hasByteOrderMark(channel) ? 3 : 0;
+
+                // The state of the HTML extractor cannot be recreated in the middle of a document
+                if (isHtml(file) || !parallel || size - start <= chunkSize) {
+                    return countRange(channel, start, size, isHtml(file));
+                }
+
+                // A few pieces per worker balance the load; more would only add merges
+                long pieceSize = Math.max(chunkSize, (size - start) / (pool.getParallelism() * piecesPerWorker));
+                return new PieceTask(channel, start, size, pieceSize).invoke();
+            } catch (IOException e) {
+                errors.accept(file, e);
+            } catch (UncheckedIOException e) {
+                errors.accept(file, e.getCause());
+            }
+            return new WordCounter();
+        }
+    }
+
+    private class PieceTask extends RecursiveTask<WordCounter> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final long pieceSize;
+
+        PieceTask(FileChannel channel, long start, long end, long pieceSize) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.pieceSize = pieceSize;
+        }
+
+        @Override
+        protected WordCounter compute() {
+            try {
+                if (end - start > pieceSize) {
+                    long split = nextWhitespace(channel, start + (end - start) / 2, end);
+
+                    // A piece without whitespace after its middle is counted whole
+                    if (split < end) {
+                        PieceTask second = new PieceTask(channel, split, end, pieceSize);
+                        second.fork();
+
+                        WordCounter wordCounter = new PieceTask(channel, start, split, pieceSize).compute();
+                        wordCounter.addAll(second.join());
+                        return wordCounter;
+                    }
+                }
+
+                return countRange(channel, start, end, false);
+            } catch (IOException e) {
+                // Reported by the file task, which owns the channel
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Counts the words of a range of a file, mapping it a region at a time.
+     * Each region but the last ends before an incomplete UTF-8 sequence, which
+     * starts the next one, and the same tokenizer reads all of them. Small
+     * ranges are read rather than mapped.
+     */
+    private WordCounter countRange(FileChannel channel, long start, long end, boolean html) throws IOException {
+        WordCounter wordCounter = new WordCounter();
+        WordTokenizer wordTokenizer = new WordTokenizer(wordCounter::add, maxTokenLength);
+        HtmlTextExtractor htmlTextExtractor = html ? new HtmlTextExtractor(wordTokenizer) : null;
+        CharSink sink = html ? htmlTextExtractor::feed : wordTokenizer::feed;
+        char[] chars = new char[charBufferSize];
+
+        if (end - start <= mapThreshold) {
+            ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+            while (bytes.hasRemaining() && channel.read(bytes, start + bytes.position()) > 0) {
+                // Reads until the buffer is full or the file ends
+            }
+            decode(bytes, bytes.position(), chars, sink);
+        } else {
+            long position = start;
+            while (position < end) {
+                long regionEnd = Math.min(end, position + regionSize);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionEnd - position);
+
+                int length = regionEnd < end ? completeLength(region) : region.limit();
+                decode(region, length, chars, sink);
+                position += length;
+            }
+        }
+
+        if (html) {
+            htmlTextExtractor.finish();
+        } else {
+            wordTokenizer.finish();
+        }
+        return wordCounter;
+    }
+
+    /**
+     * Decodes UTF-8 bytes into characters and hands them to a sink, a buffer
+     * at a time. Malformed sequences become the replacement character, as
+     * with the {@link java.nio.charset.CharsetDecoder} used for streams.
+     */
+    private static void decode(ByteBuffer bytes, int limit, char[] chars, CharSink sink) {
+        int length = 0;
+        int i = 0;
+
+        while (i < limit) {
+            // Leaves room for a surrogate pair
+            if (length >= chars.length - 1) {
+                sink.feed(chars, 0, length);
+                length = 0;
+            }
+
+            int b = bytes.get(i);
+            if (b >= 0) {
+                chars[length++] = (char) b;
+                i++;
+                continue;
+            }
+
+            int sequenceLength = sequenceLength(b);
+            int codePoint = b & (0x7f >> sequenceLength);
+            int read = 1;
+            while (read < sequenceLength && i + read < limit && (bytes.get(i + read) & 0xc0) == 0x80) {
+                codePoint = codePoint << 6 | bytes.get(i + read) & 0x3f;
+                read++;
+            }
+            i += read;
+
+            if (read < sequenceLength || sequenceLength == 1 || isInvalidCodePoint(codePoint, sequenceLength)) {
+                chars[length++] = '\uFFFD';
+            } else if (Character.isBmpCodePoint(codePoint)) {
+                chars[length++] = (char) codePoint;
+            } else {
+                chars[length++] = Character.highSurrogate(codePoint);
+                chars[length++] = Character.lowSurrogate(codePoint);
+            }
+        }
+
+        sink.feed(chars, 0, length);
+    }
+
+    /**
+     * @param b A byte that is not ASCII
+     * @return The length of the sequence it starts, or 1 if it cannot start one
+     */
+    private static int sequenceLength(int b) {
+        if ((b & 0xe0) == 0xc0) {
+            return 2;
+        } else if ((b & 0xf0) == 0xe0) {
+            return 3;
+        } else if ((b & 0xf8) == 0xf0) {
+            return 4;
+        }
+        return 1;
+    }
+
+    private static boolean isInvalidCodePoint(int codePoint, int sequenceLength) {
+        int smallest = sequenceLength == 2 ? 0x80 : sequenceLength == 3 ? 0x800 : 0x10000;
+        return codePoint < smallest || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE);
+    }
+
+    /**
+     * @param region A mapped region that is followed by more of the file
+     * @return The number of bytes of the region up to its last complete UTF-8 sequence
+     */
+    private static int completeLength(ByteBuffer region) {
+        int limit = region.limit();
+        for (int back = 1; back <= 3 && back <= limit; back++) {
+            int b = region.get(limit - back);
+            if ((b & 0xc0) != 0x80) {
+                return b < 0 && sequenceLength(b) > back ? limit - back : limit;
+            }
+        }
+        return limit;
+    }
+
+    private static boolean hasByteOrderMark(FileChannel channel) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(3);
+        while (bytes.hasRemaining() && channel.read(bytes, bytes.position()) > 0) {
+            // Reads until the buffer is full or the file ends
+        }
+        return bytes.position() == 3 && bytes.get(0) == (byte) 0xef && bytes.get(1) == (byte) 0xbb
+                && bytes.get(2) == (byte) 0xbf;
+    }
+
+    /**
+     * @return The position of the first whitespace byte at or after {@code position}, or {@code end} if none
+     */
+    private static long nextWhitespace(FileChannel channel, long position, long end) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(4096);
+        while (position < end) {
+            bytes.clear();
+            bytes.limit((int) Math.min(bytes.capacity(), end - position));
+            int read = channel.read(bytes, position);
+            if (read <= 0) {
+                break;
+            }
+
+            for (int i = 0; i < read; i++) {
+                if (WordTokenizer.isDelimiter((char) bytes.get(i))) {
+                    return position + i;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,169 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.metrics.PipelineMetrics;
+import gce.textanalyzer.model.Word;
+import gce.textanalyzer.model.WordCount;
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A read-only list of ranked words that fetches its rows a page at a time,
+ * as the {@code TableView} asks for them.
+ * <p>
+ * Pages are fetched on a background thread. Until a page arrives, its rows
+ * are shown as placeholders, and once it arrives the rows are replaced so
+ * the table redraws them. A page is fetched with keyset pagination when the
+ * last word of the previous page is known, which is the case when the user
+ * scrolls, and by offset otherwise, for example after dragging the scroll
+ * bar. Each fetched page also prefetches the next one, and only the most
+ * recently used pages are kept in memory.
+ */
+public class PagedWordList extends ObservableListBase<Word> {
+    /**
+     * Fetches one page of ranked words.
+     */
+    public interface PageSource {
+        /**
+         * @param after  The last word of the previous page, or {@code null} to fetch by offset
+         * @param offset The rank, starting at zero, of the first word of the page
+         * @param limit  The maximum number of words to fetch
+         * @return The words of the page, most frequent first
+         * @throws Exception If the page cannot be fetched
+         */
+        List<WordCount> fetch(WordCount after, int offset, int limit) throws Exception;
+    }
+
+    private static final ExecutorService pageLoader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "page-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PageSource pageSource;
+    private final int pageSize;
+    private final int cachedPages;
+    private int size;
+
+    private final Map<Integer, List<WordCount>> pages;
+    private final Map<Integer, WordCount> lastWordOfPage = new HashMap<>();
+    private final Set<Integer> loadingPages = new HashSet<>();
+
+    /**
+     * @param pageSource The source of the pages
+     * @param size       The total number of words
+     * @param pageSize   The number of words per page
+     * @param firstPage  The first page, if already fetched, or {@code null}
+     */
+    public PagedWordList(PageSource pageSource, int size, int pageSize, List<WordCount> firstPage) {
+        this.pageSource = pageSource;
+        this.size = size;
+        this.pageSize = pageSize;
+        this.cachedPages = Math.max(2, Settings.getInt("view.cachedPages", 8));
+        this.pages = new LinkedHashMap<Integer, List<WordCount>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<WordCount>> eldest) {
+                return size() > cachedPages;
+            }
+        };
+
+        if (firstPage != null) {
+            addPage(0, firstPage);
+        }
+    }
+
+    @Override
+    public Word get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        int page = index / pageSize;
+        List<WordCount> words = pages.get(page);
+
+        if (words == null) {
+            load(page);
+            return new Word(index + 1, "", 0);
+        }
+
+        load(page + 1);
+
+        int position = index - page * pageSize;
+        if (position >= words.size()) {
+            return new Word(index + 1, "", 0);
+        }
+
+        WordCount word = words.get(position);
+        return new Word(index + 1, word.getWordContent(), word.getWordFrequency());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void load(int page) {
+        if (page * pageSize >= size || pages.containsKey(page) || !loadingPages.add(page)) {
+            return;
+        }
+
+        WordCount after = page == 0 ? null : lastWordOfPage.get(page - 1);
+
+        pageLoader.execute(() -> {
+            List<WordCount> words;
+            long queryStarted = PipelineMetrics.stageStarted();
+            try {
+                words = pageSource.fetch(after, page * pageSize, pageSize);
+            } catch (Exception e) {
+                System.out.println("Unable to fetch page " + page + " of the results: " + e);
+                Platform.runLater(() -> loadingPages.remove(page));
+                return;
+            }
+
+            PipelineMetrics.stageEnded(PipelineMetrics.Stage.QUERY, queryStarted);
+            PipelineMetrics.rowsMaterialized(words.size());
+
+            Platform.runLater(() -> pageLoaded(page, words));
+        });
+    }
+
+    private void pageLoaded(int page, List<WordCount> words) {
+        loadingPages.remove(page);
+        addPage(page, words);
+
+        int first = page * pageSize;
+        int last = Math.min(size, first + pageSize);
+
+        beginChange();
+
+        if (words.size() < pageSize && first + words.size() < size) {
+            // Fewer words than expected; the list ends here
+            List<Word> removed = new ArrayList<>();
+            for (int index = first + words.size(); index < size; index++) {
+                removed.add(new Word(index + 1, "", 0));
+            }
+            size = first + words.size();
+            last = size;
+            nextRemove(size, removed);
+        }
+
+        for (int index = first; index < last; index++) {
+            nextSet(index, new Word(index + 1, "", 0));
+        }
+
+        endChange();
+    }
+
+    private void addPage(int page, List<WordCount> words) {
+        pages.put(page, words);
+
+        if (!words.isEmpty()) {
+            lastWordOfPage.put(page, words.get(words.size() - 1));
+        }
+    }
+}
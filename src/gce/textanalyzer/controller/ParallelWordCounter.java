@@ -0,0 +1,174 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.model.WordCounter;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+/**
+ * Splits a large text into words and counts them on several threads.
+ * <p>
+ * The text is split in halves, recursively, until the pieces are no longer
+ * than the chunk size, or until there are a few pieces per worker for
+ * larger texts, since each piece adds a merge. Each piece is tokenized by
+ * a fork-join task into a {@link WordCounter} of its own, so the workers
+ * share nothing while they count, and the counters are then merged
+ * pairwise, in the order of the text.
+ * <p>
+ * Each split is moved forward to the next whitespace character, which
+ * starts the second piece. A {@link WordTokenizer} that has just been given
+ * a whitespace character is in the same state as a new tokenizer given
+ * that character first, so the pieces yield exactly the words a single
+ * tokenizer would. Since the counters are merged in the order of the text,
+ * the words are even numbered in the same order.
+ * <p>
+ * Progress is reported as each piece is counted, and a cancellation is
+ * checked before each piece, so a large text can be stopped part way.
+ */
+public class ParallelWordCounter {
+    private static final int piecesPerWorker = 4;
+
+    private final ForkJoinPool pool;
+    private final int maxTokenLength;
+    private final int chunkSize;
+
+    /**
+     * Creates a counter that runs on the common fork-join pool, with the
+     * chunk size set by the {@code textanalyzer.parallel.chunkSize} option.
+     *
+     * @param maxTokenLength The maximum number of characters kept per word
+     */
+    public ParallelWordCounter(int maxTokenLength) {
+        this(ForkJoinPool.commonPool(), maxTokenLength, Settings.getInt("parallel.chunkSize", 1 << 18));
+    }
+
+    /**
+     * @param pool           The pool that runs the tasks
+     * @param maxTokenLength The maximum number of characters kept per word
+     * @param chunkSize      The number of characters above which a text is split, and the smallest piece
+     */
+    public ParallelWordCounter(ForkJoinPool pool, int maxTokenLength, int chunkSize) {
+        this.pool = pool;
+        this.maxTokenLength = maxTokenLength;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Splits a text into words and counts them.
+     *
+     * @param text The text
+     * @return The words and their frequencies
+     */
+    public WordCounter count(CharSequence text) {
+        return count(text, countedChars -> {
+        }, () -> false);
+    }
+
+    /**
+     * Splits a text into words and counts them, reporting progress.
+     *
+     * @param text      The text
+     * @param progress  Receives the number of characters counted so far after each piece, on
+     *                  the thread that counted it
+     * @param cancelled Checked before each piece is counted
+     * @return The words and their frequencies
+     * @throws CancellationException If {@code cancelled} returned true
+     */
+    public WordCounter count(CharSequence text, LongConsumer progress, BooleanSupplier cancelled) {
+        Progress counted = new Progress(progress, cancelled);
+        if (!splits(text.length())) {
+            return countRange(text, 0, text.length(), counted);
+        }
+
+        // A few pieces per worker balance the load; more would only add merges
+        int pieceSize = Math.max(chunkSize, text.length() / (pool.getParallelism() * piecesPerWorker));
+        return pool.invoke(new CountTask(text, 0, text.length(), pieceSize, counted));
+    }
+
+    /**
+     * @param textLength The number of characters of a text
+     * @return Whether a text of this length is split, which it is not on a single worker
+     */
+    public boolean splits(int textLength) {
+        return textLength > chunkSize && isParallel();
+    }
+
+    /**
+     * @return Whether texts can be split at all, which they cannot on a single worker
+     */
+    public boolean isParallel() {
+        return pool.getParallelism() > 1;
+    }
+
+    private WordCounter countRange(CharSequence text, int start, int end, Progress counted) {
+        if (counted.cancelled.getAsBoolean()) {
+            throw new CancellationException();
+        }
+
+        WordCounter wordCounter = new WordCounter();
+        WordTokenizer wordTokenizer = new WordTokenizer(wordCounter::add, maxTokenLength);
+        wordTokenizer.feed(text, start, end);
+        wordTokenizer.finish();
+
+        counted.progress.accept(counted.chars.addAndGet(end - start));
+        return wordCounter;
+    }
+
+    /**
+     * The progress of counting one text, shared by its tasks.
+     */
+    private static class Progress {
+        private final AtomicLong chars = new AtomicLong();
+        private final LongConsumer progress;
+        private final BooleanSupplier cancelled;
+
+        Progress(LongConsumer progress, BooleanSupplier cancelled) {
+            this.progress = progress;
+            this.cancelled = cancelled;
+        }
+    }
+
+    private class CountTask extends RecursiveTask<WordCounter> {
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence text;
+        private final int start;
+        private final int end;
+        private final int pieceSize;
+        private final Progress counted;
+
+        CountTask(CharSequence text, int start, int end, int pieceSize, Progress counted) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.pieceSize = pieceSize;
+            this.counted = counted;
+        }
+
+        @Override
+        protected WordCounter compute() {
+            if (end - start > pieceSize) {
+                int split = start + (end - start) / 2;
+                while (split < end && !WordTokenizer.isDelimiter(text.charAt(split))) {
+                    split++;
+                }
+
+                // A piece without whitespace after its middle is counted whole
+                if (split < end) {
+                    CountTask second = new CountTask(text, split, end, pieceSize, counted);
+                    second.fork();
+
+                    WordCounter wordCounter = new CountTask(text, start, split, pieceSize, counted).compute();
+                    wordCounter.addAll(second.join());
+                    return wordCounter;
+                }
+            }
+
+            return countRange(text, start, end, counted);
+        }
+    }
+}
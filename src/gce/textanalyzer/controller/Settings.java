@@ -0,0 +1,63 @@
+package gce.textanalyzer.controller;
+
+/**
+ * Runtime configuration of the TextAnalyzer application.
+ * <p>
+ * Every option is read from a Java system property prefixed with
+ * {@code textanalyzer.}, so that it can be changed on the command line
+ * (for example {@code -Dtextanalyzer.db.batchSize=500}) without editing
+ * the code. Options that are not set fall back to the given default.
+ */
+public final class Settings {
+    private static final String prefix = "textanalyzer.";
+
+    private Settings() {
+    }
+
+    /**
+     * Reads an integer option.
+     *
+     * @param name         The option name, without the {@code textanalyzer.} prefix
+     * @param defaultValue The value to use if the option is not set or invalid
+     * @return The configured value
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = System.getProperty(prefix + name);
+
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                System.out.println("Ignoring invalid value '" + value + "' for option " + prefix + name);
+            }
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * Reads a boolean option.
+     *
+     * @param name         The option name, without the {@code textanalyzer.} prefix
+     * @param defaultValue The value to use if the option is not set
+     * @return The configured value
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = System.getProperty(prefix + name);
+
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Reads a text option.
+     *
+     * @param name         The option name, without the {@code textanalyzer.} prefix
+     * @param defaultValue The value to use if the option is not set
+     * @return The configured value
+     */
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(prefix + name);
+
+        return value == null ? defaultValue : value.trim();
+    }
+}
@@ -0,0 +1,265 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.metrics.PipelineMetrics;
+import gce.textanalyzer.model.WordCounter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.*;
+
+/**
+ * Fetches the target URL and counts its words while the response is being
+ * read, without ever holding the whole document in memory.
+ * <p>
+ * The response is read into a fixed size byte buffer, decoded into a char
+ * buffer of the same size and passed through an {@link HtmlTextExtractor}
+ * to a {@link WordTokenizer}. The memory used to read a document is
+ * therefore bounded by the buffer size, read from the
+ * {@code textanalyzer.stream.bufferSize} option, regardless of the size of
+ * the document. Only the {@link WordCounter} grows, with the number of
+ * unique words. The URL is fetched by an {@link HttpFetcher}, which reuses
+ * connections and decompresses the response as it is read.
+ */
+public class StreamingFetcher {
+    private static final int defaultBufferSize = 16 * 1024;
+    private static final int minBufferSize = 64;
+
+    private final int bufferSize;
+    private final HttpFetcher httpFetcher;
+    private long bytesRead;
+    private String responseETag;
+    private String responseLastModified;
+
+    /**
+     * Creates a fetcher with the configured buffer size.
+     */
+    public StreamingFetcher() {
+        this(Settings.getInt("stream.bufferSize", defaultBufferSize));
+    }
+
+    /**
+     * @param bufferSize The size of the read buffer, in bytes
+     */
+    public StreamingFetcher(int bufferSize) {
+        this(bufferSize, HttpFetcher.getShared());
+    }
+
+    /**
+     * @param bufferSize  The size of the read buffer, in bytes
+     * @param httpFetcher Fetches the URLs
+     */
+    public StreamingFetcher(int bufferSize, HttpFetcher httpFetcher) {
+        this.bufferSize = Math.max(minBufferSize, bufferSize);
+        this.httpFetcher = httpFetcher;
+    }
+
+    /**
+     * Fetches the target URL and counts its words.
+     *
+     * @param targetUrl The URL to fetch
+     * @return The unique words and their frequencies
+     * @throws IOException If the URL cannot be fetched
+     */
+    public WordCounter fetchWords(String targetUrl) throws IOException {
+        WordCounter wordCounter = new WordCounter();
+
+        fetchWords(targetUrl, wordCounter::add);
+
+        return wordCounter;
+    }
+
+    /**
+     * Fetches the target URL and splits its text into words.
+     *
+     * @param targetUrl The URL to fetch
+     * @param sink      Receives the words found
+     * @throws IOException If the URL cannot be fetched
+     */
+    public void fetchWords(String targetUrl, WordTokenizer.TokenSink sink) throws IOException {
+        fetchWordsIfModified(targetUrl, null, null, sink);
+    }
+
+    /**
+     * Fetches the target URL and splits its text into words, unless the
+     * server reports that it has not changed since it was fetched with the
+     * given validators. The validators of the response are then available
+     * from {@link #getETag()} and {@link #getLastModified()}.
+     *
+     * @param targetUrl    The URL to fetch
+     * @param eTag         The {@code ETag} of the previous response, or {@code null}
+     * @param lastModified The {@code Last-Modified} date of the previous response, or {@code null}
+     * @param sink         Receives the words found
+     * @return False if the URL has not changed, in which case no word is sent to {@code sink}
+     * @throws IOException If the URL cannot be fetched
+     */
+    public boolean fetchWordsIfModified(String targetUrl, String eTag, String lastModified,
+                                        WordTokenizer.TokenSink sink) throws IOException {
+        HttpFetcher.Response response = openIfModified(targetUrl, eTag, lastModified);
+        if (response == null) {
+            return false;
+        }
+
+        try (HttpFetcher.Response htmlContent = response) {
+            countWords(htmlContent.getBody(), htmlContent.getCharset(), sink);
+        }
+
+        return true;
+    }
+
+    /**
+     * Connects to the target URL, unless the server reports that it has not
+     * changed since it was fetched with the given validators. The validators
+     * of the response are then available from {@link #getETag()} and
+     * {@link #getLastModified()}.
+     *
+     * @param targetUrl    The URL to fetch
+     * @param eTag         The {@code ETag} of the previous response, or {@code null}
+     * @param lastModified The {@code Last-Modified} date of the previous response, or {@code null}
+     * @return The response, whose body is ready to be read and which must be closed, or {@code null} if the
+     * URL has not changed
+     * @throws IOException If the URL cannot be fetched
+     */
+    public HttpFetcher.Response openIfModified(String targetUrl, String eTag, String lastModified)
+            throws IOException {
+        HttpFetcher.Response response = httpFetcher.fetchIfModified(targetUrl, eTag, lastModified);
+        if (response.isNotModified() && (eTag != null || lastModified != null)) {
+            response.close();
+            return null;
+        }
+
+        responseETag = response.getHeader("ETag");
+        responseLastModified = response.getHeader("Last-Modified");
+
+        return response;
+    }
+
+    /**
+     * Extracts the text of an HTML document from a stream and splits it
+     * into words.
+     *
+     * @param htmlContent The HTML document
+     * @param charset     The character encoding of the document
+     * @param sink        Receives the words found
+     * @throws IOException If the stream cannot be read
+     */
+    public void countWords(InputStream htmlContent, Charset charset, WordTokenizer.TokenSink sink) throws IOException {
+        HtmlTextExtractor htmlTextExtractor =
+                new HtmlTextExtractor(new WordTokenizer(sink, WordTokenizer.MAX_WORD_LENGTH));
+
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        ByteBuffer bytes = ByteBuffer.allocate(bufferSize);
+        CharBuffer chars = CharBuffer.allocate(bufferSize);
+
+        boolean endOfInput = false;
+
+        while (!endOfInput) {
+            long readStarted = PipelineMetrics.stageStarted();
+            int read = htmlContent.read(bytes.array(), bytes.position(), bytes.remaining());
+            PipelineMetrics.stageEnded(PipelineMetrics.Stage.FETCH, readStarted);
+
+            if (read == -1) {
+                endOfInput = true;
+            } else {
+                bytes.position(bytes.position() + read);
+                bytesRead += read;
+                PipelineMetrics.bytesFetched(read);
+            }
+
+            bytes.flip();
+
+            // Extraction and tokenization happen together, and are measured as one stage
+            long processStarted = PipelineMetrics.stageStarted();
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, endOfInput);
+                drain(chars, htmlTextExtractor);
+            } while (result.isOverflow());
+            PipelineMetrics.stageEnded(PipelineMetrics.Stage.FLATTEN, processStarted);
+
+            bytes.compact();
+        }
+
+        while (decoder.flush(chars).isOverflow()) {
+            drain(chars, htmlTextExtractor);
+        }
+        drain(chars, htmlTextExtractor);
+
+        htmlTextExtractor.finish();
+    }
+
+    /**
+     * @return The {@code ETag} of the last URL fetched, or {@code null} if it had none
+     */
+    public String getETag() {
+        return responseETag;
+    }
+
+    /**
+     * @return The {@code Last-Modified} date of the last URL fetched, or {@code null} if it had none
+     */
+    public String getLastModified() {
+        return responseLastModified;
+    }
+
+    /**
+     * @return The number of bytes read so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * The most memory, in bytes, used to read a document: the byte buffer,
+     * the char buffer and the longest word the tokenizer keeps.
+     *
+     * @return The memory ceiling in bytes
+     */
+    public long getMemoryCeiling() {
+        return bufferSize + 2L * bufferSize + 2L * WordTokenizer.MAX_WORD_LENGTH;
+    }
+
+    private static void drain(CharBuffer chars, HtmlTextExtractor htmlTextExtractor) {
+        chars.flip();
+        htmlTextExtractor.feed(chars.array(), 0, chars.limit());
+        chars.clear();
+    }
+
+    /**
+     * @param contentType The {@code Content-Type} header of a response, or {@code null}
+     * @return The character encoding it names, or UTF-8
+     */
+    public static Charset charsetOf(String contentType) {
+        String charsetName = charsetNameOf(contentType);
+
+        return charsetName != null ? Charset.forName(charsetName) : StandardCharsets.UTF_8;
+    }
+
+    /**
+     * @param contentType The {@code Content-Type} header of a response, or {@code null}
+     * @return The name of the character encoding it gives, or {@code null} if it gives none that is supported
+     */
+    public static String charsetNameOf(String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String[] pair = parameter.trim().split("=", 2);
+                if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+                    String charsetName = pair[1].trim().replace("\"", "");
+                    try {
+                        if (Charset.isSupported(charsetName)) {
+                            return charsetName;
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // Invalid charset name; ignore it
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+}
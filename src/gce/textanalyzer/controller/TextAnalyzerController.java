@@ -1,25 +1,34 @@
 package gce.textanalyzer.controller;
 
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.TopKCounter;
 import gce.textanalyzer.model.Word;
+import gce.textanalyzer.model.WordSketch;
+import gce.textanalyzer.store.ResultSnapshot;
+import gce.textanalyzer.store.WordStore;
+import gce.textanalyzer.store.WordStoreException;
 import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 import javafx.scene.control.cell.PropertyValueFactory;
-import org.jsoup.Jsoup;
+import javafx.stage.FileChooser;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
 import java.net.URL;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * This is the main controller for the GUI of the TextAnalyzer application.
@@ -42,7 +51,50 @@ public class TextAnalyzerController implements Initializable {
     private TableColumn<Word, String> wordContent;
 
     @FXML
-    private TableColumn<Word, Integer> wordFrequency;
+    private TableColumn<Word, Long> wordFrequency;
+
+    @FXML
+    private Button analyzeButton;
+
+    @FXML
+    private Button cancelButton;
+
+    /**
+     * Number of ranked words read from the word store at a time
+     */
+    private static final int resultsPageSize = 100;
+
+    /**
+     * Number of the most frequent words shown while an analysis is running
+     */
+    private static final int partialResultsSize = 100;
+
+    /**
+     * Number of failed URLs of a batch named in the {@code messageLabel}
+     */
+    private static final int shownFailures = 3;
+
+    /**
+     * Runs the analyses in the background, one at a time
+     */
+    private final ExecutorService analysisExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "text-analyzer-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private AnalysisTask analysisTask;
+
+    /**
+     * The number of the document whose words are shown, or 0 if they are not
+     * from the word store
+     */
+    private long displayedDocumentId;
+
+    /**
+     * The store holding the document whose words are shown
+     */
+    private WordStore displayedStore;
 
     /**
      * Called by the {@code FXMLLoader} to initialize the controller after its root
@@ -61,6 +113,11 @@ public class TextAnalyzerController implements Initializable {
         wordRank.setCellValueFactory(new PropertyValueFactory<>("wordRank"));
         wordContent.setCellValueFactory(new PropertyValueFactory<>("wordContent"));
         wordFrequency.setCellValueFactory(new PropertyValueFactory<>("wordFrequency"));
+
+        // The results are read from the word store already sorted, a page at a time
+        wordRank.setSortable(false);
+        wordContent.setSortable(false);
+        wordFrequency.setSortable(false);
     }
 
     /**
@@ -79,100 +136,285 @@ public class TextAnalyzerController implements Initializable {
         System.exit(0);
     }
 
+    /**
+     * Action to perform when the Cancel button is clicked
+     */
+    @FXML
+    public void handleCancelButtonAction() {
+        if (analysisTask != null) {
+            analysisTask.cancel();
+        }
+    }
+
+    /**
+     * Action to perform when the Open Results menu item is clicked. The
+     * chosen {@link ResultSnapshot} is opened in the background and its
+     * words are shown, without using the word store.
+     */
+    @FXML
+    public void handleOpenMenuAction() {
+        if (analysisTask != null && analysisTask.isRunning()) {
+            return;
+        }
+
+        File file = snapshotChooser("Open Results").showOpenDialog(wordTableView.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+
+        Task<ResultSnapshot> openTask = new Task<ResultSnapshot>() {
+            @Override
+            protected ResultSnapshot call() throws IOException {
+                return ResultSnapshot.open(file.toPath());
+            }
+        };
+
+        openTask.setOnSucceeded(event -> displaySnapshot(openTask.getValue()));
+        openTask.setOnFailed(event -> {
+            messageLabel.setText("The file could not be opened as a snapshot of results.");
+            System.out.println(openTask.getException().toString());
+        });
+
+        analysisExecutor.execute(openTask);
+    }
+
+    /**
+     * Action to perform when the Export Results menu item is clicked. The
+     * words of the latest analysis are read from the word store in the
+     * background and saved as a {@link ResultSnapshot}.
+     */
+    @FXML
+    public void handleExportMenuAction() {
+        if (analysisTask != null && analysisTask.isRunning()) {
+            return;
+        }
+
+        if (displayedDocumentId == 0) {
+            messageLabel.setText("Only the stored results of an analysis can be exported.");
+            return;
+        }
+
+        File file = snapshotChooser("Export Results").showSaveDialog(wordTableView.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+
+        WordStore wordStore = displayedStore;
+        long documentId = displayedDocumentId;
+        NumberFormat wordCountFormat = NumberFormat.getInstance();
+        Task<Void> exportTask = new Task<Void>() {
+            @Override
+            protected Void call() throws WordStoreException, IOException {
+                ResultSnapshot.export(wordStore, documentId, file.toPath(), exportedWords ->
+                        updateMessage("Exported " + wordCountFormat.format(exportedWords) + " words..."));
+                return null;
+            }
+        };
+
+        messageLabel.textProperty().bind(exportTask.messageProperty());
+
+        exportTask.setOnSucceeded(event -> {
+            messageLabel.textProperty().unbind();
+            messageLabel.setText("The results were exported to " + file.getName() + ".");
+        });
+        exportTask.setOnFailed(event -> {
+            messageLabel.textProperty().unbind();
+            messageLabel.setText("The results could not be exported. See console for additional details.");
+            System.out.println(exportTask.getException().toString());
+        });
+
+        analysisExecutor.execute(exportTask);
+    }
+
     /**
      * Takes the URL provided in the {@code targetUrl} textfield and processes it
-     * for analysis, as follows:
+     * for analysis in the background, as follows:
      * <ol>
-     *     <li>First, it uses Jsoup to fetch the content from the URL and clean
-     *     up the HTML for better parsing. If the URL is empty or invalid (not
+     *     <li>First, it fetches the content of the URL with the shared
+     *     {@link HttpFetcher} and uses Jsoup to clean up the HTML for better
+     *     parsing. If the URL is empty or invalid (not
      *     found/malformed URL), the program will display an error message.</li>
-     *     <li>Next, the program will call the
-     *     {@link DatabaseController#storeWordsIntoDatabase} method to store the
-     *     unique words and their frequencies in the database, after
-     *     stripping away all HTML tags and some punctuation. </li>
-     *     <li>The program will then read the words from the database,
-     *     sorted by frequency in descending order by calling
-     *     {@link DatabaseController#getAllWords()}.</li>
+     *     <li>Next, the program will count the unique words and their
+     *     frequencies, after stripping away all HTML tags and some
+     *     punctuation, and store them in the configured {@link WordStore}
+     *     by calling {@link WordStore#merge}.</li>
+     *     <li>The program will then read the totals and the most frequent
+     *     words from the store in a single request, by calling
+     *     {@link WordStore#getDocumentResultSummary}, and the other words,
+     *     sorted by frequency in descending order, as they are shown, by
+     *     calling {@link WordStore#getDocumentWordPage}.</li>
      *     <li>Finally, the program will populate the {@code wordTableView}
      *     in the GUI with the results.</li>
      * </ol>
+     * Several URLs, separated by whitespace, are analyzed concurrently and
+     * their word frequencies combined.
+     * <p>
+     * The analysis runs as an {@link AnalysisTask} on a worker thread. Its
+     * progress is shown in the {@code messageLabel}, the most frequent words
+     * found so far are shown in the {@code wordTableView} while it runs, and
+     * it can be stopped with the Cancel button.
      *
      * @param url The URL submitted by the user
      */
     @FXML
     public void analyzeUrl(String url) {
-        wordTableView.getItems().clear();
+        if (analysisTask != null && analysisTask.isRunning()) {
+            return;
+        }
+
+        wordTableView.setItems(FXCollections.observableArrayList());
         wordTableView.setEditable(false);
 
-        DatabaseController.createSchema();
+        // Several URLs separated by whitespace are analyzed together
+        List<String> targetUrls = url == null ? Collections.emptyList()
+                : Arrays.asList(url.trim().split("\\s+"));
 
-        if (validateUrl(url)) {
-            // The target URL to parse
-            String targetUrl = urlTextField.getText();
+        if (validateUrls(targetUrls)) {
+            AnalysisTask task = new AnalysisTask(targetUrls, resultsPageSize, partialResultsSize,
+                    words -> wordTableView.getItems().setAll(words));
 
-            // Uses the Jsoup library to fetch the targetUrl and create a clean HTML string thereof
-            String targetHtmlContent = null;
+            messageLabel.textProperty().bind(task.messageProperty());
+            analyzeButton.visibleProperty().bind(task.runningProperty().not());
+            cancelButton.visibleProperty().bind(task.runningProperty());
 
-            try {
-                targetHtmlContent = Jsoup.connect(targetUrl).get().text();
-            } catch (IOException e) {
-                messageLabel.setText("The URL entered is invalid.");
-            }
+            task.setOnSucceeded(event -> {
+                messageLabel.textProperty().unbind();
 
-            if (targetHtmlContent != null) {
-                // Buffer the targetHtmlContent String for parsing
-                BufferedReader bufferedHtmlContent = new BufferedReader(new StringReader(targetHtmlContent));
+                // Populate the wordTableView in the GUI with the results
+                if (task.getTopKCounter() != null) {
+                    displayTopWords(task.getTopKCounter(), task.getTopWords());
+                } else {
+                    displaySortedWords(task.getWordStore(), task.getDocumentId(), task.getResultSummary());
+                }
 
-                // Stores the words and their frequencies in the database
-                try {
-                    DatabaseController.storeWordsIntoDatabase(bufferedHtmlContent);
-                } catch (SQLException | IOException e) {
-                    messageLabel.setText("An error occurred attempting to store words and their frequencies into the " +
-                            "database.");
+                if (task.isCacheHit()) {
+                    messageLabel.setText(messageLabel.getText()
+                            + " Nothing had changed since the last analysis, so its results were reused.");
                 }
 
-                // Populate the wordTableView in the GUI with the results
-                displaySortedWords();
-            }
+                StreamingFetcher streamingFetcher = task.getStreamingFetcher();
+                if (streamingFetcher != null) {
+                    NumberFormat byteCountFormat = NumberFormat.getInstance();
+                    messageLabel.setText(messageLabel.getText() + " Streamed "
+                            + byteCountFormat.format(streamingFetcher.getBytesRead())
+                            + " bytes with a memory ceiling of "
+                            + byteCountFormat.format(streamingFetcher.getMemoryCeiling() / 1024) + " KB.");
+                }
+
+                WordSketch wordSketch = task.getWordSketch();
+                if (wordSketch != null) {
+                    NumberFormat sketchFormat = NumberFormat.getInstance();
+                    messageLabel.setText(messageLabel.getText()
+                            + (task.isSketchMerged() ? " Across all analyses so far, about " : " About ")
+                            + sketchFormat.format(wordSketch.estimateUniqueWords()) + " unique words out of "
+                            + sketchFormat.format(wordSketch.total()) + " (sketch estimate, "
+                            + NumberFormat.getPercentInstance().format(
+                                    wordSketch.getHyperLogLog().getStandardError() * 2) + " margin).");
+                }
+
+                BatchAnalyzer.BatchResult batchResult = task.getBatchResult();
+                if (batchResult != null && batchResult.getFailureCount() > 0) {
+                    messageLabel.setText(messageLabel.getText() + " " + batchResult.getFailureCount() + " of "
+                            + batchResult.getUrlResults().size() + " URLs could not be analyzed: "
+                            + describeFailures(batchResult) + ".");
+                }
+            });
+
+            task.setOnFailed(event -> {
+                messageLabel.textProperty().unbind();
+
+                Throwable exception = task.getException();
+                if (exception instanceof IOException) {
+                    messageLabel.setText("The URL entered is invalid.");
+                } else if (exception instanceof WordStoreException) {
+                    messageLabel.setText("An error occurred attempting to store words and their frequencies " +
+                            "into the database.");
+                    System.out.println(exception.getMessage() + " " + exception.getCause());
+                } else {
+                    messageLabel.setText("The analysis failed. See console for additional details.");
+                    System.out.println(exception.toString());
+                }
+            });
+
+            task.setOnCancelled(event -> {
+                messageLabel.textProperty().unbind();
+                messageLabel.setText("The analysis was cancelled.");
+            });
+
+            analysisTask = task;
+            analysisExecutor.execute(task);
         }
     }
 
     /**
-     * Fetches the database for the unique word count, total word count
-     * and then fetches all words and their frequencies to populate the
-     * {@code TableView} with the words sorted by frequency in descending
-     * order. Displays the total number of words and number of unique words
-     * found in the source URL.
+     * Populates the {@code TableView} with the words sorted by frequency in
+     * descending order, and displays the total number of words and number of
+     * unique words found in the source URL.
+     * <p>
+     * The rows are not all read at once: the table is backed by a
+     * {@link PagedWordList}, which shows the first page right away and
+     * fetches the others from the word store as the user scrolls.
+     *
+     * @param wordStore     The word store holding the document
+     * @param documentId    The number of the document holding the words in the word store
+     * @param resultSummary The totals of the document and its first page of ranked words,
+     *                      already read from the word store
      */
-    public void displaySortedWords() {
-        int rank = 0;
-        int uniqueWords;
-        int totalNumberOfWords;
+    public void displaySortedWords(WordStore wordStore, long documentId, ResultSummary resultSummary) {
+        NumberFormat wordCountFormat = NumberFormat.getInstance();
+        displayedStore = wordStore;
+        displayedDocumentId = documentId;
 
+        messageLabel.setText("After parsing, " + wordCountFormat.format(resultSummary.getUniqueWords())
+                + " unique words were found, out of a total of "
+                + wordCountFormat.format(resultSummary.getTotalWords()) + " words.");
+
+        long[] documentIds = {documentId};
+        wordTableView.setItems(new PagedWordList(
+                (after, offset, limit) -> wordStore.getDocumentWordPage(documentIds, after, offset, limit),
+                resultSummary.getUniqueWords(), resultsPageSize, resultSummary.getFirstPage()));
+    }
+
+    /**
+     * Populates the {@code TableView} with the most frequent words found by a
+     * {@link TopKCounter}, and displays the total number of words and how
+     * much the frequencies may be overestimated. Nothing is stored, so
+     * memory use does not depend on the number of unique words.
+     *
+     * @param topKCounter The counter of the most frequent words
+     * @param topWords    The most frequent words, ranked
+     */
+    public void displayTopWords(TopKCounter topKCounter, List<Word> topWords) {
         NumberFormat wordCountFormat = NumberFormat.getInstance();
+        displayedDocumentId = 0;
 
-        ObservableList<Word> words = FXCollections.observableArrayList();
+        messageLabel.setText("Showing the " + wordCountFormat.format(topWords.size())
+                + " most frequent words, out of a total of " + wordCountFormat.format(topKCounter.total())
+                + " words. Frequencies may be overestimated by up to "
+                + wordCountFormat.format(topKCounter.getMaxError()) + ".");
 
-        try {
-            ResultSet wordPairs = DatabaseController.getAllWords();
-            uniqueWords = DatabaseController.getUniqueWordCount();
-            totalNumberOfWords = DatabaseController.getAllWordCount();
-            while (wordPairs.next()) {
-                words.add(new Word(++rank, wordPairs.getString("wordContent"), wordPairs.getInt("wordFrequency")));
-            }
+        wordTableView.setItems(FXCollections.observableArrayList(topWords));
+    }
 
-            wordPairs.close();
+    /**
+     * Populates the {@code TableView} with the words of a snapshot, sorted
+     * by frequency in descending order, and displays where they came from
+     * and their totals. Like stored results, the rows are read a page at a
+     * time, here straight from the mapped file.
+     *
+     * @param snapshot The opened snapshot
+     */
+    public void displaySnapshot(ResultSnapshot snapshot) {
+        NumberFormat wordCountFormat = NumberFormat.getInstance();
+        displayedDocumentId = 0;
 
-            messageLabel.setText("After parsing, " + wordCountFormat.format(uniqueWords)
-                    + " unique words were found, out of a total of "
-                    + wordCountFormat.format(totalNumberOfWords) + " words.");
+        messageLabel.setText("In the results of " + (snapshot.getSource().isEmpty() ? "this snapshot"
+                : snapshot.getSource()) + ", " + wordCountFormat.format(snapshot.getUniqueWords())
+                + " unique words were found, out of a total of "
+                + wordCountFormat.format(snapshot.getTotalWords()) + " words.");
 
-            wordTableView.setItems(words);
-        } catch (SQLException e) {
-            messageLabel.setText("A database error occurred fetching the word/frequency pairs. " +
-                    "See console for additional details.");
-            System.out.println(e.toString());
-        }
+        wordTableView.setItems(new PagedWordList((after, offset, limit) -> snapshot.getPage(offset, limit),
+                snapshot.getUniqueWords(), resultsPageSize, snapshot.getPage(0, resultsPageSize)));
     }
 
     /**
@@ -185,6 +427,26 @@ public class TextAnalyzerController implements Initializable {
         return textFieldNotEmpty(url, messageLabel, "The URL must be valid and cannot be empty.");
     }
 
+    /**
+     * Checks whether or not each of the URLs is valid.
+     *
+     * @param urls The URLs submitted by the user
+     * @return True if there is at least one URL, and all of them are valid
+     */
+    public boolean validateUrls(List<String> urls) {
+        if (urls.isEmpty()) {
+            return validateUrl(null);
+        }
+
+        for (String url : urls) {
+            if (!validateUrl(url)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Converts each {@code inputLine} of the {@code inputFile} from HTML to
      * plain text by stripping select characters and strings using regular
@@ -192,6 +454,7 @@ public class TextAnalyzerController implements Initializable {
      *
      * @param inputLine The string to convert from html to plain text.
      * @return A plain text version of the {@code inputLine}
+     * @see WordTokenizer
      */
     public static String htmlToText(String inputLine) {
         return inputLine
@@ -242,6 +505,37 @@ public class TextAnalyzerController implements Initializable {
         return out;
     }
 
+    private static FileChooser snapshotChooser(String title) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle(title);
+        fileChooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("TextAnalyzer results", "*" + ResultSnapshot.extension));
+        return fileChooser;
+    }
+
+    /**
+     * Lists the first few failed URLs of a batch with the reason each failed,
+     * short enough to be shown in the {@code messageLabel}.
+     */
+    private static String describeFailures(BatchAnalyzer.BatchResult batchResult) {
+        StringBuilder failures = new StringBuilder();
+        int listed = 0;
+        for (BatchAnalyzer.UrlResult urlResult : batchResult.getUrlResults()) {
+            Throwable error = urlResult.getError();
+            if (error == null) {
+                continue;
+            }
+            if (listed == shownFailures) {
+                failures.append(" and ").append(batchResult.getFailureCount() - listed).append(" more");
+                break;
+            }
+            failures.append(listed++ == 0 ? "" : "; ").append(urlResult.getUrl()).append(" (")
+                    .append(error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName())
+                    .append(')');
+        }
+        return failures.toString();
+    }
+
     /**
      * Checks if the targetUrl is a valid URL
      *
@@ -0,0 +1,424 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.model.WordCounter;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Keeps the word counts of recently analyzed URLs, so that a URL that has
+ * not changed is not downloaded and counted again.
+ * <p>
+ * Each result is kept with the {@code ETag} and {@code Last-Modified}
+ * validators sent by the server. The next time the URL is analyzed, they
+ * are sent back in a conditional request, and if the server answers
+ * {@code 304 Not Modified} the cached counts are used. Results from servers
+ * that send no validators are not cached, since there would be no way to
+ * tell whether they are still current.
+ * <p>
+ * URLs are normalized first, so that for example {@code HTTP://Example.com}
+ * and {@code http://example.com:80/} share a result. Results are also kept
+ * apart by the way the page was turned into text, its mode, since
+ * {@link #JSOUP} and {@link #STREAM} can split some pages into words
+ * differently. The cache is bounded
+ * both by the number of results and by the memory they use; when it is
+ * full, the least recently used results are evicted. If a directory is
+ * given, each result is also saved to a file in it and the cache is
+ * reloaded from them, so that repeated analyses are skipped after a
+ * restart too. The files are read and written outside the lock on the
+ * cache, so that workers looking up other URLs do not wait for the disk.
+ * Each file holds its own validators, so a file left behind by an eviction
+ * racing with a save is only revalidated, never trusted as is.
+ */
+public class UrlResultCache {
+    private static final int magic = 0x54415543;
+    private static final int version = 2;
+    private static final String fileExtension = ".words";
+
+    /**
+     * The mode of results counted from the text Jsoup finds in the page.
+     */
+    public static final String JSOUP = "jsoup";
+
+    /**
+     * The mode of results counted from the text the {@link HtmlTextExtractor}
+     * finds in the page as it is streamed.
+     */
+    public static final String STREAM = "stream";
+
+    private static UrlResultCache sharedCache;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Path directory;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * A cached result.
+     */
+    public static class Entry {
+        private final String mode;
+        private final String url;
+        private final String eTag;
+        private final String lastModified;
+        private final WordCounter wordCounter;
+        private final long bytes;
+
+        Entry(String mode, String url, String eTag, String lastModified, WordCounter wordCounter) {
+            this.mode = mode;
+            this.url = url;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.wordCounter = wordCounter;
+            this.bytes = wordCounter.estimatedBytes();
+        }
+
+        /**
+         * @return How the page was turned into text, {@link #JSOUP} or {@link #STREAM}
+         */
+        public String getMode() {
+            return mode;
+        }
+
+        /**
+         * @return The normalized URL
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return The {@code ETag} of the response, or {@code null} if it had none
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return The {@code Last-Modified} date of the response, or {@code null} if it had none
+         */
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return The words of the URL and their frequencies; they must not be changed
+         */
+        public WordCounter getWordCounter() {
+            return wordCounter;
+        }
+    }
+
+    /**
+     * @param maxEntries The maximum number of results to keep
+     * @param maxBytes   The maximum memory used by the results, in bytes
+     * @param directory  The directory where the results are saved, or {@code null} to keep them in memory only
+     */
+    public UrlResultCache(int maxEntries, long maxBytes, Path directory) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.directory = directory;
+
+        if (directory != null) {
+            load();
+        }
+    }
+
+    /**
+     * Returns the cache shared by the whole application, configured with
+     * the {@code textanalyzer.cache.*} options.
+     *
+     * @return The shared cache, or {@code null} if the {@code textanalyzer.cache} option is turned off
+     */
+    public static synchronized UrlResultCache getShared() {
+        if (sharedCache == null && Settings.getBoolean("cache", true)) {
+            String directory = Settings.getString("cache.dir", "");
+            sharedCache = new UrlResultCache(Settings.getInt("cache.entries", 32),
+                    Settings.getInt("cache.megabytes", 64) * 1024L * 1024L,
+                    directory.isEmpty() ? null : Paths.get(directory));
+        }
+
+        return sharedCache;
+    }
+
+    /**
+     * Normalizes a URL: the scheme and host are lowercased, the default
+     * port and the fragment are removed, and an empty path becomes {@code /}.
+     *
+     * @param url The URL
+     * @return The normalized URL, or the URL itself if it cannot be parsed
+     */
+    public static String normalize(String url) {
+        try {
+            URI uri = new URI(url.trim());
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return url.trim();
+            }
+
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if ((scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443)) {
+                port = -1;
+            }
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+
+            return scheme + "://" + (uri.getRawUserInfo() == null ? "" : uri.getRawUserInfo() + "@")
+                    + uri.getHost().toLowerCase(Locale.ROOT) + (port == -1 ? "" : ":" + port)
+                    + path + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        } catch (URISyntaxException e) {
+            return url.trim();
+        }
+    }
+
+    /**
+     * Looks up the result of a URL, marking it as recently used.
+     *
+     * @param url  The URL, normalized or not
+     * @param mode How the page is turned into text, {@link #JSOUP} or {@link #STREAM}
+     * @return The cached result, or {@code null} if there is none
+     */
+    public Entry get(String url, String mode) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(keyOf(mode, normalize(url)));
+        }
+
+        if (entry != null && directory != null) {
+            // The file times keep the order of use across restarts
+            try {
+                Files.setLastModifiedTime(fileOf(entry), FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                // Only the eviction order after a restart is affected
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Records whether a cached result could be used, for {@link #getHits()}
+     * and {@link #getMisses()}.
+     *
+     * @param hit True if the URL had not changed
+     */
+    public synchronized void recordLookup(boolean hit) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    /**
+     * Caches the result of a URL, replacing any previous one. Results
+     * without validators, or larger than the whole cache, are not cached.
+     *
+     * @param url          The URL, normalized or not
+     * @param mode         How the page was turned into text, {@link #JSOUP} or {@link #STREAM}
+     * @param eTag         The {@code ETag} of the response, or {@code null}
+     * @param lastModified The {@code Last-Modified} date of the response, or {@code null}
+     * @param wordCounter  The words of the URL and their frequencies; they must not be changed afterwards
+     */
+    public void put(String url, String mode, String eTag, String lastModified, WordCounter wordCounter) {
+        Entry entry = new Entry(mode, normalize(url), eTag, lastModified, wordCounter);
+        boolean cached = (eTag != null || lastModified != null) && entry.bytes <= maxBytes;
+        List<Entry> removed = new ArrayList<>();
+
+        synchronized (this) {
+            Entry previous = entries.remove(keyOf(entry));
+            if (previous != null) {
+                bytes -= previous.bytes;
+                removed.add(previous);
+            }
+            if (cached) {
+                add(entry, removed);
+            }
+        }
+
+        if (directory != null) {
+            for (Entry evicted : removed) {
+                deleteFile(evicted);
+            }
+            if (cached) {
+                try {
+                    save(entry);
+                } catch (IOException e) {
+                    System.out.println("Unable to save the cached result of " + entry.url + ": " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of cached results
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The estimated memory used by the cached results, in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The number of analyses that used a cached result
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of analyses that downloaded their URL
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Adds a result, evicting the least recently used ones into
+     * {@code evicted}, but always keeping the newest one.
+     */
+    private void add(Entry entry, List<Entry> evicted) {
+        entries.put(keyOf(entry), entry);
+        bytes += entry.bytes;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && entries.size() > 1) {
+            Entry removed = eldest.next();
+            eldest.remove();
+            bytes -= removed.bytes;
+            evicted.add(removed);
+        }
+    }
+
+    private void load() {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + fileExtension)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            System.out.println("Unable to read the result cache " + directory + ": " + e);
+            return;
+        }
+
+        // Oldest first, so that the most recently used results are the last to be evicted
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path file : files) {
+            try {
+                modified.put(file, Files.getLastModifiedTime(file).toMillis());
+            } catch (IOException e) {
+                modified.put(file, 0L);
+            }
+        }
+        files.sort(Comparator.comparing(modified::get));
+
+        for (Path file : files) {
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                if (input.readInt() != magic || input.readInt() != version) {
+                    continue;
+                }
+
+                String mode = input.readUTF();
+                String url = input.readUTF();
+                String eTag = input.readBoolean() ? input.readUTF() : null;
+                String lastModified = input.readBoolean() ? input.readUTF() : null;
+
+                WordCounter wordCounter = new WordCounter();
+                for (int remaining = input.readInt(); remaining > 0; remaining--) {
+                    wordCounter.add(input.readUTF(), input.readInt());
+                }
+
+                List<Entry> evicted = new ArrayList<>();
+                add(new Entry(mode, url, eTag, lastModified, wordCounter), evicted);
+                for (Entry removed : evicted) {
+                    deleteFile(removed);
+                }
+            } catch (IOException e) {
+                System.out.println("Ignoring the unreadable cached result " + file + ": " + e);
+            }
+        }
+    }
+
+    private void save(Entry entry) throws IOException {
+        Files.createDirectories(directory);
+        Path file = fileOf(entry);
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16))) {
+            output.writeInt(magic);
+            output.writeInt(version);
+            output.writeUTF(entry.mode);
+            output.writeUTF(entry.url);
+            writeOptionalUTF(output, entry.eTag);
+            writeOptionalUTF(output, entry.lastModified);
+
+            WordCounter wordCounter = entry.wordCounter;
+            output.writeInt(wordCounter.size());
+            for (int word = 0; word < wordCounter.size(); word++) {
+                output.writeUTF(wordCounter.word(word));
+                output.writeInt(wordCounter.count(word));
+            }
+        }
+
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteFile(Entry entry) {
+        try {
+            Files.deleteIfExists(fileOf(entry));
+        } catch (IOException e) {
+            System.out.println("Unable to delete the cached result of " + entry.url + ": " + e);
+        }
+    }
+
+    private static String keyOf(String mode, String normalizedUrl) {
+        return mode + " " + normalizedUrl;
+    }
+
+    private static String keyOf(Entry entry) {
+        return keyOf(entry.mode, entry.url);
+    }
+
+    /**
+     * Names the file of a result after a hash of its mode and URL, since
+     * URLs can hold characters that are not allowed in file names.
+     */
+    private Path fileOf(Entry entry) {
+        try {
+            StringBuilder name = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(
+                    keyOf(entry).getBytes(StandardCharsets.UTF_8))) {
+                name.append(String.format("%02x", b));
+            }
+            return directory.resolve(name + fileExtension);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeOptionalUTF(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.model.WordCounter;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntConsumer;
+
+/**
+ * Reads the words of a {@link WordCounter} and their frequencies as the
+ * UTF-8 text of a {@code LOAD DATA} file: one word per line, followed by a
+ * tab and its frequency, with tabs, line breaks and backslashes in the
+ * words escaped by a backslash.
+ * <p>
+ * The rows are encoded a few at a time as they are read, so the whole file
+ * is never held in memory. Progress is reported every {@code interval}
+ * words; if the progress consumer throws an exception, the stream ends
+ * early and the exception is kept, to be rethrown by
+ * {@link #checkFailure()} once the driver has finished reading, rather
+ * than thrown into the driver in the middle of a transfer.
+ */
+public class WordCountStream extends InputStream {
+    private static final int rowsPerFill = 256;
+
+    private final WordCounter wordCounter;
+    private final int interval;
+    private final IntConsumer progress;
+    private final StringBuilder rows = new StringBuilder();
+
+    private byte[] buffer = new byte[0];
+    private int position;
+    private int word;
+    private RuntimeException failure;
+
+    /**
+     * @param wordCounter The words and their frequencies
+     * @param interval    The number of words between progress reports
+     * @param progress    Receives the number of words read so far
+     */
+    public WordCountStream(WordCounter wordCounter, int interval, IntConsumer progress) {
+        this.wordCounter = wordCounter;
+        this.interval = Math.max(1, interval);
+        this.progress = progress;
+    }
+
+    @Override
+    public int read() {
+        return fill() ? buffer[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+
+        int read = 0;
+        while (read < length && fill()) {
+            int copied = Math.min(length - read, buffer.length - position);
+            System.arraycopy(buffer, position, bytes, offset + read, copied);
+            position += copied;
+            read += copied;
+        }
+
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * Rethrows the exception thrown by the progress consumer, if any.
+     */
+    public void checkFailure() {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Encodes the next rows once the buffer has been read.
+     *
+     * @return False at the end of the words, or once the progress consumer failed
+     */
+    private boolean fill() {
+        while (position == buffer.length) {
+            if (word == wordCounter.size() || failure != null) {
+                return false;
+            }
+
+            rows.setLength(0);
+            for (int end = Math.min(wordCounter.size(), word + rowsPerFill); word < end && failure == null; ) {
+                appendEscaped(wordCounter.word(word));
+                rows.append('\t').append(wordCounter.count(word)).append('\n');
+
+                if (++word % interval == 0) {
+                    try {
+                        progress.accept(word);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            }
+
+            buffer = rows.toString().getBytes(StandardCharsets.UTF_8);
+            position = 0;
+        }
+
+        return true;
+    }
+
+    private void appendEscaped(String wordContent) {
+        for (int i = 0; i < wordContent.length(); i++) {
+            char c = wordContent.charAt(i);
+            switch (c) {
+                case '\\':
+                    rows.append("\\\\");
+                    break;
+                case '\t':
+                    rows.append("\\t");
+                    break;
+                case '\n':
+                    rows.append("\\n");
+                    break;
+                case '\r':
+                    rows.append("\\r");
+                    break;
+                case '\0':
+                    rows.append("\\0");
+                    break;
+                default:
+                    rows.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package gce.textanalyzer.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the numbers the database assigned to recently used words, so that
+ * words can be written as compact integer keys without asking the
+ * database for them each time.
+ * <p>
+ * The numbers never change once assigned, so a cached number is always
+ * valid. The least recently used words are evicted once the dictionary
+ * holds {@code capacity} of them, and are read from the database again if
+ * they are needed.
+ */
+public class WordDictionary {
+    private final int capacity;
+    private final Map<String, Integer> wordIds;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity The maximum number of words kept
+     */
+    public WordDictionary(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.wordIds = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > WordDictionary.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @param word A word
+     * @return The number of the word, or {@code null} if it is not cached
+     */
+    public synchronized Integer get(String word) {
+        Integer wordId = wordIds.get(word);
+        if (wordId != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return wordId;
+    }
+
+    /**
+     * @param word   A word
+     * @param wordId The number the database assigned to it
+     */
+    public synchronized void put(String word, int wordId) {
+        wordIds.put(word, wordId);
+    }
+
+    /**
+     * @return The number of words cached
+     */
+    public synchronized int size() {
+        return wordIds.size();
+    }
+
+    /**
+     * @return How many words were found in the dictionary
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return How many words had to be read from or added to the database
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,559 @@
+package gce.textanalyzer.controller;
+
+import gce.textanalyzer.metrics.PipelineMetrics;
+import gce.textanalyzer.model.Document;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+
+import java.sql.*;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * The tables of a schema of documents and word frequencies, and the
+ * statements that the {@link DatabaseController} and the
+ * {@link DictionaryDatabaseController} share.
+ * <p>
+ * Both schemas keep the frequencies of the aggregate in a count table, those
+ * of each document in a document count table, the documents in a document
+ * table and the totals of the aggregate in a one-row summary table. They
+ * only differ in the key of a word in the count tables: the word itself, or
+ * its number in the dictionary, which {@link #keys(WordCounter)} finds.
+ */
+abstract class WordTables {
+    private static final int defaultBatchSize = 1000;
+    private static final int maxRowsPerStatement = 16_384;
+    private static final Comparator<WordCount> ranking = Comparator.comparingLong(WordCount::getWordFrequency)
+            .reversed().thenComparing(WordCount::getWordContent);
+
+    private final String countTable;
+    private final String keyColumn;
+    private final String keyType;
+    private final String summaryTable;
+    private final String documentTable;
+    private final String documentCountTable;
+
+    // The ranked words of the documents last read together
+    private long[] unionDocumentIds;
+    private List<WordCount> unionWords;
+
+    /**
+     * Sets the key of a word of a counter as a statement parameter.
+     */
+    interface WordKeys {
+        void set(PreparedStatement preparedStatement, int parameter, int word) throws SQLException;
+    }
+
+    WordTables(String countTable, String keyColumn, String keyType, String summaryTable, String documentTable,
+               String documentCountTable) {
+        this.countTable = countTable;
+        this.keyColumn = keyColumn;
+        this.keyType = keyType;
+        this.summaryTable = summaryTable;
+        this.documentTable = documentTable;
+        this.documentCountTable = documentCountTable;
+    }
+
+    /**
+     * Finds the keys of the words of a counter. Anything this writes is
+     * committed on its own, so the keys stay valid whatever happens to the
+     * transaction they are used in.
+     */
+    abstract WordKeys keys(WordCounter wordCounter) throws SQLException;
+
+    /**
+     * @param documentIdParameters The parameters of the numbers of the documents, separated by commas
+     * @return A query of the words of several documents added together, with {@code wordContent} and
+     * {@code wordFrequency} columns, in any order
+     */
+    abstract String unionQuery(String documentIdParameters);
+
+    /**
+     * @return The number of words written per batch, which is read from the
+     * {@code textanalyzer.db.batchSize} option and kept within the number of
+     * parameters a statement can have
+     */
+    static int batchSize() {
+        return Math.min(maxRowsPerStatement, Math.max(1, Settings.getInt("db.batchSize", defaultBatchSize)));
+    }
+
+    /**
+     * Adds the given word frequencies to the aggregate in a single
+     * transaction, a batch at a time, reporting progress after each batch.
+     * The transaction is rolled back if {@code progress} throws an exception.
+     */
+    void storeWordCounts(WordCounter wordCounter, IntConsumer progress) throws SQLException {
+        int batchSize = batchSize();
+        WordKeys wordKeys = keys(wordCounter);
+
+        try (Connection dbConnection = DatabaseController.getConnection()) {
+            dbConnection.setAutoCommit(false);
+
+            try {
+                int newWords = 0;
+
+                for (int from = 0; from < wordCounter.size(); from += batchSize) {
+                    int to = Math.min(from + batchSize, wordCounter.size());
+                    newWords += upsertCounts(dbConnection, wordCounter, wordKeys, from, to);
+                    PipelineMetrics.batchExecuted(to - from);
+                    progress.accept(to);
+                }
+
+                addToSummary(dbConnection, newWords, wordCounter.total());
+                dbConnection.commit();
+            } catch (SQLException | RuntimeException e) {
+                dbConnection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stores the words of a document, and adds them to the aggregate, in a
+     * single transaction, a batch at a time, reporting progress after each
+     * batch. The transaction is rolled back if {@code progress} throws an
+     * exception.
+     */
+    long storeDocument(String documentSource, WordCounter wordCounter, IntConsumer progress) throws SQLException {
+        int batchSize = batchSize();
+        WordKeys wordKeys = keys(wordCounter);
+
+        String documentCountSql = "INSERT INTO " + documentCountTable +
+                " (`documentId`, `" + keyColumn + "`, `wordFrequency`) VALUES (?,?,?)";
+
+        try (Connection dbConnection = DatabaseController.getConnection()) {
+            dbConnection.setAutoCommit(false);
+
+            try (PreparedStatement documentCountStatement = dbConnection.prepareStatement(documentCountSql)) {
+                long documentId = insertDocument(dbConnection, documentSource, wordCounter.size(),
+                        wordCounter.total());
+                int newWords = 0;
+
+                for (int from = 0; from < wordCounter.size(); from += batchSize) {
+                    int to = Math.min(from + batchSize, wordCounter.size());
+
+                    for (int word = from; word < to; word++) {
+                        documentCountStatement.setLong(1, documentId);
+                        wordKeys.set(documentCountStatement, 2, word);
+                        documentCountStatement.setInt(3, wordCounter.count(word));
+                        documentCountStatement.addBatch();
+                    }
+
+                    documentCountStatement.executeBatch();
+                    newWords += upsertCounts(dbConnection, wordCounter, wordKeys, from, to);
+                    PipelineMetrics.batchExecuted(to - from);
+                    progress.accept(to);
+                }
+
+                addToSummary(dbConnection, newWords, wordCounter.total());
+                dbConnection.commit();
+                return documentId;
+            } catch (SQLException | RuntimeException e) {
+                dbConnection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Starts storing a new document whose words are written a part at a
+     * time.
+     */
+    DocumentTransaction beginDocument(String documentSource) throws SQLException {
+        return new DocumentTransaction(this, documentSource);
+    }
+
+    /**
+     * Creates the table in which the parts of a document are added
+     * together before it is committed. The table is temporary, so it is
+     * only visible to this connection, and writing to it locks no row of
+     * the shared tables.
+     */
+    void createPartTable(Connection dbConnection) throws SQLException {
+        try (Statement statement = dbConnection.createStatement()) {
+            dropPartTable(statement);
+            statement.executeUpdate("CREATE TEMPORARY TABLE " + partTable() + " (" +
+                    "`" + keyColumn + "` " + keyType + " NOT NULL, " +
+                    "`wordFrequency` BIGINT NOT NULL, " +
+                    "PRIMARY KEY (`" + keyColumn + "`)" +
+                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+            PipelineMetrics.statementExecuted();
+        }
+    }
+
+    /**
+     * Adds the words of a part of a document to the part table, a batch at
+     * a time. Words already in the table have their frequencies added.
+     */
+    void appendDocumentCounts(Connection dbConnection, WordCounter wordCounter) throws SQLException {
+        int batchSize = batchSize();
+        WordKeys wordKeys = keys(wordCounter);
+
+        for (int from = 0; from < wordCounter.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, wordCounter.size());
+            upsertCounts(dbConnection, partTable(), wordCounter, wordKeys, from, to);
+            PipelineMetrics.batchExecuted(to - from);
+        }
+    }
+
+    /**
+     * Copies the words of the part table into a new document and adds them
+     * to the aggregate, in the transaction of the connection, with one
+     * statement each, and returns the number of the document.
+     */
+    long mergeDocument(Connection dbConnection, String documentSource, long totalWords) throws SQLException {
+        String documentCountSql = "INSERT INTO " + documentCountTable +
+                " (`documentId`, `" + keyColumn + "`, `wordFrequency`) SELECT ?, `" + keyColumn +
+                "`, `wordFrequency` FROM " + partTable();
+        String countSql = "INSERT INTO " + countTable + " (`" + keyColumn + "`, `wordFrequency`)" +
+                " SELECT p.`" + keyColumn + "`, p.`wordFrequency` FROM " + partTable() + " p" +
+                " ON DUPLICATE KEY UPDATE `wordFrequency` = " + countTable + ".`wordFrequency` + p.`wordFrequency`";
+
+        long documentId = insertDocument(dbConnection, documentSource, 0, totalWords);
+
+        try (PreparedStatement documentCountStatement = dbConnection.prepareStatement(documentCountSql);
+             Statement statement = dbConnection.createStatement()) {
+            documentCountStatement.setLong(1, documentId);
+            int uniqueWords = documentCountStatement.executeUpdate();
+            PipelineMetrics.statementExecuted();
+
+            // As for the upserts, an inserted row counts once and an updated one twice
+            int newWords = 2 * uniqueWords - statement.executeUpdate(countSql);
+            PipelineMetrics.statementExecuted();
+
+            try (PreparedStatement preparedStatement = dbConnection.prepareStatement("UPDATE " + documentTable +
+                    " SET `uniqueWords` = ? WHERE `documentId` = ?")) {
+                preparedStatement.setInt(1, uniqueWords);
+                preparedStatement.setLong(2, documentId);
+                preparedStatement.executeUpdate();
+                PipelineMetrics.statementExecuted();
+            }
+
+            addToSummary(dbConnection, newWords, totalWords);
+        }
+
+        return documentId;
+    }
+
+    void dropPartTable(Connection dbConnection) throws SQLException {
+        try (Statement statement = dbConnection.createStatement()) {
+            dropPartTable(statement);
+        }
+    }
+
+    private void dropPartTable(Statement statement) throws SQLException {
+        statement.executeUpdate("DROP TEMPORARY TABLE IF EXISTS " + partTable());
+        PipelineMetrics.statementExecuted();
+    }
+
+    private String partTable() {
+        return documentCountTable + "_part";
+    }
+
+    /**
+     * Adds the row of a new document, and returns its number.
+     */
+    long insertDocument(Connection dbConnection, String documentSource, int uniqueWords, long totalWords)
+            throws SQLException {
+        String sql = "INSERT INTO " + documentTable +
+                " (`documentSource`, `uniqueWords`, `totalWords`) VALUES (?,?,?)";
+
+        try (PreparedStatement preparedStatement = dbConnection.prepareStatement(sql,
+                Statement.RETURN_GENERATED_KEYS)) {
+            preparedStatement.setString(1, documentSource);
+            preparedStatement.setInt(2, uniqueWords);
+            preparedStatement.setLong(3, totalWords);
+            preparedStatement.executeUpdate();
+            PipelineMetrics.statementExecuted();
+
+            try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                generatedKeys.next();
+                return generatedKeys.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Adds the frequencies of a range of words to the count table with one
+     * multi-row upsert, and returns the number of words that were not in
+     * the table. MySQL counts one affected row for each inserted row and two
+     * for each updated one, and every update changes its row, since a
+     * frequency is at least one.
+     */
+    int upsertCounts(Connection dbConnection, WordCounter wordCounter, WordKeys wordKeys, int from, int to)
+            throws SQLException {
+        return upsertCounts(dbConnection, countTable, wordCounter, wordKeys, from, to);
+    }
+
+    private int upsertCounts(Connection dbConnection, String table, WordCounter wordCounter, WordKeys wordKeys,
+                             int from, int to) throws SQLException {
+        String sql = "INSERT INTO " + table + " (`" + keyColumn + "`, `wordFrequency`) VALUES " +
+                String.join(",", Collections.nCopies(to - from, "(?,?)")) +
+                " ON DUPLICATE KEY UPDATE `wordFrequency` = `wordFrequency` + VALUES(`wordFrequency`)";
+
+        try (PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+            int parameter = 1;
+            for (int word = from; word < to; word++) {
+                wordKeys.set(preparedStatement, parameter++, word);
+                preparedStatement.setInt(parameter++, wordCounter.count(word));
+            }
+
+            return 2 * (to - from) - preparedStatement.executeUpdate();
+        }
+    }
+
+    void addToSummary(Connection dbConnection, int uniqueWords, long totalWords) throws SQLException {
+        String sql = "UPDATE " + summaryTable +
+                " SET `uniqueWords` = `uniqueWords` + ?, `totalWords` = `totalWords` + ?";
+
+        try (PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, uniqueWords);
+            preparedStatement.setLong(2, totalWords);
+            preparedStatement.executeUpdate();
+            PipelineMetrics.statementExecuted();
+        }
+    }
+
+    /**
+     * Removes a document, and subtracts its words from the aggregate, in a
+     * single transaction. Words that no longer occur in any document are
+     * removed from the aggregate.
+     */
+    boolean removeDocument(long documentId) throws SQLException {
+        String subtractSql = "UPDATE " + countTable + " c JOIN " + documentCountTable + " d" +
+                " ON c.`" + keyColumn + "` = d.`" + keyColumn + "`" +
+                " SET c.`wordFrequency` = c.`wordFrequency` - d.`wordFrequency` WHERE d.`documentId` = ?";
+        String deleteWordsSql = "DELETE c FROM " + countTable + " c JOIN " + documentCountTable + " d" +
+                " ON c.`" + keyColumn + "` = d.`" + keyColumn + "`" +
+                " WHERE d.`documentId` = ? AND c.`wordFrequency` <= 0";
+        String summarySql = "UPDATE " + summaryTable + " s JOIN " + documentTable + " d ON d.`documentId` = ?" +
+                " SET s.`uniqueWords` = s.`uniqueWords` - ?, s.`totalWords` = s.`totalWords` - d.`totalWords`";
+        String deleteDocumentSql = "DELETE FROM " + documentTable + " WHERE `documentId` = ?";
+
+        try (Connection dbConnection = DatabaseController.getConnection()) {
+            dbConnection.setAutoCommit(false);
+
+            try (PreparedStatement subtract = dbConnection.prepareStatement(subtractSql);
+                 PreparedStatement deleteWords = dbConnection.prepareStatement(deleteWordsSql);
+                 PreparedStatement summary = dbConnection.prepareStatement(summarySql);
+                 PreparedStatement deleteDocument = dbConnection.prepareStatement(deleteDocumentSql)) {
+                subtract.setLong(1, documentId);
+                subtract.executeUpdate();
+                PipelineMetrics.statementExecuted();
+
+                deleteWords.setLong(1, documentId);
+                int removedWords = deleteWords.executeUpdate();
+                PipelineMetrics.statementExecuted();
+
+                summary.setLong(1, documentId);
+                summary.setInt(2, removedWords);
+                summary.executeUpdate();
+                PipelineMetrics.statementExecuted();
+
+                // The rows of the document's words are deleted along with it
+                deleteDocument.setLong(1, documentId);
+                boolean removed = deleteDocument.executeUpdate() > 0;
+                PipelineMetrics.statementExecuted();
+
+                dbConnection.commit();
+                forgetUnion();
+                return removed;
+            } catch (SQLException | RuntimeException e) {
+                dbConnection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads all the documents, oldest first.
+     */
+    List<Document> getDocuments() throws SQLException {
+        List<Document> documents = new ArrayList<>();
+
+        String sql = "SELECT `documentId`, `documentSource`, `analyzedAt`, `uniqueWords`, `totalWords` FROM " +
+                documentTable + " ORDER BY `documentId`";
+
+        try (Connection dbConnection = DatabaseController.getConnection();
+             Statement statement = dbConnection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            PipelineMetrics.statementExecuted();
+            while (resultSet.next()) {
+                documents.add(new Document(resultSet.getLong("documentId"), resultSet.getString("documentSource"),
+                        resultSet.getTimestamp("analyzedAt").getTime(), resultSet.getInt("uniqueWords"),
+                        resultSet.getLong("totalWords")));
+            }
+        }
+
+        return documents;
+    }
+
+    /**
+     * Counts the unique words of one or more documents. The count of a
+     * single document was kept when it was stored; the words of several
+     * documents are added together, as by {@link #getUnionPage}.
+     */
+    int getDocumentUniqueWordCount(long[] documentIds) throws SQLException {
+        if (documentIds.length == 0) {
+            return 0;
+        } else if (documentIds.length > 1) {
+            return rankUnion(documentIds).size();
+        }
+
+        String sql = "SELECT `uniqueWords` AS `unique_count` FROM " + documentTable + " WHERE `documentId` = ?";
+
+        try (Connection dbConnection = DatabaseController.getConnection();
+             PreparedStatement preparedStatement = dbConnection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, documentIds[0]);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                PipelineMetrics.statementExecuted();
+                return resultSet.next() ? resultSet.getInt("unique_count") : 0;
+            }
+        }
+    }
+
+    /**
+     * Reads one page of the ranked words of several documents added
+     * together, paged by offset or after the last word of the previous
+     * page. The words of the documents are added up by one query when they
+     * are first read together, and kept, ranked, until other documents are
+     * read together or a document is removed, so that each further page is
+     * read from memory rather than by adding up the rows of the documents
+     * again.
+     */
+    List<WordCount> getUnionPage(long[] documentIds, WordCount after, int offset, int limit) throws SQLException {
+        List<WordCount> ranked = rankUnion(documentIds);
+
+        int from = offset;
+        if (after != null) {
+            int found = Collections.binarySearch(ranked, after, ranking);
+            from = found >= 0 ? found + 1 : -found - 1;
+        }
+        from = Math.min(from, ranked.size());
+
+        return new ArrayList<>(ranked.subList(from, Math.min(ranked.size(), from + limit)));
+    }
+
+    /**
+     * @return The words of the documents added together, ranked by
+     * frequency and then alphabetically, as in the other stores
+     */
+    private synchronized List<WordCount> rankUnion(long[] documentIds) throws SQLException {
+        long[] sortedIds = documentIds.clone();
+        Arrays.sort(sortedIds);
+        if (Arrays.equals(sortedIds, unionDocumentIds)) {
+            return unionWords;
+        }
+
+        List<WordCount> words;
+        try (Connection dbConnection = DatabaseController.getConnection();
+             PreparedStatement preparedStatement = dbConnection.prepareStatement(
+                     unionQuery(String.join(",", Collections.nCopies(sortedIds.length, "?"))))) {
+            for (int i = 0; i < sortedIds.length; i++) {
+                preparedStatement.setLong(i + 1, sortedIds[i]);
+            }
+            words = readWords(preparedStatement, Integer.MAX_VALUE);
+        }
+        words.sort(ranking);
+
+        unionDocumentIds = sortedIds;
+        unionWords = words;
+        return words;
+    }
+
+    private synchronized void forgetUnion() {
+        unionDocumentIds = null;
+        unionWords = null;
+    }
+
+    /**
+     * Removes all the frequencies and documents.
+     */
+    void clear() throws SQLException {
+        try (Connection dbConnection = DatabaseController.getConnection();
+             Statement statement = dbConnection.createStatement()) {
+            // The document table is referenced by the document counts, so it cannot be truncated
+            statement.executeUpdate("TRUNCATE " + documentCountTable);
+            statement.executeUpdate("DELETE FROM " + documentTable);
+            statement.executeUpdate("TRUNCATE " + countTable);
+            statement.executeUpdate("UPDATE " + summaryTable + " SET `uniqueWords` = 0, `totalWords` = 0");
+            PipelineMetrics.statementExecuted();
+            PipelineMetrics.statementExecuted();
+            PipelineMetrics.statementExecuted();
+            PipelineMetrics.statementExecuted();
+            forgetUnion();
+        }
+    }
+
+    /**
+     * Reads the number of unique words in the aggregate from the summary.
+     */
+    int getUniqueWordCount() throws SQLException {
+        String sql = "SELECT `uniqueWords` AS `unique_count` FROM " + summaryTable;
+
+        try (Connection dbConnection = DatabaseController.getConnection();
+             Statement statement = dbConnection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            PipelineMetrics.statementExecuted();
+            return resultSet.next() ? resultSet.getInt("unique_count") : 0;
+        }
+    }
+
+    /**
+     * Reads the number of words in the aggregate, counting repetitions, from
+     * the summary.
+     */
+    long getTotalWordCount() throws SQLException {
+        String sql = "SELECT `totalWords` AS `total_count` FROM " + summaryTable;
+
+        try (Connection dbConnection = DatabaseController.getConnection();
+             Statement statement = dbConnection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            PipelineMetrics.statementExecuted();
+            return resultSet.next() ? resultSet.getLong("total_count") : 0;
+        }
+    }
+
+    /**
+     * Runs a query of {@code wordContent} and {@code wordFrequency} columns.
+     */
+    static List<WordCount> readWords(PreparedStatement preparedStatement, int limit) throws SQLException {
+        List<WordCount> words = new ArrayList<>(Math.min(limit, 1024));
+
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            PipelineMetrics.statementExecuted();
+            while (resultSet.next()) {
+                words.add(new WordCount(resultSet.getString("wordContent"), resultSet.getLong("wordFrequency")));
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * Reads the rows of a summary query: the totals, repeated on every row,
+     * and a word per row, which is {@code null} when there are no words.
+     *
+     * @return The summary, or {@code null} if there are no rows
+     */
+    static ResultSummary readResultSummary(ResultSet resultSet, int limit) throws SQLException {
+        if (!resultSet.next()) {
+            return null;
+        }
+
+        int uniqueWords = resultSet.getInt("uniqueWords");
+        long totalWords = resultSet.getLong("totalWords");
+        List<WordCount> words = new ArrayList<>(Math.min(limit, uniqueWords));
+
+        do {
+            String wordContent = resultSet.getString("wordContent");
+            if (wordContent != null) {
+                words.add(new WordCount(wordContent, resultSet.getLong("wordFrequency")));
+            }
+        } while (resultSet.next());
+
+        return new ResultSummary(uniqueWords, totalWords, words);
+    }
+}
@@ -0,0 +1,231 @@
+package gce.textanalyzer.controller;
+
+/**
+ * Splits plain text into words in a single pass over its characters.
+ * <p>
+ * The tokenizer applies the same cleanup rules as
+ * {@link TextAnalyzerController#htmlToText(String)} followed by a
+ * {@link java.util.StringTokenizer}, but without copying the text: each
+ * character is lowercased, stripped of select punctuation and apostrophes
+ * and appended to a reusable token buffer, which is handed to a
+ * {@link TokenSink} whenever a word ends. Each cleanup rule is a small state
+ * machine that only remembers the previous character it was given, so
+ * the text may be fed in chunks of any size.
+ * <p>
+ * Characters are lowercased one at a time with
+ * {@link Character#toLowerCase(char)}. This matches {@link String#toLowerCase()}
+ * for all text except the few context or locale sensitive cases, such as the
+ * Greek final sigma.
+ */
+public class WordTokenizer {
+    /**
+     * Longest word, in characters, that fits in the database.
+     */
+    public static final int MAX_WORD_LENGTH = 254;
+
+    /**
+     * Receives the words found by a {@link WordTokenizer}.
+     */
+    public interface TokenSink {
+        /**
+         * Called once for each word found.
+         *
+         * @param buffer The buffer holding the word. Only valid during the call.
+         * @param offset The position of the first character of the word
+         * @param length The number of characters in the word
+         */
+        void token(char[] buffer, int offset, int length);
+    }
+
+    private final TokenSink sink;
+    private final int maxTokenLength;
+
+    private char[] token = new char[32];
+    private int tokenLength;
+    private boolean inToken;
+
+    private boolean afterGreaterThan;
+    private boolean afterSpace;
+    private boolean afterSentencePunctuation;
+    private boolean pendingDash;
+
+    /**
+     * Creates a tokenizer that does not limit the length of words.
+     *
+     * @param sink Receives the words found
+     */
+    public WordTokenizer(TokenSink sink) {
+        this(sink, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a tokenizer that truncates words longer than {@code maxTokenLength}.
+     *
+     * @param sink           Receives the words found
+     * @param maxTokenLength The maximum number of characters kept per word
+     */
+    public WordTokenizer(TokenSink sink, int maxTokenLength) {
+        this.sink = sink;
+        this.maxTokenLength = maxTokenLength;
+    }
+
+    /**
+     * Tokenizes a chunk of text.
+     *
+     * @param text   The buffer holding the text
+     * @param offset The position of the first character to tokenize
+     * @param length The number of characters to tokenize
+     */
+    public void feed(char[] text, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            accept(text[i]);
+        }
+    }
+
+    /**
+     * Tokenizes a chunk of text.
+     *
+     * @param text The text to tokenize
+     */
+    public void feed(CharSequence text) {
+        for (int i = 0, end = text.length(); i < end; i++) {
+            accept(text.charAt(i));
+        }
+    }
+
+    /**
+     * Tokenizes a range of a text.
+     *
+     * @param text  The text to tokenize
+     * @param start The position of the first character to tokenize
+     * @param end   The position after the last character to tokenize
+     */
+    public void feed(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            accept(text.charAt(i));
+        }
+    }
+
+    /**
+     * Tokenizes a single character of text.
+     *
+     * @param c The character to tokenize
+     */
+    public void accept(char c) {
+        c = Character.toLowerCase(c);
+
+        // ">'" becomes ">"
+        if (c == '\'' && afterGreaterThan) {
+            afterGreaterThan = false;
+            return;
+        }
+        afterGreaterThan = c == '>';
+
+        // " '" becomes " "
+        if (c == '\'' && afterSpace) {
+            afterSpace = false;
+            return;
+        }
+        afterSpace = c == ' ';
+
+        // "!'", ".'" and ",'" are removed. The punctuation itself is removed below.
+        if (c == '\'' && afterSentencePunctuation) {
+            afterSentencePunctuation = false;
+            return;
+        }
+        afterSentencePunctuation = c == '!' || c == '.' || c == ',';
+
+        if (isStrippedPunctuation(c)) {
+            return;
+        }
+
+        // "--" becomes " "
+        if (c == '-') {
+            if (pendingDash) {
+                pendingDash = false;
+                append(' ');
+            } else {
+                pendingDash = true;
+            }
+            return;
+        }
+
+        if (pendingDash) {
+            pendingDash = false;
+            append('-');
+        }
+
+        append(c);
+    }
+
+    /**
+     * Ends the text, emitting the last word if there is one. The tokenizer
+     * may then be reused for a new text.
+     */
+    public void finish() {
+        if (pendingDash) {
+            append('-');
+        }
+
+        endToken();
+
+        afterGreaterThan = false;
+        afterSpace = false;
+        afterSentencePunctuation = false;
+        pendingDash = false;
+    }
+
+    private void append(char c) {
+        if (isDelimiter(c)) {
+            endToken();
+            return;
+        }
+
+        inToken = true;
+
+        if (tokenLength < maxTokenLength) {
+            if (tokenLength == token.length) {
+                char[] grown = new char[Math.min(token.length * 2, maxTokenLength)];
+                System.arraycopy(token, 0, grown, 0, tokenLength);
+                token = grown;
+            }
+            token[tokenLength++] = c;
+        }
+    }
+
+    private void endToken() {
+        if (inToken) {
+            sink.token(token, 0, tokenLength);
+            tokenLength = 0;
+            inToken = false;
+        }
+    }
+
+    /**
+     * @return True if the character ends a word; it is the same once lowercased
+     */
+    static boolean isDelimiter(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isStrippedPunctuation(char c) {
+        switch (c) {
+            case '[':
+            case ']':
+            case '|':
+            case '.':
+            case '?':
+            case '!':
+            case ',':
+            case ';':
+            case ':':
+            case '{':
+            case '}':
+            case '(':
+            case ')':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package gce.textanalyzer.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records a distribution of durations, in nanoseconds, from any number of
+ * threads without locking.
+ * <p>
+ * Each duration is counted in the bucket of its highest set bit, so the
+ * percentiles are accurate to within a factor of two, which is enough to
+ * tell a millisecond from a second. The count, sum and maximum are exact.
+ */
+public class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nanos The duration to record
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+
+        buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(value | 1));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return The number of durations recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The sum of the durations recorded, in nanoseconds
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return The longest duration recorded, in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return The mean duration, in nanoseconds, or zero if none was recorded
+     */
+    public double getMean() {
+        long recorded = getCount();
+        return recorded == 0 ? 0 : (double) getSum() / recorded;
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100
+     * @return An upper bound of the duration below which {@code percentile}
+     * percent of the durations fall, in nanoseconds, never more than the maximum
+     */
+    public long getPercentile(double percentile) {
+        long recorded = 0;
+        for (int bucket = 0; bucket < 64; bucket++) {
+            recorded += buckets.get(bucket);
+        }
+
+        long rank = (long) Math.ceil(recorded * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < 64; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank && seen > 0) {
+                return bucket == 63 ? getMax() : Math.min(getMax(), (1L << (bucket + 1)) - 1);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Discards all the durations recorded.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < 64; bucket++) {
+            buckets.set(bucket, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,397 @@
+package gce.textanalyzer.metrics;
+
+import gce.textanalyzer.controller.Settings;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.text.NumberFormat;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures each stage of an analysis, to find out where the time goes when
+ * an analysis is slow.
+ * <p>
+ * The metrics are recorded when the {@code textanalyzer.metrics} option is
+ * set, and published over JMX, so that they can be watched with tools such
+ * as JConsole. With the {@code textanalyzer.metrics.log} option, a summary
+ * of each analysis is also printed to the console. The static methods are
+ * called from the pipeline itself; when the metrics are turned off they
+ * return right away, and since {@link #enabled} is a constant the JIT
+ * compiler removes those calls altogether.
+ * <p>
+ * The stages are:
+ * <ul>
+ *     <li>{@link Stage#FETCH}: waiting for the content of the URL.</li>
+ *     <li>{@link Stage#FLATTEN}: turning HTML into text. When a URL is
+ *     streamed, the text is split into words as it is extracted, so this
+ *     also includes tokenization.</li>
+ *     <li>{@link Stage#TOKENIZE}: splitting text into words and counting them.
+ *     The tokenize stage of the ingestion pipeline extracts the text as it
+ *     splits it, and is only measured here.</li>
+ *     <li>{@link Stage#STORE}: writing the counted words to the word store.</li>
+ *     <li>{@link Stage#QUERY}: reading ranked words from the word store.</li>
+ * </ul>
+ */
+public class PipelineMetrics implements PipelineMetricsMBean {
+
+    /**
+     * Whether the metrics are recorded, read once from the {@code textanalyzer.metrics} option
+     */
+    public static final boolean enabled = Settings.getBoolean("metrics", false);
+
+    private static final PipelineMetrics shared = enabled ? register(new PipelineMetrics()) : null;
+
+    /**
+     * The stages of an analysis.
+     */
+    public enum Stage {
+        FETCH, FLATTEN, TOKENIZE, STORE, QUERY
+    }
+
+    private final Map<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+    private final Histogram connectionWaits = new Histogram();
+    private final LongAdder analyses = new LongAdder();
+    private final LongAdder bytesFetched = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rowsMaterialized = new LongAdder();
+
+    /**
+     * Creates metrics that are not published. The pipeline records into the
+     * shared instance, returned by {@link #get()}.
+     */
+    public PipelineMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new Histogram());
+        }
+    }
+
+    /**
+     * @return The metrics recorded by the pipeline, or {@code null} if they are turned off
+     */
+    public static PipelineMetrics get() {
+        return shared;
+    }
+
+    /**
+     * @return The current time to pass to {@link #stageEnded}, or zero if the metrics are turned off
+     */
+    public static long stageStarted() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time taken by a stage.
+     *
+     * @param stage     The stage
+     * @param startTime The value returned by {@link #stageStarted()} when the stage started
+     */
+    public static void stageEnded(Stage stage, long startTime) {
+        if (enabled) {
+            shared.recordStage(stage, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Records that an analysis started.
+     */
+    public static void analysisStarted() {
+        if (enabled) {
+            shared.analyses.increment();
+        }
+    }
+
+    /**
+     * Records bytes read from a URL or file.
+     *
+     * @param bytes The number of bytes read
+     */
+    public static void bytesFetched(long bytes) {
+        if (enabled) {
+            shared.bytesFetched.add(bytes);
+        }
+    }
+
+    /**
+     * Records words found in a document.
+     *
+     * @param count The number of words, counting repetitions
+     */
+    public static void tokensCounted(long count) {
+        if (enabled) {
+            shared.tokens.add(count);
+        }
+    }
+
+    /**
+     * Records database statements sent together in a batch.
+     *
+     * @param count The number of statements in the batch
+     */
+    public static void batchExecuted(int count) {
+        if (enabled) {
+            shared.statements.add(count);
+            shared.batches.increment();
+        }
+    }
+
+    /**
+     * Records a database statement sent on its own.
+     */
+    public static void statementExecuted() {
+        if (enabled) {
+            shared.statements.increment();
+        }
+    }
+
+    /**
+     * Records how long it took to get a database connection.
+     *
+     * @param startTime The value returned by {@link #stageStarted()} before asking for the connection
+     */
+    public static void connectionAcquired(long startTime) {
+        if (enabled) {
+            shared.connectionWaits.record(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Records ranked words read back from the word store.
+     *
+     * @param count The number of words read
+     */
+    public static void rowsMaterialized(int count) {
+        if (enabled) {
+            shared.rowsMaterialized.add(count);
+        }
+    }
+
+    /**
+     * @param stage The stage
+     * @param nanos The time it took
+     */
+    public void recordStage(Stage stage, long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    /**
+     * @param stage The stage
+     * @return The times taken by the stage
+     */
+    public Histogram getStage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * @return The times taken to get a database connection
+     */
+    public Histogram getConnectionWaitHistogram() {
+        return connectionWaits;
+    }
+
+    /**
+     * Takes a copy of the totals, to summarize what happens from now on with
+     * {@link #getSummarySince(Snapshot)}.
+     *
+     * @return The current totals
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    @Override
+    public long getAnalyses() {
+        return analyses.sum();
+    }
+
+    @Override
+    public long getBytesFetched() {
+        return bytesFetched.sum();
+    }
+
+    @Override
+    public long getTokens() {
+        return tokens.sum();
+    }
+
+    @Override
+    public double getTokensPerSecond() {
+        return tokensPerSecond(getTokens(), tokenizingNanos());
+    }
+
+    @Override
+    public long getStatements() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getRowsMaterialized() {
+        return rowsMaterialized.sum();
+    }
+
+    @Override
+    public double getFetchMillis() {
+        return millis(stages.get(Stage.FETCH).getSum());
+    }
+
+    @Override
+    public double getFlattenMillis() {
+        return millis(stages.get(Stage.FLATTEN).getSum());
+    }
+
+    @Override
+    public double getTokenizeMillis() {
+        return millis(stages.get(Stage.TOKENIZE).getSum());
+    }
+
+    @Override
+    public double getStoreMillis() {
+        return millis(stages.get(Stage.STORE).getSum());
+    }
+
+    @Override
+    public double getQueryMillis() {
+        return millis(stages.get(Stage.QUERY).getSum());
+    }
+
+    @Override
+    public double getQueryP99Millis() {
+        return millis(stages.get(Stage.QUERY).getPercentile(99));
+    }
+
+    @Override
+    public long getConnectionWaits() {
+        return connectionWaits.getCount();
+    }
+
+    @Override
+    public double getConnectionWaitMeanMillis() {
+        return millis(connectionWaits.getMean());
+    }
+
+    @Override
+    public double getConnectionWaitP99Millis() {
+        return millis(connectionWaits.getPercentile(99));
+    }
+
+    @Override
+    public double getConnectionWaitMaxMillis() {
+        return millis(connectionWaits.getMax());
+    }
+
+    @Override
+    public String getSummary() {
+        return getSummarySince(new Snapshot());
+    }
+
+    /**
+     * Summarizes what was recorded since a snapshot was taken, for example
+     * during one analysis.
+     *
+     * @param since The totals to subtract
+     * @return A one-line summary of each stage and counter
+     */
+    public String getSummarySince(Snapshot since) {
+        Snapshot now = snapshot();
+        NumberFormat format = NumberFormat.getInstance();
+        format.setMaximumFractionDigits(1);
+
+        StringBuilder summary = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            summary.append(stage.name().toLowerCase()).append(' ')
+                    .append(format.format(millis(now.stageNanos[stage.ordinal()] - since.stageNanos[stage.ordinal()])))
+                    .append(" ms, ");
+        }
+
+        long tokenCount = now.tokens - since.tokens;
+        long tokenizingNanos = now.stageNanos[Stage.FLATTEN.ordinal()] + now.stageNanos[Stage.TOKENIZE.ordinal()]
+                - since.stageNanos[Stage.FLATTEN.ordinal()] - since.stageNanos[Stage.TOKENIZE.ordinal()];
+
+        summary.append(format.format(now.bytesFetched - since.bytesFetched)).append(" bytes fetched, ")
+                .append(format.format(tokenCount)).append(" tokens (")
+                .append(format.format(tokensPerSecond(tokenCount, tokenizingNanos))).append(" per second), ")
+                .append(format.format(now.statements - since.statements)).append(" statements in ")
+                .append(format.format(now.batches - since.batches)).append(" batches, ")
+                .append(format.format(now.connectionWaits - since.connectionWaits)).append(" connections taking ")
+                .append(format.format(millis(now.connectionWaitNanos - since.connectionWaitNanos))).append(" ms, ")
+                .append(format.format(now.rowsMaterialized - since.rowsMaterialized)).append(" rows materialized");
+
+        return summary.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram histogram : stages.values()) {
+            histogram.reset();
+        }
+        connectionWaits.reset();
+        analyses.reset();
+        bytesFetched.reset();
+        tokens.reset();
+        statements.reset();
+        batches.reset();
+        rowsMaterialized.reset();
+    }
+
+    /**
+     * The totals of the metrics at one point in time.
+     */
+    public static class Snapshot {
+        private final long[] stageNanos = new long[Stage.values().length];
+        private final long bytesFetched;
+        private final long tokens;
+        private final long statements;
+        private final long batches;
+        private final long connectionWaits;
+        private final long connectionWaitNanos;
+        private final long rowsMaterialized;
+
+        private Snapshot() {
+            bytesFetched = tokens = statements = batches = connectionWaits = connectionWaitNanos = rowsMaterialized = 0;
+        }
+
+        private Snapshot(PipelineMetrics metrics) {
+            for (Stage stage : Stage.values()) {
+                stageNanos[stage.ordinal()] = metrics.stages.get(stage).getSum();
+            }
+            bytesFetched = metrics.getBytesFetched();
+            tokens = metrics.getTokens();
+            statements = metrics.getStatements();
+            batches = metrics.getBatches();
+            connectionWaits = metrics.connectionWaits.getCount();
+            connectionWaitNanos = metrics.connectionWaits.getSum();
+            rowsMaterialized = metrics.getRowsMaterialized();
+        }
+    }
+
+    private long tokenizingNanos() {
+        return stages.get(Stage.FLATTEN).getSum() + stages.get(Stage.TOKENIZE).getSum();
+    }
+
+    private static double tokensPerSecond(long tokenCount, long nanos) {
+        return nanos == 0 ? 0 : tokenCount * 1e9 / nanos;
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1e6;
+    }
+
+    private static PipelineMetrics register(PipelineMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(metrics, new ObjectName("gce.textanalyzer:type=PipelineMetrics"));
+        } catch (JMException e) {
+            System.out.println("Unable to publish the pipeline metrics over JMX: " + e);
+        }
+        return metrics;
+    }
+}
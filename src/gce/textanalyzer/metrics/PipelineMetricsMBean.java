@@ -0,0 +1,48 @@
+package gce.textanalyzer.metrics;
+
+/**
+ * The management interface of {@link PipelineMetrics}, published over JMX
+ * as {@code gce.textanalyzer:type=PipelineMetrics}. Times are in
+ * milliseconds; all values are totals since the application started or the
+ * metrics were last reset.
+ */
+public interface PipelineMetricsMBean {
+
+    long getAnalyses();
+
+    long getBytesFetched();
+
+    long getTokens();
+
+    double getTokensPerSecond();
+
+    long getStatements();
+
+    long getBatches();
+
+    long getRowsMaterialized();
+
+    double getFetchMillis();
+
+    double getFlattenMillis();
+
+    double getTokenizeMillis();
+
+    double getStoreMillis();
+
+    double getQueryMillis();
+
+    double getQueryP99Millis();
+
+    long getConnectionWaits();
+
+    double getConnectionWaitMeanMillis();
+
+    double getConnectionWaitP99Millis();
+
+    double getConnectionWaitMaxMillis();
+
+    String getSummary();
+
+    void reset();
+}
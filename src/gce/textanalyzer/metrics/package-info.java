@@ -0,0 +1,4 @@
+/**
+ * This is the metrics package of the TextAnalyzer application.
+ */
+package gce.textanalyzer.metrics;
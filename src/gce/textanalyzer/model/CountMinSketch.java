@@ -0,0 +1,178 @@
+package gce.textanalyzer.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Estimates the frequency of any word in a fixed amount of memory, with a
+ * Count-Min sketch.
+ * <p>
+ * The sketch is a grid of {@code depth} rows of {@code width} counters. Each
+ * word is hashed to one counter per row, and all of them are incremented;
+ * its frequency is estimated as the lowest of them. The estimate is never
+ * lower than the actual frequency, and with a probability of at least
+ * {@link #getConfidence()} it is higher by no more than
+ * {@link #getRelativeError()} times the total number of words added.
+ * Sketches of the same size can be merged, for example to combine several
+ * analyses.
+ */
+public class CountMinSketch {
+
+    private final int width;
+    private final int depth;
+    private final long[] counts;
+
+    /**
+     * @param width The number of counters per row; the error is inversely proportional to it
+     * @param depth The number of rows; the probability of exceeding the error falls
+     *              exponentially with it
+     */
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1) {
+            throw new IllegalArgumentException("The width and depth must be at least 1.");
+        }
+        if ((long) width * depth > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The width times the depth must fit in an int.");
+        }
+
+        this.width = width;
+        this.depth = depth;
+        counts = new long[width * depth];
+    }
+
+    /**
+     * Adds occurrences of a word.
+     *
+     * @param hash  A 64-bit hash of the word
+     * @param count The number of occurrences to add
+     */
+    public void add(long hash, long count) {
+        for (int row = 0; row < depth; row++) {
+            counts[row * width + column(hash, row)] += count;
+        }
+    }
+
+    /**
+     * @param hash A 64-bit hash of the word
+     * @return The estimated frequency of the word
+     */
+    public long estimate(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts[row * width + column(hash, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Adds all the occurrences counted by another sketch of the same size.
+     *
+     * @param other The sketch to add
+     */
+    public void merge(CountMinSketch other) {
+        checkMergeable(other);
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+    }
+
+    /**
+     * @param other The sketch to add
+     * @throws IllegalArgumentException If the sketch is not the same size
+     */
+    void checkMergeable(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Only sketches of the same width and depth can be merged.");
+        }
+    }
+
+    /**
+     * @return The largest overestimate, as a fraction of the total number of words added
+     */
+    public double getRelativeError() {
+        return Math.E / width;
+    }
+
+    /**
+     * @return The probability that an estimate is within the relative error
+     */
+    public double getConfidence() {
+        return 1 - Math.exp(-depth);
+    }
+
+    /**
+     * @return The number of counters per row
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The number of rows
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CountMinSketch && ((CountMinSketch) other).width == width
+                && ((CountMinSketch) other).depth == depth && Arrays.equals(((CountMinSketch) other).counts, counts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(counts);
+    }
+
+    /**
+     * Writes the size and the counters of the sketch.
+     *
+     * @param output The output to write to
+     * @throws IOException If the output cannot be written
+     */
+    void write(DataOutput output) throws IOException {
+        output.writeInt(width);
+        output.writeInt(depth);
+        for (long count : counts) {
+            output.writeLong(count);
+        }
+    }
+
+    /**
+     * Reads a sketch written with {@link #write(DataOutput)}.
+     *
+     * @param input     The input to read from
+     * @param available The number of bytes left in the input, to reject sizes it cannot hold
+     * @return The sketch
+     * @throws IOException If the input cannot be read or does not hold a valid sketch
+     */
+    static CountMinSketch read(DataInput input, long available) throws IOException {
+        int width = input.readInt();
+        int depth = input.readInt();
+        if (width < 1 || depth < 1 || (long) width * depth * Long.BYTES > available - 2 * Integer.BYTES) {
+            throw new IOException("Invalid Count-Min sketch size " + width + " x " + depth + ".");
+        }
+
+        CountMinSketch countMinSketch = new CountMinSketch(width, depth);
+        for (int i = 0; i < countMinSketch.counts.length; i++) {
+            long count = input.readLong();
+            if (count < 0) {
+                throw new IOException("Invalid Count-Min sketch counter " + count + ".");
+            }
+            countMinSketch.counts[i] = count;
+        }
+        return countMinSketch;
+    }
+
+    /**
+     * Derives the hash of each row from the two halves of the word's hash.
+     */
+    private int column(long hash, int row) {
+        int combined = (int) hash + row * (int) (hash >>> 32);
+        return (combined & Integer.MAX_VALUE) % width;
+    }
+}
@@ -0,0 +1,62 @@
+package gce.textanalyzer.model;
+
+/**
+ * A document whose words were kept by an analysis, as read from a word store.
+ */
+public class Document {
+    private final long documentId;
+    private final String documentSource;
+    private final long analyzedAt;
+    private final int uniqueWords;
+    private final long totalWords;
+
+    /**
+     * @param documentId     The number of the document, unique within its store
+     * @param documentSource Where the words came from, such as the analyzed URLs
+     * @param analyzedAt     When the document was analyzed, in milliseconds since the epoch
+     * @param uniqueWords    The number of unique words in the document
+     * @param totalWords     The number of words in the document, counting repetitions
+     */
+    public Document(long documentId, String documentSource, long analyzedAt, int uniqueWords, long totalWords) {
+        this.documentId = documentId;
+        this.documentSource = documentSource;
+        this.analyzedAt = analyzedAt;
+        this.uniqueWords = uniqueWords;
+        this.totalWords = totalWords;
+    }
+
+    /**
+     * @return The number of the document, unique within its store
+     */
+    public long getDocumentId() {
+        return documentId;
+    }
+
+    /**
+     * @return Where the words came from, such as the analyzed URLs
+     */
+    public String getDocumentSource() {
+        return documentSource;
+    }
+
+    /**
+     * @return When the document was analyzed, in milliseconds since the epoch
+     */
+    public long getAnalyzedAt() {
+        return analyzedAt;
+    }
+
+    /**
+     * @return The number of unique words in the document
+     */
+    public int getUniqueWords() {
+        return uniqueWords;
+    }
+
+    /**
+     * @return The number of words in the document, counting repetitions
+     */
+    public long getTotalWords() {
+        return totalWords;
+    }
+}
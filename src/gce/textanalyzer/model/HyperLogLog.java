@@ -0,0 +1,183 @@
+package gce.textanalyzer.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Estimates the number of unique words in a fixed amount of memory, with
+ * the HyperLogLog algorithm.
+ * <p>
+ * The sketch has {@code 2^precision} one-byte registers. Each word is
+ * hashed to a register, which keeps the longest run of leading zeros seen
+ * in the rest of the hashes sent to it. The standard error of the estimate
+ * is {@link #getStandardError()}. The sum used by the estimate is updated
+ * whenever a register changes, so reading the estimate takes constant
+ * time. Sketches of the same precision can be merged.
+ */
+public class HyperLogLog {
+
+    private final int precision;
+    private final byte[] registers;
+
+    // The sum of 2^-register over all the registers, and the number of registers still zero
+    private double inverseSum;
+    private int zeroRegisters;
+
+    /**
+     * @param precision The number of bits of the hash used to choose a register,
+     *                  from 4 to 18; each extra bit doubles the memory and
+     *                  divides the error by the square root of two
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("The precision must be from 4 to 18.");
+        }
+
+        this.precision = precision;
+        registers = new byte[1 << precision];
+        inverseSum = registers.length;
+        zeroRegisters = registers.length;
+    }
+
+    /**
+     * Adds a word.
+     *
+     * @param hash A 64-bit hash of the word
+     */
+    public void add(long hash) {
+        int register = (int) (hash >>> (64 - precision));
+
+        // The rank is the position of the first one bit in the rest of the hash
+        long rest = hash << precision | 1L << (precision - 1);
+        int rank = Long.numberOfLeadingZeros(rest) + 1;
+
+        update(register, rank);
+    }
+
+    /**
+     * @return The estimated number of unique words added
+     */
+    public long estimate() {
+        int m = registers.length;
+        double estimate = alpha(m) * m * m / inverseSum;
+
+        // Small cardinalities are estimated more accurately from the empty registers
+        if (estimate <= 2.5 * m && zeroRegisters > 0) {
+            estimate = m * Math.log((double) m / zeroRegisters);
+        }
+
+        return Math.round(estimate);
+    }
+
+    /**
+     * Adds all the words seen by another sketch of the same precision.
+     *
+     * @param other The sketch to add
+     */
+    public void merge(HyperLogLog other) {
+        checkMergeable(other);
+
+        for (int register = 0; register < registers.length; register++) {
+            update(register, other.registers[register]);
+        }
+    }
+
+    /**
+     * @param other The sketch to add
+     * @throws IllegalArgumentException If the sketch is not the same precision
+     */
+    void checkMergeable(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Only sketches of the same precision can be merged.");
+        }
+    }
+
+    /**
+     * @return The standard error of the estimate, as a fraction of the number of unique words
+     */
+    public double getStandardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    /**
+     * @return The number of bits of the hash used to choose a register
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof HyperLogLog && Arrays.equals(((HyperLogLog) other).registers, registers);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(registers);
+    }
+
+    /**
+     * Writes the precision and the registers of the sketch.
+     *
+     * @param output The output to write to
+     * @throws IOException If the output cannot be written
+     */
+    void write(DataOutput output) throws IOException {
+        output.writeInt(precision);
+        output.write(registers);
+    }
+
+    /**
+     * Reads a sketch written with {@link #write(DataOutput)}.
+     *
+     * @param input The input to read from
+     * @return The sketch
+     * @throws IOException If the input cannot be read or does not hold a valid sketch
+     */
+    static HyperLogLog read(DataInput input) throws IOException {
+        int precision = input.readInt();
+        if (precision < 4 || precision > 18) {
+            throw new IOException("Invalid HyperLogLog precision " + precision + ".");
+        }
+
+        HyperLogLog hyperLogLog = new HyperLogLog(precision);
+        byte[] registers = new byte[hyperLogLog.registers.length];
+        input.readFully(registers);
+
+        // The longest rank is one more than the number of bits left after the register
+        int maxRank = 64 - precision + 1;
+        for (int register = 0; register < registers.length; register++) {
+            if (registers[register] < 0 || registers[register] > maxRank) {
+                throw new IOException("Invalid HyperLogLog register " + registers[register] + ".");
+            }
+            hyperLogLog.update(register, registers[register]);
+        }
+        return hyperLogLog;
+    }
+
+    private void update(int register, int rank) {
+        int current = registers[register];
+        if (rank > current) {
+            inverseSum += Math.scalb(1.0, -rank) - Math.scalb(1.0, -current);
+            if (current == 0) {
+                zeroRegisters--;
+            }
+            registers[register] = (byte) rank;
+        }
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package gce.textanalyzer.model;
+
+import java.util.Arrays;
+
+/**
+ * Counts the frequency of each phrase of {@code n} consecutive words
+ * (n-gram) in a text, for n from 1 to {@link #MAX_N}.
+ * <p>
+ * Phrases are never built as strings while counting. Each word is numbered
+ * by a {@link WordCounter}, and a phrase of k words is identified by the
+ * number of its first k - 1 words and the number of its last word, packed
+ * into a single {@code long}. Each phrase length has its own open
+ * addressing table of such keys, which numbers the phrases in turn, so a
+ * phrase of any length is one key of two {@code int} numbers. A rolling
+ * window keeps the numbers of the phrases of each length that end at the
+ * previous word, so each new word extends them with one lookup per length.
+ * <p>
+ * Each distinct phrase, and each distinct phrase of fewer words it starts
+ * with, costs about 20 bytes however long its words are, against all the
+ * characters of the phrase plus about 20 bytes in a {@link WordCounter} of
+ * joined phrases. The phrases are only written out by
+ * {@link #toWordCounter(int)}, once the text has been counted.
+ */
+public class NGramCounter {
+
+    /**
+     * The longest phrases counted, in words
+     */
+    public static final int MAX_N = 5;
+
+    private final int n;
+    private final WordCounter words = new WordCounter();
+
+    // levels[k] numbers the phrases of k words, for k from 2 to n; levels[n] also counts them
+    private final PackedKeyTable[] levels;
+
+    // window[k - 1] is the number of the phrase of k words ending at the previous word
+    private final int[] window;
+    private int wordsInWindow;
+
+    /**
+     * @param n The number of words in a phrase, from 1 to {@link #MAX_N}
+     */
+    public NGramCounter(int n) {
+        if (n < 1 || n > MAX_N) {
+            throw new IllegalArgumentException("Phrases must have from 1 to " + MAX_N + " words, not " + n);
+        }
+
+        this.n = n;
+        this.levels = new PackedKeyTable[n + 1];
+        for (int k = 2; k <= n; k++) {
+            levels[k] = new PackedKeyTable();
+        }
+        this.window = new int[n];
+    }
+
+    /**
+     * Adds the word held in a range of characters to the text, counting
+     * the phrase it ends, if there are enough words before it.
+     *
+     * @param buffer The buffer holding the word
+     * @param offset The position of the first character of the word
+     * @param length The number of characters in the word
+     */
+    public void add(char[] buffer, int offset, int length) {
+        int word = words.addEntry(buffer, offset, length, 1);
+
+        // Longest first, so that the shorter phrases ending at the previous word are still in the window
+        for (int k = Math.min(wordsInWindow + 1, n); k >= 2; k--) {
+            int phrase = levels[k].add(pack(window[k - 2], word), k == n);
+            window[k - 1] = phrase;
+        }
+
+        window[0] = word;
+        wordsInWindow = Math.min(wordsInWindow + 1, n - 1);
+    }
+
+    /**
+     * Ends the current text, so that no phrase spans it and the next one.
+     */
+    public void endOfText() {
+        wordsInWindow = 0;
+    }
+
+    /**
+     * @return The number of words in a phrase
+     */
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * @return The number of distinct phrases
+     */
+    public int size() {
+        return n == 1 ? words.size() : levels[n].size;
+    }
+
+    /**
+     * @return The number of phrases counted, counting repetitions
+     */
+    public long total() {
+        return n == 1 ? words.total() : levels[n].total;
+    }
+
+    /**
+     * @return An estimate of the memory used by the counter, in bytes
+     */
+    public long estimatedBytes() {
+        long bytes = words.estimatedBytes();
+        for (int k = 2; k <= n; k++) {
+            bytes += levels[k].estimatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes out the phrases, with their words separated by a space, and
+     * their frequencies. Phrases are numbered in the order in which they
+     * were first found.
+     *
+     * @param maxLength The most characters in a phrase; longer phrases are left out
+     * @return The phrases and their frequencies
+     */
+    public WordCounter toWordCounter(int maxLength) {
+        WordCounter phrases = new WordCounter();
+        if (n == 1) {
+            phrases.addAll(words);
+            return phrases;
+        }
+
+        char[] buffer = new char[256];
+        PackedKeyTable counted = levels[n];
+
+        for (int phrase = 0; phrase < counted.size; phrase++) {
+            int length = phraseLength(n, phrase);
+            if (length > maxLength) {
+                continue;
+            }
+
+            if (length > buffer.length) {
+                buffer = new char[Math.max(length, buffer.length * 2)];
+            }
+            writePhrase(n, phrase, buffer, length);
+            phrases.add(buffer, 0, length, counted.counts[phrase]);
+        }
+
+        return phrases;
+    }
+
+    /**
+     * @return The number of characters of a phrase of k words, with a space between words
+     */
+    private int phraseLength(int k, int phrase) {
+        int length = 0;
+        for (; k >= 2; k--) {
+            long key = levels[k].keys[phrase];
+            length += words.wordLength(lastWord(key)) + 1;
+            phrase = prefix(key);
+        }
+        return length + words.wordLength(phrase);
+    }
+
+    /**
+     * Writes a phrase of k words, of the given length, from its last word
+     * back to its first.
+     */
+    private void writePhrase(int k, int phrase, char[] buffer, int end) {
+        for (; k >= 2; k--) {
+            long key = levels[k].keys[phrase];
+            int word = lastWord(key);
+            end -= words.wordLength(word);
+            words.copyWord(word, buffer, end);
+            buffer[--end] = ' ';
+            phrase = prefix(key);
+        }
+        words.copyWord(phrase, buffer, end - words.wordLength(phrase));
+    }
+
+    private static long pack(int prefix, int word) {
+        return (long) prefix << 32 | (word & 0xffffffffL);
+    }
+
+    private static int prefix(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int lastWord(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Numbers distinct {@code long} keys in the order in which they are
+     * first added, and optionally counts them. The keys and counts are kept
+     * in arrays indexed by number, and an open addressing table holds the
+     * numbers plus one, zero marking an empty slot.
+     */
+    private static class PackedKeyTable {
+        private long[] keys = new long[1024];
+        private int[] counts = new int[1024];
+        private int[] table = new int[2048];
+        private int size;
+        private long total;
+
+        /**
+         * @return The number of the key
+         */
+        int add(long key, boolean count) {
+            int mask = table.length - 1;
+            int slot = mix(key) & mask;
+
+            for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+                if (keys[entry - 1] == key) {
+                    if (count) {
+                        counts[entry - 1]++;
+                        total++;
+                    }
+                    return entry - 1;
+                }
+            }
+
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+
+            keys[size] = key;
+            if (count) {
+                counts[size] = 1;
+                total++;
+            }
+            table[slot] = ++size;
+
+            if (size * 2 > table.length) {
+                rehash();
+            }
+
+            return size - 1;
+        }
+
+        long estimatedBytes() {
+            return 8L * keys.length + 4L * (counts.length + table.length);
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+
+            for (int entry = 0; entry < size; entry++) {
+                int slot = mix(keys[entry]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = entry + 1;
+            }
+        }
+
+        private static int mix(long key) {
+            key *= 0x9e3779b97f4a7c15L;
+            return (int) (key ^ (key >>> 32));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package gce.textanalyzer.model;
+
+import java.util.List;
+
+/**
+ * The totals of a set of results, along with their most frequent words, as
+ * read from a word store in a single request once an analysis is done.
+ */
+public class ResultSummary {
+    private final int uniqueWords;
+    private final long totalWords;
+    private final List<WordCount> firstPage;
+
+    /**
+     * @param uniqueWords The number of unique words
+     * @param totalWords  The number of words, counting repetitions
+     * @param firstPage   The most frequent words, ranked
+     */
+    public ResultSummary(int uniqueWords, long totalWords, List<WordCount> firstPage) {
+        this.uniqueWords = uniqueWords;
+        this.totalWords = totalWords;
+        this.firstPage = firstPage;
+    }
+
+    /**
+     * @return The number of unique words
+     */
+    public int getUniqueWords() {
+        return uniqueWords;
+    }
+
+    /**
+     * @return The number of words, counting repetitions
+     */
+    public long getTotalWords() {
+        return totalWords;
+    }
+
+    /**
+     * @return The most frequent words, ranked
+     */
+    public List<WordCount> getFirstPage() {
+        return firstPage;
+    }
+}
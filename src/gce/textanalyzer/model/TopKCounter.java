@@ -0,0 +1,307 @@
+package gce.textanalyzer.model;
+
+import java.util.Arrays;
+
+/**
+ * Finds the most frequent words of an input of any size using a fixed
+ * amount of memory, with the Space-Saving algorithm.
+ * <p>
+ * The counter monitors at most {@code capacity} words. A word that is
+ * already monitored has its frequency incremented. A new word replaces the
+ * monitored word with the lowest frequency, and takes over its frequency
+ * plus one; the frequency it took over is remembered as the word's error.
+ * As a result:
+ * <ul>
+ *     <li>The frequency of a monitored word is never underestimated, and is
+ *     overestimated by at most its {@link #error(int)}.</li>
+ *     <li>Every word occurring more than {@code total / capacity} times is
+ *     monitored.</li>
+ *     <li>No error exceeds {@link #getMaxError()}, the lowest monitored
+ *     frequency, which is itself at most {@code total / capacity}.</li>
+ * </ul>
+ * Like {@link WordCounter}, words are looked up directly from a range of
+ * characters. The characters of each monitored word are copied into a
+ * buffer that is reused when the word is replaced, so counting allocates
+ * nothing once the buffers have grown to the length of the longest word.
+ */
+public class TopKCounter {
+    private final int capacity;
+    private final char[][] words;
+    private final int[] lengths;
+    private final int[] hashes;
+    private final int[] counts;
+    private final int[] errors;
+    private int size;
+    private long total;
+
+    // Open addressing table of word numbers plus one; zero marks an empty slot
+    private final int[] table;
+
+    // Min-heap of word numbers by frequency, and the position of each word in it
+    private final int[] heap;
+    private final int[] heapPositions;
+
+    /**
+     * @param capacity The number of words to monitor. The more words are
+     *                 monitored, the more accurate the frequencies.
+     */
+    public TopKCounter(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1.");
+        }
+
+        this.capacity = capacity;
+        words = new char[capacity][];
+        lengths = new int[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+        errors = new int[capacity];
+        table = new int[Integer.highestOneBit(capacity) * 4];
+        heap = new int[capacity];
+        heapPositions = new int[capacity];
+    }
+
+    /**
+     * Adds one occurrence of the word held in a range of characters.
+     *
+     * @param buffer The buffer holding the word
+     * @param offset The position of the first character of the word
+     * @param length The number of characters in the word
+     */
+    public void add(char[] buffer, int offset, int length) {
+        total++;
+
+        int hash = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+
+        for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+            if (hashes[entry - 1] == hash && sameWord(entry - 1, buffer, offset, length)) {
+                counts[entry - 1]++;
+                siftDown(heapPositions[entry - 1]);
+                return;
+            }
+        }
+
+        int entry;
+        if (size < capacity) {
+            entry = size++;
+            heap[entry] = entry;
+            heapPositions[entry] = entry;
+            counts[entry] = 1;
+            errors[entry] = 0;
+
+            // A frequency of one is the lowest possible, so the heap is still ordered
+            siftUp(entry);
+        } else {
+            // Replace the least frequent word
+            entry = heap[0];
+            removeFromTable(entry);
+            errors[entry] = counts[entry];
+            counts[entry]++;
+            siftDown(0);
+
+            // Removing the word may have moved the slot of the new one
+            slot = mix(hash) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        if (words[entry] == null || words[entry].length < length) {
+            words[entry] = new char[Math.max(length, 16)];
+        }
+        System.arraycopy(buffer, offset, words[entry], 0, length);
+        lengths[entry] = length;
+        hashes[entry] = hash;
+        table[slot] = entry + 1;
+    }
+
+    /**
+     * @return The number of words monitored, at most the capacity
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The maximum number of words monitored
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of words added, counting repetitions
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * @param index The number of a monitored word, from zero to {@link #size()} - 1
+     * @return The word
+     */
+    public String word(int index) {
+        return new String(words[index], 0, lengths[index]);
+    }
+
+    /**
+     * @param index The number of a monitored word, from zero to {@link #size()} - 1
+     * @return The estimated frequency of the word, never lower than the actual one
+     */
+    public int count(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @param index The number of a monitored word, from zero to {@link #size()} - 1
+     * @return By how much the frequency of the word may be overestimated
+     */
+    public int error(int index) {
+        return errors[index];
+    }
+
+    /**
+     * @return The largest amount by which any frequency may be overestimated;
+     * a word that is not monitored occurs at most this many times
+     */
+    public int getMaxError() {
+        return size < capacity ? 0 : counts[heap[0]];
+    }
+
+    /**
+     * Ranks the monitored words by estimated frequency, and words with the
+     * same frequency alphabetically, as {@link WordCounter#top(int)} does.
+     *
+     * @param n The maximum number of words to return; a negative number is
+     *          taken as zero
+     * @return The numbers of the most frequent words, most frequent first
+     */
+    public int[] top(int n) {
+        // Sort by frequency, descending, packed with the word number into one primitive key
+        long[] keys = new long[size];
+        for (int entry = 0; entry < size; entry++) {
+            keys[entry] = (long) (Integer.MAX_VALUE - counts[entry]) << 32 | entry;
+        }
+        Arrays.sort(keys);
+
+        int[] ranked = new int[Math.max(0, Math.min(n, size))];
+        for (int rank = 0; rank < ranked.length; ) {
+            // Words of the same frequency are then sorted by content, only as far as the ranks returned
+            int end = rank + 1;
+            while (end < size && keys[end] >>> 32 == keys[rank] >>> 32) {
+                end++;
+            }
+
+            Integer[] tied = new Integer[end - rank];
+            for (int i = 0; i < tied.length; i++) {
+                tied[i] = (int) keys[rank + i];
+            }
+            Arrays.sort(tied, this::compareWords);
+
+            for (int i = 0; i < tied.length && rank < ranked.length; i++) {
+                ranked[rank++] = tied[i];
+            }
+        }
+
+        return ranked;
+    }
+
+    private int compareWords(int entry, int other) {
+        char[] word = words[entry];
+        char[] otherWord = words[other];
+        for (int i = 0, length = Math.min(lengths[entry], lengths[other]); i < length; i++) {
+            if (word[i] != otherWord[i]) {
+                return word[i] - otherWord[i];
+            }
+        }
+
+        return lengths[entry] - lengths[other];
+    }
+
+    /**
+     * Removes a word from the table, moving back the words that follow it
+     * in the same run of slots so that none of them becomes unreachable.
+     */
+    private void removeFromTable(int entry) {
+        int mask = table.length - 1;
+        int slot = mix(hashes[entry]) & mask;
+        while (table[slot] != entry + 1) {
+            slot = (slot + 1) & mask;
+        }
+
+        table[slot] = 0;
+        for (int next = (slot + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = mix(hashes[table[next] - 1]) & mask;
+
+            // A word can move back unless its home slot lies after the empty slot
+            boolean stays = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+            if (!stays) {
+                table[slot] = table[next];
+                table[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (counts[heap[parent]] <= counts[heap[position]]) {
+                break;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[heap[position]] <= counts[heap[child]]) {
+                break;
+            }
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int swapped = heap[i];
+        heap[i] = heap[j];
+        heap[j] = swapped;
+        heapPositions[heap[i]] = i;
+        heapPositions[heap[j]] = j;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean sameWord(int entry, char[] buffer, int offset, int length) {
+        if (lengths[entry] != length) {
+            return false;
+        }
+
+        char[] word = words[entry];
+        for (int i = 0; i < length; i++) {
+            if (word[i] != buffer[offset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
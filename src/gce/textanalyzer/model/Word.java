@@ -1,6 +1,7 @@
 package gce.textanalyzer.model;
 
 import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleLongProperty;
 import javafx.beans.property.SimpleStringProperty;
 
 /**
@@ -10,7 +11,7 @@ import javafx.beans.property.SimpleStringProperty;
 public class Word {
     private final SimpleIntegerProperty wordRankProperty;
     private final SimpleStringProperty wordContentProperty;
-    private final SimpleIntegerProperty wordFrequencyProperty;
+    private final SimpleLongProperty wordFrequencyProperty;
 
     /**
      * Object to hold the words that will be displayed in the GUIs {@code TableView}
@@ -19,10 +20,10 @@ public class Word {
      * @param wordContent   Each unique word
      * @param wordFrequency The frequency of each unique word
      */
-    public Word(int wordRank, String wordContent, int wordFrequency) {
+    public Word(int wordRank, String wordContent, long wordFrequency) {
         this.wordRankProperty = new SimpleIntegerProperty(wordRank);
         this.wordContentProperty = new SimpleStringProperty(wordContent);
-        this.wordFrequencyProperty = new SimpleIntegerProperty(wordFrequency);
+        this.wordFrequencyProperty = new SimpleLongProperty(wordFrequency);
     }
 
     /**
@@ -42,7 +43,7 @@ public class Word {
     /**
      * @return The wordFrequencyProperty
      */
-    public int getWordFrequency() {
+    public long getWordFrequency() {
         return wordFrequencyProperty.get();
     }
 }
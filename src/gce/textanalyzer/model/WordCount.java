@@ -0,0 +1,32 @@
+package gce.textanalyzer.model;
+
+/**
+ * A word and its frequency, as read from the database.
+ */
+public class WordCount {
+    private final String wordContent;
+    private final long wordFrequency;
+
+    /**
+     * @param wordContent   A unique word
+     * @param wordFrequency The frequency of the word
+     */
+    public WordCount(String wordContent, long wordFrequency) {
+        this.wordContent = wordContent;
+        this.wordFrequency = wordFrequency;
+    }
+
+    /**
+     * @return The word
+     */
+    public String getWordContent() {
+        return wordContent;
+    }
+
+    /**
+     * @return The frequency of the word
+     */
+    public long getWordFrequency() {
+        return wordFrequency;
+    }
+}
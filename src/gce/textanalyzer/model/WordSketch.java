@@ -0,0 +1,206 @@
+package gce.textanalyzer.model;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Approximate statistics of the words of one or more analyses: the
+ * frequency of any word, from a {@link CountMinSketch}, the number of
+ * unique words, from a {@link HyperLogLog}, and the exact total number of
+ * words.
+ * <p>
+ * All of them are updated as each word is found, take a fixed amount of
+ * memory however many words there are, and are read in constant time, so
+ * the summary of an analysis never has to scan the stored words. Sketches
+ * can be saved, loaded and merged, to keep statistics across analyses.
+ * They are saved in a binary format of their own, so loading a file never
+ * creates anything but a sketch.
+ */
+public class WordSketch {
+
+    // "TASK", for text analyzer sketch, and the version of the file format
+    private static final int MAGIC = 0x5441534b;
+    private static final int VERSION = 1;
+
+    private final CountMinSketch countMinSketch;
+    private final HyperLogLog hyperLogLog;
+    private long total;
+
+    /**
+     * @param width     The width of the Count-Min sketch
+     * @param depth     The depth of the Count-Min sketch
+     * @param precision The precision of the HyperLogLog sketch
+     * @see CountMinSketch#CountMinSketch(int, int)
+     * @see HyperLogLog#HyperLogLog(int)
+     */
+    public WordSketch(int width, int depth, int precision) {
+        countMinSketch = new CountMinSketch(width, depth);
+        hyperLogLog = new HyperLogLog(precision);
+    }
+
+    private WordSketch(CountMinSketch countMinSketch, HyperLogLog hyperLogLog, long total) {
+        this.countMinSketch = countMinSketch;
+        this.hyperLogLog = hyperLogLog;
+        this.total = total;
+    }
+
+    /**
+     * Adds one occurrence of the word held in a range of characters.
+     *
+     * @param buffer The buffer holding the word
+     * @param offset The position of the first character of the word
+     * @param length The number of characters in the word
+     */
+    public void add(char[] buffer, int offset, int length) {
+        long hash = hash(buffer, offset, length);
+
+        countMinSketch.add(hash, 1);
+        hyperLogLog.add(hash);
+        total++;
+    }
+
+    /**
+     * Adds all the words of a counter, with their frequencies.
+     *
+     * @param wordCounter The words to add
+     */
+    public void addAll(WordCounter wordCounter) {
+        for (int word = 0; word < wordCounter.size(); word++) {
+            char[] buffer = wordCounter.word(word).toCharArray();
+            long hash = hash(buffer, 0, buffer.length);
+
+            countMinSketch.add(hash, wordCounter.count(word));
+            hyperLogLog.add(hash);
+        }
+        total += wordCounter.total();
+    }
+
+    /**
+     * Adds all the words of another sketch of the same size. If the sizes
+     * differ, this sketch is left unchanged.
+     *
+     * @param other The sketch to add
+     * @throws IllegalArgumentException If the sketch is not the same size
+     */
+    public void merge(WordSketch other) {
+        countMinSketch.checkMergeable(other.countMinSketch);
+        hyperLogLog.checkMergeable(other.hyperLogLog);
+
+        countMinSketch.merge(other.countMinSketch);
+        hyperLogLog.merge(other.hyperLogLog);
+        total += other.total;
+    }
+
+    /**
+     * @param word The word
+     * @return The estimated frequency of the word, never lower than the actual one
+     */
+    public long estimateCount(String word) {
+        char[] buffer = word.toCharArray();
+        return countMinSketch.estimate(hash(buffer, 0, buffer.length));
+    }
+
+    /**
+     * @return The estimated number of unique words
+     */
+    public long estimateUniqueWords() {
+        return hyperLogLog.estimate();
+    }
+
+    /**
+     * @return The number of words added, counting repetitions
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * @return The sketch of the word frequencies
+     */
+    public CountMinSketch getCountMinSketch() {
+        return countMinSketch;
+    }
+
+    /**
+     * @return The sketch of the unique words
+     */
+    public HyperLogLog getHyperLogLog() {
+        return hyperLogLog;
+    }
+
+    /**
+     * Saves the sketch to a file, replacing it.
+     *
+     * @param file The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(total);
+            countMinSketch.write(output);
+            hyperLogLog.write(output);
+        }
+    }
+
+    /**
+     * Loads a sketch saved with {@link #save(Path)}.
+     *
+     * @param file The file to read
+     * @return The sketch
+     * @throws IOException If the file cannot be read or does not hold a sketch
+     */
+    public static WordSketch load(Path file) throws IOException {
+        long size = Files.size(file);
+
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (size < 2 * Integer.BYTES || input.readInt() != MAGIC) {
+                throw new IOException(file + " does not hold a word sketch.");
+            }
+            int version = input.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " holds a word sketch of unknown version " + version + ".");
+            }
+
+            long total = input.readLong();
+            if (total < 0) {
+                throw new IOException(file + " holds an invalid word sketch.");
+            }
+            CountMinSketch countMinSketch = CountMinSketch.read(input, size - 2 * Integer.BYTES - Long.BYTES);
+            HyperLogLog hyperLogLog = HyperLogLog.read(input);
+            if (input.read() != -1) {
+                throw new IOException(file + " holds more than a word sketch.");
+            }
+
+            return new WordSketch(countMinSketch, hyperLogLog, total);
+        } catch (EOFException e) {
+            throw new IOException(file + " holds a truncated word sketch.", e);
+        }
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the characters, with its bits mixed so that
+     * both halves can be used independently.
+     */
+    private static long hash(char[] buffer, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            hash = (hash ^ buffer[i]) * 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
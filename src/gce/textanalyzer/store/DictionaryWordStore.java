@@ -0,0 +1,174 @@
+package gce.textanalyzer.store;
+
+import gce.textanalyzer.controller.DatabaseController;
+import gce.textanalyzer.controller.DictionaryDatabaseController;
+import gce.textanalyzer.model.Document;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * A {@link WordStore} that keeps the words in the MySQL database with each
+ * word stored once in a dictionary, and the frequencies keyed by the
+ * dictionary numbers of the words, through the
+ * {@link DictionaryDatabaseController}.
+ * <p>
+ * Words with the same frequency are ranked by the words themselves, as in
+ * the other stores, though their order is not held by the narrow indexes.
+ */
+public class DictionaryWordStore implements WordStore {
+
+    /**
+     * Opens the store, creating the schema and tables if they do not exist.
+     *
+     * @throws WordStoreException If the tables cannot be created
+     */
+    public DictionaryWordStore() throws WordStoreException {
+        try {
+            DatabaseController.createSchema();
+            DictionaryDatabaseController.createTables();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to create the tables in the database.", e);
+        }
+    }
+
+    @Override
+    public void clear() throws WordStoreException {
+        try {
+            DictionaryDatabaseController.clearWords();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to clear the words from the database.", e);
+        }
+    }
+
+    @Override
+    public void increment(String word, int count) throws WordStoreException {
+        try {
+            DictionaryDatabaseController.incrementWord(word, count);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to store the word in the database.", e);
+        }
+    }
+
+    @Override
+    public void merge(WordCounter wordCounter, IntConsumer progress) throws WordStoreException {
+        try {
+            DictionaryDatabaseController.storeWordCounts(wordCounter, progress);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to store the words in the database.", e);
+        }
+    }
+
+    @Override
+    public long addDocument(String documentSource, WordCounter wordCounter, IntConsumer progress)
+            throws WordStoreException {
+        try {
+            return DictionaryDatabaseController.storeDocument(documentSource, wordCounter, progress);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to store the words in the database.", e);
+        }
+    }
+
+    /**
+     * Opens a writer that adds each part to the database as it is appended,
+     * in a transaction that begins with the first part and is committed
+     * with the writer.
+     */
+    @Override
+    public DocumentWriter openDocument(String documentSource) {
+        return new TransactionDocumentWriter(() -> DictionaryDatabaseController.beginDocument(documentSource));
+    }
+
+    @Override
+    public boolean removeDocument(long documentId) throws WordStoreException {
+        try {
+            return DictionaryDatabaseController.removeDocument(documentId);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to remove the document from the database.", e);
+        }
+    }
+
+    @Override
+    public List<Document> getDocuments() throws WordStoreException {
+        try {
+            return DictionaryDatabaseController.getDocuments();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the documents from the database.", e);
+        }
+    }
+
+    @Override
+    public List<WordCount> getDocumentWordPage(long[] documentIds, WordCount after, int offset, int limit)
+            throws WordStoreException {
+        try {
+            return DictionaryDatabaseController.getDocumentWordPage(documentIds, after, offset, limit);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public int getDocumentUniqueWordCount(long[] documentIds) throws WordStoreException {
+        try {
+            return DictionaryDatabaseController.getDocumentUniqueWordCount(documentIds);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public List<WordCount> getWordPage(WordCount after, int offset, int limit) throws WordStoreException {
+        try {
+            return DictionaryDatabaseController.getWordPage(after, offset, limit);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public int getUniqueWordCount() throws WordStoreException {
+        try {
+            return DictionaryDatabaseController.getUniqueWordCount();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public long getTotalWordCount() throws WordStoreException {
+        try {
+            return DictionaryDatabaseController.getTotalWordCount();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public ResultSummary getResultSummary(int limit) throws WordStoreException {
+        try {
+            return DictionaryDatabaseController.getResultSummary(limit);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public ResultSummary getDocumentResultSummary(long documentId, int limit) throws WordStoreException {
+        try {
+            return DictionaryDatabaseController.getDocumentResultSummary(documentId, limit);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    /**
+     * Does nothing: the pooled connections are shared by the whole application.
+     */
+    @Override
+    public void close() {
+    }
+}
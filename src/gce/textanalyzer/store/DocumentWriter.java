@@ -0,0 +1,41 @@
+package gce.textanalyzer.store;
+
+import gce.textanalyzer.model.WordCounter;
+
+/**
+ * Writes the words of a new document a part at a time, while the rest of
+ * the document is still being counted. Opened by
+ * {@link WordStore#openDocument(String)}.
+ * <p>
+ * The parts are added together: a word found in several parts gets the sum
+ * of its frequencies. Nothing is visible in the store until
+ * {@link #commit()} is called; closing the writer without committing
+ * leaves the store as it was. A writer is used by one thread at a time.
+ */
+public interface DocumentWriter extends AutoCloseable {
+
+    /**
+     * Adds the words of a part of the document, with their frequencies, to
+     * the document and to the aggregate.
+     *
+     * @param wordCounter The words of the part
+     * @throws WordStoreException If the store cannot be written
+     */
+    void append(WordCounter wordCounter) throws WordStoreException;
+
+    /**
+     * Makes the document and its words visible in the store.
+     *
+     * @return The number of the new document
+     * @throws WordStoreException If the store cannot be written
+     */
+    long commit() throws WordStoreException;
+
+    /**
+     * Discards the document, unless it was committed.
+     *
+     * @throws WordStoreException If the store cannot be written
+     */
+    @Override
+    void close() throws WordStoreException;
+}
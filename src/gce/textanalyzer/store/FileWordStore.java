@@ -0,0 +1,611 @@
+package gce.textanalyzer.store;
+
+import gce.textanalyzer.model.Document;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * A {@link WordStore} that keeps the words in a file, so that they survive
+ * restarts without needing a database server.
+ * <p>
+ * The words are held in memory by an {@link InMemoryWordStore} and saved in
+ * two files: a snapshot of all the words and their frequencies, and a log
+ * of the changes made since the snapshot was written. Every change is
+ * appended to the log and forced to disk before it is applied. Opening the
+ * store reads the snapshot and replays the log, both sequentially; a record
+ * left incomplete by a crash is discarded. When the log grows larger than
+ * the snapshot, and when the store is closed, the snapshot is rewritten and
+ * the log emptied. The snapshot is written to a temporary file and renamed
+ * over the old one, so it is never seen half written. Each snapshot has a
+ * generation number, which is also written at the start of its log, so a
+ * log left behind by a crash just after the rename is known to be already
+ * in the snapshot and is discarded, as is a new log whose header was not
+ * completely written. The directory is forced to disk after each rename,
+ * so the new name survives a crash too.
+ * <p>
+ * Each document is saved in a file of its own, in a directory next to the
+ * snapshot with a {@code .documents} extension. Adding or removing a
+ * document appends a single record to the log, with the number of the
+ * document and its words, so the aggregate and the documents always change
+ * together, and storing a document costs as much as its own words,
+ * whatever the size of the aggregate. A document is written before the
+ * record that adds it, and deleted after the record that removes it. The
+ * snapshot lists the documents its words include, and a document file
+ * that neither the snapshot nor the log includes was left by a crash
+ * between the two, and is deleted when the store is opened.
+ * <p>
+ * A log written before documents were logged holds words only. It is
+ * replayed, and the snapshot rewritten, when the store is opened.
+ */
+public class FileWordStore implements WordStore {
+    private static final int magic = 0x54415753;
+    private static final int version = 2;
+    private static final int wordLogMagic = 0x54414c47;
+    private static final int logMagic = 0x54414c52;
+    private static final int logHeaderBytes = Integer.BYTES + Long.BYTES;
+    private static final byte wordRecord = 0;
+    private static final byte documentAddedRecord = 1;
+    private static final byte documentRemovedRecord = 2;
+    private static final int documentMagic = 0x54414443;
+    private static final int documentVersion = 1;
+    private static final String documentExtension = ".words";
+    private static final long minCompactionBytes = 1 << 20;
+
+    private final Path snapshotFile;
+    private final Path logFile;
+    private final Path documentDirectory;
+    private final InMemoryWordStore words = new InMemoryWordStore();
+
+    private FileOutputStream logStream;
+    private DataOutputStream log;
+    private long logBytes;
+    private long snapshotBytes;
+    private long generation;
+
+    /**
+     * Opens the store, creating it if it does not exist.
+     *
+     * @param snapshotFile The snapshot file. The log is kept next to it, with a {@code .log} extension.
+     * @throws WordStoreException If the files cannot be read or created
+     */
+    public FileWordStore(Path snapshotFile) throws WordStoreException {
+        this.snapshotFile = snapshotFile;
+        this.logFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".log");
+        this.documentDirectory = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".documents");
+
+        try {
+            if (snapshotFile.getParent() != null) {
+                Files.createDirectories(snapshotFile.getParent());
+            }
+
+            // The documents included in the aggregate, or null for a snapshot of the first version
+            Set<Long> documentIds = new HashSet<>();
+            if (Files.exists(snapshotFile)) {
+                documentIds = readSnapshot();
+            }
+
+            boolean upgrade = documentIds == null;
+            if (Files.exists(logFile)) {
+                int logMagicRead = replayLog(documentIds);
+                if (logMagicRead != logMagic) {
+                    upgrade = true;
+                }
+                if (logMagicRead == 0) {
+                    documentIds = null;
+                }
+            }
+
+            if (Files.isDirectory(documentDirectory)) {
+                readDocuments(documentIds);
+            }
+
+            // A store written by an earlier version is rewritten, so that its log gets a generation and records
+            if (upgrade) {
+                writeSnapshot();
+            } else {
+                openLog();
+            }
+        } catch (IOException e) {
+            throw new WordStoreException("Unable to open the word store " + snapshotFile, e);
+        }
+    }
+
+    @Override
+    public synchronized void clear() throws WordStoreException {
+        words.clear();
+
+        try {
+            writeSnapshot();
+
+            if (Files.isDirectory(documentDirectory)) {
+                try (DirectoryStream<Path> documentFiles = Files.newDirectoryStream(documentDirectory)) {
+                    for (Path documentFile : documentFiles) {
+                        Files.delete(documentFile);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new WordStoreException("Unable to clear the word store " + snapshotFile, e);
+        }
+    }
+
+    @Override
+    public synchronized void increment(String word, int count) throws WordStoreException {
+        try {
+            appendToLog(word, count);
+            forceLog();
+        } catch (IOException e) {
+            throw new WordStoreException("Unable to write to the word store " + snapshotFile, e);
+        }
+
+        words.increment(word, count);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void merge(WordCounter wordCounter, IntConsumer progress) throws WordStoreException {
+        // Report progress first, so that a cancelled merge leaves the store as it was
+        progress.accept(wordCounter.size());
+
+        try {
+            for (int word = 0; word < wordCounter.size(); word++) {
+                appendToLog(wordCounter.word(word), wordCounter.count(word));
+            }
+            forceLog();
+        } catch (IOException e) {
+            throw new WordStoreException("Unable to write to the word store " + snapshotFile, e);
+        }
+
+        words.merge(wordCounter);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized long addDocument(String documentSource, WordCounter wordCounter, IntConsumer progress)
+            throws WordStoreException {
+        progress.accept(wordCounter.size());
+
+        long documentId = words.addDocument(documentSource, wordCounter);
+        WordCounter documentWords = words.getDocumentWords(documentId);
+
+        try {
+            // The document is only stored once the record that adds it is in the log
+            writeDocument(words.getDocument(documentId), documentWords);
+            appendToLog(documentAddedRecord, documentId, documentWords);
+            forceLog();
+        } catch (IOException e) {
+            words.removeDocument(documentId);
+            deleteDocumentFile(documentId);
+            throw new WordStoreException("Unable to write to the word store " + snapshotFile, e);
+        }
+
+        compactIfNeeded();
+        return documentId;
+    }
+
+    @Override
+    public synchronized boolean removeDocument(long documentId) throws WordStoreException {
+        WordCounter documentWords = words.getDocumentWords(documentId);
+        if (documentWords == null) {
+            return false;
+        }
+
+        try {
+            appendToLog(documentRemovedRecord, documentId, documentWords);
+            forceLog();
+        } catch (IOException e) {
+            throw new WordStoreException("Unable to write to the word store " + snapshotFile, e);
+        }
+
+        words.removeDocument(documentId);
+        deleteDocumentFile(documentId);
+        compactIfNeeded();
+        return true;
+    }
+
+    @Override
+    public List<Document> getDocuments() {
+        return words.getDocuments();
+    }
+
+    @Override
+    public List<WordCount> getDocumentWordPage(long[] documentIds, WordCount after, int offset, int limit) {
+        return words.getDocumentWordPage(documentIds, after, offset, limit);
+    }
+
+    @Override
+    public int getDocumentUniqueWordCount(long[] documentIds) {
+        return words.getDocumentUniqueWordCount(documentIds);
+    }
+
+    @Override
+    public List<WordCount> getWordPage(WordCount after, int offset, int limit) {
+        return words.getWordPage(after, offset, limit);
+    }
+
+    @Override
+    public int getUniqueWordCount() {
+        return words.getUniqueWordCount();
+    }
+
+    @Override
+    public long getTotalWordCount() {
+        return words.getTotalWordCount();
+    }
+
+    @Override
+    public ResultSummary getResultSummary(int limit) {
+        return words.getResultSummary(limit);
+    }
+
+    @Override
+    public ResultSummary getDocumentResultSummary(long documentId, int limit) {
+        return words.getDocumentResultSummary(documentId, limit);
+    }
+
+    /**
+     * Rewrites the snapshot and closes the files.
+     *
+     * @throws WordStoreException If the snapshot cannot be written
+     */
+    @Override
+    public synchronized void close() throws WordStoreException {
+        try {
+            writeSnapshot();
+            log.close();
+        } catch (IOException e) {
+            throw new WordStoreException("Unable to save the word store " + snapshotFile, e);
+        }
+    }
+
+    /**
+     * Reads the words of the snapshot into the aggregate.
+     *
+     * @return The documents whose words the snapshot includes, or
+     * {@code null} if it was written by the first version, which did not
+     * list them
+     */
+    private Set<Long> readSnapshot() throws IOException {
+        Set<Long> documentIds = null;
+
+        try (DataInputStream snapshot = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshotFile), 1 << 16))) {
+            int snapshotVersion = snapshot.readInt() == magic ? snapshot.readInt() : -1;
+            if (snapshotVersion != 1 && snapshotVersion != version) {
+                throw new IOException(snapshotFile + " is not a word store.");
+            }
+
+            if (snapshotVersion == version) {
+                generation = snapshot.readLong();
+                documentIds = new HashSet<>();
+                for (int remaining = snapshot.readInt(); remaining > 0; remaining--) {
+                    documentIds.add(snapshot.readLong());
+                }
+            }
+
+            WordCounter wordCounter = new WordCounter();
+            for (int remaining = snapshot.readInt(); remaining > 0; remaining--) {
+                wordCounter.add(snapshot.readUTF(), snapshot.readInt());
+            }
+            words.merge(wordCounter);
+        }
+
+        snapshotBytes = Files.size(snapshotFile);
+        return documentIds;
+    }
+
+    /**
+     * Adds the changes in the log to the aggregate, if the log belongs to
+     * the generation of the snapshot, and the documents it adds or removes
+     * to those the snapshot includes. A log without a generation, written by
+     * the first version, is only replayed along with a snapshot of the first
+     * version, or without a snapshot.
+     *
+     * @param documentIds The documents the snapshot includes, or {@code null} for a snapshot of the first version
+     * @return The magic number of the log, {@link #wordLogMagic} for a log of words only, or zero for a log
+     * without a generation
+     */
+    private int replayLog(Set<Long> documentIds) throws IOException {
+        boolean firstVersion = documentIds == null;
+        if (!firstVersion && Files.exists(snapshotFile) && Files.size(logFile) < logHeaderBytes) {
+            // Left by a crash while the log of the snapshot was being started, so it holds no changes
+            Files.delete(logFile);
+            return logMagic;
+        }
+
+        long validBytes = 0;
+        int logMagicRead = 0;
+        WordCounter wordCounter = new WordCounter();
+
+        try (DataInputStream logRecords = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(logFile), 1 << 16))) {
+            logRecords.mark(Integer.BYTES);
+            if (Files.size(logFile) >= logHeaderBytes) {
+                logMagicRead = logRecords.readInt();
+            }
+
+            if (logMagicRead == logMagic || logMagicRead == wordLogMagic) {
+                if (logRecords.readLong() != generation) {
+                    // Left by a crash after the snapshot that includes it was written
+                    Files.delete(logFile);
+                    return logMagicRead;
+                }
+                validBytes = logHeaderBytes;
+            } else {
+                logMagicRead = 0;
+                logRecords.reset();
+                if (!firstVersion && Files.exists(snapshotFile)) {
+                    throw new IOException(logFile + " does not belong to " + snapshotFile + ".");
+                }
+            }
+
+            while (true) {
+                byte record = logMagicRead == logMagic ? logRecords.readByte() : wordRecord;
+                long recordBytes = logMagicRead == logMagic ? 1 : 0;
+
+                if (record == wordRecord) {
+                    String word = logRecords.readUTF();
+                    int count = logRecords.readInt();
+
+                    wordCounter.add(word, count);
+                    validBytes += recordBytes + recordSize(word);
+                } else if (record == documentAddedRecord || record == documentRemovedRecord) {
+                    long documentId = logRecords.readLong();
+                    recordBytes += Long.BYTES + Integer.BYTES;
+
+                    // Applied only once the whole record is read
+                    WordCounter documentWords = new WordCounter();
+                    for (int remaining = logRecords.readInt(); remaining > 0; remaining--) {
+                        String word = logRecords.readUTF();
+                        documentWords.add(word, logRecords.readInt());
+                        recordBytes += recordSize(word);
+                    }
+
+                    int sign = record == documentAddedRecord ? 1 : -1;
+                    for (int word = 0; word < documentWords.size(); word++) {
+                        wordCounter.add(documentWords.word(word), sign * documentWords.count(word));
+                    }
+                    if (record == documentAddedRecord) {
+                        documentIds.add(documentId);
+                    } else {
+                        documentIds.remove(documentId);
+                    }
+                    validBytes += recordBytes;
+                } else {
+                    // The start of a record that was not completely written
+                    break;
+                }
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // End of the log, possibly with an incomplete last record
+        }
+
+        words.merge(wordCounter);
+
+        // Drop an incomplete last record, so that new records follow the last complete one
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+            channel.truncate(validBytes);
+        }
+        logBytes = validBytes;
+        return logMagicRead;
+    }
+
+    /**
+     * Reads the documents, deleting those the snapshot does not include.
+     *
+     * @param documentIds The documents the snapshot includes, or {@code null} to read them all
+     */
+    private void readDocuments(Set<Long> documentIds) throws IOException {
+        List<Path> orphans = new ArrayList<>();
+        // The files are listed in no particular order, and the documents are restored oldest first
+        Map<Long, Document> documents = new TreeMap<>();
+        Map<Long, WordCounter> documentWords = new HashMap<>();
+
+        try (DirectoryStream<Path> documentFiles = Files.newDirectoryStream(documentDirectory,
+                "*" + documentExtension)) {
+            for (Path documentFile : documentFiles) {
+                try (DataInputStream input = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(documentFile), 1 << 16))) {
+                    if (input.readInt() != documentMagic || input.readInt() != documentVersion) {
+                        throw new IOException(documentFile + " is not a document of a word store.");
+                    }
+
+                    long documentId = input.readLong();
+                    if (documentIds != null && !documentIds.contains(documentId)) {
+                        orphans.add(documentFile);
+                        continue;
+                    }
+
+                    String documentSource = input.readUTF();
+                    long analyzedAt = input.readLong();
+
+                    WordCounter wordCounter = new WordCounter();
+                    for (int remaining = input.readInt(); remaining > 0; remaining--) {
+                        wordCounter.add(input.readUTF(), input.readInt());
+                    }
+
+                    documents.put(documentId, new Document(documentId, documentSource, analyzedAt,
+                            wordCounter.size(), wordCounter.total()));
+                    documentWords.put(documentId, wordCounter);
+                }
+            }
+        }
+
+        for (Document document : documents.values()) {
+            words.restoreDocument(document, documentWords.get(document.getDocumentId()));
+        }
+
+        for (Path orphan : orphans) {
+            Files.delete(orphan);
+        }
+    }
+
+    private void writeDocument(Document document, WordCounter wordCounter) throws IOException {
+        Files.createDirectories(documentDirectory);
+        Path documentFile = documentFile(document.getDocumentId());
+        Path temporaryFile = documentFile.resolveSibling(documentFile.getFileName() + ".tmp");
+
+        try (FileOutputStream documentStream = new FileOutputStream(temporaryFile.toFile());
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(documentStream, 1 << 16))) {
+            output.writeInt(documentMagic);
+            output.writeInt(documentVersion);
+            output.writeLong(document.getDocumentId());
+            output.writeUTF(document.getDocumentSource());
+            output.writeLong(document.getAnalyzedAt());
+            output.writeInt(wordCounter.size());
+            for (int word = 0; word < wordCounter.size(); word++) {
+                output.writeUTF(wordCounter.word(word));
+                output.writeInt(wordCounter.count(word));
+            }
+            output.flush();
+            documentStream.getFD().sync();
+        }
+
+        Files.move(temporaryFile, documentFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(documentFile);
+    }
+
+    private Path documentFile(long documentId) {
+        return documentDirectory.resolve(documentId + documentExtension);
+    }
+
+    /**
+     * Deletes the file of a document the snapshot does not include. If it
+     * cannot be deleted now, it is deleted when the store is next opened.
+     */
+    private void deleteDocumentFile(long documentId) {
+        try {
+            Files.deleteIfExists(documentFile(documentId));
+        } catch (IOException e) {
+            System.out.println("Unable to delete the document file " + documentFile(documentId) + ": " + e);
+        }
+    }
+
+    /**
+     * Opens the log for appending, starting it with the generation of the
+     * snapshot if it is new.
+     */
+    private void openLog() throws IOException {
+        boolean newLog = !Files.exists(logFile) || Files.size(logFile) == 0;
+
+        logStream = new FileOutputStream(logFile.toFile(), true);
+        log = new DataOutputStream(new BufferedOutputStream(logStream, 1 << 16));
+
+        if (newLog) {
+            log.writeInt(logMagic);
+            log.writeLong(generation);
+            forceLog();
+            syncDirectory(logFile);
+            logBytes = logHeaderBytes;
+        }
+    }
+
+    private void appendToLog(String word, int count) throws IOException {
+        log.writeByte(wordRecord);
+        log.writeUTF(word);
+        log.writeInt(count);
+        logBytes += 1 + recordSize(word);
+    }
+
+    /**
+     * Appends the record of a document added or removed, with its number
+     * and its words.
+     */
+    private void appendToLog(byte record, long documentId, WordCounter documentWords) throws IOException {
+        log.writeByte(record);
+        log.writeLong(documentId);
+        log.writeInt(documentWords.size());
+        logBytes += 1 + Long.BYTES + Integer.BYTES;
+
+        for (int word = 0; word < documentWords.size(); word++) {
+            log.writeUTF(documentWords.word(word));
+            log.writeInt(documentWords.count(word));
+            logBytes += recordSize(documentWords.word(word));
+        }
+    }
+
+    private void forceLog() throws IOException {
+        log.flush();
+        logStream.getFD().sync();
+    }
+
+    private void compactIfNeeded() throws WordStoreException {
+        if (logBytes > Math.max(minCompactionBytes, snapshotBytes)) {
+            try {
+                writeSnapshot();
+            } catch (IOException e) {
+                throw new WordStoreException("Unable to save the word store " + snapshotFile, e);
+            }
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        Path temporaryFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        WordCounter wordCounter = words.getWordCounter();
+        List<Document> documents = words.getDocuments();
+
+        try (FileOutputStream snapshotStream = new FileOutputStream(temporaryFile.toFile());
+             DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(snapshotStream, 1 << 16))) {
+            snapshot.writeInt(magic);
+            snapshot.writeInt(version);
+            snapshot.writeLong(generation + 1);
+            snapshot.writeInt(documents.size());
+            for (Document document : documents) {
+                snapshot.writeLong(document.getDocumentId());
+            }
+            snapshot.writeInt(wordCounter.size());
+            for (int word = 0; word < wordCounter.size(); word++) {
+                snapshot.writeUTF(wordCounter.word(word));
+                snapshot.writeInt(wordCounter.count(word));
+            }
+            snapshot.flush();
+            snapshotStream.getFD().sync();
+        }
+
+        Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(snapshotFile);
+        generation++;
+        snapshotBytes = Files.size(snapshotFile);
+
+        // The snapshot now holds everything in the log, which is of the previous generation
+        if (log != null) {
+            log.close();
+        }
+        Files.deleteIfExists(logFile);
+        openLog();
+    }
+
+    /**
+     * Forces the directory holding a file to disk, so that a file just
+     * created or renamed in it is found under its new name after a crash.
+     * Some systems, such as Windows, cannot open a directory, and update it
+     * along with the file instead.
+     */
+    private static void syncDirectory(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // The directory cannot be opened on this system
+        }
+    }
+
+    private static long recordSize(String word) {
+        long utfBytes = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            utfBytes += c >= 0x0001 && c <= 0x007f ? 1 : c <= 0x07ff ? 2 : 3;
+        }
+
+        // Length prefix, modified UTF-8 bytes and count
+        return 2 + utfBytes + 4;
+    }
+}
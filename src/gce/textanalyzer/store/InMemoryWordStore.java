@@ -0,0 +1,242 @@
+package gce.textanalyzer.store;
+
+import gce.textanalyzer.model.Document;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * A {@link WordStore} that keeps the words in memory only, for analyses
+ * whose results do not need to outlive the program.
+ * <p>
+ * The aggregate and each document are kept in their own
+ * {@link WordCounter}. A ranking is computed when it is first read after a
+ * change, and kept until the next change; the ranking of the last
+ * documents read is kept the same way.
+ */
+public class InMemoryWordStore implements WordStore {
+    private WordCounter wordCounter = new WordCounter();
+    private int[] ranking;
+
+    private final Map<Long, Document> documents = new LinkedHashMap<>();
+    private final Map<Long, WordCounter> documentWords = new HashMap<>();
+    private long nextDocumentId = 1;
+
+    // The words of the documents last read, and their ranking
+    private long[] rankedDocumentIds;
+    private WordCounter rankedDocumentWords;
+    private int[] documentRanking;
+
+    @Override
+    public synchronized void clear() {
+        wordCounter = new WordCounter();
+        ranking = null;
+        documents.clear();
+        documentWords.clear();
+        rankedDocumentIds = null;
+    }
+
+    @Override
+    public synchronized void increment(String word, int count) {
+        wordCounter.add(word, count);
+        wordCounter.removeEmptyWords();
+        ranking = null;
+    }
+
+    @Override
+    public synchronized void merge(WordCounter words, IntConsumer progress) {
+        // Report progress first, so that a cancelled merge leaves the store as it was
+        progress.accept(words.size());
+
+        // Negative frequencies, such as those replayed from a file store, can leave words that no longer occur
+        wordCounter.addAll(words);
+        wordCounter.removeEmptyWords();
+        ranking = null;
+    }
+
+    @Override
+    public void merge(WordCounter words) {
+        merge(words, storedWords -> {
+        });
+    }
+
+    @Override
+    public synchronized long addDocument(String documentSource, WordCounter words, IntConsumer progress) {
+        progress.accept(words.size());
+
+        // The document keeps its own copy, since the caller may keep counting into its counter
+        WordCounter copy = new WordCounter();
+        copy.addAll(words);
+
+        long documentId = nextDocumentId;
+        restoreDocument(new Document(documentId, documentSource, System.currentTimeMillis(),
+                copy.size(), copy.total()), copy);
+        wordCounter.addAll(copy);
+        ranking = null;
+
+        return documentId;
+    }
+
+    @Override
+    public synchronized boolean removeDocument(long documentId) {
+        WordCounter words = documentWords.remove(documentId);
+        if (words == null) {
+            return false;
+        }
+
+        documents.remove(documentId);
+        wordCounter.subtractAll(words);
+        ranking = null;
+        rankedDocumentIds = null;
+
+        return true;
+    }
+
+    @Override
+    public synchronized List<Document> getDocuments() {
+        return new ArrayList<>(documents.values());
+    }
+
+    @Override
+    public synchronized List<WordCount> getDocumentWordPage(long[] documentIds, WordCount after, int offset,
+                                                            int limit) {
+        rankDocuments(documentIds);
+        return page(rankedDocumentWords, documentRanking, after, offset, limit);
+    }
+
+    @Override
+    public synchronized int getDocumentUniqueWordCount(long[] documentIds) {
+        rankDocuments(documentIds);
+        return rankedDocumentWords.size();
+    }
+
+    @Override
+    public synchronized List<WordCount> getWordPage(WordCount after, int offset, int limit) {
+        if (ranking == null) {
+            ranking = wordCounter.sorted();
+        }
+
+        return page(wordCounter, ranking, after, offset, limit);
+    }
+
+    @Override
+    public synchronized int getUniqueWordCount() {
+        return wordCounter.size();
+    }
+
+    @Override
+    public synchronized long getTotalWordCount() {
+        return wordCounter.total();
+    }
+
+    @Override
+    public synchronized ResultSummary getResultSummary(int limit) {
+        return new ResultSummary(wordCounter.size(), wordCounter.total(), getWordPage(null, 0, limit));
+    }
+
+    @Override
+    public synchronized ResultSummary getDocumentResultSummary(long documentId, int limit) {
+        Document document = documents.get(documentId);
+        if (document == null) {
+            return null;
+        }
+
+        return new ResultSummary(document.getUniqueWords(), document.getTotalWords(),
+                getDocumentWordPage(new long[]{documentId}, null, 0, limit));
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return The words in the store, unordered
+     */
+    synchronized WordCounter getWordCounter() {
+        return wordCounter;
+    }
+
+    /**
+     * @return A document, or {@code null} if there is no such document
+     */
+    synchronized Document getDocument(long documentId) {
+        return documents.get(documentId);
+    }
+
+    /**
+     * @return The words of a document, or {@code null} if there is no such document
+     */
+    synchronized WordCounter getDocumentWords(long documentId) {
+        return documentWords.get(documentId);
+    }
+
+    /**
+     * Adds a document without adding its words to the aggregate, for a
+     * store that saves the aggregate separately.
+     */
+    synchronized void restoreDocument(Document document, WordCounter words) {
+        documents.put(document.getDocumentId(), document);
+        documentWords.put(document.getDocumentId(), words);
+        nextDocumentId = Math.max(nextDocumentId, document.getDocumentId() + 1);
+    }
+
+    private void rankDocuments(long[] documentIds) {
+        if (Arrays.equals(documentIds, rankedDocumentIds)) {
+            return;
+        }
+
+        WordCounter words;
+        if (documentIds.length == 1) {
+            words = documentWords.getOrDefault(documentIds[0], new WordCounter());
+        } else {
+            words = new WordCounter();
+            for (long documentId : documentIds) {
+                if (documentWords.containsKey(documentId)) {
+                    words.addAll(documentWords.get(documentId));
+                }
+            }
+        }
+
+        rankedDocumentIds = documentIds.clone();
+        rankedDocumentWords = words;
+        documentRanking = words.sorted();
+    }
+
+    private static List<WordCount> page(WordCounter words, int[] ranked, WordCount after, int offset, int limit) {
+        int start = after == null ? offset : firstRankedAfter(words, ranked, after);
+        int end = (int) Math.min(ranked.length, (long) Math.max(0, start) + limit);
+
+        List<WordCount> page = new ArrayList<>(Math.max(0, end - start));
+        for (int rank = Math.max(0, start); rank < end; rank++) {
+            page.add(new WordCount(words.word(ranked[rank]), words.count(ranked[rank])));
+        }
+
+        return page;
+    }
+
+    private static int firstRankedAfter(WordCounter words, int[] ranked, WordCount after) {
+        int low = 0;
+        int high = ranked.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int word = ranked[middle];
+
+            if (compare(words.count(word), words.word(word),
+                    after.getWordFrequency(), after.getWordContent()) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private static int compare(long firstCount, String firstWord, long secondCount, String secondWord) {
+        return firstCount != secondCount ? Long.compare(secondCount, firstCount) : firstWord.compareTo(secondWord);
+    }
+}
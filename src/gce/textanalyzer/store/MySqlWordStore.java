@@ -0,0 +1,167 @@
+package gce.textanalyzer.store;
+
+import gce.textanalyzer.controller.DatabaseController;
+import gce.textanalyzer.model.Document;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * A {@link WordStore} that keeps the words in the MySQL database, through
+ * the {@link DatabaseController}.
+ */
+public class MySqlWordStore implements WordStore {
+
+    /**
+     * Opens the store, creating the schema and tables if they do not exist.
+     *
+     * @throws WordStoreException If the database cannot be reached or the tables cannot be created
+     */
+    public MySqlWordStore() throws WordStoreException {
+        try {
+            DatabaseController.createSchema();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to create the tables in the database.", e);
+        }
+    }
+
+    @Override
+    public void clear() throws WordStoreException {
+        try {
+            DatabaseController.clearWords();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to clear the words from the database.", e);
+        }
+    }
+
+    @Override
+    public void increment(String word, int count) throws WordStoreException {
+        try {
+            DatabaseController.incrementWord(word, count);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to store the word in the database.", e);
+        }
+    }
+
+    @Override
+    public void merge(WordCounter wordCounter, IntConsumer progress) throws WordStoreException {
+        try {
+            DatabaseController.storeWordCounts(wordCounter, progress);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to store the words in the database.", e);
+        }
+    }
+
+    @Override
+    public long addDocument(String documentSource, WordCounter wordCounter, IntConsumer progress)
+            throws WordStoreException {
+        try {
+            return DatabaseController.storeDocument(documentSource, wordCounter, progress);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to store the words in the database.", e);
+        }
+    }
+
+    /**
+     * Opens a writer that adds each part to the database as it is appended,
+     * in a transaction that begins with the first part and is committed
+     * with the writer.
+     */
+    @Override
+    public DocumentWriter openDocument(String documentSource) {
+        return new TransactionDocumentWriter(() -> DatabaseController.beginDocument(documentSource));
+    }
+
+    @Override
+    public boolean removeDocument(long documentId) throws WordStoreException {
+        try {
+            return DatabaseController.removeDocument(documentId);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to remove the document from the database.", e);
+        }
+    }
+
+    @Override
+    public List<Document> getDocuments() throws WordStoreException {
+        try {
+            return DatabaseController.getDocuments();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the documents from the database.", e);
+        }
+    }
+
+    @Override
+    public List<WordCount> getDocumentWordPage(long[] documentIds, WordCount after, int offset, int limit)
+            throws WordStoreException {
+        try {
+            return DatabaseController.getDocumentWordPage(documentIds, after, offset, limit);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public int getDocumentUniqueWordCount(long[] documentIds) throws WordStoreException {
+        try {
+            return DatabaseController.getDocumentUniqueWordCount(documentIds);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public List<WordCount> getWordPage(WordCount after, int offset, int limit) throws WordStoreException {
+        try {
+            return DatabaseController.getWordPage(after, offset, limit);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public int getUniqueWordCount() throws WordStoreException {
+        try {
+            return DatabaseController.getUniqueWordCount();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public long getTotalWordCount() throws WordStoreException {
+        try {
+            return DatabaseController.getTotalWordCount();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public ResultSummary getResultSummary(int limit) throws WordStoreException {
+        try {
+            return DatabaseController.getResultSummary(limit);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    @Override
+    public ResultSummary getDocumentResultSummary(long documentId, int limit) throws WordStoreException {
+        try {
+            return DatabaseController.getDocumentResultSummary(documentId, limit);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to read the words from the database.", e);
+        }
+    }
+
+    /**
+     * Does nothing: the pooled connections are shared by the whole application.
+     */
+    @Override
+    public void close() {
+    }
+}
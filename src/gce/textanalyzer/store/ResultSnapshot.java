@@ -0,0 +1,578 @@
+package gce.textanalyzer.store;
+
+import gce.textanalyzer.model.Document;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * The ranked words of an analysis, saved in a compact binary file that can
+ * be opened again without a word store.
+ * <p>
+ * The file starts with a fixed header holding the number of unique words,
+ * the total number of words, the creation time, a CRC-32 checksum and the
+ * block size, followed by where the words came from. The checksum covers
+ * the whole file but its magic number, version and the checksum itself:
+ * the header fields, the source, the tables and the blocks of words. The
+ * words are kept in alphabetical order of their UTF-8 bytes, front coded in blocks: the first
+ * word of each block is written whole, and each of the others as the number
+ * of bytes it shares with the word before it and the bytes that differ.
+ * Each word is followed by its frequency, and all the numbers are written
+ * as variable-length integers, so most words take only a few bytes more
+ * than their own differing characters. The ranking is kept as a table of
+ * fixed-size word numbers, most frequent first, along with the position of
+ * each block.
+ * <p>
+ * An opened snapshot maps the file into memory. Opening it computes the
+ * checksum over the whole file, in one sequential pass that reads every
+ * page, and checks the tables of positions and word numbers, but no word
+ * is decoded until it is read, so opening takes about as long as reading
+ * the file once.
+ * A page of the ranking is read by looking up its word numbers and
+ * decoding each word from the start of its block, and a single word is
+ * found by a binary search of the first words of the blocks. Several
+ * threads can read an opened snapshot at the same time.
+ */
+public class ResultSnapshot {
+    /**
+     * The usual extension of snapshot files
+     */
+    public static final String extension = ".tasnap";
+
+    private static final int magic = 0x54415253;
+    private static final int version = 2;
+    private static final int headerSize = 40;
+    private static final int blockSize = 32;
+    private static final int exportPageSize = 10_000;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int uniqueWords;
+    private final long totalWords;
+    private final long createdAt;
+    private final String source;
+    private final int blockCount;
+    private final int blockOffsetsStart;
+    private final int ranksStart;
+    private final int blocksStart;
+
+    private ResultSnapshot(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < headerSize || buffer.getInt(0) != magic) {
+            throw new IOException(file + " is not a snapshot of results.");
+        }
+        if (buffer.getInt(4) != version) {
+            throw new IOException(file + " was written by another version of the program.");
+        }
+
+        uniqueWords = buffer.getInt(8);
+        totalWords = buffer.getLong(12);
+        createdAt = buffer.getLong(20);
+        long checksum = buffer.getLong(28);
+
+        CRC32 crc = new CRC32();
+        ByteBuffer checked = buffer.duplicate();
+        checked.position(8).limit(28);
+        crc.update(checked);
+        checked.limit(buffer.capacity()).position(36);
+        crc.update(checked);
+        if (crc.getValue() != checksum) {
+            throw new IOException(file + " is damaged: its checksum does not match.");
+        }
+        if (buffer.getInt(36) != blockSize || uniqueWords < 0 || totalWords < 0) {
+            throw new IOException(file + " is damaged: its header is not valid.");
+        }
+
+        int[] position = {headerSize};
+        int sourceLength;
+        try {
+            sourceLength = readVarInt(position);
+        } catch (IndexOutOfBoundsException e) {
+            sourceLength = -1;
+        }
+        if (sourceLength < 0 || sourceLength > buffer.capacity() - position[0]) {
+            throw new IOException(file + " is damaged: its source does not fit in it.");
+        }
+        byte[] sourceBytes = new byte[sourceLength];
+        for (int i = 0; i < sourceLength; i++) {
+            sourceBytes[i] = buffer.get(position[0] + i);
+        }
+        source = new String(sourceBytes, StandardCharsets.UTF_8);
+
+        blockCount = (uniqueWords + blockSize - 1) / blockSize;
+        blockOffsetsStart = position[0] + sourceLength;
+        long tablesEnd = blockOffsetsStart + 4L * blockCount + 4L * uniqueWords;
+        if (tablesEnd > buffer.capacity()) {
+            throw new IOException(file + " is damaged: its tables do not fit in it.");
+        }
+        ranksStart = blockOffsetsStart + 4 * blockCount;
+        blocksStart = (int) tablesEnd;
+
+        // The words are decoded from these positions and numbers, so they are checked once here
+        int blocksLength = buffer.capacity() - blocksStart;
+        for (int block = 0; block < blockCount; block++) {
+            int offset = buffer.getInt(blockOffsetsStart + 4 * block);
+            if (offset < 0 || offset >= blocksLength) {
+                throw new IOException(file + " is damaged: a block of words is out of bounds.");
+            }
+        }
+        for (int rank = 0; rank < uniqueWords; rank++) {
+            int ordinal = buffer.getInt(ranksStart + 4 * rank);
+            if (ordinal < 0 || ordinal >= uniqueWords) {
+                throw new IOException(file + " is damaged: a ranked word is out of bounds.");
+            }
+        }
+    }
+
+    /**
+     * Opens a snapshot by mapping it into memory.
+     *
+     * @param file The snapshot file
+     * @return The opened snapshot
+     * @throws IOException If the file cannot be read, is not a snapshot or is damaged
+     */
+    public static ResultSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be a snapshot of results.");
+            }
+
+            // The mapping stays valid once the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ResultSnapshot(file, mapped);
+        }
+    }
+
+    /**
+     * Saves the words of a counter, ranked by frequency in descending order
+     * and then alphabetically, like {@link WordCounter#sorted()}.
+     *
+     * @param file        The snapshot file, replaced if it exists
+     * @param source      Where the words came from, such as the analyzed URLs
+     * @param wordCounter The words and their frequencies
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(Path file, String source, WordCounter wordCounter) throws IOException {
+        write(file, source, wordCounter, wordCounter.sorted());
+    }
+
+    /**
+     * Saves the words of a document of a word store, ranked as the store
+     * ranks them, reporting progress as they are read.
+     *
+     * @param wordStore  The word store
+     * @param documentId The number of the document
+     * @param file       The snapshot file, replaced if it exists
+     * @param progress   Receives the number of words read so far
+     * @throws WordStoreException If the words cannot be read from the store
+     * @throws IOException        If the file cannot be written
+     */
+    public static void export(WordStore wordStore, long documentId, Path file, IntConsumer progress)
+            throws WordStoreException, IOException {
+        String source = "";
+        for (Document document : wordStore.getDocuments()) {
+            if (document.getDocumentId() == documentId) {
+                source = document.getDocumentSource();
+            }
+        }
+
+        // The words are unique, so each is numbered by its rank
+        WordCounter wordCounter = new WordCounter();
+        long[] documentIds = {documentId};
+        WordCount after = null;
+        List<WordCount> page;
+
+        do {
+            page = wordStore.getDocumentWordPage(documentIds, after, wordCounter.size(), exportPageSize);
+            for (WordCount word : page) {
+                // The frequencies of a single document were counted in memory, so they fit in an int
+                wordCounter.add(word.getWordContent(), Math.toIntExact(word.getWordFrequency()));
+            }
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1);
+            }
+            progress.accept(wordCounter.size());
+        } while (page.size() == exportPageSize);
+
+        int[] ranked = new int[wordCounter.size()];
+        for (int rank = 0; rank < ranked.length; rank++) {
+            ranked[rank] = rank;
+        }
+
+        write(file, source, wordCounter, ranked);
+    }
+
+    /**
+     * Saves the words of a counter in the given ranking.
+     *
+     * @param file        The snapshot file, replaced if it exists
+     * @param source      Where the words came from, such as the analyzed URLs
+     * @param wordCounter The words and their frequencies
+     * @param ranked      The numbers of all the words of the counter, most frequent first
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(Path file, String source, WordCounter wordCounter, int[] ranked) throws IOException {
+        int uniqueWords = wordCounter.size();
+        byte[][] wordBytes = new byte[uniqueWords][];
+        for (int word = 0; word < uniqueWords; word++) {
+            wordBytes[word] = wordCounter.word(word).getBytes(StandardCharsets.UTF_8);
+        }
+
+        Integer[] alphabetical = new Integer[uniqueWords];
+        for (int word = 0; word < uniqueWords; word++) {
+            alphabetical[word] = word;
+        }
+        Arrays.sort(alphabetical, (first, second) -> compareBytes(wordBytes[first], wordBytes[second]));
+
+        // Each word's position in alphabetical order is its number in the ranking table
+        int[] ordinal = new int[uniqueWords];
+        for (int position = 0; position < uniqueWords; position++) {
+            ordinal[alphabetical[position]] = position;
+        }
+
+        int blockCount = (uniqueWords + blockSize - 1) / blockSize;
+        ByteBuffer blockOffsets = ByteBuffer.allocate(4 * blockCount);
+        ByteBuffer ranks = ByteBuffer.allocate(4 * uniqueWords);
+        VarIntOutputStream blocks = new VarIntOutputStream();
+
+        byte[] previous = new byte[0];
+        for (int position = 0; position < uniqueWords; position++) {
+            int word = alphabetical[position];
+            byte[] bytes = wordBytes[word];
+
+            if (position % blockSize == 0) {
+                blockOffsets.putInt(blocks.size());
+                blocks.writeVarInt(bytes.length);
+                blocks.write(bytes, 0, bytes.length);
+            } else {
+                int shared = sharedPrefix(previous, bytes);
+                blocks.writeVarInt(shared);
+                blocks.writeVarInt(bytes.length - shared);
+                blocks.write(bytes, shared, bytes.length - shared);
+            }
+            blocks.writeVarInt(wordCounter.count(word));
+            previous = bytes;
+        }
+
+        for (int word : ranked) {
+            ranks.putInt(ordinal[word]);
+        }
+
+        VarIntOutputStream sourceBytes = new VarIntOutputStream();
+        byte[] sourceUtf8 = source.getBytes(StandardCharsets.UTF_8);
+        sourceBytes.writeVarInt(sourceUtf8.length);
+        sourceBytes.write(sourceUtf8, 0, sourceUtf8.length);
+
+        long createdAt = System.currentTimeMillis();
+        ByteBuffer checkedHeader = ByteBuffer.allocate(24);
+        checkedHeader.putInt(uniqueWords).putLong(wordCounter.total()).putLong(createdAt).putInt(blockSize);
+
+        CRC32 crc = new CRC32();
+        crc.update(checkedHeader.array());
+        crc.update(sourceBytes.buffer(), 0, sourceBytes.size());
+        crc.update(blockOffsets.array());
+        crc.update(ranks.array());
+        crc.update(blocks.buffer(), 0, blocks.size());
+
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileOutputStream snapshotStream = new FileOutputStream(temporaryFile.toFile());
+             DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(snapshotStream, 1 << 16))) {
+            snapshot.writeInt(magic);
+            snapshot.writeInt(version);
+            snapshot.writeInt(uniqueWords);
+            snapshot.writeLong(wordCounter.total());
+            snapshot.writeLong(createdAt);
+            snapshot.writeLong(crc.getValue());
+            snapshot.writeInt(blockSize);
+
+            snapshot.write(sourceBytes.buffer(), 0, sourceBytes.size());
+            snapshot.write(blockOffsets.array());
+            snapshot.write(ranks.array());
+            snapshot.write(blocks.buffer(), 0, blocks.size());
+            snapshot.flush();
+            snapshotStream.getFD().sync();
+        }
+
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The snapshot file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return Where the words came from, such as the analyzed URLs
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return When the snapshot was written, in milliseconds since the epoch
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return The number of unique words
+     */
+    public int getUniqueWords() {
+        return uniqueWords;
+    }
+
+    /**
+     * @return The number of words, counting repetitions
+     */
+    public long getTotalWords() {
+        return totalWords;
+    }
+
+    /**
+     * @return The size of the snapshot file, in bytes
+     */
+    public long getFileSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Reads a page of the ranked words.
+     *
+     * @param offset The rank, starting at zero, of the first word of the page
+     * @param limit  The maximum number of words to read
+     * @return The words of the page, most frequent first
+     */
+    public List<WordCount> getPage(int offset, int limit) {
+        int end = (int) Math.min(uniqueWords, (long) offset + limit);
+        List<WordCount> page = new ArrayList<>(Math.max(0, end - offset));
+
+        byte[] word = new byte[256];
+        for (int rank = Math.max(0, offset); rank < end; rank++) {
+            int ordinal = buffer.getInt(ranksStart + 4 * rank);
+            word = decode(ordinal, word, page);
+        }
+
+        return page;
+    }
+
+    /**
+     * @param limit The number of the most frequent words to read
+     * @return The totals and the most frequent words
+     */
+    public ResultSummary getResultSummary(int limit) {
+        return new ResultSummary(uniqueWords, totalWords, getPage(0, limit));
+    }
+
+    /**
+     * Looks up the frequency of a single word.
+     *
+     * @param word The word
+     * @return The frequency of the word, or 0 if it is not in the snapshot
+     */
+    public int getFrequency(String word) {
+        byte[] target = word.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[256];
+
+        // Find the last block whose first word is not after the word
+        int low = 0;
+        int high = blockCount - 1;
+        int block = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int[] position = {blocksStart + buffer.getInt(blockOffsetsStart + 4 * middle)};
+            int length = readVarInt(position);
+            bytes = ensureCapacity(bytes, length);
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(position[0] + i);
+            }
+
+            if (compareBytes(bytes, length, target) <= 0) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        if (block < 0) {
+            return 0;
+        }
+
+        int[] position = {blocksStart + buffer.getInt(blockOffsetsStart + 4 * block)};
+        int length = 0;
+        int lastOrdinal = Math.min(uniqueWords, (block + 1) * blockSize);
+        for (int ordinal = block * blockSize; ordinal < lastOrdinal; ordinal++) {
+            int shared = ordinal == block * blockSize ? 0 : readVarInt(position);
+            int suffix = readVarInt(position);
+            bytes = ensureCapacity(bytes, shared + suffix);
+            for (int i = 0; i < suffix; i++) {
+                bytes[shared + i] = buffer.get(position[0] + i);
+            }
+            position[0] += suffix;
+            length = shared + suffix;
+            int frequency = readVarInt(position);
+
+            int comparison = compareBytes(bytes, length, target);
+            if (comparison == 0) {
+                return frequency;
+            } else if (comparison > 0) {
+                break;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Reads all the words into a counter, numbered in the order of their
+     * ranking, for example to add them to a word store.
+     *
+     * @return The words and their frequencies
+     */
+    public WordCounter toWordCounter() {
+        String[] words = new String[uniqueWords];
+        int[] frequencies = new int[uniqueWords];
+
+        int[] position = {blocksStart};
+        byte[] bytes = new byte[256];
+        for (int ordinal = 0; ordinal < uniqueWords; ordinal++) {
+            int shared = ordinal % blockSize == 0 ? 0 : readVarInt(position);
+            int suffix = readVarInt(position);
+            bytes = ensureCapacity(bytes, shared + suffix);
+            for (int i = 0; i < suffix; i++) {
+                bytes[shared + i] = buffer.get(position[0] + i);
+            }
+            position[0] += suffix;
+            words[ordinal] = new String(bytes, 0, shared + suffix, StandardCharsets.UTF_8);
+            frequencies[ordinal] = readVarInt(position);
+        }
+
+        WordCounter wordCounter = new WordCounter();
+        for (int rank = 0; rank < uniqueWords; rank++) {
+            int ordinal = buffer.getInt(ranksStart + 4 * rank);
+            wordCounter.add(words[ordinal], frequencies[ordinal]);
+        }
+
+        return wordCounter;
+    }
+
+    /**
+     * Decodes a word from the start of its block, and adds it to the page.
+     *
+     * @return The buffer holding the word, grown if needed
+     */
+    private byte[] decode(int ordinal, byte[] bytes, List<WordCount> page) {
+        int first = ordinal - ordinal % blockSize;
+        int[] position = {blocksStart + buffer.getInt(blockOffsetsStart + 4 * (first / blockSize))};
+        int length = 0;
+        int frequency = 0;
+
+        for (int current = first; current <= ordinal; current++) {
+            int shared = current == first ? 0 : readVarInt(position);
+            int suffix = readVarInt(position);
+            bytes = ensureCapacity(bytes, shared + suffix);
+            // The words before this one in the block are only needed for their shared bytes
+            for (int i = 0; i < suffix; i++) {
+                bytes[shared + i] = buffer.get(position[0] + i);
+            }
+            position[0] += suffix;
+            length = shared + suffix;
+            frequency = readVarInt(position);
+        }
+
+        page.add(new WordCount(new String(bytes, 0, length, StandardCharsets.UTF_8), frequency));
+        return bytes;
+    }
+
+    /**
+     * Reads a variable-length integer, seven bits at a time, lowest first.
+     *
+     * @param position Holds the position to read from, and is moved past the integer
+     */
+    private int readVarInt(int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(position[0]++);
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static byte[] ensureCapacity(byte[] bytes, int length) {
+        return length <= bytes.length ? bytes : Arrays.copyOf(bytes, Math.max(length, bytes.length * 2));
+    }
+
+    private static int sharedPrefix(byte[] first, byte[] second) {
+        int length = Math.min(first.length, second.length);
+        int shared = 0;
+        while (shared < length && first[shared] == second[shared]) {
+            shared++;
+        }
+        return shared;
+    }
+
+    private static int compareBytes(byte[] first, byte[] second) {
+        return compareBytes(first, first.length, second);
+    }
+
+    /**
+     * Compares the unsigned bytes of two words, which orders UTF-8 words
+     * like their code points.
+     */
+    private static int compareBytes(byte[] first, int firstLength, byte[] second) {
+        int length = Math.min(firstLength, second.length);
+        for (int i = 0; i < length; i++) {
+            int comparison = (first[i] & 0xff) - (second[i] & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return firstLength - second.length;
+    }
+
+    /**
+     * A byte array output stream that writes variable-length integers and
+     * exposes its buffer, so that it is not copied.
+     */
+    private static class VarIntOutputStream extends ByteArrayOutputStream {
+        VarIntOutputStream() {
+            super(1 << 16);
+        }
+
+        void writeVarInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
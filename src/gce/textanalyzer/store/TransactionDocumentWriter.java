@@ -0,0 +1,70 @@
+package gce.textanalyzer.store;
+
+import gce.textanalyzer.controller.DocumentTransaction;
+import gce.textanalyzer.model.WordCounter;
+
+import java.sql.SQLException;
+
+/**
+ * A {@link DocumentWriter} that writes each part to the database as it is
+ * appended, through a {@link DocumentTransaction} that is committed with
+ * the writer. Used by the {@link MySqlWordStore} and the
+ * {@link DictionaryWordStore}.
+ * <p>
+ * The transaction only begins with the first part, so that no connection
+ * is taken from the pool while the first words of the document are
+ * fetched.
+ */
+class TransactionDocumentWriter implements DocumentWriter {
+    private final TransactionOpener transactionOpener;
+    private DocumentTransaction documentTransaction;
+
+    TransactionDocumentWriter(TransactionOpener transactionOpener) {
+        this.transactionOpener = transactionOpener;
+    }
+
+    @Override
+    public void append(WordCounter wordCounter) throws WordStoreException {
+        try {
+            begin().append(wordCounter);
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to store the words in the database.", e);
+        }
+    }
+
+    @Override
+    public long commit() throws WordStoreException {
+        try {
+            return begin().commit();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to store the words in the database.", e);
+        }
+    }
+
+    @Override
+    public void close() throws WordStoreException {
+        if (documentTransaction == null) {
+            return;
+        }
+
+        try {
+            documentTransaction.close();
+        } catch (SQLException e) {
+            throw new WordStoreException("Unable to roll back the document in the database.", e);
+        }
+    }
+
+    private DocumentTransaction begin() throws SQLException {
+        if (documentTransaction == null) {
+            documentTransaction = transactionOpener.begin();
+        }
+        return documentTransaction;
+    }
+
+    /**
+     * Begins the transaction of a new document.
+     */
+    interface TransactionOpener {
+        DocumentTransaction begin() throws SQLException;
+    }
+}
@@ -0,0 +1,236 @@
+package gce.textanalyzer.store;
+
+import gce.textanalyzer.model.Document;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Stores the unique words found by an analysis and their frequencies.
+ * <p>
+ * The words of each analysis are kept as a separate {@link Document}, so
+ * earlier results are not lost, and can be ranked on their own or combined
+ * with other documents. The store also keeps an aggregate of all its words:
+ * adding or removing a document adds or subtracts its words, so the
+ * aggregate is never recomputed from the documents. Words can also be added
+ * to the aggregate directly, without a document, with
+ * {@link #merge(WordCounter)} and {@link #increment(String, int)}.
+ * <p>
+ * Words are ranked by frequency in descending order, and words with the
+ * same frequency by the words themselves, in every store. Implementations
+ * are selected with {@link WordStores#open()}.
+ */
+public interface WordStore extends AutoCloseable {
+
+    /**
+     * Removes all the words and documents from the store.
+     *
+     * @throws WordStoreException If the store cannot be written
+     */
+    void clear() throws WordStoreException;
+
+    /**
+     * Adds occurrences of a single word.
+     *
+     * @param word  The word
+     * @param count The number of occurrences to add
+     * @throws WordStoreException If the store cannot be written
+     */
+    void increment(String word, int count) throws WordStoreException;
+
+    /**
+     * Adds all the words of a counter, with their frequencies, reporting
+     * progress as it goes. If {@code progress} throws an exception, the
+     * store is left as it was.
+     *
+     * @param wordCounter The words to add
+     * @param progress    Receives the number of unique words added so far
+     * @throws WordStoreException If the store cannot be written
+     */
+    void merge(WordCounter wordCounter, IntConsumer progress) throws WordStoreException;
+
+    /**
+     * Adds all the words of a counter, with their frequencies.
+     *
+     * @param wordCounter The words to add
+     * @throws WordStoreException If the store cannot be written
+     */
+    default void merge(WordCounter wordCounter) throws WordStoreException {
+        merge(wordCounter, storedWords -> {
+        });
+    }
+
+    /**
+     * Adds the words of a document, with their frequencies, reporting
+     * progress as it goes. The words are also added to the aggregate. If
+     * {@code progress} throws an exception, the store is left as it was.
+     *
+     * @param documentSource Where the words came from, such as the analyzed URLs
+     * @param wordCounter    The words of the document
+     * @param progress       Receives the number of unique words added so far
+     * @return The number of the new document
+     * @throws WordStoreException If the store cannot be written
+     */
+    long addDocument(String documentSource, WordCounter wordCounter, IntConsumer progress) throws WordStoreException;
+
+    /**
+     * Adds the words of a document, with their frequencies. The words are
+     * also added to the aggregate.
+     *
+     * @param documentSource Where the words came from, such as the analyzed URLs
+     * @param wordCounter    The words of the document
+     * @return The number of the new document
+     * @throws WordStoreException If the store cannot be written
+     */
+    default long addDocument(String documentSource, WordCounter wordCounter) throws WordStoreException {
+        return addDocument(documentSource, wordCounter, storedWords -> {
+        });
+    }
+
+    /**
+     * Opens a writer for a new document whose words are counted a part at a
+     * time. The words are also added to the aggregate.
+     * <p>
+     * By default, the parts are added together in memory and stored by
+     * {@link #addDocument(String, WordCounter)} when the writer is committed.
+     * Stores that answer requests over a network write each part as it
+     * comes, so that writing overlaps with counting.
+     *
+     * @param documentSource Where the words came from, such as the analyzed URLs
+     * @return The writer, to be closed by the caller
+     * @throws WordStoreException If the store cannot be written
+     */
+    default DocumentWriter openDocument(String documentSource) throws WordStoreException {
+        WordCounter documentWords = new WordCounter();
+
+        return new DocumentWriter() {
+            @Override
+            public void append(WordCounter wordCounter) {
+                documentWords.addAll(wordCounter);
+            }
+
+            @Override
+            public long commit() throws WordStoreException {
+                return addDocument(documentSource, documentWords);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Removes a document, and subtracts its words from the aggregate.
+     *
+     * @param documentId The number of the document
+     * @return False if there was no such document
+     * @throws WordStoreException If the store cannot be written
+     */
+    boolean removeDocument(long documentId) throws WordStoreException;
+
+    /**
+     * @return The documents in the store, oldest first
+     * @throws WordStoreException If the store cannot be read
+     */
+    List<Document> getDocuments() throws WordStoreException;
+
+    /**
+     * Reads one page of the ranked words of one or more documents. The
+     * frequencies of the words of several documents are added together.
+     *
+     * @param documentIds The numbers of the documents
+     * @param after       The last word of the previous page, or {@code null} to read by offset
+     * @param offset      The rank, starting at zero, of the first word of the page
+     * @param limit       The maximum number of words to read
+     * @return The words of the page, most frequent first
+     * @throws WordStoreException If the store cannot be read
+     */
+    List<WordCount> getDocumentWordPage(long[] documentIds, WordCount after, int offset, int limit)
+            throws WordStoreException;
+
+    /**
+     * @param documentIds The numbers of the documents
+     * @return The number of unique words in the documents together
+     * @throws WordStoreException If the store cannot be read
+     */
+    int getDocumentUniqueWordCount(long[] documentIds) throws WordStoreException;
+
+    /**
+     * Reads one page of the ranked words of the aggregate.
+     *
+     * @param after  The last word of the previous page, or {@code null} to read by offset
+     * @param offset The rank, starting at zero, of the first word of the page
+     * @param limit  The maximum number of words to read
+     * @return The words of the page, most frequent first
+     * @throws WordStoreException If the store cannot be read
+     */
+    List<WordCount> getWordPage(WordCount after, int offset, int limit) throws WordStoreException;
+
+    /**
+     * Reads the most frequent words of the aggregate.
+     *
+     * @param k The maximum number of words to read
+     * @return The words, most frequent first
+     * @throws WordStoreException If the store cannot be read
+     */
+    default List<WordCount> getTopWords(int k) throws WordStoreException {
+        return getWordPage(null, 0, k);
+    }
+
+    /**
+     * @return The number of unique words in the aggregate
+     * @throws WordStoreException If the store cannot be read
+     */
+    int getUniqueWordCount() throws WordStoreException;
+
+    /**
+     * @return The number of words in the aggregate, counting repetitions
+     * @throws WordStoreException If the store cannot be read
+     */
+    long getTotalWordCount() throws WordStoreException;
+
+    /**
+     * Reads the totals of the aggregate along with its most frequent words.
+     * Stores that answer requests over a network do so in a single round
+     * trip.
+     *
+     * @param limit The maximum number of words to read
+     * @return The totals and the most frequent words
+     * @throws WordStoreException If the store cannot be read
+     */
+    default ResultSummary getResultSummary(int limit) throws WordStoreException {
+        return new ResultSummary(getUniqueWordCount(), getTotalWordCount(), getTopWords(limit));
+    }
+
+    /**
+     * Reads the totals of a document along with its most frequent words.
+     * Stores that answer requests over a network do so in a single round
+     * trip.
+     *
+     * @param documentId The number of the document
+     * @param limit      The maximum number of words to read
+     * @return The totals and the most frequent words, or {@code null} if there is no such document
+     * @throws WordStoreException If the store cannot be read
+     */
+    default ResultSummary getDocumentResultSummary(long documentId, int limit) throws WordStoreException {
+        for (Document document : getDocuments()) {
+            if (document.getDocumentId() == documentId) {
+                return new ResultSummary(document.getUniqueWords(), document.getTotalWords(),
+                        getDocumentWordPage(new long[]{documentId}, null, 0, limit));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Releases the resources held by the store.
+     *
+     * @throws WordStoreException If pending writes cannot be saved
+     */
+    @Override
+    void close() throws WordStoreException;
+}
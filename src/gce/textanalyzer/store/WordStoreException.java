@@ -0,0 +1,16 @@
+package gce.textanalyzer.store;
+
+/**
+ * Thrown when a {@link WordStore} cannot read or write its words.
+ */
+public class WordStoreException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message The reason the operation failed
+     * @param cause   The underlying exception
+     */
+    public WordStoreException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,104 @@
+package gce.textanalyzer.store;
+
+import gce.textanalyzer.controller.Settings;
+
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Selects the {@link WordStore} used to keep the results of an analysis.
+ * <p>
+ * The engine is read from the {@code textanalyzer.store} option:
+ * <ul>
+ *     <li>{@code mysql} (the default): the MySQL database, see {@link MySqlWordStore}.</li>
+ *     <li>{@code dictionary}: the MySQL database, with the words encoded as
+ *     numbers, see {@link DictionaryWordStore}.</li>
+ *     <li>{@code memory}: memory only, see {@link InMemoryWordStore}.</li>
+ *     <li>{@code file}: a file in the user's home directory, or the one set
+ *     with the {@code textanalyzer.store.file} option, see {@link FileWordStore}.</li>
+ * </ul>
+ * Phrases are kept apart from single words, whose aggregate they would
+ * otherwise be added to, in stores of their own returned by
+ * {@link #getPhraseStore(int)}.
+ */
+public final class WordStores {
+    private static WordStore sharedStore;
+    private static final Map<Integer, WordStore> phraseStores = new HashMap<>();
+
+    private WordStores() {
+    }
+
+    /**
+     * Returns the store shared by the whole application, opening it the
+     * first time it is needed. It is closed when the application exits.
+     *
+     * @return The configured store
+     * @throws WordStoreException If the store cannot be opened
+     */
+    public static synchronized WordStore getStore() throws WordStoreException {
+        if (sharedStore == null) {
+            WordStore store = open();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    store.close();
+                } catch (WordStoreException e) {
+                    System.out.println(e.getMessage() + " " + e.getCause());
+                }
+            }));
+            sharedStore = store;
+        }
+
+        return sharedStore;
+    }
+
+    /**
+     * Returns the store shared by the whole application for phrases of the
+     * given number of words. Phrases are kept in memory, each length in a
+     * store of its own, so that their counts are never added to those of
+     * single words or of phrases of another length.
+     *
+     * @param n The number of words in a phrase, above 1
+     * @return The store of the phrases of that length
+     */
+    public static synchronized WordStore getPhraseStore(int n) {
+        return phraseStores.computeIfAbsent(n, length -> new InMemoryWordStore());
+    }
+
+    /**
+     * Opens a new store of the configured engine. The caller is responsible
+     * for closing it.
+     *
+     * @return The configured store
+     * @throws WordStoreException If the store cannot be opened
+     */
+    public static WordStore open() throws WordStoreException {
+        return open(Settings.getString("store", "mysql"));
+    }
+
+    /**
+     * Opens a new store of the given engine. The caller is responsible for
+     * closing it.
+     *
+     * @param engine {@code mysql}, {@code dictionary}, {@code memory} or {@code file}
+     * @return The store
+     * @throws WordStoreException If the store cannot be opened
+     * @throws IllegalArgumentException If the engine is unknown
+     */
+    public static WordStore open(String engine) throws WordStoreException {
+        switch (engine) {
+            case "mysql":
+                return new MySqlWordStore();
+            case "dictionary":
+                return new DictionaryWordStore();
+            case "memory":
+                return new InMemoryWordStore();
+            case "file":
+                return new FileWordStore(Paths.get(Settings.getString("store.file",
+                        Paths.get(System.getProperty("user.home"), ".textanalyzer", "words.db").toString())));
+            default:
+                throw new IllegalArgumentException("Unknown word store '" + engine
+                        + "'. Use mysql, dictionary, memory or file.");
+        }
+    }
+}
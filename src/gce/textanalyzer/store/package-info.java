@@ -0,0 +1,4 @@
+/**
+ * This is the storage package of the TextAnalyzer application.
+ */
+package gce.textanalyzer.store;
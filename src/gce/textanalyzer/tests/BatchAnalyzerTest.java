@@ -0,0 +1,137 @@
+package gce.textanalyzer.tests;
+
+import com.sun.net.httpserver.HttpServer;
+import gce.textanalyzer.controller.BatchAnalyzer;
+import gce.textanalyzer.model.WordCounter;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class BatchAnalyzerTest {
+
+    private static HttpServer server;
+    private static String baseUrl;
+    private static final AtomicInteger activeRequests = new AtomicInteger();
+    private static final AtomicInteger maxActiveRequests = new AtomicInteger();
+
+    /**
+     * Starts a local HTTP server that serves {@code /page/N} as a small HTML
+     * page with N occurrences of "witch" and one of "cauldron", slowly, and
+     * returns 404 for anything else.
+     */
+    @BeforeAll
+    static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            int active = activeRequests.incrementAndGet();
+            maxActiveRequests.accumulateAndGet(active, Math::max);
+
+            try {
+                String path = exchange.getRequestURI().getPath();
+                if (!path.startsWith("/page/")) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+
+                Thread.sleep(50);
+
+                StringBuilder html = new StringBuilder("<html><body><p>Cauldron");
+                for (int i = Integer.parseInt(path.substring(6)); i > 0; i--) {
+                    html.append(" witch");
+                }
+                html.append("</p></body></html>");
+
+                byte[] body = html.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream responseBody = exchange.getResponseBody()) {
+                    responseBody.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                activeRequests.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Merges the word counts of all the URLs and reports the ones that failed.")
+    void testMergedCounts() throws InterruptedException {
+        List<String> urls = new ArrayList<>();
+        for (int page = 1; page <= 20; page++) {
+            urls.add(baseUrl + "/page/" + page);
+        }
+        urls.add(baseUrl + "/missing");
+
+        BatchAnalyzer.BatchResult batchResult = new BatchAnalyzer(8, 8).analyze(urls, urlResult -> {
+        });
+        WordCounter wordCounter = batchResult.getWordCounter();
+
+        assertEquals(2, wordCounter.size());
+        assertEquals(20 + 20 * 21 / 2, wordCounter.total());
+        assertEquals(1, batchResult.getFailureCount());
+        assertNotNull(batchResult.getUrlResults().get(20).getError());
+        assertEquals(6, batchResult.getUrlResults().get(4).getWords());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Never fetches more URLs at once from the same host than the per-host limit.")
+    void testPerHostLimit() throws InterruptedException {
+        List<String> urls = new ArrayList<>();
+        for (int page = 1; page <= 12; page++) {
+            urls.add(baseUrl + "/page/" + page);
+        }
+
+        maxActiveRequests.set(0);
+        new BatchAnalyzer(16, 2).analyze(urls, urlResult -> {
+        });
+
+        assertTrue(maxActiveRequests.get() <= 2);
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("A progress consumer that throws does not stop the rest of the URLs from being analyzed.")
+    void testFailingProgress() throws InterruptedException {
+        List<String> urls = new ArrayList<>();
+        for (int page = 1; page <= 6; page++) {
+            urls.add(baseUrl + "/page/" + page);
+        }
+
+        AtomicInteger reports = new AtomicInteger();
+        BatchAnalyzer.BatchResult batchResult = new BatchAnalyzer(2, 1).analyze(urls, urlResult -> {
+            reports.incrementAndGet();
+            throw new IllegalStateException("The progress consumer failed.");
+        });
+
+        assertEquals(6, batchResult.getUrlResults().size());
+        assertEquals(0, batchResult.getFailureCount());
+        assertEquals(6, reports.get());
+        for (BatchAnalyzer.UrlResult urlResult : batchResult.getUrlResults()) {
+            assertNull(urlResult.getError());
+        }
+    }
+}
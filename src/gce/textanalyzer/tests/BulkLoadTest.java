@@ -0,0 +1,141 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.controller.DatabaseController;
+import gce.textanalyzer.controller.WordCountStream;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class BulkLoadTest {
+
+    @AfterAll
+    static void resetOptions() {
+        System.clearProperty("textanalyzer.db.bulkLoad");
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Words are streamed as tab-separated rows, with their separators escaped.")
+    void testStreamRows() {
+        WordCounter wordCounter = new WordCounter();
+        wordCounter.add("double", 4);
+        wordCounter.add("tab\there", 1);
+        wordCounter.add("back\\slash", 2);
+        wordCounter.add("line\nbreak", 1);
+        wordCounter.add("naïve", 3);
+
+        List<Integer> progress = new ArrayList<>();
+        String rows = readAll(new WordCountStream(wordCounter, 2, progress::add));
+
+        assertEquals("double\t4\ntab\\there\t1\nback\\\\slash\t2\nline\\nbreak\t1\nnaïve\t3\n", rows);
+        assertEquals("[2, 4]", progress.toString());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("The stream ends early when the progress consumer cancels it.")
+    void testStreamCancelled() {
+        WordCounter wordCounter = largeVocabulary(10_000);
+
+        WordCountStream wordCountStream = new WordCountStream(wordCounter, 1000, storedWords -> {
+            if (storedWords == 2000) {
+                throw new CancellationException();
+            }
+        });
+
+        String rows = readAll(wordCountStream);
+        int lines = rows.length() - rows.replace("\n", "").length();
+        assertTrue(lines >= 2000 && lines < wordCounter.size());
+        assertThrows(CancellationException.class, wordCountStream::checkFailure);
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Bulk loading and batched statements store the same words.")
+    void testBulkLoad() throws SQLException {
+        System.setProperty("textanalyzer.db.bulkLoad", "true");
+        DatabaseController.createSchema();
+
+        WordCounter wordCounter = largeVocabulary(300_000);
+
+        List<WordCount> bulkWords = storeWords(wordCounter);
+        assumeTrue(DatabaseController.isBulkLoadAvailable(), "Local data is disabled by the server");
+
+        System.setProperty("textanalyzer.db.bulkLoad", "false");
+        List<WordCount> batchedWords = storeWords(wordCounter);
+
+        assertEquals(wordCounter.size(), bulkWords.size());
+        assertEquals(contents(batchedWords), contents(bulkWords));
+        assertEquals(wordCounter.count(wordCounter.top(1)[0]), bulkWords.get(0).getWordFrequency());
+
+        // Documents are bulk loaded too, and added to the aggregate
+        System.setProperty("textanalyzer.db.bulkLoad", "true");
+        long documentId = DatabaseController.storeDocument("bulk", wordCounter, storedWords -> {
+        });
+        assertEquals(wordCounter.size(), DatabaseController.getDocumentUniqueWordCount(new long[]{documentId}));
+        assertEquals(2 * wordCounter.total(), DatabaseController.getTotalWordCount());
+        assertEquals(wordCounter.size(), DatabaseController.getUniqueWordCount());
+
+        // A cancelled load leaves the words as they were
+        assertThrows(CancellationException.class, () -> DatabaseController.storeWordCounts(wordCounter,
+                storedWords -> {
+                    throw new CancellationException();
+                }));
+        assertEquals(2 * wordCounter.total(), DatabaseController.getTotalWordCount());
+
+        DatabaseController.clearWords();
+    }
+
+    /**
+     * Stores the words into an emptied table.
+     *
+     * @return The stored words, ranked
+     */
+    private static List<WordCount> storeWords(WordCounter wordCounter) throws SQLException {
+        DatabaseController.clearWords();
+        DatabaseController.storeWordCounts(wordCounter);
+
+        assertEquals(wordCounter.size(), DatabaseController.getUniqueWordCount());
+        assertEquals(wordCounter.total(), DatabaseController.getTotalWordCount());
+        return DatabaseController.getWordPage(null, 0, Integer.MAX_VALUE);
+    }
+
+    private static WordCounter largeVocabulary(int size) {
+        WordCounter wordCounter = new WordCounter();
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            wordCounter.add("word" + i, 1 + (int) Math.abs(random.nextGaussian() * 100));
+        }
+        return wordCounter;
+    }
+
+    private static String readAll(WordCountStream wordCountStream) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int read;
+        while ((read = wordCountStream.read(buffer, 0, buffer.length)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> contents(List<WordCount> words) {
+        List<String> contents = new ArrayList<>();
+        for (WordCount word : words) {
+            contents.add(word.getWordContent() + "=" + word.getWordFrequency());
+        }
+        return contents;
+    }
+}
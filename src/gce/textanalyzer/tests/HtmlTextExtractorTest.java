@@ -0,0 +1,85 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.controller.HtmlTextExtractor;
+import gce.textanalyzer.controller.TextAnalyzerController;
+import gce.textanalyzer.controller.WordTokenizer;
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class HtmlTextExtractorTest {
+
+    /**
+     * Splits the text that Jsoup finds in the document into words the way the
+     * program does for the default fetch mode.
+     */
+    private static List<String> expectedWords(String html) {
+        List<String> words = new ArrayList<>();
+        StringTokenizer wordsInText = new StringTokenizer(
+                TextAnalyzerController.htmlToText(Jsoup.parse(html).text()));
+        while (wordsInText.hasMoreTokens()) {
+            words.add(wordsInText.nextToken());
+        }
+
+        return words;
+    }
+
+    /**
+     * Splits the document into words with the {@link HtmlTextExtractor},
+     * feeding it in chunks of {@code chunkSize} characters.
+     */
+    private static List<String> actualWords(String html, int chunkSize) {
+        List<String> words = new ArrayList<>();
+        HtmlTextExtractor htmlTextExtractor = new HtmlTextExtractor(new WordTokenizer((buffer, offset, length) ->
+                words.add(new String(buffer, offset, length))));
+        char[] chars = html.toCharArray();
+
+        for (int start = 0; start < chars.length; start += chunkSize) {
+            htmlTextExtractor.feed(chars, start, Math.min(chunkSize, chars.length - start));
+        }
+        htmlTextExtractor.finish();
+
+        return words;
+    }
+
+    private static void assertSameWords(String html) {
+        for (int chunkSize = 1; chunkSize <= html.length(); chunkSize++) {
+            assertEquals(expectedWords(html), actualWords(html, chunkSize), html);
+        }
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Tags, comments and declarations are skipped, and block elements separate words.")
+    void testMarkup() {
+        assertSameWords("<!DOCTYPE html><html><head><title>Macbeth</title></head>" +
+                "<body><h3>ACT I</h3><p>When shall <b>th</b>ree<!-- a -- comment --> meet</p>\n" +
+                "<a href=\"x>y\">again</a><br/>in<div>thunder</div> <?xml version?>a < b</body></html>");
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Named and numeric character references are decoded as Jsoup decodes them.")
+    void testEntities() {
+        assertSameWords("<p>caf&eacute; na&iuml;ve &hearts; &frac12; &CounterClockwiseContourIntegral; " +
+                "&Auml;rger &euro;5 &amp; &lt;b&gt; &#39;tis&#x27; &#128512; a&nbsp;b</p>");
+        // Only the base entities are decoded without a semicolon
+        assertSameWords("<p>&copy 2020 &eacute &amp more &hearts x &notanentity; &#xZZ; & alone</p>");
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Scripts and styles end at their own closing tag only.")
+    void testRawText() {
+        assertSameWords("<script>var a = '<b>no</b>'; if (a < b) {}</script>after " +
+                "<style>p { color: red }</STYLE >styled " +
+                "<script>x = '</scripts>still script'; </script>done " +
+                "<script>y = '</script'</script/>end");
+    }
+}
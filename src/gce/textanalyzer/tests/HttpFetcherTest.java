@@ -0,0 +1,270 @@
+package gce.textanalyzer.tests;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import gce.textanalyzer.controller.HttpFetcher;
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class HttpFetcherTest {
+
+    private static HttpServer server;
+    private static String baseUrl;
+    private static byte[] page;
+    private static byte[] gzippedPage;
+    private static final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts a local HTTP server that serves a page compressed as the client
+     * asks, a page with each deflate format, a page too large to be read,
+     * a page that never ends, a missing page, redirects, an image and the
+     * {@code User-Agent} of the request. It records the port of
+     * each client connection, so that reused connections can be told apart
+     * from new ones.
+     */
+    @BeforeAll
+    static void startServer() throws IOException {
+        Random random = new Random(7);
+        StringBuilder html = new StringBuilder("<html><head><title>Macbeth</title></head><body>");
+        for (int i = 0; i < 30_000; i++) {
+            html.append(i % 40 == 0 ? "<p>" : "").append("word").append(random.nextInt(2_000)).append(' ');
+        }
+        page = html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+        gzippedPage = gzip(page);
+        byte[] deflatedPage = deflate(page, false);
+        byte[] rawDeflatedPage = deflate(page, true);
+
+        // Otherwise small writes of the server wait for the acknowledgement of the previous ones
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+
+        server.createContext("/page", exchange -> {
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            send(exchange, gzip ? "gzip" : null, gzip ? gzippedPage : page);
+        });
+        server.createContext("/deflate", exchange -> send(exchange, "deflate", deflatedPage));
+        server.createContext("/raw-deflate", exchange -> send(exchange, "deflate", rawDeflatedPage));
+        server.createContext("/huge", exchange -> {
+            exchange.sendResponseHeaders(200, 8 << 20);
+            try (OutputStream body = exchange.getResponseBody()) {
+                byte[] chunk = new byte[1 << 16];
+                for (int sent = 0; sent < 8 << 20; sent += chunk.length) {
+                    body.write(chunk);
+                }
+            } catch (IOException e) {
+                // The client gave up
+            }
+            exchange.close();
+        });
+        server.createContext("/endless", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (int i = 0; i < 100; i++) {
+                    body.write("<p>more ".getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                    Thread.sleep(50);
+                }
+            } catch (IOException | InterruptedException e) {
+                // The client gave up
+            }
+            exchange.close();
+        });
+        server.createContext("/missing", exchange -> send(exchange, null,
+                "<html><body>Not found</body></html>".getBytes(StandardCharsets.UTF_8), 404));
+        server.createContext("/moved", exchange -> {
+            exchange.getResponseHeaders().set("Location", "/redirect");
+            send(exchange, null, "<html><body>Moved</body></html>".getBytes(StandardCharsets.UTF_8), 301);
+        });
+        server.createContext("/redirect", exchange -> {
+            exchange.getResponseHeaders().set("Location", baseUrl + "/page");
+            send(exchange, null, "<html><body>Found</body></html>".getBytes(StandardCharsets.UTF_8), 302);
+        });
+        server.createContext("/loop", exchange -> {
+            exchange.getResponseHeaders().set("Location", "loop");
+            send(exchange, null, new byte[0], 307);
+        });
+        server.createContext("/image", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(200, 4);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(new byte[]{(byte) 0x89, 'P', 'N', 'G'});
+            }
+            exchange.close();
+        });
+        server.createContext("/agent", exchange -> send(exchange, null,
+                String.valueOf(exchange.getRequestHeaders().getFirst("User-Agent")).getBytes(StandardCharsets.UTF_8)));
+        server.start();
+
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Compressed responses are decompressed as they are read, and transfer fewer bytes.")
+    void testCompression() throws IOException {
+        HttpFetcher fetcher = new HttpFetcher(5_000, 5_000, 10_000, 1 << 20, true);
+
+        try (HttpFetcher.Response response = fetcher.fetch(baseUrl + "/page")) {
+            assertArrayEquals(page, response.readBody());
+            assertEquals(page.length, response.getBodyBytes());
+            assertTrue(response.getTransferredBytes() < page.length / 2);
+        }
+
+        for (String path : new String[]{"/deflate", "/raw-deflate"}) {
+            try (HttpFetcher.Response response = fetcher.fetch(baseUrl + path)) {
+                assertArrayEquals(page, response.readBody());
+            }
+        }
+
+        try (HttpFetcher.Response response = new HttpFetcher(5_000, 5_000, 10_000, 1 << 20, false)
+                .fetch(baseUrl + "/page")) {
+            assertArrayEquals(page, response.readBody());
+            assertEquals(page.length, response.getTransferredBytes());
+        }
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Consecutive requests to the same host reuse the same connection.")
+    void testConnectionReuse() throws IOException {
+        HttpFetcher fetcher = new HttpFetcher(5_000, 5_000, 10_000, 1 << 20, true);
+        clientPorts.clear();
+
+        for (int i = 0; i < 20; i++) {
+            try (HttpFetcher.Response response = fetcher.fetch(baseUrl + "/page")) {
+                response.readBody();
+            }
+        }
+
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("A body that is too large, too slow or an error fails instead of blocking.")
+    void testLimits() {
+        HttpFetcher fetcher = new HttpFetcher(5_000, 5_000, 500, 1 << 20, true);
+
+        IOException tooLarge = assertThrows(IOException.class, () -> {
+            try (HttpFetcher.Response response = fetcher.fetch(baseUrl + "/huge")) {
+                response.readBody();
+            }
+        });
+        assertTrue(tooLarge.getMessage().contains("larger than 1 MB"));
+
+        long start = System.nanoTime();
+        assertThrows(SocketTimeoutException.class, () -> {
+            try (HttpFetcher.Response response = fetcher.fetch(baseUrl + "/endless")) {
+                response.readBody();
+            }
+        });
+        assertTrue(System.nanoTime() - start < 3_000_000_000L);
+
+        IOException missing = assertThrows(IOException.class, () -> fetcher.fetch(baseUrl + "/missing"));
+        assertTrue(missing.getMessage().contains("Status=404"));
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("The fetcher reads the same text as Jsoup.")
+    void testAgainstJsoup() throws IOException {
+        HttpFetcher fetcher = new HttpFetcher(5_000, 5_000, 10_000, 1 << 20, true);
+
+        String expected = Jsoup.connect(baseUrl + "/page").get().text();
+        try (HttpFetcher.Response response = fetcher.fetch(baseUrl + "/page")) {
+            assertEquals(expected, Jsoup.parse(new String(response.readBody(), response.getCharset()),
+                    baseUrl).text());
+        }
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("Redirects are followed up to a limit, and content not text or not over HTTP is refused, as by Jsoup.")
+    void testRedirectsAndContentTypes() throws IOException {
+        HttpFetcher fetcher = new HttpFetcher(5_000, 5_000, 10_000, 1 << 20, true);
+
+        clientPorts.clear();
+        try (HttpFetcher.Response response = fetcher.fetch(baseUrl + "/moved")) {
+            assertEquals(200, response.getStatusCode());
+            assertEquals(baseUrl + "/page", response.getUrl());
+            assertArrayEquals(page, response.readBody());
+        }
+        // The bodies of the redirects were skipped, so the connection was reused
+        assertEquals(1, clientPorts.size());
+
+        IOException loop = assertThrows(IOException.class, () -> fetcher.fetch(baseUrl + "/loop"));
+        assertTrue(loop.getMessage().startsWith("Too many redirects"));
+
+        IOException image = assertThrows(IOException.class, () -> fetcher.fetch(baseUrl + "/image"));
+        assertTrue(image.getMessage().contains("Mimetype=image/png"));
+
+        try (HttpFetcher.Response response = fetcher.fetch(baseUrl + "/agent")) {
+            assertEquals(HttpFetcher.DEFAULT_USER_AGENT, new String(response.readBody(), StandardCharsets.UTF_8));
+        }
+
+        // Only HTTP and HTTPS URLs are fetched, as by Jsoup
+        for (String url : new String[]{"file:///etc/hosts", "jar:file:/tmp/a.jar!/b.html", "ftp://localhost/c"}) {
+            assertThrows(MalformedURLException.class, () -> fetcher.fetch(url));
+        }
+    }
+
+    private static void send(HttpExchange exchange, String contentEncoding, byte[] body) throws IOException {
+        send(exchange, contentEncoding, body, 200);
+    }
+
+    private static void send(HttpExchange exchange, String contentEncoding, byte[] body, int status)
+            throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        if (contentEncoding != null) {
+            exchange.getResponseHeaders().set("Content-Encoding", contentEncoding);
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+        exchange.close();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+            output.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] bytes, boolean raw) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream output = new DeflaterOutputStream(compressed,
+                new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+            output.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,216 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.controller.IngestionPipeline;
+import gce.textanalyzer.controller.StreamingFetcher;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+import gce.textanalyzer.store.DocumentWriter;
+import gce.textanalyzer.store.InMemoryWordStore;
+import gce.textanalyzer.store.WordStore;
+import gce.textanalyzer.store.WordStoreException;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class IngestionPipelineTest {
+    private static byte[] html;
+    private static WordCounter expected;
+
+    @BeforeAll
+    static void createPage() throws IOException {
+        Random random = new Random(7);
+        StringBuilder page = new StringBuilder("<html><head><title>Café menu</title>"
+                + "<script>var ignored = 1;</script></head><body>");
+        for (int i = 0; i < 40_000; i++) {
+            if (i % 50 == 0) {
+                page.append("<p class=\"para\">");
+            }
+            // Accented words, so that characters are split between chunks
+            page.append(i % 7 == 0 ? "café" : "word").append(Math.abs((int) (random.nextGaussian() * 3_000)))
+                    .append(' ');
+        }
+        page.append("</body></html>");
+        html = page.toString().getBytes(StandardCharsets.UTF_8);
+
+        expected = new WordCounter();
+        new StreamingFetcher().countWords(new ByteArrayInputStream(html), StandardCharsets.UTF_8, expected::add);
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("The pipeline finds the same words as the streaming fetcher, whatever the chunk size.")
+    void testSameWords() throws IOException, WordStoreException {
+        for (int chunkSize : new int[]{64, 1001, 1 << 16}) {
+            CollectingWriter collectingWriter = new CollectingWriter(0);
+            WordCounter counted = new IngestionPipeline(4, chunkSize, 500).run(new ByteArrayInputStream(html),
+                    StandardCharsets.UTF_8, collectingWriter, (segment, total) -> {
+                    }, () -> false);
+
+            assertEquals(sorted(expected), sorted(counted));
+            // The parts stored add up to the whole document
+            assertEquals(sorted(expected), sorted(collectingWriter.words));
+        }
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("A slow store holds the other stages back instead of letting the queues grow.")
+    void testBackpressure() throws IOException, WordStoreException {
+        IngestionPipeline pipeline = new IngestionPipeline(2, 4096, 50);
+        CollectingWriter slowWriter = new CollectingWriter(5);
+
+        WordCounter counted = pipeline.run(new ByteArrayInputStream(html), StandardCharsets.UTF_8, slowWriter,
+                (segment, total) -> {
+                }, () -> false);
+
+        assertEquals(sorted(expected), sorted(counted));
+        assertTrue(slowWriter.parts > 1);
+
+        for (IngestionPipeline.StageStats stage : pipeline.getStages()) {
+            assertTrue(stage.getMaxQueueDepth() <= 2);
+            assertEquals(0, stage.getQueueDepth());
+        }
+        IngestionPipeline.StageStats aggregate = pipeline.getStages().get(2);
+        IngestionPipeline.StageStats persist = pipeline.getStages().get(3);
+        assertTrue(aggregate.getBlockedNanos() > 0, "The aggregate stage waited for the store");
+        assertEquals(slowWriter.parts, persist.getItems());
+        assertEquals(expected.total(), aggregate.getUnits());
+        assertEquals(html.length, pipeline.getBytesFetched());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("A failing store stops all the stages, and its exception is thrown.")
+    void testFailure() {
+        AtomicInteger appends = new AtomicInteger();
+        DocumentWriter failingWriter = new CollectingWriter(0) {
+            @Override
+            public void append(WordCounter wordCounter) throws WordStoreException {
+                if (appends.incrementAndGet() == 2) {
+                    throw new WordStoreException("The database is down.", null);
+                }
+            }
+        };
+
+        WordStoreException e = assertThrows(WordStoreException.class, () -> new IngestionPipeline(2, 256, 50)
+                .run(new ByteArrayInputStream(html), StandardCharsets.UTF_8, failingWriter, (segment, total) -> {
+                }, () -> false));
+        assertEquals("The database is down.", e.getMessage());
+        assertEquals(2, appends.get());
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("A cancelled run stops, reporting the cancellation.")
+    void testCancelled() {
+        AtomicInteger segments = new AtomicInteger();
+
+        assertThrows(CancellationException.class, () -> new IngestionPipeline(2, 256, 50)
+                .run(new ByteArrayInputStream(html), StandardCharsets.UTF_8, null,
+                        (segment, total) -> segments.incrementAndGet(), () -> segments.get() >= 10));
+        assertTrue(segments.get() < html.length / 256);
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("A slow store blocks the tokenization while the page is still being fetched.")
+    void testStoresDuringFetch() throws IOException, WordStoreException {
+        IngestionPipeline pipeline = new IngestionPipeline(2, 4096, 50);
+        CollectingWriter slowWriter = new CollectingWriter(5);
+        AtomicLong tokenizeBlocked = new AtomicLong();
+        AtomicInteger partsStored = new AtomicInteger();
+        InputStream content = new ByteArrayInputStream(html) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                int read = super.read(buffer, offset, length);
+                if (read == -1 || pos == count) {
+                    // What the other stages had done when the last bytes were fetched
+                    tokenizeBlocked.compareAndSet(0, pipeline.getStages().get(1).getBlockedNanos());
+                    partsStored.compareAndSet(0, pipeline.getStages().get(3).getItems() > 0 ? 1 : -1);
+                }
+                return read;
+            }
+        };
+
+        pipeline.run(content, StandardCharsets.UTF_8, slowWriter, (segment, total) -> {
+        }, () -> false);
+
+        assertTrue(tokenizeBlocked.get() > 0, "The tokenize stage waited while the page was fetched");
+        assertEquals(1, partsStored.get(), "Parts were stored while the page was fetched");
+        assertTrue(pipeline.getStages().get(0).getBlockedNanos() > 0, "The fetch stage waited too");
+        assertEquals(sorted(expected), sorted(slowWriter.words));
+    }
+
+    @Test
+    @Order(6)
+    @DisplayName("A store without its own writer stores the parts as one document on commit.")
+    void testDefaultWriter() throws IOException, WordStoreException {
+        try (WordStore wordStore = new InMemoryWordStore()) {
+            long documentId;
+            try (DocumentWriter documentWriter = wordStore.openDocument("http://example.com/menu")) {
+                new IngestionPipeline(4, 4096, 1000).run(new ByteArrayInputStream(html), StandardCharsets.UTF_8,
+                        documentWriter, (segment, total) -> {
+                        }, () -> false);
+                documentId = documentWriter.commit();
+            }
+
+            assertEquals(expected.size(), wordStore.getDocumentUniqueWordCount(new long[]{documentId}));
+            assertEquals(expected.total(), wordStore.getTotalWordCount());
+            List<WordCount> top = wordStore.getTopWords(1);
+            assertEquals(expected.word(expected.top(1)[0]), top.get(0).getWordContent());
+        }
+    }
+
+    /**
+     * Adds the parts it is given together, optionally taking some time for each.
+     */
+    private static class CollectingWriter implements DocumentWriter {
+        private final long millisPerPart;
+        final WordCounter words = new WordCounter();
+        int parts;
+
+        CollectingWriter(long millisPerPart) {
+            this.millisPerPart = millisPerPart;
+        }
+
+        @Override
+        public void append(WordCounter wordCounter) throws WordStoreException {
+            try {
+                Thread.sleep(millisPerPart);
+            } catch (InterruptedException e) {
+                throw new WordStoreException("Interrupted.", e);
+            }
+            words.addAll(wordCounter);
+            parts++;
+        }
+
+        @Override
+        public long commit() {
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static List<String> sorted(WordCounter wordCounter) {
+        List<String> words = new ArrayList<>();
+        for (int word : wordCounter.sorted()) {
+            words.add(wordCounter.word(word) + "=" + wordCounter.count(word));
+        }
+        return words;
+    }
+}
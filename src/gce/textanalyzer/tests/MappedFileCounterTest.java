@@ -0,0 +1,161 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.controller.MappedFileCounter;
+import gce.textanalyzer.controller.StreamingFetcher;
+import gce.textanalyzer.controller.WordTokenizer;
+import gce.textanalyzer.model.WordCounter;
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class MappedFileCounterTest {
+
+    private static final String[] pieces = {"Double", "toil", "TROUBLE", "fire", "burn", "cauldron", "bubble",
+            " ", " ", " ", "  ", "\n", "\r\n", "\t", "'", ">'", ".'", "!", ",", "-", "--", "o'er",
+            "Ελλάς", "naïve", "日本語", "😀", "&amp;", "<b>", "</p>", "<br/>"};
+
+    private static Path directory;
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("textanalyzer");
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void deleteDirectory() throws IOException {
+        pool.shutdown();
+        try (Stream<Path> files = Files.walk(directory).sorted(Comparator.reverseOrder())) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Finds the same words in a mapped text or HTML file as in the same file read as a stream.")
+    void testMatchesStreamCount() throws IOException {
+        Random random = new Random(42);
+
+        for (int round = 0; round < 10; round++) {
+            // Half the files are small enough to be read rather than mapped
+            String content = randomText(random, random.nextInt(round % 2 == 0 ? 3_000 : 40_000));
+            Path textFile = write(directory.resolve("round" + round + ".txt"), content);
+            Path htmlFile = write(directory.resolve("round" + round + ".html"), content);
+
+            WordCounter expectedText = countTextStream(textFile);
+            WordCounter expectedHtml = countHtmlStream(htmlFile);
+
+            // Small regions and chunks split multi-byte characters and words in many places
+            for (int regionSize : new int[]{4093, 8191, 1 << 20}) {
+                for (int chunkSize : new int[]{1, 4096, 1 << 20}) {
+                    MappedFileCounter mappedFileCounter = new MappedFileCounter(pool, true, 12, chunkSize,
+                            regionSize, "txt");
+
+                    assertSameWords(expectedText, mappedFileCounter.count(textFile, MappedFileCounterTest::fail));
+                    assertSameWords(expectedHtml, mappedFileCounter.count(htmlFile, MappedFileCounterTest::fail));
+                }
+            }
+        }
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Walks a directory tree in name order, skipping other extensions and reporting unreadable files.")
+    void testDirectoryTree() throws IOException {
+        Path tree = Files.createDirectory(directory.resolve("tree"));
+        Files.createDirectories(tree.resolve("b/q"));
+        write(tree.resolve("a.txt"), "\uFEFFdouble double toil");
+        write(tree.resolve("b/page.html"), "<p>and <b>trouble</b></p><script>var x;</script>");
+        write(tree.resolve("b/q/spell.md"), "fire burn");
+        write(tree.resolve("b/q/image.png"), "not words");
+        write(tree.resolve("z.txt"), "and cauldron bubble");
+
+        WordCounter expected = new WordCounter();
+        for (String word : "double double toil and trouble fire burn and cauldron bubble".split(" ")) {
+            expected.add(word, 1);
+        }
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            MappedFileCounter mappedFileCounter = new MappedFileCounter(pool, parallel, 12, 1, 8, "txt,md,html");
+            assertSameWords(expected, mappedFileCounter.count(tree, MappedFileCounterTest::fail));
+        }
+
+        List<Path> errors = new ArrayList<>();
+        WordCounter missing = new MappedFileCounter(12).count(tree.resolve("missing.txt"),
+                (path, e) -> errors.add(path));
+        assertEquals(0, missing.size());
+        assertEquals(1, errors.size());
+    }
+
+    private static String randomText(Random random, int pieceCount) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < pieceCount; i++) {
+            text.append(pieces[random.nextInt(pieces.length)]);
+        }
+        return text.toString();
+    }
+
+    private static Path write(Path file, String content) throws IOException {
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static WordCounter countTextStream(Path file) throws IOException {
+        WordCounter wordCounter = new WordCounter();
+        WordTokenizer wordTokenizer = new WordTokenizer(wordCounter::add, 12);
+
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                wordTokenizer.feed(buffer, 0, read);
+            }
+        }
+
+        wordTokenizer.finish();
+        return wordCounter;
+    }
+
+    private static WordCounter countHtmlStream(Path file) throws IOException {
+        WordCounter expected = new WordCounter();
+        WordCounter truncated = new WordCounter();
+
+        try (InputStream htmlContent = Files.newInputStream(file)) {
+            new StreamingFetcher().countWords(htmlContent, StandardCharsets.UTF_8, expected::add);
+        }
+
+        // The fetcher keeps the longest words the database allows; the counter under test keeps 12 characters
+        for (int word = 0; word < expected.size(); word++) {
+            String content = expected.word(word);
+            truncated.add(content.length() > 12 ? content.substring(0, 12) : content, expected.count(word));
+        }
+        return truncated;
+    }
+
+    private static void assertSameWords(WordCounter expected, WordCounter actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.total(), actual.total());
+        for (int word = 0; word < expected.size(); word++) {
+            assertEquals(expected.word(word), actual.word(word));
+            assertEquals(expected.count(word), actual.count(word));
+        }
+    }
+
+    private static void fail(Path path, IOException e) {
+        Assertions.fail(path + ": " + e);
+    }
+}
@@ -0,0 +1,146 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.model.NGramCounter;
+import gce.textanalyzer.model.WordCounter;
+import org.junit.jupiter.api.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class NGramCounterTest {
+
+    private static final int tokenCount = 1_000_000;
+
+    private static char[][] tokens;
+
+    /**
+     * Generates a Zipf-like stream of tokens over a vocabulary of about
+     * 50,000 words, so that long phrases are mostly distinct.
+     */
+    @BeforeAll
+    static void generateTokens() {
+        Random random = new Random(42);
+        tokens = new char[tokenCount][];
+        for (int i = 0; i < tokenCount; i++) {
+            int rank = (int) Math.pow(50_000, random.nextDouble());
+            tokens[i] = ("word" + Integer.toString(rank, 36)).toCharArray();
+        }
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("The counter finds the pairs of consecutive words of a sentence.")
+    void testBigrams() {
+        NGramCounter ngramCounter = new NGramCounter(2);
+        addText(ngramCounter, "to be or not to be");
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("to be", 2);
+        expected.put("be or", 1);
+        expected.put("or not", 1);
+        expected.put("not to", 1);
+
+        assertEquals(expected, counts(ngramCounter.toWordCounter(254)));
+        assertEquals(4, ngramCounter.size());
+        assertEquals(5, ngramCounter.total());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Phrases of one word are the words of a word counter.")
+    void testSingleWords() {
+        NGramCounter ngramCounter = new NGramCounter(1);
+        WordCounter wordCounter = new WordCounter();
+
+        for (int i = 0; i < 100_000; i++) {
+            ngramCounter.add(tokens[i], 0, tokens[i].length);
+            wordCounter.add(tokens[i], 0, tokens[i].length);
+        }
+
+        assertEquals(counts(wordCounter), counts(ngramCounter.toWordCounter(254)));
+        assertEquals(wordCounter.total(), ngramCounter.total());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Packed phrases count the same as joined strings, in less memory.")
+    void testMatchesJoinedPhrases() {
+        for (int n = 2; n <= NGramCounter.MAX_N; n++) {
+            NGramCounter ngramCounter = new NGramCounter(n);
+            WordCounter joined = new WordCounter();
+            StringBuilder phrase = new StringBuilder();
+
+            for (char[] token : tokens) {
+                ngramCounter.add(token, 0, token.length);
+            }
+
+            for (int i = n - 1; i < tokens.length; i++) {
+                phrase.setLength(0);
+                for (int word = i - n + 1; word <= i; word++) {
+                    phrase.append(tokens[word]).append(' ');
+                }
+                joined.add(phrase.substring(0, phrase.length() - 1), 1);
+            }
+
+            assertEquals(counts(joined), counts(ngramCounter.toWordCounter(254)));
+            assertEquals(tokenCount - n + 1, ngramCounter.total());
+            assertTrue(ngramCounter.estimatedBytes() < joined.estimatedBytes());
+        }
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("No phrase spans the end of one text and the start of the next.")
+    void testEndOfText() {
+        NGramCounter ngramCounter = new NGramCounter(3);
+        addText(ngramCounter, "one two three");
+        ngramCounter.endOfText();
+        addText(ngramCounter, "four five");
+        ngramCounter.endOfText();
+        addText(ngramCounter, "one two three");
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("one two three", 2);
+
+        assertEquals(expected, counts(ngramCounter.toWordCounter(254)));
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("Phrases longer than the given length are left out.")
+    void testMaxLength() {
+        NGramCounter ngramCounter = new NGramCounter(2);
+        addText(ngramCounter, "a bb ccc");
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("a bb", 1);
+
+        assertEquals(expected, counts(ngramCounter.toWordCounter(5)));
+    }
+
+    @Test
+    @Order(6)
+    @DisplayName("Phrases of less than one word or more than the maximum are refused.")
+    void testInvalidLength() {
+        assertThrows(IllegalArgumentException.class, () -> new NGramCounter(0));
+        assertThrows(IllegalArgumentException.class, () -> new NGramCounter(NGramCounter.MAX_N + 1));
+    }
+
+    private static void addText(NGramCounter ngramCounter, String text) {
+        for (String word : text.split(" ")) {
+            ngramCounter.add(word.toCharArray(), 0, word.length());
+        }
+    }
+
+    private static Map<String, Integer> counts(WordCounter wordCounter) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int word = 0; word < wordCounter.size(); word++) {
+            counts.put(wordCounter.word(word), wordCounter.count(word));
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,94 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.controller.ParallelWordCounter;
+import gce.textanalyzer.controller.WordTokenizer;
+import gce.textanalyzer.model.WordCounter;
+import org.junit.jupiter.api.*;
+
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ParallelWordCounterTest {
+
+    private static final String[] pieces = {"Double", "toil", "TROUBLE", "fire", "burn", "cauldron", "bubble",
+            " ", " ", " ", "  ", "\n", "\t", "'", " '", ">'", ".'", "!", ",", "-", "--", "---", "[x]", "(y)", "a-b",
+            "o'er", "Ελλάς"};
+
+    @Test
+    @Order(1)
+    @DisplayName("Finds the same words, with the same frequencies and in the same order, as a single tokenizer.")
+    void testMatchesSequentialCount() {
+        Random random = new Random(42);
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            for (int round = 0; round < 50; round++) {
+                StringBuilder text = new StringBuilder();
+                for (int i = random.nextInt(5_000); i > 0; i--) {
+                    text.append(pieces[random.nextInt(pieces.length)]);
+                }
+
+                WordCounter expected = countSequentially(text.toString(), 12);
+                for (int chunkSize : new int[]{1, 7, 64, 1 << 20}) {
+                    WordCounter actual = new ParallelWordCounter(pool, 12, chunkSize).count(text);
+
+                    assertEquals(expected.size(), actual.size());
+                    assertEquals(expected.total(), actual.total());
+                    for (int word = 0; word < expected.size(); word++) {
+                        assertEquals(expected.word(word), actual.word(word));
+                        assertEquals(expected.count(word), actual.count(word));
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Reports the characters counted after each piece, and stops once cancelled.")
+    void testProgressAndCancellation() {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 100_000) {
+            text.append("double toil and trouble ");
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            ParallelWordCounter parallelWordCounter = new ParallelWordCounter(pool, 12, 1000);
+            AtomicLong lastProgress = new AtomicLong();
+            AtomicInteger reports = new AtomicInteger();
+
+            WordCounter wordCounter = parallelWordCounter.count(text, countedChars -> {
+                lastProgress.accumulateAndGet(countedChars, Math::max);
+                reports.incrementAndGet();
+            }, () -> false);
+            assertEquals(countSequentially(text, 12).total(), wordCounter.total());
+            assertEquals(text.length(), lastProgress.get());
+            assertTrue(reports.get() > 1);
+
+            // Cancelled once the first piece is counted
+            AtomicBoolean cancelled = new AtomicBoolean();
+            assertThrows(CancellationException.class, () -> parallelWordCounter.count(text,
+                    countedChars -> cancelled.set(true), cancelled::get));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static WordCounter countSequentially(CharSequence text, int maxTokenLength) {
+        WordCounter wordCounter = new WordCounter();
+        WordTokenizer wordTokenizer = new WordTokenizer(wordCounter::add, maxTokenLength);
+        wordTokenizer.feed(text, 0, text.length());
+        wordTokenizer.finish();
+        return wordCounter;
+    }
+}
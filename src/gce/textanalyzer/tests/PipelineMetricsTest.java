@@ -0,0 +1,97 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.metrics.Histogram;
+import gce.textanalyzer.metrics.PipelineMetrics;
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class PipelineMetricsTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("The histogram keeps exact totals and percentiles within a factor of two.")
+    void testHistogram() {
+        Histogram histogram = new Histogram();
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500_000, histogram.getSum());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean(), 0.001);
+
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= 500_000 && median < 1_000_000, Long.toString(median));
+        assertEquals(1_000_000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("The histogram can be recorded into from many threads at once.")
+    void testConcurrentRecording() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        for (int thread = 0; thread < 8; thread++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(800_000, histogram.getCount());
+        assertEquals(99_999, histogram.getMax());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("A summary covers only what was recorded since its snapshot.")
+    void testSummarySinceSnapshot() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.recordStage(PipelineMetrics.Stage.TOKENIZE, 5_000_000_000L);
+
+        PipelineMetrics.Snapshot before = metrics.snapshot();
+        metrics.recordStage(PipelineMetrics.Stage.FETCH, 2_000_000);
+        metrics.recordStage(PipelineMetrics.Stage.STORE, 3_000_000);
+
+        String summary = metrics.getSummarySince(before);
+        assertTrue(summary.contains("fetch 2 ms"), summary);
+        assertTrue(summary.contains("tokenize 0 ms"), summary);
+        assertTrue(summary.contains("store 3 ms"), summary);
+
+        assertEquals(5000, metrics.getTokenizeMillis(), 0.001);
+        metrics.reset();
+        assertEquals(0, metrics.getTokenizeMillis(), 0.001);
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("Recording is skipped when the metrics are turned off.")
+    void testDisabledMetrics() {
+        if (!PipelineMetrics.enabled) {
+            assertNull(PipelineMetrics.get());
+            assertEquals(0, PipelineMetrics.stageStarted());
+
+            // These must return right away rather than fail
+            PipelineMetrics.stageEnded(PipelineMetrics.Stage.FETCH, 0);
+            PipelineMetrics.batchExecuted(10);
+            PipelineMetrics.connectionAcquired(0);
+        } else {
+            assertNotNull(PipelineMetrics.get());
+        }
+    }
+}
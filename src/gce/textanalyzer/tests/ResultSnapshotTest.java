@@ -0,0 +1,202 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+import gce.textanalyzer.store.InMemoryWordStore;
+import gce.textanalyzer.store.ResultSnapshot;
+import gce.textanalyzer.store.WordStore;
+import gce.textanalyzer.store.WordStoreException;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ResultSnapshotTest {
+
+    private static Path directory;
+
+    @BeforeAll
+    static void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("textanalyzer");
+    }
+
+    @AfterAll
+    static void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory).sorted(Comparator.reverseOrder())) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("A snapshot reads back the same ranking, frequencies and totals as the counter it was written from.")
+    void testRoundTrip() throws IOException {
+        WordCounter wordCounter = new WordCounter();
+        String[] words = {"café", "cafe", "cafés", "caffeine", "a", "ab", "abc", "zebra", "日本", "日本語", "ça"};
+        for (int i = 0; i < words.length; i++) {
+            wordCounter.add(words[i], i % 3 + 1 + (i == 3 ? 200 : 0));
+        }
+        // Enough words for several blocks
+        for (int i = 0; i < 1000; i++) {
+            wordCounter.add("word" + i, i % 17 + 1);
+        }
+
+        Path file = directory.resolve("results" + ResultSnapshot.extension);
+        ResultSnapshot.write(file, "http://example.com/menu", wordCounter);
+        ResultSnapshot snapshot = ResultSnapshot.open(file);
+
+        assertEquals("http://example.com/menu", snapshot.getSource());
+        assertEquals(wordCounter.size(), snapshot.getUniqueWords());
+        assertEquals(wordCounter.total(), snapshot.getTotalWords());
+
+        List<WordCount> expected = ranked(wordCounter);
+        assertEquals(toStrings(expected), toStrings(snapshot.getPage(0, wordCounter.size())));
+        assertEquals(toStrings(expected.subList(100, 200)), toStrings(snapshot.getPage(100, 100)));
+        assertEquals(toStrings(expected.subList(1000, expected.size())), toStrings(snapshot.getPage(1000, 100)));
+        assertEquals(toStrings(expected.subList(0, 10)), toStrings(snapshot.getResultSummary(10).getFirstPage()));
+
+        for (WordCount word : expected) {
+            assertEquals(word.getWordFrequency(), snapshot.getFrequency(word.getWordContent()));
+        }
+        assertEquals(0, snapshot.getFrequency("caf"));
+        assertEquals(0, snapshot.getFrequency(""));
+        assertEquals(0, snapshot.getFrequency("zzz"));
+
+        assertEquals(toStrings(expected), toStrings(ranked(snapshot.toWordCounter())));
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("An exported document keeps the ranking of its word store.")
+    void testExport() throws IOException, WordStoreException {
+        WordCounter wordCounter = new WordCounter();
+        for (int i = 0; i < 25_000; i++) {
+            wordCounter.add("word" + (i % 12_345), 1);
+        }
+
+        try (WordStore wordStore = new InMemoryWordStore()) {
+            wordStore.addDocument("first", new WordCounter());
+            long documentId = wordStore.addDocument("http://example.com/", wordCounter);
+
+            Path file = directory.resolve("export" + ResultSnapshot.extension);
+            List<Integer> progress = new ArrayList<>();
+            ResultSnapshot.export(wordStore, documentId, file, progress::add);
+            ResultSnapshot snapshot = ResultSnapshot.open(file);
+
+            assertEquals("http://example.com/", snapshot.getSource());
+            assertEquals(12_345, snapshot.getUniqueWords());
+            assertEquals(25_000, snapshot.getTotalWords());
+            assertEquals(12_345, (int) progress.get(progress.size() - 1));
+            assertEquals(toStrings(wordStore.getDocumentWordPage(new long[]{documentId}, null, 5_000, 100)),
+                    toStrings(snapshot.getPage(5_000, 100)));
+        }
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("A damaged file, or one that is not a snapshot, is refused.")
+    void testDamaged() throws IOException {
+        WordCounter wordCounter = new WordCounter();
+        wordCounter.add("word", 3);
+        Path file = directory.resolve("damaged" + ResultSnapshot.extension);
+        ResultSnapshot.write(file, "", wordCounter);
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 2] ^= 1;
+        Files.write(file, bytes);
+        IOException e = assertThrows(IOException.class, () -> ResultSnapshot.open(file));
+        assertTrue(e.getMessage().contains("damaged"));
+
+        // The totals in the header are checked too
+        bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 2] ^= 1;
+        bytes[11] ^= 1;
+        Files.write(file, bytes);
+        e = assertThrows(IOException.class, () -> ResultSnapshot.open(file));
+        assertTrue(e.getMessage().contains("checksum"));
+
+        // A ranked word out of bounds is refused even when the checksum matches
+        bytes = Files.readAllBytes(file);
+        bytes[11] ^= 1;
+        int ranksStart = 40 + 1 + 4;
+        ByteBuffer.wrap(bytes).putInt(ranksStart, 1);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 8, 20);
+        crc.update(bytes, 36, bytes.length - 36);
+        ByteBuffer.wrap(bytes).putLong(28, crc.getValue());
+        Files.write(file, bytes);
+        e = assertThrows(IOException.class, () -> ResultSnapshot.open(file));
+        assertTrue(e.getMessage().contains("out of bounds"));
+
+        Path notSnapshot = directory.resolve("notes.txt");
+        Files.write(notSnapshot, "Some words that are not a snapshot of results.".getBytes());
+        assertThrows(IOException.class, () -> ResultSnapshot.open(notSnapshot));
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("A large snapshot is smaller than a plain list of its words, and opens in milliseconds.")
+    void testSizeAndOpenTime() throws IOException {
+        Random random = new Random(42);
+        WordCounter wordCounter = new WordCounter();
+        for (int i = 0; i < 5_000_000; i++) {
+            int rank = (int) Math.pow(2_000_000, random.nextDouble());
+            wordCounter.add("w" + Integer.toString(rank, 36), 1);
+        }
+
+        Path file = directory.resolve("large" + ResultSnapshot.extension);
+        ResultSnapshot.write(file, "large", wordCounter);
+
+        // The same words written as by the file word store: length, modified UTF-8 and an int
+        long listBytes = 0;
+        for (int word = 0; word < wordCounter.size(); word++) {
+            listBytes += 2 + wordCounter.word(word).length() + 4;
+        }
+
+        long start = System.nanoTime();
+        ResultSnapshot snapshot = ResultSnapshot.open(file);
+        List<WordCount> firstPage = snapshot.getResultSummary(100).getFirstPage();
+        long openMillis = (System.nanoTime() - start) / 1_000_000;
+
+        start = System.nanoTime();
+        List<WordCount> lastPage = snapshot.getPage(snapshot.getUniqueWords() - 100, 100);
+        long pageMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(Files.size(file) < listBytes);
+        // Generous bounds, so that only decoding the words up front fails them
+        assertTrue(openMillis < 1_000, "Opened with the first page in " + openMillis + " ms");
+        assertTrue(pageMillis < 100, "Read the last page in " + pageMillis + " ms");
+        assertEquals(100, firstPage.size());
+        assertEquals(100, lastPage.size());
+        assertEquals(wordCounter.count(wordCounter.sorted()[0]), firstPage.get(0).getWordFrequency());
+    }
+
+    private static List<WordCount> ranked(WordCounter wordCounter) {
+        List<WordCount> words = new ArrayList<>();
+        for (int word : wordCounter.sorted()) {
+            words.add(new WordCount(wordCounter.word(word), wordCounter.count(word)));
+        }
+        return words;
+    }
+
+    private static List<String> toStrings(List<WordCount> words) {
+        List<String> strings = new ArrayList<>();
+        for (WordCount word : words) {
+            strings.add(word.getWordContent() + "=" + word.getWordFrequency());
+        }
+        return strings;
+    }
+}
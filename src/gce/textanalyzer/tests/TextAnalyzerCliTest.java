@@ -0,0 +1,70 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.TextAnalyzerCli;
+import gce.textanalyzer.model.WordCounter;
+import gce.textanalyzer.store.ResultSnapshot;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class TextAnalyzerCliTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    private int run(String input, String... args) {
+        out.reset();
+        err.reset();
+        return new TextAnalyzerCli().run(args, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+                new PrintStream(out), new PrintStream(err));
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("The words of the standard input are written ranked, up to the --top limit.")
+    void testTopWords() {
+        assertEquals(TextAnalyzerCli.EXIT_OK, run("toil and trouble and toil and", "--top", "2"));
+        assertEquals("1\tand\t3\n2\ttoil\t2\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("A --top limit below 1, or that is not a number, is a usage error.")
+    void testInvalidTop() {
+        for (String top : new String[]{"-1", "0", "many"}) {
+            assertEquals(TextAnalyzerCli.EXIT_USAGE_ERROR, run("toil", "--top", top));
+            assertTrue(err.toString().startsWith("--top"));
+        }
+        assertEquals(TextAnalyzerCli.EXIT_USAGE_ERROR, run("toil", "--top"));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("A snapshot that is damaged is an input error, and the other inputs are still counted.")
+    void testDamagedSnapshot() throws IOException {
+        Path file = Files.createTempFile("damaged", ResultSnapshot.extension);
+        try {
+            WordCounter wordCounter = new WordCounter();
+            wordCounter.add("toil", 2);
+            ResultSnapshot.write(file, "", wordCounter);
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length - 1] ^= 1;
+            Files.write(file, bytes);
+
+            assertEquals(TextAnalyzerCli.EXIT_INPUT_ERROR, run("and", file.toString(), "-"));
+            assertEquals("1\tand\t1\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+            assertTrue(err.toString().contains("damaged"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package gce.textanalyzer.tests;
 
 import gce.textanalyzer.controller.DatabaseController;
+import gce.textanalyzer.model.WordCount;
 import org.jsoup.Jsoup;
 import org.junit.jupiter.api.*;
 
@@ -10,6 +11,11 @@ import java.io.StringReader;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -46,8 +52,9 @@ class TextAnalyzerControllerTest {
     @Test
     @Order(5)
     @DisplayName("The 'word_occurrences' schema and the 'word' table are created if they don't already exist.")
-    void testSchemaAndTableCreation() {
+    void testSchemaAndTableCreation() throws SQLException {
         DatabaseController.createSchema();
+        DatabaseController.clearWords();
     }
 
     @Test
@@ -67,12 +74,9 @@ class TextAnalyzerControllerTest {
     @Order(7)
     @DisplayName("Fetches all words from the database.")
     void testGetAllWords() throws SQLException {
-        ResultSet allWords = DatabaseController.getAllWords();
-        while (allWords.next()) {
-            System.out.println(allWords.getString("wordContent") + ": " + allWords.getInt("wordFrequency"));
+        for (WordCount word : DatabaseController.getAllWords()) {
+            System.out.println(word.getWordContent() + ": " + word.getWordFrequency());
         }
-
-        allWords.close();
     }
 
     @Test
@@ -87,8 +91,81 @@ class TextAnalyzerControllerTest {
     @Order(9)
     @DisplayName("Verify that the target URL has 18122 total words.")
     void testGetAllWordCount() throws SQLException {
-        int allWords = DatabaseController.getAllWordCount();
+        long allWords = DatabaseController.getAllWordCount();
         assertEquals(18122, allWords);
     }
 
-}
\ No newline at end of file
+    @Test
+    @Order(10)
+    @DisplayName("Batched storage produces the same table as per-token storage.")
+    void testBatchedStorageMatchesPerTokenStorage() throws IOException, SQLException {
+        String targetHtmlContent = Jsoup.connect(validUrl).get().text();
+
+        DatabaseController.clearWords();
+        DatabaseController.storeWordsPerToken(new BufferedReader(new StringReader(targetHtmlContent)));
+        Map<String, Long> perTokenWords = readAllWords();
+
+        DatabaseController.clearWords();
+        DatabaseController.storeWordsIntoDatabase(new BufferedReader(new StringReader(targetHtmlContent)));
+        Map<String, Long> batchedWords = readAllWords();
+
+        assertEquals(perTokenWords, batchedWords);
+    }
+
+    @Test
+    @Order(11)
+    @DisplayName("Pooled connections are returned to the pool when closed.")
+    void testPooledConnections() throws SQLException {
+        Connection first = DatabaseController.getConnection();
+        Connection second = DatabaseController.getConnection();
+        assertTrue(first.isValid(2));
+        assertTrue(second.isValid(2));
+
+        first.close();
+        second.close();
+        assertTrue(first.isClosed());
+
+        try (Connection reused = DatabaseController.getConnection();
+             Statement statement = reused.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT 1")) {
+            assertTrue(reused.isValid(2));
+            // Statements lead back to the pooled connection, not to the physical one
+            assertTrue(statement.getConnection() == reused);
+            assertTrue(resultSet.getStatement().getConnection() == reused);
+        }
+    }
+
+    @Test
+    @Order(12)
+    @DisplayName("Reading the words a page at a time returns the same ranking as reading them all.")
+    void testKeysetPagination() throws SQLException {
+        List<WordCount> allWords = DatabaseController.getAllWords();
+        List<WordCount> pagedWords = new ArrayList<>();
+        WordCount lastWord = null;
+        List<WordCount> page;
+
+        do {
+            page = DatabaseController.getWordPage(lastWord, pagedWords.size(), 250);
+            pagedWords.addAll(page);
+            lastWord = page.isEmpty() ? null : page.get(page.size() - 1);
+        } while (page.size() == 250);
+
+        assertEquals(allWords.size(), pagedWords.size());
+        for (int rank = 0; rank < allWords.size(); rank++) {
+            assertEquals(allWords.get(rank).getWordContent(), pagedWords.get(rank).getWordContent());
+            assertEquals(allWords.get(rank).getWordFrequency(), pagedWords.get(rank).getWordFrequency());
+        }
+
+        List<WordCount> offsetPage = DatabaseController.getWordPage(null, 500, 250);
+        assertEquals(allWords.get(500).getWordContent(), offsetPage.get(0).getWordContent());
+    }
+
+    private static Map<String, Long> readAllWords() throws SQLException {
+        Map<String, Long> words = new HashMap<>();
+        for (WordCount word : DatabaseController.getAllWords()) {
+            words.put(word.getWordContent(), word.getWordFrequency());
+        }
+
+        return words;
+    }
+}
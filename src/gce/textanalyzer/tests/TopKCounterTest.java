@@ -0,0 +1,131 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.model.TopKCounter;
+import gce.textanalyzer.model.WordCounter;
+import org.junit.jupiter.api.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class TopKCounterTest {
+
+    /**
+     * Counts a Zipf-like stream of words over a large vocabulary both exactly
+     * and with the given number of counters.
+     *
+     * @param checkRanking Whether there are enough counters to find the 10
+     *                     most frequent words
+     */
+    private static void checkAgainstExactCounts(int capacity, boolean checkRanking) {
+        Random random = new Random(capacity);
+        WordCounter exact = new WordCounter();
+        TopKCounter topKCounter = new TopKCounter(capacity);
+
+        for (int i = 0; i < 1_000_000; i++) {
+            char[] token = Integer.toString((int) Math.pow(500_000, random.nextDouble()), 36).toCharArray();
+            exact.add(token, 0, token.length);
+            topKCounter.add(token, 0, token.length);
+        }
+
+        Map<String, Integer> estimated = new HashMap<>();
+        long estimatedTotal = 0;
+        for (int word = 0; word < topKCounter.size(); word++) {
+            String content = topKCounter.word(word);
+            int actual = exact.count(exact.indexOf(content.toCharArray(), 0, content.length()));
+
+            // Never underestimated, and overestimated by at most the recorded error
+            assertTrue(topKCounter.count(word) >= actual);
+            assertTrue(topKCounter.count(word) - topKCounter.error(word) <= actual);
+            assertTrue(topKCounter.error(word) <= topKCounter.getMaxError());
+
+            assertNull(estimated.put(content, topKCounter.count(word)));
+            estimatedTotal += topKCounter.count(word);
+        }
+
+        assertEquals(capacity, topKCounter.size());
+        assertEquals(exact.total(), topKCounter.total());
+        assertEquals(topKCounter.total(), estimatedTotal);
+        assertTrue(topKCounter.getMaxError() <= topKCounter.total() / capacity);
+
+        // Every word more frequent than the guarantee is monitored
+        for (int word = 0; word < exact.size(); word++) {
+            if (exact.count(word) > topKCounter.total() / capacity) {
+                assertTrue(estimated.containsKey(exact.word(word)), exact.word(word));
+            }
+        }
+
+        if (!checkRanking) {
+            return;
+        }
+
+        // The most frequent words are found, though close frequencies may swap ranks
+        Map<String, Integer> estimatedTop = new HashMap<>();
+        for (int word : topKCounter.top(20)) {
+            estimatedTop.put(topKCounter.word(word), topKCounter.count(word));
+        }
+        for (int word : exact.top(10)) {
+            assertTrue(estimatedTop.containsKey(exact.word(word)), exact.word(word));
+        }
+        assertEquals(exact.word(exact.top(1)[0]), topKCounter.word(topKCounter.top(1)[0]));
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Frequencies stay within the Space-Saving error bounds with few counters.")
+    void testErrorBoundsWithFewCounters() {
+        checkAgainstExactCounts(100, false);
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Frequencies stay within the Space-Saving error bounds with many counters.")
+    void testErrorBoundsWithManyCounters() {
+        checkAgainstExactCounts(4000, true);
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Words are counted exactly while there are fewer of them than counters.")
+    void testExactBelowCapacity() {
+        TopKCounter topKCounter = new TopKCounter(8);
+        for (String word : "fair is foul and foul is fair".split(" ")) {
+            topKCounter.add(word.toCharArray(), 0, word.length());
+        }
+
+        assertEquals(4, topKCounter.size());
+        assertEquals(0, topKCounter.getMaxError());
+
+        int[] top = topKCounter.top(2);
+        assertEquals(2, top.length);
+        assertEquals(2, topKCounter.count(top[0]));
+        assertEquals(0, topKCounter.error(top[0]));
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("Words with the same frequency are ranked alphabetically, and a negative limit returns none.")
+    void testTiesAndNegativeLimit() {
+        TopKCounter topKCounter = new TopKCounter(8);
+        WordCounter exact = new WordCounter();
+        for (String word : "when shall we three meet again shall we meet".split(" ")) {
+            topKCounter.add(word.toCharArray(), 0, word.length());
+            exact.add(word.toCharArray(), 0, word.length());
+        }
+
+        int[] top = topKCounter.top(8);
+        int[] exactTop = exact.top(8);
+        assertEquals(exactTop.length, top.length);
+        for (int rank = 0; rank < top.length; rank++) {
+            assertEquals(exact.word(exactTop[rank]), topKCounter.word(top[rank]));
+        }
+        assertEquals("meet", topKCounter.word(top[0]));
+        assertEquals("again", topKCounter.word(top[3]));
+
+        assertEquals(0, topKCounter.top(-1).length);
+        assertEquals(0, topKCounter.top(0).length);
+    }
+}
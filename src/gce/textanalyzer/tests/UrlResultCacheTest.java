@@ -0,0 +1,185 @@
+package gce.textanalyzer.tests;
+
+import com.sun.net.httpserver.HttpServer;
+import gce.textanalyzer.controller.BatchAnalyzer;
+import gce.textanalyzer.controller.UrlResultCache;
+import gce.textanalyzer.model.WordCounter;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UrlResultCacheTest {
+
+    private static HttpServer server;
+    private static String baseUrl;
+    private static final AtomicInteger version = new AtomicInteger(1);
+    private static final AtomicInteger fullResponses = new AtomicInteger();
+
+    /**
+     * Starts a local HTTP server that serves {@code /page} with an
+     * {@code ETag} naming its current version, and answers
+     * {@code 304 Not Modified} when the request names that version.
+     */
+    @BeforeAll
+    static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/page", exchange -> {
+            String eTag = "\"v" + version.get() + "\"";
+            exchange.getResponseHeaders().set("ETag", eTag);
+
+            if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            fullResponses.incrementAndGet();
+            StringBuilder html = new StringBuilder("<html><body><p>Cauldron");
+            for (int i = version.get(); i > 0; i--) {
+                html.append(" witch");
+            }
+            html.append("</p></body></html>");
+
+            byte[] body = html.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    @DisplayName("Reuses the cached words while the server answers 304, and counts the page again once it changes.")
+    void testRevalidation() throws InterruptedException {
+        UrlResultCache cache = UrlResultCache.getShared();
+        long hitsBefore = cache.getHits();
+        long missesBefore = cache.getMisses();
+        version.set(1);
+        fullResponses.set(0);
+
+        BatchAnalyzer.BatchResult first = analyze();
+        assertFalse(first.isCacheHit());
+        assertEquals(2, first.getWordCounter().size());
+
+        BatchAnalyzer.BatchResult second = analyze();
+        assertTrue(second.isCacheHit());
+        assertEquals(2, second.getWordCounter().total());
+        assertEquals(1, fullResponses.get());
+
+        version.set(3);
+        assertFalse(analyze().isCacheHit());
+        BatchAnalyzer.BatchResult changed = analyze();
+        assertTrue(changed.isCacheHit());
+        assertEquals(4, changed.getWordCounter().total());
+        assertEquals(2, fullResponses.get());
+        assertEquals(hitsBefore + 2, cache.getHits());
+        assertEquals(missesBefore + 2, cache.getMisses());
+    }
+
+    @Test
+    @DisplayName("Keeps the results of each mode apart, so a page counted with Jsoup is not reused when streamed.")
+    void testModes() {
+        UrlResultCache cache = new UrlResultCache(8, 1 << 20, null);
+        cache.put("http://a.example/", UrlResultCache.JSOUP, "\"a\"", null, counter("alpha"));
+
+        assertNull(cache.get("http://a.example/", UrlResultCache.STREAM));
+        assertEquals(UrlResultCache.JSOUP, cache.get("http://a.example/", UrlResultCache.JSOUP).getMode());
+
+        cache.put("http://a.example/", UrlResultCache.STREAM, "\"a\"", null, counter("beta"));
+        assertEquals(2, cache.size());
+        assertEquals("alpha", cache.get("http://a.example/", UrlResultCache.JSOUP).getWordCounter().word(0));
+        assertEquals("beta", cache.get("http://a.example/", UrlResultCache.STREAM).getWordCounter().word(0));
+    }
+
+    @Test
+    @DisplayName("Treats URLs that differ only in case, default port or fragment as the same.")
+    void testNormalize() {
+        assertEquals("http://example.com/", UrlResultCache.normalize("HTTP://Example.COM"));
+        assertEquals("http://example.com/Page?a=1", UrlResultCache.normalize("http://example.com:80/Page?a=1#top"));
+        assertEquals("https://example.com:8443/", UrlResultCache.normalize("https://example.com:8443"));
+    }
+
+    @Test
+    @DisplayName("Evicts the least recently used results, and does not cache results without validators.")
+    void testEviction() {
+        UrlResultCache cache = new UrlResultCache(2, 1 << 20, null);
+        cache.put("http://a.example/", UrlResultCache.JSOUP, "\"a\"", null, counter("alpha"));
+        cache.put("http://b.example/", UrlResultCache.JSOUP, "\"b\"", null, counter("beta"));
+        assertNotNull(cache.get("http://a.example/", UrlResultCache.JSOUP));
+
+        cache.put("http://c.example/", UrlResultCache.JSOUP, null, "Tue, 01 Jan 2030 00:00:00 GMT",
+                counter("gamma"));
+        cache.put("http://d.example/", UrlResultCache.JSOUP, null, null, counter("delta"));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("http://a.example/", UrlResultCache.JSOUP));
+        assertNull(cache.get("http://b.example/", UrlResultCache.JSOUP));
+        assertNotNull(cache.get("http://c.example/", UrlResultCache.JSOUP));
+        assertNull(cache.get("http://d.example/", UrlResultCache.JSOUP));
+
+        // A limit on memory evicts just as a limit on the number of results does
+        UrlResultCache smallCache = new UrlResultCache(8, counter("alpha").estimatedBytes() * 3 / 2, null);
+        smallCache.put("http://a.example/", UrlResultCache.JSOUP, "\"a\"", null, counter("alpha"));
+        smallCache.put("http://b.example/", UrlResultCache.JSOUP, "\"b\"", null, counter("beta"));
+        assertEquals(1, smallCache.size());
+        assertNotNull(smallCache.get("http://b.example/", UrlResultCache.JSOUP));
+    }
+
+    @Test
+    @DisplayName("Reloads the saved results, with their validators, from the cache directory.")
+    void testPersistence() throws IOException {
+        Path directory = Files.createTempDirectory("url-cache");
+
+        UrlResultCache cache = new UrlResultCache(2, 1 << 20, directory);
+        cache.put("http://a.example/", UrlResultCache.JSOUP, "\"a\"", null, counter("alpha"));
+        cache.put("http://b.example/", UrlResultCache.JSOUP, null, "Tue, 01 Jan 2030 00:00:00 GMT",
+                counter("beta"));
+        cache.put("http://c.example/", UrlResultCache.JSOUP, "\"c\"", null, counter("gamma"));
+
+        UrlResultCache reloaded = new UrlResultCache(2, 1 << 20, directory);
+        assertEquals(2, reloaded.size());
+        assertNull(reloaded.get("http://a.example/", UrlResultCache.JSOUP));
+
+        UrlResultCache.Entry entry = reloaded.get("http://b.example/", UrlResultCache.JSOUP);
+        assertNull(entry.getETag());
+        assertEquals("Tue, 01 Jan 2030 00:00:00 GMT", entry.getLastModified());
+        assertEquals(3, entry.getWordCounter().total());
+        assertEquals("\"c\"", reloaded.get("http://c.example/", UrlResultCache.JSOUP).getETag());
+    }
+
+    /**
+     * Analyzes the test page on its own, with the shared cache.
+     */
+    private static BatchAnalyzer.BatchResult analyze() throws InterruptedException {
+        BatchAnalyzer.BatchResult batchResult = new BatchAnalyzer(1, 1).analyze(
+                Collections.singletonList(baseUrl + "/page"), urlResult -> {
+                });
+        assertNull(batchResult.getUrlResults().get(0).getError());
+        return batchResult;
+    }
+
+    private static WordCounter counter(String word) {
+        WordCounter wordCounter = new WordCounter();
+        wordCounter.add(word, 3);
+        return wordCounter;
+    }
+}
@@ -0,0 +1,166 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.model.WordCounter;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class WordCounterTest {
+
+    private static final int tokenCount = 2_000_000;
+
+    private static char[][] tokens;
+
+    /**
+     * Generates a Zipf-like stream of tokens over a vocabulary of about
+     * 200,000 words, the shape of word frequencies in natural text.
+     */
+    @BeforeAll
+    static void generateTokens() {
+        Random random = new Random(42);
+        tokens = new char[tokenCount][];
+        for (int i = 0; i < tokenCount; i++) {
+            int rank = (int) Math.pow(200_000, random.nextDouble());
+            tokens[i] = Integer.toString(rank, 36).toCharArray();
+        }
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("The counter counts the same words and frequencies as a HashMap.")
+    void testCountsMatchHashMap() {
+        WordCounter wordCounter = new WordCounter();
+        Map<String, Integer> expected = new HashMap<>();
+
+        for (char[] token : tokens) {
+            wordCounter.add(token, 0, token.length);
+            expected.merge(new String(token), 1, Integer::sum);
+        }
+
+        Map<String, Integer> actual = new HashMap<>();
+        for (int word = 0; word < wordCounter.size(); word++) {
+            actual.put(wordCounter.word(word), wordCounter.count(word));
+        }
+
+        assertEquals(expected, actual);
+        assertEquals(tokenCount, wordCounter.total());
+
+        // Lookups work from any range of a buffer
+        char[] buffer = ("  " + wordCounter.word(0) + "  ").toCharArray();
+        assertEquals(0, wordCounter.indexOf(buffer, 2, buffer.length - 4));
+        assertEquals(-1, wordCounter.indexOf(buffer, 0, buffer.length));
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Sorted iteration ranks by frequency, then alphabetically.")
+    void testSorted() {
+        WordCounter wordCounter = new WordCounter();
+        for (char[] token : tokens) {
+            wordCounter.add(token, 0, token.length);
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int word = 0; word < wordCounter.size(); word++) {
+            expected.add(wordCounter.word(word));
+        }
+        expected.sort((first, second) -> {
+            int firstCount = wordCounter.count(wordCounter.indexOf(first.toCharArray(), 0, first.length()));
+            int secondCount = wordCounter.count(wordCounter.indexOf(second.toCharArray(), 0, second.length()));
+            return firstCount != secondCount ? Integer.compare(secondCount, firstCount) : first.compareTo(second);
+        });
+
+        List<String> actual = new ArrayList<>();
+        for (int word : wordCounter.sorted()) {
+            actual.add(wordCounter.word(word));
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Subtracting a counter removes the words that no longer occur, and keeps the others reachable.")
+    void testSubtractAll() {
+        WordCounter wordCounter = new WordCounter();
+        WordCounter removed = new WordCounter();
+        for (int i = 0; i < 10_000; i++) {
+            wordCounter.add("word" + i, 2);
+            if (i % 3 == 0) {
+                removed.add("word" + i, i % 2 == 0 ? 2 : 1);
+            }
+        }
+
+        wordCounter.subtractAll(removed);
+
+        assertEquals(10_000 - 1667, wordCounter.size());
+        assertEquals(2 * 10_000 - removed.total(), wordCounter.total());
+        assertEquals("word1", wordCounter.word(0));
+        for (int i = 0; i < 10_000; i++) {
+            char[] word = ("word" + i).toCharArray();
+            int index = wordCounter.indexOf(word, 0, word.length);
+            if (i % 6 == 0) {
+                assertEquals(-1, index);
+            } else {
+                assertEquals(i % 3 == 0 ? 1 : 2, wordCounter.count(index));
+            }
+        }
+
+        // Removed words can be added back
+        wordCounter.add("word0", 5);
+        assertEquals(5, wordCounter.count(wordCounter.size() - 1));
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("The most frequent words are the first words of the sorted ranking, ties included.")
+    void testTopMatchesSorted() {
+        WordCounter wordCounter = new WordCounter();
+        for (char[] token : tokens) {
+            wordCounter.add(token, 0, token.length);
+        }
+        // Words added in reverse alphabetical order, with the same frequency
+        for (String word : new String[]{"zz-tie", "mm-tie", "aa-tie"}) {
+            wordCounter.add(word, 1_000_000);
+        }
+
+        int[] sorted = wordCounter.sorted();
+        for (int n : new int[]{0, 1, 3, 100, wordCounter.size()}) {
+            assertArrayEquals(Arrays.copyOf(sorted, n), wordCounter.top(n));
+        }
+        assertEquals("aa-tie", wordCounter.word(wordCounter.top(1)[0]));
+        assertEquals(0, wordCounter.top(-1).length);
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("The counter takes less memory than a HashMap of the same words.")
+    void testMemoryAgainstHashMap() {
+        WordCounter wordCounter = countWithWordCounter();
+
+        // At least a HashMap entry, its String and char array, the boxed count and a table slot per word,
+        // in a 64-bit JVM with compressed pointers
+        long hashMapBytes = 0;
+        for (int word = 0; word < wordCounter.size(); word++) {
+            hashMapBytes += 32 + 24 + 16 + 2L * wordCounter.word(word).length() + 16 + 4;
+        }
+
+        assertTrue(wordCounter.estimatedBytes() < hashMapBytes);
+    }
+
+    private static WordCounter countWithWordCounter() {
+        WordCounter wordCounter = new WordCounter();
+        for (char[] token : tokens) {
+            wordCounter.add(token, 0, token.length);
+        }
+        return wordCounter;
+    }
+}
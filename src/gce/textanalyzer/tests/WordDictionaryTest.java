@@ -0,0 +1,46 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.controller.WordDictionary;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class WordDictionaryTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("Cached numbers are found, and lookups are counted as hits or misses.")
+    void testLookup() {
+        WordDictionary wordDictionary = new WordDictionary(10);
+        assertNull(wordDictionary.get("double"));
+
+        wordDictionary.put("double", 1);
+        wordDictionary.put("toil", 2);
+        assertEquals(Integer.valueOf(1), wordDictionary.get("double"));
+        assertEquals(Integer.valueOf(2), wordDictionary.get("toil"));
+        assertNull(wordDictionary.get("trouble"));
+
+        assertEquals(2, wordDictionary.size());
+        assertEquals(2, wordDictionary.getHits());
+        assertEquals(2, wordDictionary.getMisses());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("The least recently used words are evicted once the dictionary is full.")
+    void testEviction() {
+        WordDictionary wordDictionary = new WordDictionary(2);
+        wordDictionary.put("double", 1);
+        wordDictionary.put("toil", 2);
+
+        // Using "double" makes "toil" the least recently used word
+        wordDictionary.get("double");
+        wordDictionary.put("trouble", 3);
+
+        assertEquals(2, wordDictionary.size());
+        assertNull(wordDictionary.get("toil"));
+        assertEquals(Integer.valueOf(1), wordDictionary.get("double"));
+        assertEquals(Integer.valueOf(3), wordDictionary.get("trouble"));
+    }
+}
@@ -0,0 +1,147 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.model.WordCounter;
+import gce.textanalyzer.model.WordSketch;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class WordSketchTest {
+
+    /**
+     * Adds a Zipf-like stream of words to both a sketch and an exact counter.
+     */
+    private static void addWords(long seed, int tokenCount, WordSketch wordSketch, WordCounter wordCounter) {
+        Random random = new Random(seed);
+        for (int i = 0; i < tokenCount; i++) {
+            char[] token = Integer.toString((int) Math.pow(300_000, random.nextDouble()), 36).toCharArray();
+            wordSketch.add(token, 0, token.length);
+            wordCounter.add(token, 0, token.length);
+        }
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Estimated frequencies are never too low and stay within the Count-Min error bound.")
+    void testFrequencyEstimates() {
+        WordSketch wordSketch = new WordSketch(1 << 14, 4, 14);
+        WordCounter wordCounter = new WordCounter();
+        addWords(1, 1_000_000, wordSketch, wordCounter);
+
+        double maxError = wordSketch.getCountMinSketch().getRelativeError() * wordSketch.total();
+        int outsideBound = 0;
+
+        for (int word = 0; word < wordCounter.size(); word++) {
+            long estimate = wordSketch.estimateCount(wordCounter.word(word));
+            assertTrue(estimate >= wordCounter.count(word));
+            if (estimate - wordCounter.count(word) > maxError) {
+                outsideBound++;
+            }
+        }
+
+        // The bound holds with a probability of 1 - e^-depth, about 98%
+        assertTrue(outsideBound < wordCounter.size() * 0.02, outsideBound + " estimates outside the bound");
+        assertEquals(wordCounter.total(), wordSketch.total());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("The estimated number of unique words is within three standard errors.")
+    void testUniqueWordEstimate() {
+        for (int tokenCount : new int[]{100, 10_000, 1_000_000}) {
+            WordSketch wordSketch = new WordSketch(1024, 2, 14);
+            WordCounter wordCounter = new WordCounter();
+            addWords(tokenCount, tokenCount, wordSketch, wordCounter);
+
+            double error = Math.abs(wordSketch.estimateUniqueWords() - wordCounter.size()) / (double) wordCounter.size();
+            assertTrue(error < 3 * wordSketch.getHyperLogLog().getStandardError());
+        }
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Merging sketches gives the same sketch as adding all the words to one.")
+    void testMerge() {
+        WordSketch first = new WordSketch(4096, 4, 12);
+        WordSketch second = new WordSketch(4096, 4, 12);
+        WordSketch combined = new WordSketch(4096, 4, 12);
+
+        addWords(1, 50_000, first, new WordCounter());
+        addWords(2, 50_000, second, new WordCounter());
+        addWords(1, 50_000, combined, new WordCounter());
+        addWords(2, 50_000, combined, new WordCounter());
+
+        first.merge(second);
+
+        assertEquals(combined.getCountMinSketch(), first.getCountMinSketch());
+        assertEquals(combined.getHyperLogLog(), first.getHyperLogLog());
+        assertEquals(combined.estimateUniqueWords(), first.estimateUniqueWords());
+        assertEquals(combined.total(), first.total());
+
+        assertThrows(IllegalArgumentException.class, () -> first.merge(new WordSketch(1024, 4, 12)));
+        assertNotEquals(first.getCountMinSketch(), new WordSketch(4096, 2, 12).getCountMinSketch());
+
+        // A sketch that cannot be merged leaves this one unchanged
+        assertThrows(IllegalArgumentException.class, () -> first.merge(new WordSketch(4096, 4, 10)));
+        assertEquals(combined.getCountMinSketch(), first.getCountMinSketch());
+        assertEquals(combined.total(), first.total());
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("A saved sketch is loaded unchanged.")
+    void testSaveAndLoad() throws IOException {
+        WordSketch wordSketch = new WordSketch(4096, 4, 12);
+        WordCounter wordCounter = new WordCounter();
+        addWords(3, 50_000, wordSketch, wordCounter);
+
+        Path file = Files.createTempFile("textanalyzer", ".sketch");
+        try {
+            wordSketch.save(file);
+            WordSketch loaded = WordSketch.load(file);
+
+            assertEquals(wordSketch.getCountMinSketch(), loaded.getCountMinSketch());
+            assertEquals(wordSketch.estimateUniqueWords(), loaded.estimateUniqueWords());
+            assertEquals(wordSketch.total(), loaded.total());
+            assertEquals(wordSketch.estimateCount(wordCounter.word(0)), loaded.estimateCount(wordCounter.word(0)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("Loading a file that does not hold a valid sketch throws an IOException.")
+    void testLoadInvalid() throws IOException {
+        WordSketch wordSketch = new WordSketch(64, 2, 4);
+        addWords(4, 1000, wordSketch, new WordCounter());
+
+        Path file = Files.createTempFile("textanalyzer", ".sketch");
+        try {
+            wordSketch.save(file);
+            byte[] saved = Files.readAllBytes(file);
+
+            // Truncated, with a huge width, and not a sketch at all
+            Files.write(file, Arrays.copyOf(saved, saved.length - 1));
+            assertThrows(IOException.class, () -> WordSketch.load(file));
+
+            byte[] hugeWidth = saved.clone();
+            hugeWidth[16] = 0x7f;
+            Files.write(file, hugeWidth);
+            assertThrows(IOException.class, () -> WordSketch.load(file));
+
+            Files.write(file, "toil and trouble".getBytes(StandardCharsets.UTF_8));
+            assertThrows(IOException.class, () -> WordSketch.load(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
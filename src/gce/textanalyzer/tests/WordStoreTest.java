@@ -0,0 +1,453 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.model.Document;
+import gce.textanalyzer.model.ResultSummary;
+import gce.textanalyzer.model.WordCount;
+import gce.textanalyzer.model.WordCounter;
+import gce.textanalyzer.store.FileWordStore;
+import gce.textanalyzer.store.InMemoryWordStore;
+import gce.textanalyzer.store.DictionaryWordStore;
+import gce.textanalyzer.store.DocumentWriter;
+import gce.textanalyzer.store.MySqlWordStore;
+import gce.textanalyzer.store.WordStore;
+import gce.textanalyzer.store.WordStoreException;
+import gce.textanalyzer.store.WordStores;
+import org.junit.jupiter.api.*;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class WordStoreTest {
+
+    private static Path directory;
+
+    @BeforeAll
+    static void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("textanalyzer");
+    }
+
+    @AfterAll
+    static void deleteDirectory() throws IOException {
+        // Document directories are listed after the files in them
+        try (Stream<Path> files = Files.walk(directory).sorted(Comparator.reverseOrder())) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("The in-memory store ranks, pages and totals the words it is given.")
+    void testInMemoryStore() throws WordStoreException {
+        try (WordStore wordStore = new InMemoryWordStore()) {
+            checkStore(wordStore);
+        }
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("The file-backed store ranks, pages and totals the words it is given.")
+    void testFileStore() throws WordStoreException {
+        try (WordStore wordStore = new FileWordStore(directory.resolve("check.db"))) {
+            checkStore(wordStore);
+        }
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("The file-backed store keeps its words when reopened, even without a clean close.")
+    void testFileStoreRecovery() throws WordStoreException, IOException {
+        Path file = directory.resolve("recovery.db");
+
+        try (WordStore wordStore = new FileWordStore(file)) {
+            wordStore.clear();
+            wordStore.merge(sampleWords());
+        }
+
+        // Simulate a crash after a complete log record and a partly written one
+        try (DataOutputStream log = new DataOutputStream(
+                new FileOutputStream(file.resolveSibling("recovery.db.log").toFile(), true))) {
+            log.writeByte(0);
+            log.writeUTF("toil");
+            log.writeInt(3);
+            log.write(new byte[]{0, 0, 10, 't', 'r'});
+        }
+
+        try (WordStore reopened = new FileWordStore(file)) {
+            assertEquals(sampleWords().size(), reopened.getUniqueWordCount());
+            assertEquals(sampleWords().total() + 3, reopened.getTotalWordCount());
+            assertEquals("toil", reopened.getTopWords(1).get(0).getWordContent());
+            assertEquals(5, reopened.getTopWords(1).get(0).getWordFrequency());
+
+            reopened.increment("trouble", 1);
+        }
+
+        try (WordStore reopened = new FileWordStore(file)) {
+            assertEquals(sampleWords().total() + 4, reopened.getTotalWordCount());
+        }
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("The file-backed store keeps its documents when reopened, and the aggregate stays in step.")
+    void testFileStoreDocuments() throws WordStoreException, IOException {
+        Path file = directory.resolve("documents.db");
+        long first;
+
+        try (WordStore wordStore = new FileWordStore(file)) {
+            wordStore.clear();
+            first = wordStore.addDocument("first", sampleWords());
+            wordStore.addDocument("second", sampleWords());
+        }
+
+        try (WordStore reopened = new FileWordStore(file)) {
+            assertEquals(2, reopened.getDocuments().size());
+            assertEquals("first", reopened.getDocuments().get(0).getDocumentSource());
+            assertEquals(2 * sampleWords().total(), reopened.getTotalWordCount());
+
+            assertTrue(reopened.removeDocument(first));
+            long third = reopened.addDocument("third", sampleWords());
+            assertTrue(third > first);
+        }
+
+        try (WordStore reopened = new FileWordStore(file)) {
+            assertEquals(2, reopened.getDocuments().size());
+            assertEquals(2 * sampleWords().total(), reopened.getTotalWordCount());
+            assertEquals(sampleWords().size(), reopened.getUniqueWordCount());
+        }
+
+        // Documents are added to the log, not the snapshot, and are found again after a crash
+        Path crashed = directory.resolve("documents-crashed.db");
+        try (WordStore wordStore = new FileWordStore(file)) {
+            byte[] snapshot = Files.readAllBytes(file);
+            long fourth = wordStore.addDocument("fourth", sampleWords());
+            wordStore.addDocument("fifth", sampleWords());
+            assertTrue(wordStore.removeDocument(fourth));
+            assertArrayEquals(snapshot, Files.readAllBytes(file));
+
+            copyStore(file, crashed);
+        }
+
+        try (WordStore reopened = new FileWordStore(crashed)) {
+            assertEquals(3, reopened.getDocuments().size());
+            assertEquals("fifth", reopened.getDocuments().get(2).getDocumentSource());
+            assertEquals(3 * sampleWords().total(), reopened.getTotalWordCount());
+            assertEquals(sampleWords().size(), reopened.getUniqueWordCount());
+        }
+        try (Stream<Path> documentFiles = Files.list(crashed.resolveSibling("documents-crashed.db.documents"))) {
+            assertEquals(3, documentFiles.count());
+        }
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("The MySQL store ranks, pages and totals the words it is given.")
+    void testMySqlStore() throws WordStoreException {
+        try (WordStore wordStore = new MySqlWordStore()) {
+            checkStore(wordStore);
+        }
+    }
+
+    @Test
+    @Order(6)
+    @DisplayName("The dictionary-encoded MySQL store ranks, pages and totals the words it is given.")
+    void testDictionaryStore() throws WordStoreException {
+        try (WordStore wordStore = new DictionaryWordStore()) {
+            checkStore(wordStore);
+        }
+    }
+
+    @Test
+    @Order(7)
+    @DisplayName("Every store ranks a large vocabulary the same way.")
+    void testLargeVocabulary() throws WordStoreException {
+        WordCounter wordCounter = new WordCounter();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            wordCounter.add("word" + (int) Math.abs(random.nextGaussian() * 20_000), 1);
+        }
+
+        for (String engine : new String[]{"memory", "file", "mysql", "dictionary"}) {
+            try (WordStore wordStore = openStore(engine)) {
+                wordStore.clear();
+                wordStore.merge(wordCounter);
+
+                List<WordCount> topWords = wordStore.getTopWords(100);
+                assertEquals(wordCounter.count(wordCounter.top(1)[0]), topWords.get(0).getWordFrequency());
+                assertEquals(wordCounter.size(), wordStore.getUniqueWordCount());
+                assertEquals(wordCounter.total(), wordStore.getTotalWordCount());
+            }
+        }
+    }
+
+    @Test
+    @Order(8)
+    @DisplayName("The file-backed store is left whole by a crash at any point of a write.")
+    void testFileStoreCrash() throws WordStoreException, IOException {
+        Path file = directory.resolve("crash.db");
+        Path logFile = file.resolveSibling("crash.db.log");
+        Path documentDirectory = file.resolveSibling("crash.db.documents");
+
+        try (WordStore wordStore = new FileWordStore(file)) {
+            wordStore.clear();
+            wordStore.addDocument("kept", sampleWords());
+        }
+        byte[] snapshot = Files.readAllBytes(file);
+        byte[] log = Files.readAllBytes(logFile);
+
+        // A crash after a document was written but before the snapshot including it replaced the old one
+        try (WordStore wordStore = new FileWordStore(file)) {
+            wordStore.addDocument("lost", sampleWords());
+        }
+        Files.write(file, snapshot);
+        Files.write(logFile, log);
+
+        try (WordStore reopened = new FileWordStore(file)) {
+            assertEquals(1, reopened.getDocuments().size());
+            assertEquals("kept", reopened.getDocuments().get(0).getDocumentSource());
+            assertEquals(sampleWords().total(), reopened.getTotalWordCount());
+        }
+        try (Stream<Path> documentFiles = Files.list(documentDirectory)) {
+            assertEquals(1, documentFiles.count());
+        }
+
+        // A crash after a snapshot replaced the old one but before the log it includes was emptied
+        try (WordStore wordStore = new FileWordStore(file)) {
+            wordStore.merge(sampleWords());
+            log = Files.readAllBytes(logFile);
+        }
+        Files.write(logFile, log);
+
+        try (WordStore reopened = new FileWordStore(file)) {
+            assertEquals(2 * sampleWords().total(), reopened.getTotalWordCount());
+            assertEquals(sampleWords().total(), reopened.getDocuments().get(0).getTotalWords());
+        }
+
+        // A crash after a snapshot replaced the old one but before the header of its new log was written
+        long total = 2 * sampleWords().total();
+        for (int logBytes : new int[]{0, 5}) {
+            new FileWordStore(file).close();
+            Files.write(logFile, Arrays.copyOf(Files.readAllBytes(logFile), logBytes));
+
+            try (WordStore reopened = new FileWordStore(file)) {
+                assertEquals(total, reopened.getTotalWordCount());
+                reopened.increment("again", 1);
+                total++;
+            }
+        }
+    }
+
+    @Test
+    @Order(9)
+    @DisplayName("Phrases are kept in a store of their own for each length.")
+    void testPhraseStores() throws WordStoreException {
+        WordStore bigrams = WordStores.getPhraseStore(2);
+        assertTrue(bigrams == WordStores.getPhraseStore(2));
+        assertTrue(bigrams != WordStores.getPhraseStore(3));
+
+        WordCounter phrases = new WordCounter();
+        phrases.add("to be", 2);
+        phrases.add("be or", 1);
+        long documentId = bigrams.addDocument("hamlet", phrases);
+
+        assertEquals(2, bigrams.getDocumentUniqueWordCount(new long[]{documentId}));
+        assertEquals(0, WordStores.getPhraseStore(3).getTotalWordCount());
+        bigrams.removeDocument(documentId);
+    }
+
+    /**
+     * Copies the files of a file-backed store as they are, as if it had crashed.
+     */
+    private static void copyStore(Path file, Path copy) throws IOException {
+        Files.copy(file, copy);
+        Files.copy(file.resolveSibling(file.getFileName() + ".log"), copy.resolveSibling(copy.getFileName() + ".log"));
+
+        Path copyDocuments = Files.createDirectory(copy.resolveSibling(copy.getFileName() + ".documents"));
+        try (Stream<Path> documentFiles = Files.list(file.resolveSibling(file.getFileName() + ".documents"))) {
+            for (Path documentFile : (Iterable<Path>) documentFiles::iterator) {
+                Files.copy(documentFile, copyDocuments.resolve(documentFile.getFileName()));
+            }
+        }
+    }
+
+    private static WordStore openStore(String engine) throws WordStoreException {
+        switch (engine) {
+            case "file":
+                return new FileWordStore(directory.resolve("large.db"));
+            case "mysql":
+                return new MySqlWordStore();
+            case "dictionary":
+                return new DictionaryWordStore();
+            default:
+                return new InMemoryWordStore();
+        }
+    }
+
+    /**
+     * Runs the same checks against any store, so that every engine behaves
+     * the same way.
+     */
+    private static void checkStore(WordStore wordStore) throws WordStoreException {
+        wordStore.clear();
+        assertEquals(0, wordStore.getUniqueWordCount());
+        assertTrue(wordStore.getTopWords(10).isEmpty());
+
+        wordStore.merge(sampleWords());
+        wordStore.merge(sampleWords());
+        wordStore.increment("cauldron", 1);
+
+        assertEquals(sampleWords().size() + 1, wordStore.getUniqueWordCount());
+        assertEquals(2 * sampleWords().total() + 1, wordStore.getTotalWordCount());
+
+        List<WordCount> topWords = wordStore.getTopWords(3);
+        assertEquals("double", topWords.get(0).getWordContent());
+        assertEquals(8, topWords.get(0).getWordFrequency());
+        assertEquals("and", topWords.get(1).getWordContent());
+        assertEquals("toil", topWords.get(2).getWordContent());
+
+        // The summary holds the same totals and top words
+        ResultSummary resultSummary = wordStore.getResultSummary(3);
+        assertEquals(sampleWords().size() + 1, resultSummary.getUniqueWords());
+        assertEquals(2 * sampleWords().total() + 1, resultSummary.getTotalWords());
+        assertEquals(contents(topWords), contents(resultSummary.getFirstPage()));
+
+        // Pages read by keyset and by offset match the full ranking
+        List<WordCount> allWords = wordStore.getWordPage(null, 0, Integer.MAX_VALUE);
+        List<WordCount> pagedWords = new ArrayList<>();
+        WordCount lastWord = null;
+        List<WordCount> page;
+        while (!(page = wordStore.getWordPage(lastWord, pagedWords.size(), 2)).isEmpty()) {
+            pagedWords.addAll(page);
+            lastWord = page.get(page.size() - 1);
+        }
+        assertEquals(contents(allWords), contents(pagedWords));
+        assertEquals(contents(allWords.subList(2, 4)), contents(wordStore.getWordPage(null, 2, 2)));
+
+        // A cancelled merge leaves the store as it was
+        assertThrows(CancellationException.class, () -> wordStore.merge(sampleWords(), storedWords -> {
+            throw new CancellationException();
+        }));
+        assertEquals(2 * sampleWords().total() + 1, wordStore.getTotalWordCount());
+
+        checkDocuments(wordStore);
+    }
+
+    /**
+     * Checks that documents are kept apart, ranked on their own or together,
+     * and added to and subtracted from the aggregate.
+     */
+    private static void checkDocuments(WordStore wordStore) throws WordStoreException {
+        wordStore.clear();
+
+        WordCounter spell = new WordCounter();
+        for (String word : "fire burn and cauldron bubble fire".split(" ")) {
+            spell.add(word, 1);
+        }
+
+        long first = wordStore.addDocument("http://example.com/witches", sampleWords());
+        long second = wordStore.addDocument("http://example.com/spell", spell);
+
+        List<Document> documents = wordStore.getDocuments();
+        assertEquals(2, documents.size());
+        assertEquals(first, documents.get(0).getDocumentId());
+        assertEquals("http://example.com/spell", documents.get(1).getDocumentSource());
+        assertEquals(spell.size(), documents.get(1).getUniqueWords());
+        assertEquals(spell.total(), documents.get(1).getTotalWords());
+
+        // One document on its own
+        List<WordCount> spellWords = wordStore.getDocumentWordPage(new long[]{second}, null, 0, 10);
+        assertEquals("fire=2", contents(spellWords).get(0));
+        assertEquals(spell.size(), wordStore.getDocumentUniqueWordCount(new long[]{second}));
+
+        ResultSummary spellSummary = wordStore.getDocumentResultSummary(second, 10);
+        assertEquals(spell.size(), spellSummary.getUniqueWords());
+        assertEquals(spell.total(), spellSummary.getTotalWords());
+        assertEquals(contents(spellWords), contents(spellSummary.getFirstPage()));
+        assertNull(wordStore.getDocumentResultSummary(second + 1000, 10));
+
+        // Both documents together, paged by keyset and by offset
+        long[] both = {first, second};
+        List<WordCount> allWords = wordStore.getDocumentWordPage(both, null, 0, Integer.MAX_VALUE);
+        assertEquals(contents(wordStore.getWordPage(null, 0, Integer.MAX_VALUE)), contents(allWords));
+        assertEquals("double=4", contents(allWords).get(0));
+        assertEquals("and=3", contents(allWords).get(1));
+        assertEquals("fire=3", contents(allWords).get(2));
+        assertEquals(allWords.size(), wordStore.getDocumentUniqueWordCount(both));
+
+        List<WordCount> pagedWords = new ArrayList<>();
+        WordCount lastWord = null;
+        List<WordCount> page;
+        while (!(page = wordStore.getDocumentWordPage(both, lastWord, pagedWords.size(), 3)).isEmpty()) {
+            pagedWords.addAll(page);
+            lastWord = page.get(page.size() - 1);
+        }
+        assertEquals(contents(allWords), contents(pagedWords));
+
+        // Removing a document subtracts its words, and drops those found nowhere else
+        assertTrue(wordStore.removeDocument(first));
+        assertFalse(wordStore.removeDocument(first));
+        assertEquals(1, wordStore.getDocuments().size());
+        assertEquals(spell.size(), wordStore.getUniqueWordCount());
+        assertEquals(spell.total(), wordStore.getTotalWordCount());
+        assertEquals(contents(spellWords), contents(wordStore.getTopWords(10)));
+        assertEquals(spell.size(), wordStore.getResultSummary(10).getUniqueWords());
+        assertEquals(spell.total(), wordStore.getResultSummary(10).getTotalWords());
+
+        // A document written a part at a time is only stored once committed
+        try (DocumentWriter documentWriter = wordStore.openDocument("http://example.com/discarded")) {
+            documentWriter.append(sampleWords());
+        }
+        assertEquals(1, wordStore.getDocuments().size());
+        assertEquals(spell.total(), wordStore.getTotalWordCount());
+
+        long parts;
+        try (DocumentWriter documentWriter = wordStore.openDocument("http://example.com/parts")) {
+            documentWriter.append(sampleWords());
+            documentWriter.append(spell);
+            parts = documentWriter.commit();
+        }
+        WordCounter together = sampleWords();
+        together.addAll(spell);
+        ResultSummary partsSummary = wordStore.getDocumentResultSummary(parts, 10);
+        assertEquals(together.size(), partsSummary.getUniqueWords());
+        assertEquals(together.total(), partsSummary.getTotalWords());
+        assertEquals("double=4", contents(partsSummary.getFirstPage()).get(0));
+        assertEquals(together.size(), wordStore.getUniqueWordCount());
+        assertEquals(together.total() + spell.total(), wordStore.getTotalWordCount());
+
+        // An emptied store has an empty summary
+        wordStore.clear();
+        assertEquals(0, wordStore.getResultSummary(10).getTotalWords());
+        assertTrue(wordStore.getResultSummary(10).getFirstPage().isEmpty());
+    }
+
+    private static WordCounter sampleWords() {
+        WordCounter wordCounter = new WordCounter();
+        for (String word : "double double toil and trouble fire burn and double bubble toil double".split(" ")) {
+            wordCounter.add(word, 1);
+        }
+        return wordCounter;
+    }
+
+    private static List<String> contents(List<WordCount> words) {
+        List<String> contents = new ArrayList<>();
+        for (WordCount word : words) {
+            contents.add(word.getWordContent() + "=" + word.getWordFrequency());
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,123 @@
+package gce.textanalyzer.tests;
+
+import gce.textanalyzer.controller.DatabaseController;
+import gce.textanalyzer.controller.TextAnalyzerController;
+import gce.textanalyzer.controller.WordTokenizer;
+import gce.textanalyzer.model.WordCounter;
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class WordTokenizerTest {
+
+    static final String validUrl = "http://shakespeare.mit.edu/macbeth/full.html";
+
+    /**
+     * Reads the text of the copy of the Macbeth page kept next to this test,
+     * so that the goldens do not depend on the network or on the live page.
+     */
+    private static String macbethText() throws IOException {
+        try (InputStream page = WordTokenizerTest.class.getResourceAsStream("macbeth.html")) {
+            return Jsoup.parse(page, "ISO-8859-1", validUrl).text();
+        }
+    }
+
+    /**
+     * Splits the text into words the way the program originally did, with
+     * {@link TextAnalyzerController#htmlToText(String)} and a {@link StringTokenizer}.
+     */
+    private static List<String> expectedWords(String text) throws IOException {
+        List<String> words = new ArrayList<>();
+        BufferedReader bufferedText = new BufferedReader(new StringReader(text));
+        String inputLine;
+
+        while ((inputLine = bufferedText.readLine()) != null) {
+            StringTokenizer wordsInLine = new StringTokenizer(TextAnalyzerController.htmlToText(inputLine));
+            while (wordsInLine.hasMoreTokens()) {
+                words.add(wordsInLine.nextToken());
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * Splits the text into words with the {@link WordTokenizer}, feeding it
+     * in chunks of {@code chunkSize} characters.
+     */
+    private static List<String> actualWords(String text, int chunkSize) {
+        List<String> words = new ArrayList<>();
+        WordTokenizer wordTokenizer = new WordTokenizer((buffer, offset, length) ->
+                words.add(new String(buffer, offset, length)));
+
+        for (int start = 0; start < text.length(); start += chunkSize) {
+            wordTokenizer.feed(text.subSequence(start, Math.min(text.length(), start + chunkSize)));
+        }
+
+        wordTokenizer.finish();
+
+        return words;
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Punctuation and apostrophes are stripped the same way as htmlToText.")
+    void testCleanupRules() throws IOException {
+        String[] samples = {
+                "When shall we three meet again",
+                "In thunder, lightning, or in rain?",
+                "'Tis the TIME's plague, when madmen lead the blind.",
+                "<p>'Hail!' he said.' She said,'no' -- and--then---",
+                "[Exit] {aside} (loud) a|b x;y:z >''quote ''twice !.''",
+                "-dash- --double-- a-b--c-d- -",
+                "\ttabs\fand\r\nline breaks\n'start of line",
+        };
+
+        for (String sample : samples) {
+            for (int chunkSize = 1; chunkSize <= sample.length(); chunkSize++) {
+                assertEquals(expectedWords(sample), actualWords(sample, chunkSize), sample);
+            }
+        }
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Produces the same words as htmlToText for a copy of http://shakespeare.mit.edu/macbeth/full.html")
+    void testMacbethGolden() throws IOException {
+        String targetHtmlContent = macbethText();
+
+        assertEquals(expectedWords(targetHtmlContent), actualWords(targetHtmlContent, 8192));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Counts the same 719 unique words and 1880 total words in the copy of the Macbeth page.")
+    void testMacbethCounts() throws IOException {
+        String targetHtmlContent = macbethText();
+
+        WordCounter wordCounter = DatabaseController.countWords(
+                new BufferedReader(new StringReader(targetHtmlContent)));
+
+        Map<String, Integer> expected = new LinkedHashMap<>();
+        for (String word : expectedWords(targetHtmlContent)) {
+            expected.merge(word.length() > 254 ? word.substring(0, 254) : word, 1, Integer::sum);
+        }
+
+        Map<String, Integer> actual = new LinkedHashMap<>();
+        for (int word = 0; word < wordCounter.size(); word++) {
+            actual.put(wordCounter.word(word), wordCounter.count(word));
+        }
+
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(actual.entrySet()));
+        assertEquals(719, wordCounter.size());
+        assertEquals(1880, wordCounter.total());
+    }
+}